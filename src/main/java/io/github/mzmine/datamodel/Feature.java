@@ -196,4 +196,11 @@ public interface Feature {
 
   void setPeakList(@Nonnull PeakList peakList);
 
+  /**
+   * Counts the changes of the properties of this feature which are saved in the project. Every
+   * setter increments it. The project saving uses it to find out whether the feature changed since
+   * it was last saved or loaded, independently of the feature list it points to.
+   */
+  long getModificationCount();
+
 }
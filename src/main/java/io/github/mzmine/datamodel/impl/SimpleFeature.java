@@ -19,6 +19,7 @@
 package io.github.mzmine.datamodel.impl;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.google.common.collect.Range;
@@ -76,6 +77,9 @@ public class SimpleFeature implements Feature {
   // chromatogram deconvolution method.
   private Integer parentChromatogramRowID;
 
+  // Incremented on every change which is saved in the project, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
+
   /**
    * Initializes a new peak using given values
    *
@@ -119,6 +123,32 @@ public class SimpleFeature implements Feature {
     this.parentChromatogramRowID = null;
   }
 
+  /**
+   * Initializes a new peak whose scan numbers and data points are provided by a subclass, which
+   * overrides getScanNumbers() and getDataPoint()
+   */
+  protected SimpleFeature(RawDataFile dataFile, double MZ, double RT, double height, double area,
+      FeatureStatus peakStatus, int representativeScan, int fragmentScanNumber,
+      int[] allMS2FragmentScanNumbers, @Nonnull Range<Double> rtRange,
+      @Nonnull Range<Double> mzRange, @Nonnull Range<Double> intensityRange) {
+
+    assert dataFile != null;
+    assert peakStatus != null;
+
+    this.dataFile = dataFile;
+    this.mz = MZ;
+    this.rt = RT;
+    this.height = height;
+    this.area = area;
+    this.peakStatus = peakStatus;
+    this.representativeScan = representativeScan;
+    this.fragmentScanNumber = fragmentScanNumber;
+    this.allMS2FragmentScanNumbers = allMS2FragmentScanNumbers;
+    this.rtRange = rtRange;
+    this.mzRange = mzRange;
+    this.intensityRange = intensityRange;
+  }
+
   /**
    * Copy constructor
    */
@@ -221,10 +251,12 @@ public class SimpleFeature implements Feature {
 
   public void setMZ(double mz) {
     this.mz = mz;
+    markModified();
   }
 
   public void setRT(double rt) {
     this.rt = rt;
+    markModified();
   }
 
   /**
@@ -250,6 +282,7 @@ public class SimpleFeature implements Feature {
     this.height = height;
 
     intensityRange = Range.closed(0.0, height);
+    markModified();
   }
 
   /**
@@ -265,6 +298,7 @@ public class SimpleFeature implements Feature {
    */
   public void setArea(double area) {
     this.area = area;
+    markModified();
   }
 
   /**
@@ -299,6 +333,7 @@ public class SimpleFeature implements Feature {
    */
   public void setDataFile(RawDataFile dataFile) {
     this.dataFile = dataFile;
+    markModified();
   }
 
   /**
@@ -359,6 +394,7 @@ public class SimpleFeature implements Feature {
   @Override
   public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
     this.isotopePattern = isotopePattern;
+    markModified();
   }
 
   @Override
@@ -369,6 +405,7 @@ public class SimpleFeature implements Feature {
   @Override
   public void setCharge(int charge) {
     this.charge = charge;
+    markModified();
   }
 
   /**
@@ -385,6 +422,7 @@ public class SimpleFeature implements Feature {
   @Override
   public void setFWHM(Double fwhm) {
     this.fwhm = fwhm;
+    markModified();
   }
 
   /**
@@ -401,6 +439,7 @@ public class SimpleFeature implements Feature {
   @Override
   public void setTailingFactor(Double tf) {
     this.tf = tf;
+    markModified();
   }
 
   /**
@@ -417,6 +456,7 @@ public class SimpleFeature implements Feature {
   @Override
   public void setAsymmetryFactor(Double af) {
     this.af = af;
+    markModified();
   }
 
   // dulab Edit
@@ -428,6 +468,7 @@ public class SimpleFeature implements Feature {
   @Override
   public void setPeakInformation(SimplePeakInformation peakInfoIn) {
     this.peakInfo = peakInfoIn;
+    markModified();
   }
 
   @Override
@@ -438,6 +479,7 @@ public class SimpleFeature implements Feature {
 
   public void setParentChromatogramRowID(@Nullable Integer id) {
     this.parentChromatogramRowID = id;
+    markModified();
   }
 
   @Override
@@ -449,6 +491,7 @@ public class SimpleFeature implements Feature {
   @Override
   public void setFragmentScanNumber(int fragmentScanNumber) {
     this.fragmentScanNumber = fragmentScanNumber;
+    markModified();
   }
 
   @Override
@@ -477,4 +520,13 @@ public class SimpleFeature implements Feature {
   public void setPeakList(PeakList peakList) {
     this.peakList = peakList;
   }
+
+  @Override
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
+  private void markModified() {
+    modificationCount.incrementAndGet();
+  }
 }
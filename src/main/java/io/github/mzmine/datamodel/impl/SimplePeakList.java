@@ -18,6 +18,8 @@
 
 package io.github.mzmine.datamodel.impl;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
@@ -26,14 +28,20 @@ import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.PeakIdentity;
+import io.github.mzmine.datamodel.PeakInformation;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 /**
@@ -41,6 +49,8 @@ import javafx.collections.ObservableList;
  */
 public class SimplePeakList implements PeakList {
 
+  private static final Logger logger = Logger.getLogger(SimplePeakList.class.getName());
+
   private String name;
   private ObservableList<RawDataFile> dataFiles = FXCollections.observableArrayList();
   private final ObservableList<PeakListRow> peakListRows = FXCollections.observableArrayList();
@@ -49,6 +59,14 @@ public class SimplePeakList implements PeakList {
   private String dateCreated;
   private Range<Double> mzRange, rtRange;
 
+  // Incremented on every change of the feature list itself which is saved in the project, see
+  // getModificationStamp()
+  private final AtomicLong modificationCount = new AtomicLong();
+  private static final AtomicLong untrackedModificationCount = new AtomicLong();
+
+  // Closed with the feature list, e.g. the project file from which its features are read
+  private final Vector<Closeable> resources = new Vector<>();
+
   public static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
   public SimplePeakList(String name, RawDataFile dataFile) {
@@ -66,6 +84,10 @@ public class SimplePeakList implements PeakList {
     this.name = name;
     this.dataFiles.addAll(dataFiles);
 
+    // rows may also be added, removed or sorted directly through getRows()
+    peakListRows.addListener((ListChangeListener<PeakListRow>) change -> markModified());
+    this.dataFiles.addListener((ListChangeListener<RawDataFile>) change -> markModified());
+
     descriptionOfAppliedTasks = new Vector<PeakListAppliedMethod>();
 
     dateCreated = dateFormat.format(new Date());
@@ -323,11 +345,13 @@ public class SimplePeakList implements PeakList {
   @Override
   public void setName(String name) {
     this.name = name;
+    markModified();
   }
 
   @Override
   public void addDescriptionOfAppliedTask(PeakListAppliedMethod appliedMethod) {
     descriptionOfAppliedTasks.add(appliedMethod);
+    markModified();
   }
 
   @Override
@@ -341,6 +365,65 @@ public class SimplePeakList implements PeakList {
 
   public void setDateCreated(String date) {
     this.dateCreated = date;
+    markModified();
+  }
+
+  /**
+   * Combines the modification counts of this feature list, its rows and their features with the
+   * properties of the identities and the information of the rows, which may be changed in place.
+   * The project saving compares it to find out whether the feature list changed since it was last
+   * saved or loaded. The features are asked directly, so features which are shared with other
+   * feature lists (e.g. by the aligners) are covered, too.
+   */
+  public long getModificationStamp() {
+    long stamp = modificationCount.get();
+    for (PeakListRow row : peakListRows.toArray(new PeakListRow[0])) {
+      // Rows of other implementations are not tracked and always count as modified
+      long rowCount = row instanceof SimplePeakListRow
+          ? ((SimplePeakListRow) row).getModificationCount()
+          : untrackedModificationCount.incrementAndGet();
+      stamp = 31 * stamp + System.identityHashCode(row);
+      stamp = 31 * stamp + rowCount;
+
+      // Independent of the order of the features, which is not saved
+      long features = 0;
+      for (Feature feature : row.getPeaks())
+        features += 31L * System.identityHashCode(feature) + feature.getModificationCount();
+      stamp = 31 * stamp + features;
+
+      for (PeakIdentity identity : row.getPeakIdentities())
+        stamp = 31 * stamp + Objects.hashCode(identity.getAllProperties());
+      PeakInformation information = row.getPeakInformation();
+      if (information != null)
+        stamp = 31 * stamp + Objects.hashCode(information.getAllProperties());
+    }
+    return stamp;
+  }
+
+  private void markModified() {
+    modificationCount.incrementAndGet();
+  }
+
+  /**
+   * Adds a resource used by the features of this feature list, which is closed by close()
+   */
+  public void addResource(Closeable resource) {
+    resources.add(resource);
+  }
+
+  /**
+   * Closes the resources of this feature list. Called when the feature list is removed from its
+   * project or when the project is closed.
+   */
+  public void close() {
+    for (Closeable resource : resources) {
+      try {
+        resource.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not close a resource of the feature list " + name, e);
+      }
+    }
+    resources.clear();
   }
 
   @Override
@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.IsotopePattern;
@@ -57,6 +58,8 @@ public class SimplePeakListRow implements PeakListRow {
 
   private PeakList peakList;
 
+  // Incremented on every change which is saved in the project, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
 
   /**
    * These variables are used for caching the average values, so we don't need to calculate them
@@ -93,6 +96,7 @@ public class SimplePeakListRow implements PeakListRow {
   public void removePeak(RawDataFile file) {
     this.peaks.remove(file);
     calculateAverageValues();
+    markModified();
   }
 
   /**
@@ -124,6 +128,7 @@ public class SimplePeakListRow implements PeakListRow {
     if (peak.getRawDataPointsIntensityRange().upperEndpoint() > maxDataPointIntensity)
       maxDataPointIntensity = peak.getRawDataPointsIntensityRange().upperEndpoint();
     calculateAverageValues();
+    markModified();
   }
 
   @Override
@@ -216,6 +221,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setComment(String comment) {
     this.comment = comment;
+    markModified();
   }
 
   /**
@@ -251,6 +257,7 @@ public class SimplePeakListRow implements PeakListRow {
     if ((preferredIdentity == null) || (preferred)) {
       setPreferredPeakIdentity(identity);
     }
+    markModified();
   }
 
   /**
@@ -266,6 +273,7 @@ public class SimplePeakListRow implements PeakListRow {
       } else
         preferredIdentity = null;
     }
+    markModified();
   }
 
   /**
@@ -298,12 +306,14 @@ public class SimplePeakListRow implements PeakListRow {
     if (!identities.contains(identity)) {
       identities.add(identity);
     }
+    markModified();
 
   }
 
   @Override
   public void setPeakInformation(PeakInformation information) {
     this.information = information;
+    markModified();
   }
 
   @Override
@@ -407,6 +417,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setID(int id) {
     myID = id;
+    markModified();
     return;
   }
   // End DorresteinLab edit
@@ -419,6 +430,21 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setPeakList(PeakList peakList) {
     this.peakList = peakList;
+    // The features are usually added before the row is added to the feature list
+    for (Feature peak : peaks.values())
+      peak.setPeakList(peakList);
+  }
+
+  /**
+   * Counts the changes of this row which are saved in the project, not including the changes of
+   * its features, identities and information, see SimplePeakList.getModificationStamp()
+   */
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
+  private void markModified() {
+    modificationCount.incrementAndGet();
   }
 
   // Gauthier edit
@@ -24,6 +24,7 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.taskcontrol.impl.WrappedTask;
+import io.github.mzmine.util.R.RSessionPool;
 
 /**
  * Shutdown hook - invoked on JRE shutdown. This method saves current configuration to XML and
@@ -44,6 +45,9 @@ class ShutDownHook extends Thread {
       }
     }
 
+    // Close the idle R sessions
+    RSessionPool.getInstance().clear();
+
     // Save configuration
     try {
       MZmineCore.getConfiguration().saveConfiguration(MZmineConfiguration.CONFIG_FILE);
@@ -26,6 +26,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
 import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.ComboParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.ParameterSetParameter;
 import io.github.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import io.github.mzmine.parameters.parametertypes.colorpalette.ColorPaletteParameter;
@@ -33,6 +34,7 @@ import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileSelectionType;
 import io.github.mzmine.parameters.parametertypes.submodules.OptionalModuleParameter;
 import io.github.mzmine.util.ExitCode;
+import io.github.mzmine.util.R.RSessionPool;
 import io.github.mzmine.util.color.Vision;
 import javafx.collections.FXCollections;
 
@@ -62,6 +64,11 @@ public class MZminePreferences extends SimpleParameterSet {
       "Full R executable file path (If left blank, MZmine will try to find out automatically). On Windows, this should point to your R.exe file.",
       FileSelectionType.OPEN);
 
+  public static final IntegerParameter rSessionPoolSize = new IntegerParameter(
+      "Number of pooled R sessions",
+      "Number of idle R sessions kept open (with their packages loaded) to be reused by the next R-based tasks. Set to 0 to close every session once its task is finished.",
+      RSessionPool.DEFAULT_MAX_IDLE_SESSIONS, 0, null);
+
   public static final BooleanParameter sendStatistics =
       new BooleanParameter("Send anonymous statistics",
           "Allow MZmine to send anonymous statistics on the module usage?", true);
@@ -84,10 +91,30 @@ public class MZminePreferences extends SimpleParameterSet {
   
   public MZminePreferences() {
     super(new Parameter[]{mzFormat, rtFormat, intensityFormat, numOfThreads,
-        proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail,
+        proxySettings, rExecPath, rSessionPoolSize, sendStatistics, windowSetttings, sendErrorEMail,
         stdColorPalette, chartParam});
   }
 
+  /**
+   * @return the number of concurrently running threads set in the preferences, or the number of
+   *         processors if it is set to automatic
+   */
+  public int getNumOfThreads() {
+    NumOfThreadsParameter parameter = getParameter(numOfThreads);
+    if (parameter.isAutomatic() || (parameter.getValue() == null))
+      return Runtime.getRuntime().availableProcessors();
+    return Math.max(1, parameter.getValue());
+  }
+
+  /**
+   * @param items number of items which can be processed in parallel
+   * @return the number of threads to process the items: the number of threads set in the
+   *         preferences, but at least one and not more than the number of items
+   */
+  public int getNumOfThreads(int items) {
+    return Math.max(1, Math.min(getNumOfThreads(), items));
+  }
+
   @Override
   public ExitCode showSetupDialog(boolean valueCheckRequired) {
 
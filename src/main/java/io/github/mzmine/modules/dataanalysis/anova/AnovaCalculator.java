@@ -0,0 +1,133 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataanalysis.anova;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.commons.math3.distribution.FDistribution;
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import io.github.mzmine.util.maths.FeatureIntensityMatrix;
+
+/**
+ * One-way ANOVA on the features of a {@link FeatureIntensityMatrix}. The group of each sample is
+ * resolved once into an index, and one {@link FDistribution} is created per degrees-of-freedom
+ * pair and reused for all the features. This class is thread-safe, features can be processed in
+ * parallel.
+ */
+class AnovaCalculator {
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final FeatureIntensityMatrix matrix;
+
+  // Group index of each sample, -1 if the sample does not belong to any group
+  private final int[] sampleGroups;
+  private final int numGroups;
+
+  // Degrees of freedom of the treatment are the same for all features, so the distributions are
+  // keyed by the degrees of freedom of the error
+  private final Map<Long, FDistribution> distributions = new ConcurrentHashMap<>();
+
+  AnovaCalculator(@Nonnull FeatureIntensityMatrix matrix, @Nonnull int[] sampleGroups,
+      int numGroups) {
+    this.matrix = matrix;
+    this.sampleGroups = sampleGroups;
+    this.numGroups = numGroups;
+  }
+
+  /**
+   * @return the p-value of the feature, or null if it cannot be calculated
+   */
+  @Nullable
+  Double getPValue(int feature) {
+
+    final double[] values = matrix.getValues();
+    final int offset = matrix.getOffset(feature);
+    final int numSamples = matrix.getNumberOfSamples();
+
+    final double[] groupSums = new double[numGroups];
+    final int[] groupCounts = new int[numGroups];
+
+    long numIntensities = 0;
+    double totalSum = 0.0;
+    for (int s = 0; s < numSamples; s++) {
+      int group = sampleGroups[s];
+      double value = values[offset + s];
+      if (group < 0 || Double.isNaN(value))
+        continue;
+      groupSums[group] += value;
+      groupCounts[group]++;
+      totalSum += value;
+      numIntensities++;
+    }
+
+    final double[] groupMeans = new double[numGroups];
+    for (int g = 0; g < numGroups; g++) {
+      groupMeans[g] = groupCounts[g] == 0 ? 0.0 : groupSums[g] / groupCounts[g];
+    }
+    final double overallMean = numIntensities == 0 ? 0.0 : totalSum / numIntensities;
+
+    double sumOfSquaresOfError = 0.0;
+    for (int s = 0; s < numSamples; s++) {
+      int group = sampleGroups[s];
+      double value = values[offset + s];
+      if (group < 0 || Double.isNaN(value))
+        continue;
+      double diff = value - groupMeans[group];
+      sumOfSquaresOfError += diff * diff;
+    }
+
+    double sumOfSquaresOfMeans = 0.0;
+    for (int g = 0; g < numGroups; g++) {
+      double diff = groupMeans[g] - overallMean;
+      sumOfSquaresOfMeans += diff * diff;
+    }
+    double sumOfSquaresOfTreatment = (numGroups - 1) * sumOfSquaresOfMeans;
+
+    long degreesOfFreedomOfTreatment = numGroups - 1;
+    long degreesOfFreedomOfError = numIntensities - numGroups;
+
+    if (degreesOfFreedomOfTreatment <= 0 || degreesOfFreedomOfError <= 0) {
+      return null;
+    }
+
+    double meanSquareOfTreatment = sumOfSquaresOfTreatment / degreesOfFreedomOfTreatment;
+    double meanSquareOfError = sumOfSquaresOfError / degreesOfFreedomOfError;
+
+    if (meanSquareOfError == 0.0) {
+      return null;
+    }
+
+    double anovaStatistics = meanSquareOfTreatment / meanSquareOfError;
+
+    Double pValue = null;
+    try {
+      FDistribution distribution = distributions.computeIfAbsent(degreesOfFreedomOfError,
+          df -> new FDistribution(degreesOfFreedomOfTreatment, df));
+      pValue = 1.0 - distribution.cumulativeProbability(anovaStatistics);
+    } catch (MathIllegalArgumentException ex) {
+      logger.warning("Error during F-distribution calculation: " + ex.getMessage());
+    }
+
+    return pValue;
+  }
+}
@@ -18,17 +18,13 @@ package io.github.mzmine.modules.dataanalysis.anova;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import java.util.stream.IntStream;
 
-import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
-import org.apache.commons.math3.distribution.FDistribution;
-import org.apache.commons.math3.exception.MathIllegalArgumentException;
-
 import io.github.mzmine.datamodel.*;
 import io.github.mzmine.datamodel.impl.SimplePeakInformation;
 import io.github.mzmine.main.MZmineCore;
@@ -36,6 +32,8 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.PeakMeasurementType;
+import io.github.mzmine.util.maths.FeatureIntensityMatrix;
 
 public class AnovaTask extends AbstractTask {
 
@@ -44,7 +42,7 @@ public class AnovaTask extends AbstractTask {
   private static final String P_VALUE_KEY = "ANOVA_P_VALUE";
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private double finishedPercentage = 0.0;
+  private volatile double finishedPercentage = 0.0;
 
   private final PeakListRow[] peakListRows;
   private final UserParameter userParameter;
@@ -102,26 +100,32 @@ public class AnovaTask extends AbstractTask {
 
     List<Set<RawDataFile>> groups = getGroups(userParameter);
 
-    finishedPercentage = 0.0;
-    final double finishedStep = 1.0 / peakListRows.length;
+    // Resolve the group of each sample once
+    List<RawDataFile> samples = new ArrayList<>();
+    List<Integer> sampleGroups = new ArrayList<>();
+    for (int i = 0; i < groups.size(); ++i) {
+      for (RawDataFile file : groups.get(i)) {
+        samples.add(file);
+        sampleGroups.add(i);
+      }
+    }
 
-    for (PeakListRow row : peakListRows) {
+    FeatureIntensityMatrix matrix = FeatureIntensityMatrix.extract(peakListRows,
+        samples.toArray(new RawDataFile[0]), PeakMeasurementType.HEIGHT);
+    AnovaCalculator anova = new AnovaCalculator(matrix,
+        sampleGroups.stream().mapToInt(Integer::intValue).toArray(), groups.size());
 
-      if (isCanceled()) {
-        break;
-      }
+    finishedPercentage = 0.0;
+    final AtomicInteger processedRows = new AtomicInteger(0);
 
-      finishedPercentage += finishedStep;
+    IntStream.range(0, peakListRows.length).parallel().forEach(i -> {
 
-      double[][] intensityGroups = new double[groups.size()][];
-      for (int i = 0; i < groups.size(); ++i) {
-        Set<RawDataFile> groupFiles = groups.get(i);
-        intensityGroups[i] =
-            Arrays.stream(row.getPeaks()).filter(peak -> groupFiles.contains(peak.getDataFile()))
-                .mapToDouble(Feature::getHeight).toArray();
+      if (isCanceled()) {
+        return;
       }
 
-      Double pValue = oneWayAnova(intensityGroups);
+      PeakListRow row = peakListRows[i];
+      Double pValue = anova.getPValue(i);
 
       // Save results
       PeakInformation peakInformation = row.getPeakInformation();
@@ -131,7 +135,9 @@ public class AnovaTask extends AbstractTask {
       peakInformation.getAllProperties().put(P_VALUE_KEY,
           pValue == null ? EMPTY_STRING : pValue.toString());
       row.setPeakInformation(peakInformation);
-    }
+
+      finishedPercentage = (double) processedRows.incrementAndGet() / peakListRows.length;
+    });
   }
 
   private List<Set<RawDataFile>> getGroups(UserParameter factor) {
@@ -139,13 +145,15 @@ public class AnovaTask extends AbstractTask {
     MZmineProject project = MZmineCore.getProjectManager().getCurrentProject();
 
     // Find the parameter value of each data file
-    Map<RawDataFile, Object> paramMap = new HashMap<>();
+    Set<RawDataFile> files = new HashSet<>();
     for (PeakListRow row : peakListRows) {
-      for (RawDataFile file : row.getRawDataFiles()) {
-        Object paramValue = project.getParameterValue(factor, file);
-        if (paramValue != null) {
-          paramMap.put(file, paramValue);
-        }
+      files.addAll(Arrays.asList(row.getRawDataFiles()));
+    }
+    Map<RawDataFile, Object> paramMap = new HashMap<>();
+    for (RawDataFile file : files) {
+      Object paramValue = project.getParameterValue(factor, file);
+      if (paramValue != null) {
+        paramMap.put(file, paramValue);
       }
     }
 
@@ -161,51 +169,4 @@ public class AnovaTask extends AbstractTask {
 
     return groups;
   }
-
-  @Nullable
-  private Double oneWayAnova(@Nonnull double[][] intensityGroups) {
-
-    int numGroups = intensityGroups.length;
-    long numIntensities = Arrays.stream(intensityGroups).flatMapToDouble(Arrays::stream).count();
-
-    double[] groupMeans = Arrays.stream(intensityGroups)
-        .mapToDouble(intensities -> Arrays.stream(intensities).average().orElse(0.0)).toArray();
-
-    double overallMean =
-        Arrays.stream(intensityGroups).flatMapToDouble(Arrays::stream).average().orElse(0.0);
-
-    double sumOfSquaresOfError = IntStream.range(0, intensityGroups.length).mapToDouble(
-        i -> Arrays.stream(intensityGroups[i]).map(x -> x - groupMeans[i]).map(x -> x * x).sum())
-        .sum();
-
-    double sumOfSquaresOfTreatment =
-        (numGroups - 1) * Arrays.stream(groupMeans).map(x -> x - overallMean).map(x -> x * x).sum();
-
-    long degreesOfFreedomOfTreatment = numGroups - 1;
-    long degreesOfFreedomOfError = numIntensities - numGroups;
-
-    if (degreesOfFreedomOfTreatment <= 0 || degreesOfFreedomOfError <= 0) {
-      return null;
-    }
-
-    double meanSquareOfTreatment = sumOfSquaresOfTreatment / degreesOfFreedomOfTreatment;
-    double meanSquareOfError = sumOfSquaresOfError / degreesOfFreedomOfError;
-
-    if (meanSquareOfError == 0.0) {
-      return null;
-    }
-
-    double anovaStatistics = meanSquareOfTreatment / meanSquareOfError;
-
-    Double pValue = null;
-    try {
-      FDistribution distribution =
-          new FDistribution(degreesOfFreedomOfTreatment, degreesOfFreedomOfError);
-      pValue = 1.0 - distribution.cumulativeProbability(anovaStatistics);
-    } catch (MathIllegalArgumentException ex) {
-      logger.warning("Error during F-distribution calculation: " + ex.getMessage());
-    }
-
-    return pValue;
-  }
 }
@@ -23,7 +23,6 @@ import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import javax.swing.SwingUtilities;
 import org.jfree.data.xy.AbstractXYDataset;
-import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
@@ -31,22 +30,20 @@ import io.github.mzmine.gui.Desktop;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineProcessingStep;
 import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.HierarClusterer;
+import io.github.mzmine.modules.dataanalysis.projectionplots.ProjectionEngine;
 import io.github.mzmine.modules.dataanalysis.projectionplots.ProjectionPlotDataset;
 import io.github.mzmine.modules.dataanalysis.projectionplots.ProjectionPlotWindow;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.PeakMeasurementType;
+import io.github.mzmine.util.maths.FeatureIntensityMatrix;
 import javafx.application.Platform;
 import javafx.embed.swing.SwingNode;
 import javafx.scene.Scene;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
-import jmprojection.PCA;
-import jmprojection.Preprocess;
-import jmprojection.ProjectionStatus;
-import jmprojection.Sammons;
 import weka.core.Attribute;
 import weka.core.FastVector;
 import weka.core.Instance;
@@ -73,7 +70,7 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
   private int yAxisDimension = 2;
   private TaskStatus status = TaskStatus.WAITING;
   private String errorMessage;
-  private ProjectionStatus projectionStatus;
+  private volatile ProjectionEngine projectionEngine;
   private MZmineProcessingStep<ClusteringAlgorithm> clusteringStep;
   private ClusteringDataType typeOfData;
   private Instances dataset;
@@ -188,16 +185,13 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
 
     logger.info("Clustering");
 
-    double[][] rawData;
-
     // Creating weka dataset using samples or metabolites (variables)
+    ProjectionEngine engine = createEngine(typeOfData == ClusteringDataType.SAMPLES);
 
     if (typeOfData == ClusteringDataType.VARIABLES) {
-      rawData = createMatrix(false);
-      dataset = createVariableWekaDataset(rawData);
+      dataset = createVariableWekaDataset(engine);
     } else {
-      rawData = createMatrix(true);
-      dataset = createSampleWekaDataset(rawData);
+      dataset = createSampleWekaDataset(engine);
     }
 
     // Run the clustering algorithm
@@ -319,15 +313,18 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
         numComponents = yAxisDimension;
       }
 
+      projectionEngine = engine;
+      if (status == TaskStatus.CANCELED) {
+        engine.cancel();
+        return;
+      }
+
       if (result.getVisualizationType() == VisualizationType.PCA) {
         // Scale data and do PCA
-        Preprocess.scaleToUnityVariance(rawData);
-        PCA pcaProj = new PCA(rawData, numComponents);
-        projectionStatus = pcaProj.getProjectionStatus();
+        engine.scaleToUnityVariance();
+        double[][] pcaResult = engine.principalComponents(numComponents);
 
-        double[][] pcaResult = pcaProj.getState();
-
-        if (status == TaskStatus.CANCELED) {
+        if (pcaResult == null || status == TaskStatus.CANCELED) {
           return;
         }
 
@@ -335,15 +332,17 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
         component2Coords = pcaResult[yAxisDimension - 1];
       } else if (result.getVisualizationType() == VisualizationType.SAMMONS) {
         // Scale data and do Sammon's mapping
-        Preprocess.scaleToUnityVariance(rawData);
-        Sammons sammonsProj = new Sammons(rawData);
-        projectionStatus = sammonsProj.getProjectionStatus();
-
-        sammonsProj.iterate(100);
-
-        double[][] sammonsResult = sammonsProj.getState();
+        engine.scaleToUnityVariance();
+        double[][] sammonsResult;
+        try {
+          sammonsResult = engine.sammonsMapping(numComponents, 100);
+        } catch (IllegalArgumentException e) {
+          status = TaskStatus.ERROR;
+          errorMessage = e.getMessage();
+          return;
+        }
 
-        if (status == TaskStatus.CANCELED) {
+        if (sammonsResult == null || status == TaskStatus.CANCELED) {
           return;
         }
 
@@ -362,70 +361,37 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
   }
 
   /**
-   * Creates a matrix of heights of areas
+   * Extracts the heights or areas of the selected rows (missing peaks are 0)
    *
-   * @param isForSamples
+   * @param isForSamples true to project the samples, false to project the rows
    * @return
    */
-  private double[][] createMatrix(boolean isForSamples) {
-    // Generate matrix of raw data (input to CDA)
-    boolean useArea = true;
-    if (parameters.getParameter(ClusteringParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA) {
-      useArea = true;
-    }
-    if (parameters.getParameter(ClusteringParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.HEIGHT) {
-      useArea = false;
-    }
-    double[][] rawData;
-    if (isForSamples) {
-      rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-      for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-        PeakListRow peakListRow = selectedRows[rowIndex];
-        for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-          RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-          Feature p = peakListRow.getPeak(rawDataFile);
-          if (p != null) {
-            if (useArea) {
-              rawData[fileIndex][rowIndex] = p.getArea();
-            } else {
-              rawData[fileIndex][rowIndex] = p.getHeight();
-            }
-          }
-        }
-      }
-    } else {
-      rawData = new double[selectedRows.length][selectedRawDataFiles.length];
-      for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-        PeakListRow peakListRow = selectedRows[rowIndex];
-        for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-          RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-          Feature p = peakListRow.getPeak(rawDataFile);
-          if (p != null) {
-            if (useArea) {
-              rawData[rowIndex][fileIndex] = p.getArea();
-            } else {
-              rawData[rowIndex][fileIndex] = p.getHeight();
-            }
-          }
-        }
-      }
+  private ProjectionEngine createEngine(boolean isForSamples) {
+    PeakMeasurementType measurementType =
+        parameters.getParameter(ClusteringParameters.peakMeasurementType).getValue();
+    if (measurementType != PeakMeasurementType.HEIGHT) {
+      measurementType = PeakMeasurementType.AREA;
     }
 
-    return rawData;
+    FeatureIntensityMatrix matrix =
+        FeatureIntensityMatrix.extract(selectedRows, selectedRawDataFiles, measurementType);
+    ProjectionEngine engine = isForSamples ? ProjectionEngine.forSamples(matrix)
+        : ProjectionEngine.forFeatures(matrix);
+    engine.replaceMissingValues(0.0);
+
+    return engine;
   }
 
   /**
    * Creates the weka data set for clustering of samples
    *
-   * @param rawData Data extracted from selected Raw data files and rows.
+   * @param engine Data extracted from selected Raw data files and rows.
    * @return Weka library data set
    */
-  private Instances createSampleWekaDataset(double[][] rawData) {
+  private Instances createSampleWekaDataset(ProjectionEngine engine) {
     FastVector attributes = new FastVector();
 
-    for (int i = 0; i < rawData[0].length; i++) {
+    for (int i = 0; i < engine.getNumberOfDimensions(); i++) {
       String varName = "Var" + i;
       Attribute var = new Attribute(varName);
       attributes.addElement(var);
@@ -437,9 +403,11 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
     }
     Instances data = new Instances("Dataset", attributes, 0);
 
-    for (int i = 0; i < rawData.length; i++) {
+    for (int i = 0; i < engine.getNumberOfItems(); i++) {
       double[] values = new double[data.numAttributes()];
-      System.arraycopy(rawData[i], 0, values, 0, rawData[0].length);
+      for (int j = 0; j < engine.getNumberOfDimensions(); j++) {
+        values[j] = engine.get(i, j);
+      }
       if (clusteringStep.getModule().getClass().equals(HierarClusterer.class)) {
         values[data.numAttributes() - 1] =
             data.attribute("name").addStringValue(this.selectedRawDataFiles[i].getName());
@@ -453,10 +421,10 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
   /**
    * Creates the weka data set for clustering of variables (metabolites)
    *
-   * @param rawData Data extracted from selected Raw data files and rows.
+   * @param engine Data extracted from selected Raw data files and rows.
    * @return Weka library data set
    */
-  private Instances createVariableWekaDataset(double[][] rawData) {
+  private Instances createVariableWekaDataset(ProjectionEngine engine) {
     FastVector attributes = new FastVector();
 
     for (int i = 0; i < this.selectedRawDataFiles.length; i++) {
@@ -473,7 +441,9 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
 
     for (int i = 0; i < selectedRows.length; i++) {
       double[] values = new double[data.numAttributes()];
-      System.arraycopy(rawData[i], 0, values, 0, rawData[0].length);
+      for (int j = 0; j < engine.getNumberOfDimensions(); j++) {
+        values[j] = engine.get(i, j);
+      }
 
       if (clusteringStep.getModule().getClass().equals(HierarClusterer.class)) {
         DecimalFormat twoDForm = new DecimalFormat("#.##");
@@ -490,8 +460,8 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
 
   @Override
   public void cancel() {
-    if (projectionStatus != null) {
-      projectionStatus.cancel();
+    if (projectionEngine != null) {
+      projectionEngine.cancel();
     }
 
     status = TaskStatus.CANCELED;
@@ -529,11 +499,11 @@ public class ClusteringTask extends AbstractXYDataset implements ProjectionPlotD
 
   @Override
   public double getFinishedPercentage() {
-    if (this.projectionStatus != null) {
-      if (projectionStatus.getFinishedPercentage() > 1.0) {
+    if (this.projectionEngine != null) {
+      if (projectionEngine.getFinishedPercentage() > 1.0) {
         return 1.0;
       }
-      return projectionStatus.getFinishedPercentage();
+      return projectionEngine.getFinishedPercentage();
     } else {
       if (progress > 100) {
         return 1.0;
@@ -39,6 +39,7 @@ import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.R.REngineType;
+import io.github.mzmine.util.R.RSessionPool;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
 import io.github.mzmine.util.R.Rsession.Rsession;
@@ -136,9 +137,8 @@ public class HeatMapTask extends AbstractTask {
 
       // Load gplots library
       String[] reqPackages = {"gplots"};
-      rSession =
-          new RSessionWrapper(this.rEngineType, "HeatMap analysis module", reqPackages, null);
-      rSession.open();
+      rSession = RSessionPool.getInstance().lease(this.rEngineType, "HeatMap analysis module",
+          reqPackages, null);
 
       finishedPercentage = 0.3f;
 
@@ -260,9 +260,11 @@ public class HeatMapTask extends AbstractTask {
 
       finishedPercentage = 1.0;
 
-      // Turn off R instance, once task ended gracefully.
-      if (!isCanceled())
-        rSession.close(false);
+      // Return R instance to the pool, once task ended gracefully.
+      if (!isCanceled()) {
+        RSessionPool.getInstance().release(rSession);
+        rSession = null;
+      }
 
     } catch (RSessionWrapperException e) {
       if (!isCanceled()) {
@@ -21,7 +21,6 @@ package io.github.mzmine.modules.dataanalysis.projectionplots;
 import java.util.Vector;
 import java.util.logging.Logger;
 import org.jfree.data.xy.AbstractXYDataset;
-import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
@@ -31,8 +30,8 @@ import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.PeakMeasurementType;
+import io.github.mzmine.util.maths.FeatureIntensityMatrix;
 import jmprojection.CDA;
-import jmprojection.Preprocess;
 import jmprojection.ProjectionStatus;
 
 public class CDADataset extends AbstractXYDataset implements ProjectionPlotDataset {
@@ -63,7 +62,8 @@ public class CDADataset extends AbstractXYDataset implements ProjectionPlotDatas
   private TaskStatus status = TaskStatus.WAITING;
   private String errorMessage;
 
-  private ProjectionStatus projectionStatus;
+  private volatile ProjectionEngine projectionEngine;
+  private volatile ProjectionStatus projectionStatus;
 
   public CDADataset(MZmineProject project, ParameterSet parameters) {
 
@@ -222,34 +222,31 @@ public class CDADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
     logger.info("Computing projection plot");
 
-    // Generate matrix of raw data (input to CDA)
-    boolean useArea = false;
-    if (parameters.getParameter(ProjectionPlotParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA)
-      useArea = true;
-
-    double[][] rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-    for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-      PeakListRow peakListRow = selectedRows[rowIndex];
-      for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-        RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-        Feature p = peakListRow.getPeak(rawDataFile);
-        if (p != null) {
-          if (useArea)
-            rawData[fileIndex][rowIndex] = p.getArea();
-          else
-            rawData[fileIndex][rowIndex] = p.getHeight();
-        }
-      }
-    }
-
     int numComponents = xAxisDimension;
     if (yAxisDimension > numComponents)
       numComponents = yAxisDimension;
 
-    // Scale data and do CDA
-    Preprocess.scaleToUnityVariance(rawData);
-    CDA cdaProj = new CDA(rawData);
+    // Generate matrix of raw data (input to CDA)
+    final PeakMeasurementType measurementType =
+        parameters.getParameter(ProjectionPlotParameters.peakMeasurementType).getValue();
+    FeatureIntensityMatrix matrix =
+        FeatureIntensityMatrix.extract(selectedRows, selectedRawDataFiles, measurementType);
+    projectionEngine = ProjectionEngine.forSamples(matrix);
+    if (status == TaskStatus.CANCELED)
+      return;
+
+    // Scale data and do CDA. The samples are first projected on their full rank principal
+    // components, which keeps all the distances between samples but reduces the dimension of the
+    // CDA input to the number of samples
+    projectionEngine.replaceMissingValues(0.0);
+    projectionEngine.scaleToUnityVariance();
+    double[][] embedding = projectionEngine.getEmbedding();
+
+    if (embedding == null || status == TaskStatus.CANCELED)
+      return;
+
+    CDA cdaProj = new CDA(embedding);
+    projectionStatus = cdaProj.getProjectionStatus();
     cdaProj.iterate(100);
 
     if (status == TaskStatus.CANCELED)
@@ -273,6 +270,8 @@ public class CDADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
   @Override
   public void cancel() {
+    if (projectionEngine != null)
+      projectionEngine.cancel();
     if (projectionStatus != null)
       projectionStatus.cancel();
     status = TaskStatus.CANCELED;
@@ -295,9 +294,11 @@ public class CDADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
   @Override
   public double getFinishedPercentage() {
-    if (projectionStatus == null)
+    if (projectionStatus != null)
+      return 0.5 + 0.5 * projectionStatus.getFinishedPercentage();
+    if (projectionEngine == null)
       return 0;
-    return projectionStatus.getFinishedPercentage();
+    return 0.5 * projectionEngine.getFinishedPercentage();
   }
 
 }
@@ -21,7 +21,6 @@ package io.github.mzmine.modules.dataanalysis.projectionplots;
 import java.util.Vector;
 import java.util.logging.Logger;
 import org.jfree.data.xy.AbstractXYDataset;
-import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
@@ -31,9 +30,7 @@ import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.PeakMeasurementType;
-import jmprojection.PCA;
-import jmprojection.Preprocess;
-import jmprojection.ProjectionStatus;
+import io.github.mzmine.util.maths.FeatureIntensityMatrix;
 
 public class PCADataset extends AbstractXYDataset implements ProjectionPlotDataset {
 
@@ -63,7 +60,7 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
   private TaskStatus status = TaskStatus.WAITING;
   private String errorMessage;
 
-  private ProjectionStatus projectionStatus;
+  private volatile ProjectionEngine projectionEngine;
 
   public PCADataset(MZmineProject project, ParameterSet parameters) {
 
@@ -210,10 +207,6 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
     logger.info("Computing PCA projection plot");
 
-    // Generate matrix of raw data (input to PCA)
-    final boolean useArea = (parameters.getParameter(ProjectionPlotParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA);
-
     if (selectedRows.length == 0) {
       this.status = TaskStatus.ERROR;
       errorMessage = "No peaks selected for PCA plot";
@@ -225,43 +218,26 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
       return;
     }
 
-    double[][] rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-    for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-      PeakListRow peakListRow = selectedRows[rowIndex];
-      for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-        RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-        Feature p = peakListRow.getPeak(rawDataFile);
-        if (p != null) {
-          if (useArea)
-            rawData[fileIndex][rowIndex] = p.getArea();
-          else
-            rawData[fileIndex][rowIndex] = p.getHeight();
-        }
-      }
-    }
-
     int numComponents = xAxisPC;
     if (yAxisPC > numComponents)
       numComponents = yAxisPC;
 
-    // Scale data and do PCA
-    Preprocess.scaleToUnityVariance(rawData);
-
-    // Replace NaN values with 0.0
-    for (int i = 0; i < rawData.length; i++) {
-      for (int j = 0; j < rawData[i].length; j++) {
-        if (Double.isNaN(rawData[i][j]))
-          rawData[i][j] = 0.0;
-      }
-    }
-
-    PCA pcaProj = new PCA(rawData, numComponents);
+    // Generate matrix of raw data (input to PCA), missing peaks are 0.0
+    final PeakMeasurementType measurementType =
+        parameters.getParameter(ProjectionPlotParameters.peakMeasurementType).getValue();
+    FeatureIntensityMatrix matrix =
+        FeatureIntensityMatrix.extract(selectedRows, selectedRawDataFiles, measurementType);
+    projectionEngine = ProjectionEngine.forSamples(matrix);
+    if (status == TaskStatus.CANCELED)
+      return;
 
-    projectionStatus = pcaProj.getProjectionStatus();
+    // Scale data and do PCA
+    projectionEngine.replaceMissingValues(0.0);
+    projectionEngine.scaleToUnityVariance();
 
-    double[][] result = pcaProj.getState();
+    double[][] result = projectionEngine.principalComponents(numComponents);
 
-    if (status == TaskStatus.CANCELED)
+    if (result == null || status == TaskStatus.CANCELED)
       return;
 
     component1Coords = result[xAxisPC - 1];
@@ -277,8 +253,8 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
   @Override
   public void cancel() {
-    if (projectionStatus != null)
-      projectionStatus.cancel();
+    if (projectionEngine != null)
+      projectionEngine.cancel();
     status = TaskStatus.CANCELED;
   }
 
@@ -299,9 +275,9 @@ public class PCADataset extends AbstractXYDataset implements ProjectionPlotDatas
 
   @Override
   public double getFinishedPercentage() {
-    if (projectionStatus == null)
+    if (projectionEngine == null)
       return 0;
-    return projectionStatus.getFinishedPercentage();
+    return projectionEngine.getFinishedPercentage();
   }
 
 }
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataanalysis.projectionplots;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import io.github.mzmine.util.maths.FeatureIntensityMatrix;
+
+/**
+ * Projection of items (samples or features) described by a number of dimensions (features or
+ * samples). The data is kept in a single column-major buffer: the values of all items in one
+ * dimension are stored contiguously, so that the work can be split in parallel blocks of
+ * dimensions.
+ *
+ * PCA is computed with a randomized truncated SVD (Halko, Martinsson, Tropp 2011), Sammon's
+ * mapping is iterated with all the items updated in parallel.
+ */
+public class ProjectionEngine {
+
+  // Extra random vectors and power iterations of the randomized SVD
+  private static final int OVERSAMPLING = 10;
+  private static final int POWER_ITERATIONS = 2;
+  private static final long RANDOM_SEED = 1L;
+
+  // Step size of Sammon's mapping ("magic factor")
+  private static final double SAMMONS_MAGIC_FACTOR = 0.4;
+
+  private static final double EPSILON = 1e-12;
+
+  // Largest number of items whose pairwise distances fit into one array
+  private static final int MAX_SAMMONS_ITEMS = 65536;
+
+  private final int numItems;
+  private final int numDims;
+
+  // Value of item i in dimension j is data[j * numItems + i]
+  private final double[] data;
+
+  private volatile boolean canceled = false;
+  private volatile double finishedPercentage = 0.0;
+
+  private ProjectionEngine(double[] data, int numItems, int numDims) {
+    this.data = data;
+    this.numItems = numItems;
+    this.numDims = numDims;
+  }
+
+  /**
+   * Projects the samples of the matrix, using the features as dimensions. The buffer of the matrix
+   * is used directly (not copied), so it is modified by {@link #replaceMissingValues(double)} and
+   * {@link #scaleToUnityVariance()}.
+   */
+  public static ProjectionEngine forSamples(@Nonnull FeatureIntensityMatrix matrix) {
+    return new ProjectionEngine(matrix.getValues(), matrix.getNumberOfSamples(),
+        matrix.getNumberOfFeatures());
+  }
+
+  /**
+   * Projects the features of the matrix, using the samples as dimensions.
+   */
+  public static ProjectionEngine forFeatures(@Nonnull FeatureIntensityMatrix matrix) {
+
+    final int numSamples = matrix.getNumberOfSamples();
+    final int numFeatures = matrix.getNumberOfFeatures();
+    final double[] values = matrix.getValues();
+    final double[] transposed = new double[values.length];
+
+    IntStream.range(0, numSamples).parallel().forEach(s -> {
+      final int offset = s * numFeatures;
+      for (int f = 0; f < numFeatures; f++) {
+        transposed[offset + f] = values[f * numSamples + s];
+      }
+    });
+
+    return new ProjectionEngine(transposed, numFeatures, numSamples);
+  }
+
+  public int getNumberOfItems() {
+    return numItems;
+  }
+
+  public int getNumberOfDimensions() {
+    return numDims;
+  }
+
+  public double get(int item, int dim) {
+    return data[dim * numItems + item];
+  }
+
+  public void cancel() {
+    canceled = true;
+  }
+
+  public boolean isCanceled() {
+    return canceled;
+  }
+
+  public double getFinishedPercentage() {
+    return finishedPercentage;
+  }
+
+  /**
+   * Replaces all NaN values
+   */
+  public void replaceMissingValues(double value) {
+    IntStream.range(0, data.length).parallel().filter(i -> Double.isNaN(data[i]))
+        .forEach(i -> data[i] = value);
+  }
+
+  /**
+   * Centers each dimension and scales it to unit variance. Dimensions with zero variance are set to
+   * 0.
+   */
+  public void scaleToUnityVariance() {
+
+    IntStream.range(0, numDims).parallel().forEach(j -> {
+      final int offset = j * numItems;
+
+      double mean = 0.0;
+      for (int i = 0; i < numItems; i++)
+        mean += data[offset + i];
+      mean /= numItems;
+
+      double sumOfSquares = 0.0;
+      for (int i = 0; i < numItems; i++) {
+        double diff = data[offset + i] - mean;
+        sumOfSquares += diff * diff;
+      }
+      double std = numItems > 1 ? Math.sqrt(sumOfSquares / (numItems - 1)) : 0.0;
+
+      for (int i = 0; i < numItems; i++) {
+        double scaled = (data[offset + i] - mean) / std;
+        data[offset + i] = Double.isFinite(scaled) ? scaled : 0.0;
+      }
+    });
+  }
+
+  /**
+   * Principal component scores of the items.
+   *
+   * @return the scores, indexed [component][item], or null if canceled
+   */
+  public double[][] principalComponents(int numComponents) {
+
+    final int rank = Math.min(numItems, numDims);
+    final int l = Math.min(numComponents + OVERSAMPLING, rank);
+
+    double[][] scores = new double[numComponents][numItems];
+    if (l == 0)
+      return scores;
+
+    // Random test matrix, l values per dimension
+    Random random = new Random(RANDOM_SEED);
+    double[] omega = new double[numDims * l];
+    for (int i = 0; i < omega.length; i++)
+      omega[i] = random.nextGaussian();
+
+    // Range finder with power iterations: Q = orth((X X^T)^q X Omega)
+    double[][] q = multiply(omega, l);
+    orthonormalize(q);
+    for (int it = 0; it < POWER_ITERATIONS; it++) {
+      if (canceled)
+        return null;
+      q = multiply(multiplyTransposed(q), l);
+      orthonormalize(q);
+      finishedPercentage = 0.5 * (it + 1) / POWER_ITERATIONS;
+    }
+    if (canceled)
+      return null;
+
+    // B = Q^T X. The left singular vectors of X are Q W, where W are the eigenvectors of B B^T
+    double[] z = multiplyTransposed(q);
+    double[][] bbt = sumBlocks(l * l, (from, to) -> {
+      double[] local = new double[l * l];
+      for (int j = from; j < to; j++) {
+        final int offset = j * l;
+        for (int a = 0; a < l; a++) {
+          for (int b = a; b < l; b++) {
+            local[a * l + b] += z[offset + a] * z[offset + b];
+          }
+        }
+      }
+      return local;
+    }, l);
+    for (int a = 0; a < l; a++) {
+      for (int b = 0; b < a; b++) {
+        bbt[a][b] = bbt[b][a];
+      }
+    }
+
+    double[] eigenvalues = new double[l];
+    double[][] eigenvectors = new double[l][l];
+    symmetricEigenDecomposition(bbt, eigenvalues, eigenvectors);
+
+    Integer[] order = new Integer[l];
+    for (int i = 0; i < l; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.comparingDouble(i -> -eigenvalues[i]));
+
+    // Scores are U * S
+    for (int c = 0; c < Math.min(numComponents, l); c++) {
+      final int e = order[c];
+      final double sigma = Math.sqrt(Math.max(0.0, eigenvalues[e]));
+      for (int a = 0; a < l; a++) {
+        final double w = eigenvectors[a][e] * sigma;
+        for (int i = 0; i < numItems; i++) {
+          scores[c][i] += q[a][i] * w;
+        }
+      }
+    }
+
+    finishedPercentage = 1.0;
+    return scores;
+  }
+
+  /**
+   * Coordinates of the items in a space of dimension min(items, dimensions) preserving all the
+   * Euclidean distances between items (full rank principal component scores).
+   *
+   * @return the coordinates, indexed [item][component], or null if canceled
+   */
+  public double[][] getEmbedding() {
+
+    final int rank = Math.min(numItems, numDims);
+    double[][] scores = principalComponents(rank);
+    if (scores == null)
+      return null;
+
+    double[][] embedding = new double[numItems][rank];
+    for (int c = 0; c < rank; c++) {
+      for (int i = 0; i < numItems; i++) {
+        embedding[i][c] = scores[c][i];
+      }
+    }
+    return embedding;
+  }
+
+  /**
+   * Sammon's non-linear mapping of the items, initialized with the principal components.
+   *
+   * @return the coordinates, indexed [dimension][item], or null if canceled
+   * @throws IllegalArgumentException if there are too many items to store their distances
+   */
+  public double[][] sammonsMapping(int numDimensions, int iterations) {
+
+    if (numItems > MAX_SAMMONS_ITEMS)
+      throw new IllegalArgumentException("Sammon's mapping supports at most " + MAX_SAMMONS_ITEMS
+          + " items, but there are " + numItems);
+
+    final double[] distances = getPairwiseDistances();
+    if (distances == null || canceled)
+      return null;
+
+    double c = 0.0;
+    for (double d : distances)
+      c += d;
+    final double scale = -2.0 / c;
+
+    double[][] y = principalComponents(numDimensions);
+    if (y == null || c == 0.0)
+      return y;
+
+    for (int it = 0; it < iterations; it++) {
+
+      if (canceled)
+        return null;
+
+      final double[][] current = y;
+      final double[][] next = new double[numDimensions][numItems];
+
+      IntStream.range(0, numItems).parallel().forEach(p -> {
+        double[] gradient = new double[numDimensions];
+        double[] hessian = new double[numDimensions];
+
+        for (int j = 0; j < numItems; j++) {
+          if (j == p)
+            continue;
+          double dStar = distances[triangularIndex(p, j)];
+          if (dStar < EPSILON)
+            continue;
+
+          double sumOfSquares = 0.0;
+          for (int q = 0; q < numDimensions; q++) {
+            double delta = current[q][p] - current[q][j];
+            sumOfSquares += delta * delta;
+          }
+          double d = Math.max(Math.sqrt(sumOfSquares), EPSILON);
+
+          double diff = dStar - d;
+          double denominator = dStar * d;
+          for (int q = 0; q < numDimensions; q++) {
+            double delta = current[q][p] - current[q][j];
+            gradient[q] += diff / denominator * delta;
+            hessian[q] += (diff - delta * delta / d * (1.0 + diff / d)) / denominator;
+          }
+        }
+
+        for (int q = 0; q < numDimensions; q++) {
+          double h = Math.abs(scale * hessian[q]);
+          double step = h < EPSILON ? 0.0 : scale * gradient[q] / h;
+          next[q][p] = current[q][p] - SAMMONS_MAGIC_FACTOR * step;
+        }
+      });
+
+      y = next;
+      finishedPercentage = (double) (it + 1) / iterations;
+    }
+
+    return y;
+  }
+
+  /**
+   * Euclidean distances between all the items. The rows of the triangular array are computed in
+   * parallel, each row directly in its part of the array.
+   *
+   * @return the distances, stored in a triangular array (see {@link #triangularIndex(int, int)}),
+   *         or null if canceled
+   */
+  private double[] getPairwiseDistances() {
+
+    final double[] distances = new double[(int) ((long) numItems * (numItems - 1) / 2)];
+
+    IntStream.range(1, numItems).parallel().forEach(k -> {
+      if (canceled)
+        return;
+      // Distances between item k and the items 0 to k - 1
+      final int base = triangularIndex(0, k);
+      for (int j = 0; j < numDims; j++) {
+        final int offset = j * numItems;
+        final double xk = data[offset + k];
+        for (int i = 0; i < k; i++) {
+          double diff = data[offset + i] - xk;
+          distances[base + i] += diff * diff;
+        }
+      }
+      for (int i = 0; i < k; i++)
+        distances[base + i] = Math.sqrt(distances[base + i]);
+    });
+
+    if (canceled)
+      return null;
+    return distances;
+  }
+
+  private static int triangularIndex(int i, int j) {
+    if (i > j)
+      return (int) ((long) i * (i - 1) / 2 + j);
+    return (int) ((long) j * (j - 1) / 2 + i);
+  }
+
+  /**
+   * Y = X * R
+   *
+   * @param r l values per dimension
+   * @return l columns of Y (one value per item)
+   */
+  private double[][] multiply(double[] r, int l) {
+    return sumBlocks(l * numItems, (from, to) -> {
+      double[] local = new double[l * numItems];
+      for (int j = from; j < to; j++) {
+        final int offset = j * numItems;
+        for (int c = 0; c < l; c++) {
+          final double f = r[j * l + c];
+          final int yOffset = c * numItems;
+          for (int i = 0; i < numItems; i++) {
+            local[yOffset + i] += data[offset + i] * f;
+          }
+        }
+      }
+      return local;
+    }, l);
+  }
+
+  /**
+   * Z = X^T * Q
+   *
+   * @param q columns of Q (one value per item)
+   * @return l values per dimension
+   */
+  private double[] multiplyTransposed(double[][] q) {
+    final int l = q.length;
+    final double[] z = new double[numDims * l];
+    IntStream.range(0, numDims).parallel().forEach(j -> {
+      final int offset = j * numItems;
+      for (int c = 0; c < l; c++) {
+        double sum = 0.0;
+        for (int i = 0; i < numItems; i++) {
+          sum += data[offset + i] * q[c][i];
+        }
+        z[j * l + c] = sum;
+      }
+    });
+    return z;
+  }
+
+  /**
+   * Splits the dimensions in one block per available core, computes a partial result for each
+   * block and sums them up.
+   *
+   * @param size size of the partial results
+   * @param blockFunction computes the partial result of the dimensions [from, to)
+   * @param rows number of rows the result is split into
+   */
+  private double[][] sumBlocks(int size, BlockFunction blockFunction, int rows) {
+
+    final int numBlocks =
+        Math.max(1, Math.min(numDims, Runtime.getRuntime().availableProcessors()));
+    final int blockSize = (numDims + numBlocks - 1) / Math.max(1, numBlocks);
+
+    IntFunction<double[]> block = b -> blockFunction.apply(Math.min(numDims, b * blockSize),
+        Math.min(numDims, (b + 1) * blockSize));
+
+    double[] sum = IntStream.range(0, numBlocks).parallel().mapToObj(block).reduce((a, b) -> {
+      for (int i = 0; i < a.length; i++)
+        a[i] += b[i];
+      return a;
+    }).orElse(new double[size]);
+
+    final int columns = size / rows;
+    double[][] result = new double[rows][];
+    for (int r = 0; r < rows; r++) {
+      result[r] = Arrays.copyOfRange(sum, r * columns, (r + 1) * columns);
+    }
+    return result;
+  }
+
+  @FunctionalInterface
+  private interface BlockFunction {
+    double[] apply(int from, int to);
+  }
+
+  /**
+   * Modified Gram-Schmidt (applied twice for numerical stability). Vectors that are linearly
+   * dependent on the previous ones are set to 0.
+   */
+  private static void orthonormalize(double[][] vectors) {
+    for (int pass = 0; pass < 2; pass++) {
+      for (int a = 0; a < vectors.length; a++) {
+        double[] v = vectors[a];
+        for (int b = 0; b < a; b++) {
+          double[] u = vectors[b];
+          double dot = 0.0;
+          for (int i = 0; i < v.length; i++)
+            dot += v[i] * u[i];
+          for (int i = 0; i < v.length; i++)
+            v[i] -= dot * u[i];
+        }
+        double norm = 0.0;
+        for (double x : v)
+          norm += x * x;
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < v.length; i++)
+          v[i] = norm < EPSILON ? 0.0 : v[i] / norm;
+      }
+    }
+  }
+
+  /**
+   * Cyclic Jacobi eigenvalue algorithm for (small) symmetric matrices. The matrix is destroyed.
+   *
+   * @param a the symmetric matrix
+   * @param eigenvalues output eigenvalues (unsorted)
+   * @param eigenvectors output eigenvectors, stored as columns
+   */
+  static void symmetricEigenDecomposition(double[][] a, double[] eigenvalues,
+      double[][] eigenvectors) {
+
+    final int n = a.length;
+    for (int i = 0; i < n; i++) {
+      Arrays.fill(eigenvectors[i], 0.0);
+      eigenvectors[i][i] = 1.0;
+    }
+
+    for (int sweep = 0; sweep < 100; sweep++) {
+
+      double offDiagonal = 0.0, diagonal = 0.0;
+      for (int p = 0; p < n; p++) {
+        diagonal += a[p][p] * a[p][p];
+        for (int q = p + 1; q < n; q++)
+          offDiagonal += a[p][q] * a[p][q];
+      }
+      if (offDiagonal <= EPSILON * EPSILON * diagonal || offDiagonal == 0.0)
+        break;
+
+      for (int p = 0; p < n - 1; p++) {
+        for (int q = p + 1; q < n; q++) {
+          if (a[p][q] == 0.0)
+            continue;
+
+          double theta = (a[q][q] - a[p][p]) / (2.0 * a[p][q]);
+          double t = (theta >= 0 ? 1.0 : -1.0) / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+          double c = 1.0 / Math.sqrt(t * t + 1.0);
+          double s = t * c;
+
+          for (int k = 0; k < n; k++) {
+            double akp = a[k][p], akq = a[k][q];
+            a[k][p] = c * akp - s * akq;
+            a[k][q] = s * akp + c * akq;
+          }
+          for (int k = 0; k < n; k++) {
+            double apk = a[p][k], aqk = a[q][k];
+            a[p][k] = c * apk - s * aqk;
+            a[q][k] = s * apk + c * aqk;
+          }
+          for (int k = 0; k < n; k++) {
+            double vkp = eigenvectors[k][p], vkq = eigenvectors[k][q];
+            eigenvectors[k][p] = c * vkp - s * vkq;
+            eigenvectors[k][q] = s * vkp + c * vkq;
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < n; i++)
+      eigenvalues[i] = a[i][i];
+  }
+
+}
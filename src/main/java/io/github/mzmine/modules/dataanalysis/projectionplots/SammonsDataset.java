@@ -21,7 +21,6 @@ package io.github.mzmine.modules.dataanalysis.projectionplots;
 import java.util.Vector;
 import java.util.logging.Logger;
 import org.jfree.data.xy.AbstractXYDataset;
-import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
@@ -31,9 +30,7 @@ import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.PeakMeasurementType;
-import jmprojection.Preprocess;
-import jmprojection.ProjectionStatus;
-import jmprojection.Sammons;
+import io.github.mzmine.util.maths.FeatureIntensityMatrix;
 
 public class SammonsDataset extends AbstractXYDataset implements ProjectionPlotDataset {
 
@@ -63,7 +60,7 @@ public class SammonsDataset extends AbstractXYDataset implements ProjectionPlotD
   private TaskStatus status = TaskStatus.WAITING;
   private String errorMessage;
 
-  private ProjectionStatus projectionStatus;
+  private volatile ProjectionEngine projectionEngine;
 
   public SammonsDataset(MZmineProject project, ParameterSet parameters) {
 
@@ -216,45 +213,33 @@ public class SammonsDataset extends AbstractXYDataset implements ProjectionPlotD
 
     logger.info("Computing projection plot");
 
-    // Generate matrix of raw data (input to Sammon's projection)
-    boolean useArea = false;
-    if (parameters.getParameter(ProjectionPlotParameters.peakMeasurementType)
-        .getValue() == PeakMeasurementType.AREA)
-      useArea = true;
-
-    double[][] rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-    for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-      PeakListRow peakListRow = selectedRows[rowIndex];
-      for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-        RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-        Feature p = peakListRow.getPeak(rawDataFile);
-        if (p != null) {
-          if (useArea)
-            rawData[fileIndex][rowIndex] = p.getArea();
-          else
-            rawData[fileIndex][rowIndex] = p.getHeight();
-        }
-      }
-    }
-
     int numComponents = xAxisDimension;
     if (yAxisDimension > numComponents)
       numComponents = yAxisDimension;
 
-    // Scale data and do Sammon's mapping
-    Preprocess.scaleToUnityVariance(rawData);
-    Sammons sammonsProj = new Sammons(rawData);
-
-    projectionStatus = sammonsProj.getProjectionStatus();
-
-    sammonsProj.iterate(100);
-
+    // Generate matrix of raw data (input to Sammon's projection)
+    final PeakMeasurementType measurementType =
+        parameters.getParameter(ProjectionPlotParameters.peakMeasurementType).getValue();
+    FeatureIntensityMatrix matrix =
+        FeatureIntensityMatrix.extract(selectedRows, selectedRawDataFiles, measurementType);
+    projectionEngine = ProjectionEngine.forSamples(matrix);
     if (status == TaskStatus.CANCELED)
       return;
 
-    double[][] result = sammonsProj.getState();
+    // Scale data and do Sammon's mapping
+    projectionEngine.replaceMissingValues(0.0);
+    projectionEngine.scaleToUnityVariance();
 
-    if (status == TaskStatus.CANCELED)
+    double[][] result;
+    try {
+      result = projectionEngine.sammonsMapping(numComponents, 100);
+    } catch (IllegalArgumentException e) {
+      this.status = TaskStatus.ERROR;
+      errorMessage = e.getMessage();
+      return;
+    }
+
+    if (result == null || status == TaskStatus.CANCELED)
       return;
 
     component1Coords = result[xAxisDimension - 1];
@@ -270,8 +255,8 @@ public class SammonsDataset extends AbstractXYDataset implements ProjectionPlotD
 
   @Override
   public void cancel() {
-    if (projectionStatus != null)
-      projectionStatus.cancel();
+    if (projectionEngine != null)
+      projectionEngine.cancel();
     setStatus(TaskStatus.CANCELED);
   }
 
@@ -292,9 +277,9 @@ public class SammonsDataset extends AbstractXYDataset implements ProjectionPlotD
 
   @Override
   public double getFinishedPercentage() {
-    if (projectionStatus == null)
+    if (projectionEngine == null)
       return 0;
-    return projectionStatus.getFinishedPercentage();
+    return projectionEngine.getFinishedPercentage();
   }
 
   /**
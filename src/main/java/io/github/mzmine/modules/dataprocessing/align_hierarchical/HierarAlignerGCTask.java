@@ -25,13 +25,17 @@ import java.io.IOException;
 import java.text.Format;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.gnf.clustering.DataSource;
 import org.gnf.clustering.DistanceMatrix;
 import org.gnf.clustering.FloatSource1D;
@@ -66,7 +70,8 @@ public class HierarAlignerGCTask extends AbstractTask {
   private PeakList alignedPeakList;
 
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger(0);
+  private int totalRows;
 
   private String peakListName;
   private LinkageMode linkageStartegyType;
@@ -125,6 +130,9 @@ public class HierarAlignerGCTask extends AbstractTask {
   //// public static final double MIN_SCORE_ABSOLUTE = Double.MIN_VALUE;
   public static final double MIN_SCORE_ABSOLUTE = 0.0;
 
+  // Number of rows per parallel block when computing the distances
+  private static final int DISTANCES_BLOCK_SIZE = 128;
+
   HierarAlignerGCTask(MZmineProject project, ParameterSet parameters) {
 
     this.project = project;
@@ -229,7 +237,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       return 0f;
     // return (double) processedRows / (double) totalRows;
     double progress =
-        (processedRows + (clustProgress.getProgress() * totalRows / 3.0d)) / totalRows;
+        (processedRows.get() + (clustProgress.getProgress() * totalRows / 3.0d)) / totalRows;
     // logger.info(">> THE progress: " + progress);
     // logger.info("Caught progress: " +
     // clustProgress.getProgress());
@@ -324,14 +332,6 @@ public class HierarAlignerGCTask extends AbstractTask {
       nbPeaks += peakList.getNumberOfRows();
     }
 
-    // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
-      // distances = new double[nbPeaks][nbPeaks];
-
-      int nRowCount = nbPeaks;
-      distancesGNF_Tri = new DistanceMatrixTriangular1D2D(nRowCount);
-    }
-
     full_rows_list = new ArrayList<>();
 
     for (int i = 0; i < newIds.length; ++i) {
@@ -359,26 +359,20 @@ public class HierarAlignerGCTask extends AbstractTask {
     // If 'Hybrid' or no distance matrix: no need for a matrix
     if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
 
-      for (int x = 0; x < nbPeaks; ++x) {
-
-        for (int y = x; y < nbPeaks; ++y) {
-
-          float dist = (float) distProvider.getRankedDistance(x, y, mzTolerance.getMzTolerance(),
-              rtTolerance.getTolerance(), minScore);
-
-          // if (CLUSTERER_TYPE == ClustererType.CLASSIC_OLD)
-          // distances.set(x, y , dist);
-          // else
-          distancesGNF_Tri.setValue(x, y, dist);
-
-        }
-
-        processedRows++;
-        if (DEBUG)
-          logger.info(
-              "Treating lists: " + (Math.round(100 * processedRows / (double) nbPeaks)) + " %");
+      // Rows from the same feature list implicitly get the maximum distance, any other pair the
+      // out of window distance
+      final int[] listIds = getListIds();
+      distancesGNF_Tri = new SparseDistanceMatrix(listIds,
+          (float) RowVsRowDistanceProvider.OUT_OF_WINDOW_DISTANCE,
+          (float) RowVsRowDistanceProvider.MAX_DISTANCE);
+      computeSparseDistances((SparseDistanceMatrix) distancesGNF_Tri, listIds, distProvider);
+      if (isCanceled())
+        return;
 
-      }
+      if (DEBUG)
+        logger.info("Stored distances: "
+            + ((SparseDistanceMatrix) distancesGNF_Tri).getNumberOfStoredValues() + " (out of "
+            + DistanceMatrixTriangular1D2D.sumFormula(nbPeaks) + ")");
     }
     if (DEBUG)
       printMemoryUsage(logger, run_time, prevTotal, prevFree, "DISTANCES COMPUTED");
@@ -437,7 +431,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       } else { // Otherwise, backing up the distance matrix (matrix being
                // deeply changed during "clusterDM()", then no more
                // exploitable)
-        distancesGNF_Tri_Bkp = new DistanceMatrixTriangular1D2D(distancesGNF_Tri);
+        distancesGNF_Tri_Bkp = new SparseDistanceMatrix((SparseDistanceMatrix) distancesGNF_Tri);
         if (DEBUG)
           printMemoryUsage(logger, run_time, prevTotal, prevFree, "GNF CLUSTERER BACKUP MATRIX");
       }
@@ -554,7 +548,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       }
       clustersList.add(rows_cluster);
       //
-      processedRows += rows_cluster.size();
+      processedRows.addAndGet(rows_cluster.size());
     }
 
     if (DEBUG)
@@ -672,6 +666,102 @@ public class HierarAlignerGCTask extends AbstractTask {
 
   }
 
+  /**
+   * @return the feature list of each row of full_rows_list, identified by its raw data file as in
+   *         {@link RowVsRowDistanceProvider#getRankedDistance}
+   */
+  private int[] getListIds() {
+    final Map<RawDataFile, Integer> idsByFile = new HashMap<>();
+    final int[] listIds = new int[full_rows_list.size()];
+    for (int i = 0; i < listIds.length; i++) {
+      RawDataFile file = full_rows_list.get(i).getRawDataFiles()[0];
+      listIds[i] = idsByFile.computeIfAbsent(file, f -> idsByFile.size());
+    }
+    return listIds;
+  }
+
+  /**
+   * Fills the sparse distance matrix in parallel blocks of rows, with the same distances as
+   * {@link RowVsRowDistanceProvider#getRankedDistance}. Rows are sorted by RT, so that only rows
+   * from different feature lists lying within the RT and m/z windows get scored. Only the scored
+   * distances are stored, the pairs from the same feature list keep the implicit maximum distance
+   * and all the other pairs the implicit out of window distance.
+   */
+  private void computeSparseDistances(SparseDistanceMatrix distances, int[] listIds,
+      RowVsRowDistanceProvider distProvider) {
+
+    final int nbPeaks = full_rows_list.size();
+    final double mzMaxDiff = mzTolerance.getMzTolerance();
+    final double rtMaxDiff = rtTolerance.getTolerance();
+    final double mzHalfWindow = mzMaxDiff / 2.0;
+    final double rtHalfWindow = rtMaxDiff / 2.0;
+    final float defaultDist = distances.getDefaultValue();
+
+    // Extract everything needed for the windowing only once
+    final double[] rts = new double[nbPeaks];
+    final double[] mzs = new double[nbPeaks];
+    for (int i = 0; i < nbPeaks; i++) {
+      Feature bestPeak = full_rows_list.get(i).getBestPeak();
+      rts[i] = bestPeak.getRT();
+      mzs[i] = bestPeak.getMZ();
+    }
+
+    final int[] rtOrder = IntStream.range(0, nbPeaks).boxed()
+        .sorted(Comparator.comparingDouble(i -> rts[i])).mapToInt(Integer::intValue).toArray();
+    final double[] sortedRts = new double[nbPeaks];
+    for (int p = 0; p < nbPeaks; p++) {
+      sortedRts[p] = rts[rtOrder[p]];
+    }
+
+    final int nbBlocks = (nbPeaks + DISTANCES_BLOCK_SIZE - 1) / DISTANCES_BLOCK_SIZE;
+    IntStream.range(0, nbBlocks).parallel().forEach(block -> {
+
+      int[] neighbors = new int[16];
+      float[] neighborDists = new float[16];
+
+      int end = Math.min(nbPeaks, (block + 1) * DISTANCES_BLOCK_SIZE);
+      for (int p = block * DISTANCES_BLOCK_SIZE; p < end; p++) {
+
+        if (isCanceled())
+          return;
+
+        int x = rtOrder[p];
+        int size = 0;
+
+        // Walk the RT window on both sides (only keep y > x, the matrix being symmetrical)
+        int q = p - 1;
+        while (q >= 0 && rts[x] - sortedRts[q] < rtHalfWindow)
+          q--;
+        for (++q; q < nbPeaks && sortedRts[q] - rts[x] < rtHalfWindow; q++) {
+
+          int y = rtOrder[q];
+          if (y <= x || listIds[y] == listIds[x] || Math.abs(mzs[x] - mzs[y]) >= mzHalfWindow)
+            continue;
+
+          float dist =
+              (float) distProvider.getRankedDistance(x, y, mzMaxDiff, rtMaxDiff, minScore);
+          if (dist == defaultDist)
+            continue;
+
+          if (size == neighbors.length) {
+            neighbors = Arrays.copyOf(neighbors, size * 2);
+            neighborDists = Arrays.copyOf(neighborDists, size * 2);
+          }
+          neighbors[size] = y;
+          neighborDists[size] = dist;
+          size++;
+        }
+
+        distances.setRow(x, neighbors, neighborDists, size);
+
+        processedRows.incrementAndGet();
+        if (DEBUG)
+          logger.info("Treating lists: "
+              + (Math.round(100 * processedRows.get() / (double) nbPeaks)) + " %");
+      }
+    });
+  }
+
   /**
    * Two clusters can be merged if and only if: - The resulting merged cluster: (their parent)
    * doesn't exceed 'level' leaves - The distance between them two is acceptable (close enough)
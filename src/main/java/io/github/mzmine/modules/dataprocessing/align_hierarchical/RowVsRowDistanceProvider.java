@@ -26,6 +26,16 @@ import io.github.mzmine.modules.dataprocessing.align_hierarchical.RowVsRowScoreG
 
 public class RowVsRowDistanceProvider {
 
+  /**
+   * Distance between rows that can never be aligned (rows from the same feature list)
+   */
+  public static final double MAX_DISTANCE = 1000.0d;
+
+  /**
+   * Distance between rows from different feature lists lying outside of the RT / m/z window
+   */
+  public static final double OUT_OF_WINDOW_DISTANCE = 100.0d;
+
   MZmineProject project;
   // boolean useOldestRDFancestor;
   // Hashtable<RawDataFile, List<double[]>> rtAdjustementMapping;
@@ -124,7 +134,7 @@ public class RowVsRowDistanceProvider {
     // aligned_row_id < 102)
     // || (row_id >= 102 && aligned_row_id >= 102)) {
     if (row.getRawDataFiles()[0] == k_row.getRawDataFiles()[0]) {
-      return 1000.0d;
+      return MAX_DISTANCE;
     }
     // Not candidate
     else {
@@ -141,7 +151,7 @@ public class RowVsRowDistanceProvider {
       if ((Math.abs(row.getBestPeak().getRT() - k_row.getBestPeak().getRT()) >= rtMaxDiff / 2.0
           || Math.abs(row.getBestPeak().getMZ() - k_row.getBestPeak().getMZ()) >= mzMaxDiff
               / 2.0)) {
-        return 100.0d;
+        return OUT_OF_WINDOW_DISTANCE;
       }
     }
 
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_hierarchical;
+
+import org.gnf.clustering.DistanceMatrix;
+
+/**
+ * Symmetrical distance matrix storing only the distances differing from their implicit value. The
+ * rows may belong to groups (e.g. feature lists): two rows of the same group implicitly have the
+ * same group distance, any other pair the default distance, the diagonal is always 0. Each row
+ * keeps the distances to the columns greater than the row index, in a small hash table (open
+ * addressing, linear probing) as long as only a few distances are stored, or in a plain array once
+ * that takes less memory. Writing the implicit value never stores anything, reads and writes take
+ * constant time.
+ *
+ * Rows can be filled concurrently with {@link #setRow(int, int[], float[], int)}, as long as each
+ * row is only filled by one thread. Single value accesses are not synchronized.
+ */
+public class SparseDistanceMatrix implements DistanceMatrix {
+
+  // Hash table capacities are powers of 2, kept at least twice the number of entries
+  private static final int MIN_CAPACITY = 8;
+
+  // Marks an empty hash table slot (stored columns are always greater than the row index)
+  private static final int EMPTY = 0;
+
+  private final int dimension;
+  private final float defaultValue;
+  // Group of each row (never modified, shared by the copies), or null
+  private final int[] groups;
+  private final float sameGroupValue;
+
+  // Sparse rows: hash tables of the columns and their distances
+  private final int[][] columns;
+  private final float[][] values;
+  // Dense rows: distances to the columns row + 1 to dimension - 1
+  private final float[][] denseRows;
+  // Number of non-default distances of each row
+  private final int[] sizes;
+
+  public SparseDistanceMatrix(int nRowCount, float defaultValue) {
+    this(nRowCount, defaultValue, null, defaultValue);
+  }
+
+  /**
+   * @param groups the group of each row
+   * @param defaultValue the implicit distance between rows of different groups
+   * @param sameGroupValue the implicit distance between rows of the same group
+   */
+  public SparseDistanceMatrix(int[] groups, float defaultValue, float sameGroupValue) {
+    this(groups.length, defaultValue, groups, sameGroupValue);
+  }
+
+  private SparseDistanceMatrix(int nRowCount, float defaultValue, int[] groups,
+      float sameGroupValue) {
+
+    this.dimension = nRowCount;
+    this.defaultValue = defaultValue;
+    this.groups = groups;
+    this.sameGroupValue = sameGroupValue;
+    this.columns = new int[nRowCount][];
+    this.values = new float[nRowCount][];
+    this.denseRows = new float[nRowCount][];
+    this.sizes = new int[nRowCount];
+  }
+
+  public SparseDistanceMatrix(SparseDistanceMatrix distanceMatrix2) {
+
+    this(distanceMatrix2.dimension, distanceMatrix2.defaultValue, distanceMatrix2.groups,
+        distanceMatrix2.sameGroupValue);
+
+    for (int i = 0; i < dimension; ++i) {
+      if (distanceMatrix2.denseRows[i] != null)
+        denseRows[i] = distanceMatrix2.denseRows[i].clone();
+      if (distanceMatrix2.columns[i] != null) {
+        columns[i] = distanceMatrix2.columns[i].clone();
+        values[i] = distanceMatrix2.values[i].clone();
+      }
+      sizes[i] = distanceMatrix2.sizes[i];
+    }
+  }
+
+  /**
+   * Sets the distances of a row at once, all the other distances of the row get their implicit
+   * value.
+   *
+   * @param row the row index
+   * @param rowColumns the columns, all distinct and greater than row, in any order
+   * @param rowValues the distances to the columns
+   * @param size the number of valid entries in rowColumns and rowValues
+   */
+  public void setRow(int row, int[] rowColumns, float[] rowValues, int size) {
+
+    columns[row] = null;
+    values[row] = null;
+    denseRows[row] = null;
+    sizes[row] = 0;
+
+    if (size == 0)
+      return;
+
+    ensureCapacity(row, size);
+    for (int i = 0; i < size; i++)
+      setValue(row, rowColumns[i], rowValues[i]);
+  }
+
+  public float getDefaultValue() {
+    return defaultValue;
+  }
+
+  /**
+   * @return the number of stored distances, which differ from their implicit value
+   */
+  public long getNumberOfStoredValues() {
+    long count = 0;
+    for (int size : sizes)
+      count += size;
+    return count;
+  }
+
+  @Override
+  public int getRowCount() {
+    return dimension;
+  }
+
+  @Override
+  public int getColCount() {
+    return dimension;
+  }
+
+  @Override
+  public float getValue(int nRow, int nCol) {
+
+    if (nRow == nCol)
+      return 0f;
+
+    int row = Math.min(nRow, nCol);
+    int col = Math.max(nRow, nCol);
+
+    float[] dense = denseRows[row];
+    if (dense != null)
+      return dense[col - row - 1];
+
+    int[] rowColumns = columns[row];
+    if (rowColumns == null)
+      return getImplicitValue(row, col);
+
+    int slot = findSlot(rowColumns, col);
+    return (rowColumns[slot] == col) ? values[row][slot] : getImplicitValue(row, col);
+  }
+
+  @Override
+  public void setValue(int nRow, int nCol, float fVal) {
+
+    if (nRow == nCol)
+      return;
+
+    int row = Math.min(nRow, nCol);
+    int col = Math.max(nRow, nCol);
+    float implicitValue = getImplicitValue(row, col);
+
+    float[] dense = denseRows[row];
+    if (dense != null) {
+      int index = col - row - 1;
+      if ((dense[index] == implicitValue) != (fVal == implicitValue))
+        sizes[row] += (fVal == implicitValue) ? -1 : 1;
+      dense[index] = fVal;
+      return;
+    }
+
+    int[] rowColumns = columns[row];
+    int slot = (rowColumns == null) ? -1 : findSlot(rowColumns, col);
+
+    if (slot >= 0 && rowColumns[slot] == col) {
+      if (fVal == implicitValue)
+        removeSlot(row, slot);
+      else
+        values[row][slot] = fVal;
+      return;
+    }
+
+    // Nothing to store
+    if (fVal == implicitValue)
+      return;
+
+    if (rowColumns == null || (sizes[row] + 1) * 2 > rowColumns.length) {
+      ensureCapacity(row, sizes[row] + 1);
+      setValue(row, col, fVal);
+      return;
+    }
+
+    rowColumns[slot] = col;
+    values[row][slot] = fVal;
+    sizes[row]++;
+  }
+
+  private float getImplicitValue(int row, int col) {
+    return (groups != null && groups[row] == groups[col]) ? sameGroupValue : defaultValue;
+  }
+
+  private static int hash(int col) {
+    int h = col * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return the slot holding the column, or the empty slot where it would be inserted
+   */
+  private static int findSlot(int[] rowColumns, int col) {
+    int mask = rowColumns.length - 1;
+    int slot = hash(col) & mask;
+    while (rowColumns[slot] != col && rowColumns[slot] != EMPTY)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  /**
+   * Removes a hash table entry, moving back the following entries of its probe sequence.
+   */
+  private void removeSlot(int row, int slot) {
+
+    int[] rowColumns = columns[row];
+    float[] rowValues = values[row];
+    int mask = rowColumns.length - 1;
+
+    int gap = slot;
+    for (int i = (slot + 1) & mask; rowColumns[i] != EMPTY; i = (i + 1) & mask) {
+      int home = hash(rowColumns[i]) & mask;
+      if (((i - home) & mask) >= ((i - gap) & mask)) {
+        rowColumns[gap] = rowColumns[i];
+        rowValues[gap] = rowValues[i];
+        gap = i;
+      }
+    }
+    rowColumns[gap] = EMPTY;
+    sizes[row]--;
+  }
+
+  /**
+   * Grows the hash table of a sparse row to hold the given number of entries, or turns the row
+   * into a dense one when that takes less memory.
+   */
+  private void ensureCapacity(int row, int size) {
+
+    int[] oldColumns = columns[row];
+    float[] oldValues = values[row];
+    int capacity = (oldColumns == null) ? 0 : oldColumns.length;
+    if (size * 2 <= capacity)
+      return;
+
+    int newCapacity = Math.max(MIN_CAPACITY, capacity);
+    while (size * 2 > newCapacity)
+      newCapacity *= 2;
+
+    int rowLength = dimension - row - 1;
+    columns[row] = null;
+    values[row] = null;
+    sizes[row] = 0;
+
+    // 8 bytes per hash table slot against 4 bytes per column of a dense row
+    if ((long) newCapacity * 2 >= rowLength) {
+      float[] dense = new float[rowLength];
+      for (int i = 0; i < rowLength; i++)
+        dense[i] = getImplicitValue(row, row + 1 + i);
+      denseRows[row] = dense;
+    } else {
+      columns[row] = new int[newCapacity];
+      values[row] = new float[newCapacity];
+    }
+
+    for (int i = 0; i < capacity; i++) {
+      if (oldColumns[i] != EMPTY)
+        setValue(row, oldColumns[i], oldValues[i]);
+    }
+  }
+
+}
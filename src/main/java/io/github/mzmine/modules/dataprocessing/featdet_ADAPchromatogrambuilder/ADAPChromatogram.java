@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
@@ -89,6 +90,9 @@ public class ADAPChromatogram implements Feature {
   private IsotopePattern isotopePattern;
   private int charge = 0;
 
+  // Incremented on every change which is saved in the project, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
+
   // Victor Trevino
   private double mzSum = 0;
   private int mzN = 0;
@@ -122,6 +126,7 @@ public class ADAPChromatogram implements Feature {
 
   public void setHighPointMZ(double toSet) {
     highPointMZ = toSet;
+    modificationCount.incrementAndGet();
   }
 
   public List getIntensitiesForCDFOut() {
@@ -344,6 +349,7 @@ public class ADAPChromatogram implements Feature {
   @Override
   public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
     this.isotopePattern = isotopePattern;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -521,6 +527,7 @@ public class ADAPChromatogram implements Feature {
   @Override
   public void setCharge(int charge) {
     this.charge = charge;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -531,6 +538,7 @@ public class ADAPChromatogram implements Feature {
   @Override
   public void setFWHM(Double fwhm) {
     this.fwhm = fwhm;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -541,6 +549,7 @@ public class ADAPChromatogram implements Feature {
   @Override
   public void setTailingFactor(Double tf) {
     this.tf = tf;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -551,11 +560,13 @@ public class ADAPChromatogram implements Feature {
   @Override
   public void setAsymmetryFactor(Double af) {
     this.af = af;
+    modificationCount.incrementAndGet();
   }
 
   @Override
   public void setPeakInformation(SimplePeakInformation peakInfoIn) {
     this.peakInfo = peakInfoIn;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -566,6 +577,7 @@ public class ADAPChromatogram implements Feature {
   @Override
   public void setFragmentScanNumber(int fragmentScanNumber) {
     this.fragmentScan = fragmentScanNumber;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -595,5 +607,10 @@ public class ADAPChromatogram implements Feature {
     this.peakList = peakList;
   }
 
+  @Override
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
 
 }
@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Map.Entry;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
@@ -78,6 +79,9 @@ public class Chromatogram implements Feature {
   private IsotopePattern isotopePattern;
   private int charge = 0;
 
+  // Incremented on every change which is saved in the project, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
+
   // Victor Trevino
   private double mzSum = 0;
   private int mzN = 0;
@@ -216,6 +220,7 @@ public class Chromatogram implements Feature {
   @Override
   public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
     this.isotopePattern = isotopePattern;
+    modificationCount.incrementAndGet();
   }
 
   public void finishChromatogram() {
@@ -340,6 +345,7 @@ public class Chromatogram implements Feature {
   @Override
   public void setCharge(int charge) {
     this.charge = charge;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -350,6 +356,7 @@ public class Chromatogram implements Feature {
   @Override
   public void setFWHM(Double fwhm) {
     this.fwhm = fwhm;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -360,6 +367,7 @@ public class Chromatogram implements Feature {
   @Override
   public void setTailingFactor(Double tf) {
     this.tf = tf;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -370,11 +378,13 @@ public class Chromatogram implements Feature {
   @Override
   public void setAsymmetryFactor(Double af) {
     this.af = af;
+    modificationCount.incrementAndGet();
   }
 
   @Override
   public void setPeakInformation(SimplePeakInformation peakInfoIn) {
     this.peakInfo = peakInfoIn;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -385,6 +395,7 @@ public class Chromatogram implements Feature {
   @Override
   public void setFragmentScanNumber(int fragmentScanNumber) {
     this.fragmentScan = fragmentScanNumber;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -414,4 +425,9 @@ public class Chromatogram implements Feature {
     this.peakList = peakList;
   }
 
+  @Override
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
 }
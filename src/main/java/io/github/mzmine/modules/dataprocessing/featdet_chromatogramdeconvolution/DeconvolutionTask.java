@@ -40,6 +40,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.R.REngineType;
+import io.github.mzmine.util.R.RSessionPool;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
 import io.github.mzmine.util.maths.CenterFunction;
@@ -134,9 +135,8 @@ public class DeconvolutionTask extends AbstractTask {
 
             REngineType rEngineType =
                 resolver.getModule().getREngineType(resolver.getParameterSet());
-            this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages,
-                reqPackagesVersions);
-            this.rSession.open();
+            this.rSession = RSessionPool.getInstance().lease(rEngineType, callerFeatureName,
+                reqPackages, reqPackagesVersions);
           } else {
             this.rSession = null;
           }
@@ -160,9 +160,11 @@ public class DeconvolutionTask extends AbstractTask {
             setStatus(TaskStatus.FINISHED);
             logger.info("Finished peak recognition on " + originalPeakList);
           }
-          // Turn off R instance.
-          if (this.rSession != null)
-            this.rSession.close(false);
+          // Return R instance to the pool.
+          if (this.rSession != null) {
+            RSessionPool.getInstance().release(this.rSession);
+            this.rSession = null;
+          }
 
         } catch (RSessionWrapperException e) {
           errorMsg = "'R computing error' during CentWave detection. \n" + e.getMessage();
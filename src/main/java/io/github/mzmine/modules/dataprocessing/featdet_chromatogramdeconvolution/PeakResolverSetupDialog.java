@@ -32,6 +32,7 @@ import io.github.mzmine.modules.visualization.chromatogram.TICPlot;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.dialogs.ParameterSetupDialog;
 import io.github.mzmine.util.R.REngineType;
+import io.github.mzmine.util.R.RSessionPool;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
 import io.github.mzmine.util.maths.CenterFunction;
@@ -280,9 +281,8 @@ public class PeakResolverSetupDialog extends ParameterSetupDialog {
             String[] reqPackagesVersions = peakResolver.getRequiredRPackagesVersions();
             String callerFeatureName = peakResolver.getName();
             REngineType rEngineType = peakResolver.getREngineType(parameters);
-            rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages,
-                reqPackagesVersions);
-            rSession.open();
+            rSession = RSessionPool.getInstance().lease(rEngineType, callerFeatureName,
+                reqPackages, reqPackagesVersions);
           } else {
             rSession = null;
           }
@@ -292,9 +292,9 @@ public class PeakResolverSetupDialog extends ParameterSetupDialog {
           resolvedPeaks =
               peakResolver.resolvePeaks(previewPeak, parameters, rSession, mzCenterFunction, 0, 0);
 
-          // Turn off R instance.
+          // Return R instance to the pool.
           if (rSession != null)
-            rSession.close(false);
+            RSessionPool.getInstance().release(rSession);
 
         } catch (RSessionWrapperException e) {
 
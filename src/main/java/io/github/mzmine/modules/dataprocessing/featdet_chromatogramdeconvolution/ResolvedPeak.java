@@ -19,6 +19,7 @@
 package io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.google.common.collect.Range;
@@ -72,6 +73,9 @@ public class ResolvedPeak implements Feature {
   private IsotopePattern isotopePattern = null;
   private int charge = 0;
 
+  // Incremented on every change which is saved in the project, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
+
   // PeakListRow.ID of the chromatogram where this feature is detected. Null
   // by default but can be
   // set by
@@ -299,6 +303,7 @@ public class ResolvedPeak implements Feature {
   @Override
   public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
     this.isotopePattern = isotopePattern;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -309,6 +314,7 @@ public class ResolvedPeak implements Feature {
   @Override
   public void setCharge(int charge) {
     this.charge = charge;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -319,6 +325,7 @@ public class ResolvedPeak implements Feature {
   @Override
   public void setFWHM(Double fwhm) {
     this.fwhm = fwhm;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -329,6 +336,7 @@ public class ResolvedPeak implements Feature {
   @Override
   public void setTailingFactor(Double tf) {
     this.tf = tf;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -339,6 +347,7 @@ public class ResolvedPeak implements Feature {
   @Override
   public void setAsymmetryFactor(Double af) {
     this.af = af;
+    modificationCount.incrementAndGet();
   }
 
   // dulab Edit
@@ -350,6 +359,7 @@ public class ResolvedPeak implements Feature {
   @Override
   public void setPeakInformation(SimplePeakInformation peakInfoIn) {
     this.peakInfo = peakInfoIn;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -360,6 +370,7 @@ public class ResolvedPeak implements Feature {
 
   public void setParentChromatogramRowID(@Nullable Integer id) {
     this.parentChromatogramRowID = id;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -371,6 +382,7 @@ public class ResolvedPeak implements Feature {
   @Override
   public void setFragmentScanNumber(int fragmentScanNumber) {
     this.fragmentScan = fragmentScanNumber;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -400,5 +412,10 @@ public class ResolvedPeak implements Feature {
     this.peakList = peakList;
   }
 
+  @Override
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
 
 }
@@ -19,6 +19,7 @@
 package io.github.mzmine.modules.dataprocessing.featdet_manual;
 
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
@@ -64,6 +65,9 @@ public class ManualPeak implements Feature {
   private IsotopePattern isotopePattern;
   private int charge = 0;
 
+  // Incremented on every change which is saved in the project, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
+
   /**
    * Initializes empty peak for adding data points
    */
@@ -163,6 +167,7 @@ public class ManualPeak implements Feature {
   @Override
   public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
     this.isotopePattern = isotopePattern;
+    modificationCount.incrementAndGet();
   }
 
   /**
@@ -288,6 +293,7 @@ public class ManualPeak implements Feature {
   @Override
   public void setCharge(int charge) {
     this.charge = charge;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -298,6 +304,7 @@ public class ManualPeak implements Feature {
   @Override
   public void setFWHM(Double fwhm) {
     this.fwhm = fwhm;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -308,6 +315,7 @@ public class ManualPeak implements Feature {
   @Override
   public void setTailingFactor(Double tf) {
     this.tf = tf;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -318,6 +326,7 @@ public class ManualPeak implements Feature {
   @Override
   public void setAsymmetryFactor(Double af) {
     this.af = af;
+    modificationCount.incrementAndGet();
   }
 
   // dulab Edit
@@ -329,6 +338,7 @@ public class ManualPeak implements Feature {
   @Override
   public void setPeakInformation(SimplePeakInformation peakInfoIn) {
     this.peakInfo = peakInfoIn;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -339,6 +349,7 @@ public class ManualPeak implements Feature {
   @Override
   public void setFragmentScanNumber(int fragmentScanNumber) {
     this.fragmentScan = fragmentScanNumber;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -369,5 +380,10 @@ public class ManualPeak implements Feature {
     this.peakList = peakList;
   }
 
+  @Override
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
 
 }
@@ -2,6 +2,7 @@ package io.github.mzmine.modules.dataprocessing.featdet_peakextender;
 
 import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
@@ -49,6 +50,9 @@ public class ExtendedPeak implements Feature {
   private IsotopePattern isotopePattern;
   private int charge = 0;
 
+  // Incremented on every change which is saved in the project, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
+
   // Array of scan numbers
   private int[] scanNumbers;
 
@@ -123,6 +127,7 @@ public class ExtendedPeak implements Feature {
    */
   public void setMostIntenseFragmentScanNumber(int scanNumber) {
     this.fragmentScan = scanNumber;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -178,6 +183,7 @@ public class ExtendedPeak implements Feature {
   @Override
   public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
     this.isotopePattern = isotopePattern;
+    modificationCount.incrementAndGet();
   }
 
   public void finishExtendedPeak() {
@@ -262,6 +268,7 @@ public class ExtendedPeak implements Feature {
   @Override
   public void setCharge(int charge) {
     this.charge = charge;
+    modificationCount.incrementAndGet();
   }
 
   /**
@@ -280,6 +287,7 @@ public class ExtendedPeak implements Feature {
   @Override
   public void setFWHM(Double fwhm) {
     this.fwhm = fwhm;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -290,6 +298,7 @@ public class ExtendedPeak implements Feature {
   @Override
   public void setTailingFactor(Double tf) {
     this.tf = tf;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -300,6 +309,7 @@ public class ExtendedPeak implements Feature {
   @Override
   public void setAsymmetryFactor(Double af) {
     this.af = af;
+    modificationCount.incrementAndGet();
   }
 
   // dulab Edit
@@ -311,6 +321,7 @@ public class ExtendedPeak implements Feature {
   @Override
   public void setPeakInformation(SimplePeakInformation peakInfoIn) {
     this.peakInfo = peakInfoIn;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -321,6 +332,7 @@ public class ExtendedPeak implements Feature {
   @Override
   public void setFragmentScanNumber(int fragmentScanNumber) {
     this.fragmentScan = fragmentScanNumber;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -351,4 +363,9 @@ public class ExtendedPeak implements Feature {
     this.peakList = peakList;
   }
 
+  @Override
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
 }
@@ -34,6 +34,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.R.REngineType;
+import io.github.mzmine.util.R.RSessionPool;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
 
@@ -117,9 +118,8 @@ public class BaselineCorrectionTask extends AbstractTask {
       // Check R availability, by trying to open the connection.
       String[] reqPackages = this.baselineCorrectorProcStep.getModule().getRequiredRPackages();
       String callerFeatureName = this.baselineCorrectorProcStep.getModule().getName();
-      this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, null);
-
-      this.rSession.open();
+      this.rSession =
+          RSessionPool.getInstance().lease(rEngineType, callerFeatureName, reqPackages, null);
 
       this.baselineCorrectorProcStep.getModule().initProgress(origDataFile);
 
@@ -145,9 +145,11 @@ public class BaselineCorrectionTask extends AbstractTask {
 
         logger.info("Baseline corrected " + origDataFile.getName());
       }
-      // Turn off R instance, once task ended gracefully.
-      if (!isCanceled())
-        this.rSession.close(false);
+      // Return R instance to the pool, once task ended gracefully.
+      if (!isCanceled()) {
+        RSessionPool.getInstance().release(this.rSession);
+        this.rSession = null;
+      }
 
     } catch (IOException | RSessionWrapperException e) {
       if (!isCanceled()) {
@@ -163,7 +165,7 @@ public class BaselineCorrectionTask extends AbstractTask {
 
     // Turn off R instance, once task ended UNgracefully.
     try {
-      if (!isCanceled())
+      if (!isCanceled() && this.rSession != null)
         this.rSession.close(isCanceled());
     } catch (RSessionWrapperException e) {
       if (!isCanceled()) {
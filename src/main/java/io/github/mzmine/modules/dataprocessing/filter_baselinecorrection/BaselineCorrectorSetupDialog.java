@@ -44,6 +44,7 @@ import io.github.mzmine.parameters.dialogs.ParameterSetupDialogWithChromatogramP
 import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.R.RSessionPool;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
 import javafx.application.Platform;
@@ -198,9 +199,8 @@ public class BaselineCorrectorSetupDialog extends ParameterSetupDialogWithChroma
         // Check R availability, by trying to open the connection
         try {
           String[] reqPackages = baselineCorrector.getRequiredRPackages();
-          this.rSession = new RSessionWrapper(baselineCorrector.getRengineType(),
+          this.rSession = RSessionPool.getInstance().lease(baselineCorrector.getRengineType(),
               baselineCorrector.getName(), reqPackages, null);
-          this.rSession.open();
         } catch (RSessionWrapperException e) {
           errorMsg = e.getMessage();
           updateStatus(TaskStatus.ERROR);
@@ -249,10 +249,12 @@ public class BaselineCorrectorSetupDialog extends ParameterSetupDialogWithChroma
           }
         }
 
-        // Turn off R instance.
+        // Return R instance to the pool.
         try {
-          if (!this.userCanceled)
-            this.rSession.close(false);
+          if (!this.userCanceled) {
+            RSessionPool.getInstance().release(this.rSession);
+            this.rSession = null;
+          }
         } catch (RSessionWrapperException e) {
           if (!this.userCanceled) {
             if (errorMsg == null)
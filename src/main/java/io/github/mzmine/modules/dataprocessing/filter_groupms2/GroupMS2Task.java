@@ -18,6 +18,9 @@
 
 package io.github.mzmine.modules.dataprocessing.filter_groupms2;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
@@ -27,13 +30,12 @@ import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
-import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 /**
  * Filters out feature list rows.
@@ -45,7 +47,8 @@ public class GroupMS2Task extends AbstractTask {
   // Feature lists.
   private final MZmineProject project;
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger(0);
+  private int totalRows;
   // Parameters.
   private final ParameterSet parameters;
   private PeakList list;
@@ -69,14 +72,13 @@ public class GroupMS2Task extends AbstractTask {
     mzTol = parameters.getParameter(GroupMS2Parameters.mzTol).getValue();
     limitRTByFeature = parameters.getParameter(GroupMS2Parameters.limitRTByFeature).getValue();
     this.list = list;
-    processedRows = 0;
     totalRows = 0;
   }
 
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -92,8 +94,14 @@ public class GroupMS2Task extends AbstractTask {
       setStatus(TaskStatus.PROCESSING);
 
       totalRows = list.getNumberOfRows();
+
+      // MS2 scans of each raw data file, sorted by precursor m/z
+      final Map<RawDataFile, PrecursorScanIndex> precursorIndices = new ConcurrentHashMap<>();
+      list.getRawDataFiles().parallelStream()
+          .forEach(raw -> precursorIndices.put(raw, new PrecursorScanIndex(raw)));
+
       // for all features
-      for (PeakListRow row : list.getRows()) {
+      list.parallelStream().forEach(row -> {
         for (Feature f : row.getPeaks()) {
           if (getStatus() == TaskStatus.ERROR)
             return;
@@ -101,51 +109,33 @@ public class GroupMS2Task extends AbstractTask {
             return;
 
           RawDataFile raw = f.getDataFile();
-          IntArrayList scans = new IntArrayList();
-          int best = f.getRepresentativeScanNumber();
-          double frt = f.getRT();
-          double fmz = f.getMZ();
-          Range<Double> rtRange = f.getRawDataPointsRTRange();
-          int i = best;
-          // left
-          while (i > 1) {
-            i--;
-            Scan scan = raw.getScan(i);
-            if (scan != null) {
-              if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
-                  && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
-                if (scan.getPrecursorMZ() != 0
-                    && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
-                  scans.add(i);
-              } else {
-                // end of loop - out of tolerance
-                break;
-              }
-            }
-          }
-          int[] scanNumbers = raw.getScanNumbers();
-          // right
-          while (i < scanNumbers[scanNumbers.length - 1]) {
-            i++;
-            Scan scan = raw.getScan(i);
-            // scanID does not have to be contiguous
-            if (scan != null) {
-              if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
-                  && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
-                if (scan.getPrecursorMZ() != 0
-                    && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
-                  scans.add(i);
-              } else {
-                // end of loop - out of tolerance
-                break;
-              }
+          PrecursorScanIndex precursorIndex =
+              precursorIndices.computeIfAbsent(raw, PrecursorScanIndex::new);
+
+          // all MS2 scans within the RT tolerance (and the feature's RT range) with the precursor
+          // m/z within the m/z tolerance
+          Range<Double> rtRange = rtTol.getToleranceRange(f.getRT());
+          if (limitRTByFeature) {
+            if (!rtRange.isConnected(f.getRawDataPointsRTRange())) {
+              f.setAllMS2FragmentScanNumbers(new int[0]);
+              continue;
             }
+            rtRange = rtRange.intersection(f.getRawDataPointsRTRange());
           }
+          Range<Double> mzRange = mzTol.getToleranceRange(f.getMZ());
+
           // set list to feature
-          f.setAllMS2FragmentScanNumbers(scans.toIntArray());
+          f.setAllMS2FragmentScanNumbers(precursorIndex.getScanNumbers(mzRange, rtRange));
         }
-        processedRows++;
-      }
+        processedRows.incrementAndGet();
+      });
+
+      if (isCanceled())
+        return;
+
+      // The features were changed in place, so the feature list itself records the task
+      list.addDescriptionOfAppliedTask(
+          new SimplePeakListAppliedMethod("Group MS2 scans with features", parameters));
 
       setStatus(TaskStatus.FINISHED);
       logger.info("Finished adding all MS2 scans to their features in " + list.getName());
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_groupms2;
+
+import java.util.Arrays;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.util.MZSortedIndex;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Index of the scans of one raw data file which have a precursor m/z (MS2 and higher), sorted by
+ * precursor m/z, with their retention times in a parallel primitive array. Built once per raw data
+ * file, it is thread-safe.
+ */
+class PrecursorScanIndex {
+
+  private final MZSortedIndex precursorIndex;
+  private final int[] scanNumbers;
+  private final double[] retentionTimes;
+
+  PrecursorScanIndex(RawDataFile raw) {
+    IntArrayList numbers = new IntArrayList();
+    DoubleArrayList rts = new DoubleArrayList();
+    DoubleArrayList precursorMZs = new DoubleArrayList();
+    for (int scanNumber : raw.getScanNumbers()) {
+      Scan scan = raw.getScan(scanNumber);
+      if (scan != null && scan.getPrecursorMZ() != 0) {
+        numbers.add(scanNumber);
+        rts.add(scan.getRetentionTime());
+        precursorMZs.add(scan.getPrecursorMZ());
+      }
+    }
+
+    scanNumbers = numbers.toIntArray();
+    retentionTimes = rts.toDoubleArray();
+    precursorIndex = new MZSortedIndex(precursorMZs.toDoubleArray());
+  }
+
+  /**
+   * @param mzRange precursor m/z range
+   * @param rtRange retention time range
+   * @return the numbers of the scans with a precursor m/z and retention time within both ranges,
+   *         sorted
+   */
+  int[] getScanNumbers(Range<Double> mzRange, Range<Double> rtRange) {
+    IntArrayList scans = new IntArrayList();
+    final int to = precursorIndex.upperBound(mzRange.upperEndpoint());
+    for (int p = precursorIndex.lowerBound(mzRange.lowerEndpoint()); p < to; p++) {
+      int i = precursorIndex.getIndex(p);
+      if (rtRange.contains(retentionTimes[i]))
+        scans.add(scanNumbers[i]);
+    }
+    int[] result = scans.toIntArray();
+    Arrays.sort(result);
+    return result;
+  }
+
+}
@@ -27,8 +27,6 @@ import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.datamodel.impl.SimplePeakListRow;
-import io.github.mzmine.gui.preferences.MZminePreferences;
-import io.github.mzmine.gui.preferences.NumOfThreadsParameter;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
@@ -156,20 +154,9 @@ class MultiThreadPeakFinderMainTask extends AbstractTask {
   }
 
   private int getMaxThreads() {
-    int maxRunningThreads = 1;
-    NumOfThreadsParameter parameter =
-        MZmineCore.getConfiguration().getPreferences().getParameter(MZminePreferences.numOfThreads);
-    if (parameter.isAutomatic() || (parameter.getValue() == null))
-      maxRunningThreads = Runtime.getRuntime().availableProcessors();
-    else
-      maxRunningThreads = parameter.getValue();
-
-    // raw files
-    int raw = peakList.getNumberOfRawDataFiles();
-    // raw files<?
-    if (raw < maxRunningThreads)
-      maxRunningThreads = raw;
-    return maxRunningThreads;
+    // not more threads than raw files
+    return MZmineCore.getConfiguration().getPreferences()
+        .getNumOfThreads(peakList.getNumberOfRawDataFiles());
   }
 
   /**
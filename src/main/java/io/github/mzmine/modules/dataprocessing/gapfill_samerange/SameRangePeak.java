@@ -19,6 +19,7 @@
 package io.github.mzmine.modules.dataprocessing.gapfill_samerange;
 
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import com.google.common.collect.Range;
 import com.google.common.primitives.Ints;
@@ -63,6 +64,9 @@ class SameRangePeak implements Feature {
   private IsotopePattern isotopePattern;
   private int charge = 0;
 
+  // Incremented on every change which is saved in the project, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
+
   /**
    * Initializes empty peak for adding data points
    */
@@ -259,6 +263,7 @@ class SameRangePeak implements Feature {
 
   public void setMZ(double mz) {
     this.mz = mz;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -284,6 +289,7 @@ class SameRangePeak implements Feature {
   @Override
   public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
     this.isotopePattern = isotopePattern;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -294,6 +300,7 @@ class SameRangePeak implements Feature {
   @Override
   public void setCharge(int charge) {
     this.charge = charge;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -304,6 +311,7 @@ class SameRangePeak implements Feature {
   @Override
   public void setFWHM(Double fwhm) {
     this.fwhm = fwhm;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -314,6 +322,7 @@ class SameRangePeak implements Feature {
   @Override
   public void setTailingFactor(Double tf) {
     this.tf = tf;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -324,6 +333,7 @@ class SameRangePeak implements Feature {
   @Override
   public void setAsymmetryFactor(Double af) {
     this.af = af;
+    modificationCount.incrementAndGet();
   }
 
   // dulab Edit
@@ -335,6 +345,7 @@ class SameRangePeak implements Feature {
   @Override
   public void setPeakInformation(SimplePeakInformation peakInfoIn) {
     this.peakInfo = peakInfoIn;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -345,6 +356,7 @@ class SameRangePeak implements Feature {
   @Override
   public void setFragmentScanNumber(int fragmentScanNumber) {
     this.fragmentScan = fragmentScanNumber;
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -375,5 +387,10 @@ class SameRangePeak implements Feature {
     this.peakList = peakList;
   }
 
+  @Override
+  public long getModificationCount() {
+    return modificationCount.get();
+  }
+
 
 }
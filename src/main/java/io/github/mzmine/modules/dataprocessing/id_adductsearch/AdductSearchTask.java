@@ -22,10 +22,14 @@ import static io.github.mzmine.modules.dataprocessing.id_adductsearch.AdductSear
 import static io.github.mzmine.modules.dataprocessing.id_adductsearch.AdductSearchParameters.MAX_ADDUCT_HEIGHT;
 import static io.github.mzmine.modules.dataprocessing.id_adductsearch.AdductSearchParameters.MZ_TOLERANCE;
 import static io.github.mzmine.modules.dataprocessing.id_adductsearch.AdductSearchParameters.RT_TOLERANCE;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
@@ -34,6 +38,7 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MZSortedIndex;
 import io.github.mzmine.util.PeakListRowSorter;
 import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
@@ -43,7 +48,7 @@ public class AdductSearchTask extends AbstractTask {
   // Logger.
   private static final Logger logger = Logger.getLogger(AdductSearchTask.class.getName());
 
-  private int finishedRows;
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
   private int totalRows;
   private final PeakList peakList;
 
@@ -65,7 +70,6 @@ public class AdductSearchTask extends AbstractTask {
     peakList = list;
     parameters = parameterSet;
 
-    finishedRows = 0;
     totalRows = 0;
 
     rtTolerance = parameterSet.getParameter(RT_TOLERANCE).getValue();
@@ -77,7 +81,7 @@ public class AdductSearchTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) finishedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) finishedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -116,7 +120,10 @@ public class AdductSearchTask extends AbstractTask {
   }
 
   /**
-   * Search peak-list for adducts.
+   * Search peak-list for adducts. The rows are indexed by m/z, so for each main row and adduct only
+   * the rows around the expected adduct m/z are checked. Main rows are searched in parallel, the
+   * identities are then added to each adduct row in the same order as a sequential search (main rows
+   * by decreasing height, then adducts in the selected order).
    */
   private void searchAdducts() {
 
@@ -127,36 +134,63 @@ public class AdductSearchTask extends AbstractTask {
     // Start with the highest peaks.
     Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Compare each pair of rows against each other.
-    for (int i = 0; !isCanceled() && i < totalRows; i++) {
-      for (int j = 0; !isCanceled() && j < totalRows; j++) {
-
-        if (i == j)
-          continue;
-
-        findAdducts(rows[i], rows[j]);
+    final MZSortedIndex mzIndex = MZSortedIndex.ofRows(rows);
+    final AdductType[] adducts = selectedAdducts.toArray(new AdductType[0]);
+
+    // Matches of each main row: {adduct row, adduct type}
+    @SuppressWarnings("unchecked")
+    final List<int[]>[] matches = new List[totalRows];
+
+    IntStream.range(0, totalRows).parallel().forEach(i -> {
+      if (isCanceled())
+        return;
+
+      final PeakListRow mainRow = rows[i];
+      List<int[]> rowMatches = null;
+      for (int k = 0; k < adducts.length; k++) {
+        final Range<Double> mzRange =
+            mzTolerance.getToleranceRange(mainRow.getAverageMZ() + adducts[k].getMassDifference());
+        final int to = mzIndex.upperBound(mzRange.upperEndpoint());
+        for (int p = mzIndex.lowerBound(mzRange.lowerEndpoint()); p < to; p++) {
+          final int j = mzIndex.getIndex(p);
+          if (i == j || !checkAdduct(mainRow, rows[j], adducts[k]))
+            continue;
+          if (rowMatches == null)
+            rowMatches = new ArrayList<>();
+          rowMatches.add(new int[] {j, k});
+        }
+      }
+      matches[i] = rowMatches;
+
+      finishedRows.incrementAndGet();
+    });
+
+    if (isCanceled())
+      return;
+
+    // Group the matches by adduct row, keeping the order of the main rows
+    @SuppressWarnings("unchecked")
+    final List<int[]>[] identities = new List[totalRows];
+    for (int i = 0; i < totalRows; i++) {
+      if (matches[i] == null)
+        continue;
+      // For one pair of rows, the adducts must be in the selected order
+      matches[i].sort((a, b) -> Integer.compare(a[1], b[1]));
+      for (int[] match : matches[i]) {
+        if (identities[match[0]] == null)
+          identities[match[0]] = new ArrayList<>();
+        identities[match[0]].add(new int[] {i, match[1]});
       }
-
-      finishedRows++;
     }
-  }
-
-  /**
-   * Check if candidate peak may be a possible adduct of a given main peak.
-   *
-   * @param mainRow main peak.
-   * @param possibleAdduct candidate adduct peak.
-   */
-  private void findAdducts(final PeakListRow mainRow, final PeakListRow possibleAdduct) {
-
-    for (final AdductType adduct : selectedAdducts) {
-
-      if (checkAdduct(mainRow, possibleAdduct, adduct)) {
 
+    IntStream.range(0, totalRows).parallel().forEach(j -> {
+      if (identities[j] == null)
+        return;
+      for (int[] identity : identities[j]) {
         // Add adduct identity and notify GUI.
-        possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
+        rows[j].addPeakIdentity(new AdductIdentity(rows[identity[0]], adducts[identity[1]]), false);
       }
-    }
+    });
   }
 
   /**
@@ -65,6 +65,7 @@ import io.github.mzmine.util.DataPointSorter;
 import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
 import io.github.mzmine.util.R.REngineType;
+import io.github.mzmine.util.R.RSessionPool;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
 
@@ -239,9 +240,8 @@ public class CameraSearchTask extends AbstractTask {
 
       String[] reqPackages = {"CAMERA"};
       String[] reqPackagesVersions = {CAMERA_VERSION};
-      this.rSession = new RSessionWrapper(this.rEngineType, "Camera search feature", reqPackages,
-          reqPackagesVersions);
-      this.rSession.open();
+      this.rSession = RSessionPool.getInstance().lease(this.rEngineType, "Camera search feature",
+          reqPackages, reqPackagesVersions);
 
       // Create empty peaks matrix.
       this.rSession.eval(
@@ -458,9 +458,11 @@ public class CameraSearchTask extends AbstractTask {
         addPseudoSpectraIdentities(peaks, spectra, isotopes, adducts);
       }
       progress += progressInc;
-      // Turn off R instance, once task ended gracefully.
-      if (!this.userCanceled)
-        this.rSession.close(false);
+      // Return R instance to the pool, once task ended gracefully.
+      if (!this.userCanceled) {
+        RSessionPool.getInstance().release(this.rSession);
+        this.rSession = null;
+      }
 
     } catch (RSessionWrapperException e) {
       if (!this.userCanceled) {
@@ -476,7 +478,7 @@ public class CameraSearchTask extends AbstractTask {
 
     // Turn off R instance, once task ended UNgracefully.
     try {
-      if (!this.userCanceled)
+      if (!this.userCanceled && this.rSession != null)
         this.rSession.close(this.userCanceled);
     } catch (RSessionWrapperException e) {
       if (!this.userCanceled) {
@@ -20,7 +20,6 @@ package io.github.mzmine.modules.dataprocessing.id_cliquems.cliquemsimplementati
 
 
 import com.google.common.collect.Range;
-import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
@@ -28,7 +27,6 @@ import io.github.mzmine.modules.dataprocessing.id_cliquems.CliqueMSTask;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -56,8 +54,8 @@ public class ComputeCliqueModule {
   //variables to update progress
   private final MutableDouble progress;
 
-  //cosine correlation matrix calculated over columns of EIC matrix
-  private double[][] cosineCorrelation;
+  //cosine correlation between the EICs of co-eluting features
+  private SparseCosineCorrelation cosineCorrelation;
 
   public ComputeCliqueModule(PeakList peakList, RawDataFile rdf, MutableDouble progress,
       CliqueMSTask task) {
@@ -105,140 +103,29 @@ public class ComputeCliqueModule {
     return peakDataList;
   }
 
-  /**
-   * EIC matrix is a axb (a = #rts or #scans, b = #features) dimension matrix. The ith column
-   * corresponds for the ith feature. For each column, the jth row value is calculated as follows -
-   * 1) If j does not lies in the index of rt range of the ith feature, value is 0 (EIC[j][i] = 0)
-   * 2) Else, the value is the mean intensities for the jth scan's datapoints' intensities (only
-   * those intensities whose corresponding mass in datapoint is in the mzRange of ith feature)
-   * <p>
-   * EIC matrix is further used to calculate cosine similarity matrix
-   *
-   * @param file         raw data file
-   * @param peakDataList contains peak data
-   * @return double [][] EIC matrix
-   */
-  private double[][] getEIC(RawDataFile file, List<PeakData> peakDataList) {
-    List<List<DataPoint>> dataPoints = new ArrayList<>(); // contains m/z and intensity data
-    List<Double> rts = new ArrayList<>(); // holds Retention Time values in seconds
-    for (int z : file.getScanNumbers()) {
-      rts.add(file.getScan(z).getRetentionTime() * 60.0); // conversion for minutes to seconds
-      List<DataPoint> dps = new ArrayList<DataPoint>(
-          Arrays.asList(file.getScan(z).getDataPoints()));
-
-      dataPoints.add(dps);
-    }
-    // nrows = #rts , ncols = # peaks, already transposed as in R code
-    double EIC[][] = new double[file.getScanNumbers().length][peakDataList.size()];
-    for (int i = 0; i < file.getScanNumbers().length; i++) {
-      for (int j = 0; j < peakDataList.size(); j++) {
-        EIC[i][j] = 0.0;
-      }
-    }
-
-    for (int i = 0; i < peakDataList.size(); i++) {
-      if (drivertask.isCanceled()) {
-        return EIC;
-      }
-      PeakData pd = peakDataList.get(i);
-      int posrtmin = rts.indexOf(pd.getRtmin() * 60.0); // position where peak matches rtmin
-      int posrtmax = rts.indexOf(pd.getRtmax() * 60.0); // position where peak matches rtmax
-
-      for (int j = posrtmin; j < posrtmax; j += 1) {
-        List<Double> intensities = new ArrayList<>();
-        for (DataPoint dp : dataPoints.get(j)) {
-          Double mzMin = pd.getMzmin();
-          Double mzMax = pd.getMzmax();
-          Double dp_mz = dp.getMZ();
-          if (dp_mz <= mzMax && dp_mz >= mzMin) {
-            intensities.add(dp.getIntensity());
-          }
-        }
-        if (intensities.size() == 0) {
-          EIC[j][i] = 0.0; // no effect
-        } else {
-          Double meanInt = 0.0;
-          for (Double d : intensities) {
-            meanInt += d;
-          }
-          meanInt /= intensities.size();
-          EIC[j][i] = meanInt;
-        }
-
-
-      }
-//      progress update
-      this.progress.setValue(drivertask.EIC_PROGRESS * ((double) i / (double) peakDataList.size()));
-    }
-
-    return EIC;
-
-  }
-
-  //TODO make use of sparse matrix, make algo time efficient
-
-  /**
-   * Computes cosine correlation of data (EIC) matrix over the columns, so for ixj dimension EIC
-   * matrix, the [x,y]th element of cosine correlation matrix contains the cosine similarity between
-   * the xth and the yth column of EIC matrix, so cosine correlation matrix has dimension jxj
-   *
-   * @param data EIC matrix
-   * @return cosine correlation matrix
-   */
-  private double[][] cosCorrbyColumn(double[][] data) {
-    int row = data.length, col = data[0].length;
-    double[][] corr = new double[col][col];
-
-    for (int i = 0; i < col; i++) {
-      for (int j = 0; j < col; j++) {
-        corr[i][j] = 0.0;
-      }
-    }
-
-    for (int i = 0; i < col; i++) {
-      for (int j = 0; j < col; j++) {
-        if (drivertask.isCanceled()) {
-          return corr;
-        }
-        double modi = 0.0, modj = 0.0;
-        for (int k = 0; k < row; k++) {
-          corr[i][j] += data[k][i] * data[k][j];
-          modi += data[k][i] * data[k][i];
-          modj += data[k][j] * data[k][j];
-        }
-        modi = Math.sqrt(modi);
-        modj = Math.sqrt(modj);
-        corr[i][j] = corr[i][j] / (modi * modj);
-      }
-      //update progress
-      this.progress.setValue(
-          drivertask.EIC_PROGRESS + drivertask.MATRIX_PROGRESS * ((double) (i + 1) / (double) col));
-    }
-    return corr;
-  }
-
-
   /**
    * identify peaks with very similar cosine correlation, m/z, rt and intensity
    *
-   * @param cosineCorr   cosine correlation matrix
+   * @param cosineCorr   cosine correlation adjacency list
    * @param peakDataList contains features' information
    * @param mzdiff       tolerance value for mz
    * @param intdiff      tolerance value for intensity
    * @param rtdiff       tolerance value for rt
    * @return node ID of similar features
    */
-  private List<Integer> similarFeatures(double[][] cosineCorr, List<PeakData> peakDataList,
-      MZTolerance mzdiff, RTTolerance rtdiff,
+  private List<Integer> similarFeatures(SparseCosineCorrelation cosineCorr,
+      List<PeakData> peakDataList, MZTolerance mzdiff, RTTolerance rtdiff,
       double intdiff) {
     //find all elements in cosineCorr with i<j and value > 0.99
     List<Integer> edgeX = new ArrayList<>();
     List<Integer> edgeY = new ArrayList<>();
-    for (int i = 0; i < cosineCorr.length; i++) {
-      for (int j = i + 1; j < cosineCorr[0].length; j++) {
-        if (cosineCorr[i][j] > 0.99) {
+    for (int i = 0; i < cosineCorr.size(); i++) {
+      int[] neighbours = cosineCorr.getNeighbours(i);
+      double[] weights = cosineCorr.getWeights(i);
+      for (int k = 0; k < neighbours.length; k++) {
+        if (weights[k] > 0.99) {
           edgeX.add(i);
-          edgeY.add(j);
+          edgeY.add(neighbours[k]);
         }
       }
     }
@@ -287,13 +174,13 @@ public class ComputeCliqueModule {
   /**
    * Removes nodes that are too similar in rt, mz and intensity values
    *
-   * @param cosinus cosine correlation matrix
+   * @param cosinus cosine correlation adjacency list
    * @param peakDL  peak Data list
    * @param mzdiff  tolerance values for similarity
    * @param rtdiff  tolerance values for similarity
    * @param intdiff tolerance values for similarity
    */
-  private void filterFeatures(double[][] cosinus, List<PeakData> peakDL, MZTolerance mzdiff,
+  private void filterFeatures(SparseCosineCorrelation cosinus, List<PeakData> peakDL, MZTolerance mzdiff,
       RTTolerance rtdiff,
       double intdiff) {
     List<PeakData> modifiedPeakDataList = new ArrayList<>();
@@ -304,38 +191,21 @@ public class ComputeCliqueModule {
     }
 
     //remove the peakdata containing
+    boolean[] deleted = new boolean[peakDataList.size()];
+    for (Integer i : deleteIndices) {
+      deleted[i] = true;
+    }
     for (int i = 0; i < peakDataList.size(); i++) {
       PeakData pd = peakDataList.get(i);
-      if (deleteIndices.contains(i)) {
+      if (deleted[i]) {
         continue;
       }
       PeakData pdmod = new PeakData(pd);
       modifiedPeakDataList.add(pdmod);
     }
 
-    double[][] modifiedCosineCorr = new double[cosinus.length - deleteIndices.size()][
-        cosinus[0].length - deleteIndices.size()];
-    //deleting row and columns of indices in deleteIndices
-    int colShift = 0;
-
-    for (int i = 0; i < cosinus.length; i++) {
-      int rowShift = 0;
-      if (colShift < deleteIndices.size() && i == deleteIndices.get(colShift)) {
-        colShift++;
-        continue;
-      }
-      for (int j = 0; j < cosinus[0].length; j++) {
-        if (rowShift < deleteIndices.size() && j == deleteIndices.get(rowShift)) {
-          rowShift++;
-          continue;
-        }
-        modifiedCosineCorr[i - colShift][j - rowShift] = cosinus[i][j];
-      }
-
-
-    }
-
-    this.cosineCorrelation = modifiedCosineCorr;
+    //deleting edges of nodes in deleteIndices
+    this.cosineCorrelation = cosinus.removeNodes(deleteIndices);
     anClique.changePeakDataList(modifiedPeakDataList);
     this.peakDataList = modifiedPeakDataList;
     logger.log(Level.FINEST, deleteIndices.size() + " features deleted.");
@@ -394,14 +264,9 @@ public class ComputeCliqueModule {
     if (anClique.cliquesFound) {
       logger.log(Level.WARNING, "cliques have already been computed!");
     }
-    double EIC[][] = getEIC(rawDataFile, peakDataList);
-
-    if (drivertask.isCanceled()) {
-      return anClique;
-    }
-
-    this.cosineCorrelation = cosCorrbyColumn(EIC);
-    if (drivertask.isCanceled()) {
+    this.cosineCorrelation = SparseCosineCorrelation.compute(rawDataFile, peakDataList,
+        this.progress, drivertask);
+    if (drivertask.isCanceled() || cosineCorrelation == null) {
       return anClique;
     }
     if (filter) {
@@ -412,6 +277,8 @@ public class ComputeCliqueModule {
     for (PeakData pd : peakDataList) {
       nodeIDList.add(pd.getNodeID());
     }
+    logger.log(Level.FINEST,
+        cosineCorrelation.getNumberOfEdges() + " edges between co-eluting features.");
     anClique.getNetwork()
         .returnCliques(cosineCorrelation, nodeIDList, tol, false, this.progress, this.drivertask);
     updateCliques();
@@ -64,16 +64,19 @@ public class NetworkCliqueMS {
     return edges;
   }
 
-  private void createEdges(double[][] adjacencyMatrix, List<Integer> nodeIDList) {
-    for (int i = 0; i < adjacencyMatrix.length; i++) {
-      for (int j = i + 1; j < adjacencyMatrix[0].length; j++) {
-        if (adjacencyMatrix[i][j] > 0.0) {
-          Pair<Integer, Integer> p = new Pair(nodeIDList.get(i), nodeIDList.get(j));
-          if (adjacencyMatrix[i][j] == 1) {
+  private void createEdges(SparseCosineCorrelation adjacency, List<Integer> nodeIDList) {
+    for (int i = 0; i < adjacency.size(); i++) {
+      int[] neighbourIndices = adjacency.getNeighbours(i);
+      double[] weights = adjacency.getWeights(i);
+      for (int k = 0; k < neighbourIndices.length; k++) {
+        if (weights[k] > 0.0) {
+          Pair<Integer, Integer> p = new Pair(nodeIDList.get(i),
+              nodeIDList.get(neighbourIndices[k]));
+          if (weights[k] == 1) {
             // change similarity of 1 to 0.99999999999 to non avoid NaN
             this.edges.put(p, 0.99999999999);
           } else {
-            this.edges.put(p, adjacencyMatrix[i][j]);
+            this.edges.put(p, weights[k]);
           }
         }
       }
@@ -140,10 +143,10 @@ public class NetworkCliqueMS {
   }
 
   //initializeNetwork
-  private void createNetwork(double[][] adjacencyMatrix, List<Integer> nodeIDList) {
+  private void createNetwork(SparseCosineCorrelation adjacency, List<Integer> nodeIDList) {
     //import edges
     double exp = 2.0;
-    createEdges(adjacencyMatrix, nodeIDList);
+    createEdges(adjacency, nodeIDList);
     createNodesFromEdges();
     createNeighboursFromEdges();
     createCliques();
@@ -489,12 +492,12 @@ public class NetworkCliqueMS {
     return loglResult;
   }
 
-  public void returnCliques(double[][] adjacencyMatrix, List<Integer> nodeIDList, double tolerance,
-      boolean silent, MutableDouble progress, CliqueMSTask task) {
+  public void returnCliques(SparseCosineCorrelation adjacency, List<Integer> nodeIDList,
+      double tolerance, boolean silent, MutableDouble progress, CliqueMSTask task) {
     try {
       this.progress = progress;
       this.driverTask = task;
-      createNetwork(adjacencyMatrix, nodeIDList);
+      createNetwork(adjacency, nodeIDList);
       Double logl = loglTotal();
       logger.log(Level.FINEST, "Beginning value of logl is " + logl);
       int step = 10;
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.id_cliquems.cliquemsimplementation;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.modules.dataprocessing.id_cliquems.CliqueMSTask;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.apache.commons.lang3.mutable.MutableDouble;
+
+/**
+ * Sparse cosine similarity between the EICs of the features, stored as an adjacency list. Two
+ * features can only have a positive similarity if their EICs share at least one scan, so instead of
+ * the dense EIC matrix (#scans x #features) and the dense cosine matrix (#features x #features),
+ * each feature keeps its EIC only over its own scan range and the similarity is computed only
+ * between features whose scan ranges overlap.
+ * <p>
+ * For each feature i, only the neighbours j > i with a positive similarity are stored (sorted by
+ * j), so each undirected edge is stored once.
+ */
+public class SparseCosineCorrelation {
+
+  private static final int[] NO_NEIGHBOURS = new int[0];
+  private static final double[] NO_WEIGHTS = new double[0];
+
+  private final int[][] neighbours;
+  private final double[][] weights;
+
+  private SparseCosineCorrelation(int[][] neighbours, double[][] weights) {
+    this.neighbours = neighbours;
+    this.weights = weights;
+  }
+
+  /**
+   * Extracts the EIC slices of the features and computes the cosine similarity of all co-eluting
+   * feature pairs, both in parallel. The EIC value of a feature in a scan of its rt range is the
+   * mean intensity of the scan's data points in the mz range of the feature, as in the CliqueMS R
+   * package.
+   *
+   * @param file         raw data file
+   * @param peakDataList features
+   * @param progress     updated from 0 to EIC_PROGRESS + MATRIX_PROGRESS of the driver task
+   * @param driverTask   driver task, checked for cancellation
+   * @return the similarities, or null if the task was canceled
+   */
+  public static SparseCosineCorrelation compute(RawDataFile file, List<PeakData> peakDataList,
+      MutableDouble progress, CliqueMSTask driverTask) {
+
+    // Data points of all scans as primitive arrays sorted by mz, rts in seconds
+    final int[] scanNumbers = file.getScanNumbers();
+    final double[][] scanMZs = new double[scanNumbers.length][];
+    final double[][] scanIntensities = new double[scanNumbers.length][];
+    final Map<Double, Integer> rtIndex = new HashMap<>();
+    for (int s = 0; s < scanNumbers.length; s++) {
+      if (driverTask.isCanceled()) {
+        return null;
+      }
+      rtIndex.putIfAbsent(file.getScan(scanNumbers[s]).getRetentionTime() * 60.0, s);
+      DataPoint[] dataPoints = file.getScan(scanNumbers[s]).getDataPoints();
+      if (!isSortedByMZ(dataPoints)) {
+        dataPoints = dataPoints.clone();
+        Arrays.sort(dataPoints, (a, b) -> Double.compare(a.getMZ(), b.getMZ()));
+      }
+      scanMZs[s] = new double[dataPoints.length];
+      scanIntensities[s] = new double[dataPoints.length];
+      for (int d = 0; d < dataPoints.length; d++) {
+        scanMZs[s][d] = dataPoints[d].getMZ();
+        scanIntensities[s][d] = dataPoints[d].getIntensity();
+      }
+    }
+
+    // EIC slices: feature i covers the scans [scanStart[i], scanStart[i] + eic[i].length)
+    final int numFeatures = peakDataList.size();
+    final int[] scanStart = new int[numFeatures];
+    final double[][] eic = new double[numFeatures][];
+    final double[] norm = new double[numFeatures];
+    final AtomicInteger processedFeatures = new AtomicInteger(0);
+
+    IntStream.range(0, numFeatures).parallel().forEach(i -> {
+      if (driverTask.isCanceled()) {
+        return;
+      }
+      PeakData pd = peakDataList.get(i);
+      Integer posrtmin = rtIndex.get(pd.getRtmin() * 60.0); // position where peak matches rtmin
+      Integer posrtmax = rtIndex.get(pd.getRtmax() * 60.0); // position where peak matches rtmax
+      if (posrtmin == null || posrtmax == null || posrtmax <= posrtmin) {
+        scanStart[i] = 0;
+        eic[i] = NO_WEIGHTS;
+      } else {
+        // the scan at rtmax is excluded, as in the R implementation
+        double[] slice = new double[posrtmax - posrtmin];
+        double squares = 0.0;
+        for (int s = posrtmin; s < posrtmax; s++) {
+          double meanInt = meanIntensity(scanMZs[s], scanIntensities[s], pd.getMzmin(),
+              pd.getMzmax());
+          slice[s - posrtmin] = meanInt;
+          squares += meanInt * meanInt;
+        }
+        scanStart[i] = posrtmin;
+        eic[i] = slice;
+        norm[i] = Math.sqrt(squares);
+      }
+      progress.setValue(driverTask.EIC_PROGRESS * ((double) processedFeatures.incrementAndGet()
+          / (double) numFeatures));
+    });
+
+    if (driverTask.isCanceled()) {
+      return null;
+    }
+
+    // Sweep over the features ordered by their first scan: all the features starting before the
+    // end of feature a (and not before its start) overlap with it, so each overlapping pair is
+    // found exactly once, by the feature which starts first
+    final Integer[] boxedOrder = new Integer[numFeatures];
+    for (int i = 0; i < numFeatures; i++) {
+      boxedOrder[i] = i;
+    }
+    Arrays.sort(boxedOrder, (a, b) -> Integer.compare(scanStart[a], scanStart[b]));
+    final int[] order = new int[numFeatures];
+    for (int i = 0; i < numFeatures; i++) {
+      order[i] = boxedOrder[i];
+    }
+
+    final int[][] foundPartners = new int[numFeatures][];
+    final double[][] foundWeights = new double[numFeatures][];
+    processedFeatures.set(0);
+
+    IntStream.range(0, numFeatures).parallel().forEach(p -> {
+      if (driverTask.isCanceled()) {
+        return;
+      }
+      final int a = order[p];
+      final double[] eicA = eic[a];
+      final int startA = scanStart[a];
+      final int endA = startA + eicA.length;
+
+      int count = 0;
+      int[] partners = NO_NEIGHBOURS;
+      double[] values = NO_WEIGHTS;
+      if (norm[a] > 0.0) {
+        for (int q = p + 1; q < numFeatures && scanStart[order[q]] < endA; q++) {
+          final int b = order[q];
+          if (!(norm[b] > 0.0)) {
+            continue;
+          }
+          final double[] eicB = eic[b];
+          final int startB = scanStart[b];
+          final int end = Math.min(endA, startB + eicB.length);
+          double dot = 0.0;
+          for (int s = startB; s < end; s++) {
+            dot += eicA[s - startA] * eicB[s - startB];
+          }
+          double cos = dot / (norm[a] * norm[b]);
+          if (cos > 0.0) {
+            if (count == partners.length) {
+              partners = Arrays.copyOf(partners, Math.max(8, count * 2));
+              values = Arrays.copyOf(values, partners.length);
+            }
+            partners[count] = b;
+            values[count] = cos;
+            count++;
+          }
+        }
+      }
+      foundPartners[p] = Arrays.copyOf(partners, count);
+      foundWeights[p] = Arrays.copyOf(values, count);
+
+      progress.setValue(driverTask.EIC_PROGRESS + driverTask.MATRIX_PROGRESS
+          * ((double) processedFeatures.incrementAndGet() / (double) numFeatures));
+    });
+
+    if (driverTask.isCanceled()) {
+      return null;
+    }
+
+    // Store each edge at its lower feature index
+    final int[] degree = new int[numFeatures];
+    for (int p = 0; p < numFeatures; p++) {
+      for (int b : foundPartners[p]) {
+        degree[Math.min(order[p], b)]++;
+      }
+    }
+    final int[][] neighbours = new int[numFeatures][];
+    final double[][] weights = new double[numFeatures][];
+    for (int i = 0; i < numFeatures; i++) {
+      neighbours[i] = degree[i] == 0 ? NO_NEIGHBOURS : new int[degree[i]];
+      weights[i] = degree[i] == 0 ? NO_WEIGHTS : new double[degree[i]];
+      degree[i] = 0;
+    }
+    for (int p = 0; p < numFeatures; p++) {
+      final int a = order[p];
+      for (int k = 0; k < foundPartners[p].length; k++) {
+        final int b = foundPartners[p][k];
+        final int lo = Math.min(a, b);
+        neighbours[lo][degree[lo]] = Math.max(a, b);
+        weights[lo][degree[lo]] = foundWeights[p][k];
+        degree[lo]++;
+      }
+    }
+
+    SparseCosineCorrelation correlation = new SparseCosineCorrelation(neighbours, weights);
+    IntStream.range(0, numFeatures).parallel().forEach(correlation::sortNeighbours);
+    return correlation;
+  }
+
+  /**
+   * @return the number of features (nodes)
+   */
+  public int size() {
+    return neighbours.length;
+  }
+
+  /**
+   * @return the neighbours j > i of feature i with a positive similarity, sorted
+   */
+  public int[] getNeighbours(int i) {
+    return neighbours[i];
+  }
+
+  /**
+   * @return the similarities to the neighbours of {@link #getNeighbours(int)}
+   */
+  public double[] getWeights(int i) {
+    return weights[i];
+  }
+
+  /**
+   * @return the number of stored (undirected) edges
+   */
+  public long getNumberOfEdges() {
+    long edges = 0;
+    for (int[] n : neighbours) {
+      edges += n.length;
+    }
+    return edges;
+  }
+
+  /**
+   * Removes features and all their edges, the remaining features are renumbered in their order.
+   *
+   * @param deleteIndices indices of the features to remove
+   * @return the similarities between the remaining features
+   */
+  public SparseCosineCorrelation removeNodes(List<Integer> deleteIndices) {
+    final int[] newIndex = new int[neighbours.length];
+    for (int i : deleteIndices) {
+      newIndex[i] = -1;
+    }
+    int remaining = 0;
+    for (int i = 0; i < neighbours.length; i++) {
+      if (newIndex[i] != -1) {
+        newIndex[i] = remaining++;
+      }
+    }
+
+    final int[][] newNeighbours = new int[remaining][];
+    final double[][] newWeights = new double[remaining][];
+    for (int i = 0; i < neighbours.length; i++) {
+      if (newIndex[i] == -1) {
+        continue;
+      }
+      int count = 0;
+      int[] n = new int[neighbours[i].length];
+      double[] w = new double[neighbours[i].length];
+      for (int k = 0; k < neighbours[i].length; k++) {
+        int j = newIndex[neighbours[i][k]];
+        if (j != -1) {
+          n[count] = j;
+          w[count] = weights[i][k];
+          count++;
+        }
+      }
+      newNeighbours[newIndex[i]] = Arrays.copyOf(n, count);
+      newWeights[newIndex[i]] = Arrays.copyOf(w, count);
+    }
+    return new SparseCosineCorrelation(newNeighbours, newWeights);
+  }
+
+  private void sortNeighbours(int i) {
+    final int[] n = neighbours[i];
+    final double[] w = weights[i];
+    final Integer[] permutation = new Integer[n.length];
+    for (int k = 0; k < n.length; k++) {
+      permutation[k] = k;
+    }
+    Arrays.sort(permutation, (a, b) -> Integer.compare(n[a], n[b]));
+    final int[] sortedNeighbours = new int[n.length];
+    final double[] sortedWeights = new double[n.length];
+    for (int k = 0; k < n.length; k++) {
+      sortedNeighbours[k] = n[permutation[k]];
+      sortedWeights[k] = w[permutation[k]];
+    }
+    neighbours[i] = sortedNeighbours;
+    weights[i] = sortedWeights;
+  }
+
+  /**
+   * Mean intensity of the data points within [mzMin, mzMax], 0 if there are none.
+   */
+  private static double meanIntensity(double[] mzs, double[] intensities, double mzMin,
+      double mzMax) {
+    int index = Arrays.binarySearch(mzs, mzMin);
+    if (index < 0) {
+      index = -index - 1;
+    } else {
+      // move to the first of equal values
+      while (index > 0 && mzs[index - 1] == mzMin) {
+        index--;
+      }
+    }
+    double sum = 0.0;
+    int count = 0;
+    for (; index < mzs.length && mzs[index] <= mzMax; index++) {
+      sum += intensities[index];
+      count++;
+    }
+    return count == 0 ? 0.0 : sum / count;
+  }
+
+  private static boolean isSortedByMZ(DataPoint[] dataPoints) {
+    for (int i = 1; i < dataPoints.length; i++) {
+      if (dataPoints[i - 1].getMZ() > dataPoints[i].getMZ()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -18,8 +18,12 @@
 
 package io.github.mzmine.modules.dataprocessing.id_complexsearch;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.IonizationType;
 import io.github.mzmine.datamodel.PeakList;
@@ -31,15 +35,17 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.PeakListRowSorter;
-import io.github.mzmine.util.SortingDirection;
-import io.github.mzmine.util.SortingProperty;
+import io.github.mzmine.util.MZSortedIndex;
 
 public class ComplexSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private int finishedRows, totalRows;
+  // Number of rows (in RT order) processed in one parallel block
+  private static final int RT_BLOCK_SIZE = 256;
+
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
+  private int totalRows;
   private PeakList peakList;
 
   private RTTolerance rtTolerance;
@@ -71,7 +77,7 @@ public class ComplexSearchTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0;
-    return ((double) finishedRows) / totalRows;
+    return ((double) finishedRows.get()) / totalRows;
   }
 
   /**
@@ -95,40 +101,94 @@ public class ComplexSearchTask extends AbstractTask {
     PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
     totalRows = rows.length;
 
-    // Sort the array by m/z so we start with biggest peak (possible
-    // complex)
-    Arrays.sort(rows, new PeakListRowSorter(SortingProperty.MZ, SortingDirection.Descending));
-
-    // Compare each three rows against each other
+    // Instead of testing every row against every pair of co-eluting rows, each pair of co-eluting
+    // rows looks up the rows with the m/z of their complex. The rows are indexed by RT (to find the
+    // pairs) and by m/z (to find the complexes).
+    final double[] rts = new double[totalRows];
+    double maxRTTolerance = 0;
     for (int i = 0; i < totalRows; i++) {
-
-      Range<Double> testRTRange = rtTolerance.getToleranceRange(rows[i].getAverageRT());
-      PeakListRow testRows[] = peakList.getRowsInsideScanRange(testRTRange);
-
-      for (int j = 0; j < testRows.length; j++) {
-
-        for (int k = j; k < testRows.length; k++) {
-
-          // Task canceled?
-          if (isCanceled())
-            return;
-
-          // To avoid finding a complex of the peak itself and another
-          // very small m/z peak
-          if ((rows[i] == testRows[j]) || (rows[i] == testRows[k]))
-            continue;
-
-          if (checkComplex(rows[i], testRows[j], testRows[k]))
-            addComplexInfo(rows[i], testRows[j], testRows[k]);
-
+      rts[i] = rows[i].getAverageRT();
+      Range<Double> rtRange = rtTolerance.getToleranceRange(rts[i]);
+      maxRTTolerance = Math.max(maxRTTolerance, rtRange.upperEndpoint() - rts[i]);
+    }
+    // Both rows of a complex are within the RT tolerance of the complex row, so they cannot be
+    // further apart than twice the tolerance (with some slack for rounding)
+    final double maxPairRTDistance = 2 * maxRTTolerance * (1 + 1E-9);
+
+    final int rtOrder[] = IntStream.range(0, totalRows).boxed()
+        .sorted(Comparator.comparingDouble(i -> rts[i])).mapToInt(Integer::intValue).toArray();
+    final MZSortedIndex mzIndex = MZSortedIndex.ofRows(rows);
+
+    // Matches found in each block: {complex row, row1, row2}, with row1 <= row2 in the feature
+    // list order
+    final int numBlocks = (totalRows + RT_BLOCK_SIZE - 1) / RT_BLOCK_SIZE;
+    @SuppressWarnings("unchecked")
+    final List<int[]>[] blockMatches = new List[numBlocks];
+
+    IntStream.range(0, numBlocks).parallel().forEach(block -> {
+      final List<int[]> matches = new ArrayList<>();
+      blockMatches[block] = matches;
+      final int blockEnd = Math.min(totalRows, (block + 1) * RT_BLOCK_SIZE);
+      for (int a = block * RT_BLOCK_SIZE; a < blockEnd; a++) {
+
+        // Task canceled?
+        if (isCanceled())
+          return;
+
+        final int j = rtOrder[a];
+        for (int b = a; b < totalRows && rts[rtOrder[b]] - rts[j] <= maxPairRTDistance; b++) {
+          final int k = rtOrder[b];
+          final int row1 = Math.min(j, k), row2 = Math.max(j, k);
+
+          // The complex m/z (the window is widened, the exact tolerance is checked in
+          // checkComplex)
+          double expectedMass =
+              rows[j].getAverageMZ() + rows[k].getAverageMZ() - (2 * ionType.getAddedMass());
+          double expectedMZ = expectedMass + ionType.getAddedMass();
+          double mzWindow = 2 * mzTolerance.getMzToleranceForMass(Math.abs(expectedMass));
+
+          final int to = mzIndex.upperBound(expectedMZ + mzWindow);
+          for (int p = mzIndex.lowerBound(expectedMZ - mzWindow); p < to; p++) {
+            final int i = mzIndex.getIndex(p);
+
+            // To avoid finding a complex of the peak itself and another
+            // very small m/z peak
+            if (i == j || i == k)
+              continue;
+
+            if (checkComplex(rows[i], rows[row1], rows[row2]))
+              matches.add(new int[] {i, row1, row2});
+          }
         }
 
+        finishedRows.incrementAndGet();
+      }
+    });
+
+    if (isCanceled())
+      return;
+
+    @SuppressWarnings("unchecked")
+    final List<int[]>[] complexes = new List[totalRows];
+    for (List<int[]> matches : blockMatches) {
+      for (int[] match : matches) {
+        if (complexes[match[0]] == null)
+          complexes[match[0]] = new ArrayList<>();
+        complexes[match[0]].add(new int[] {match[1], match[2]});
       }
-
-      finishedRows++;
-
     }
 
+    // Add the identities in the feature list order of the pairs
+    final Comparator<int[]> pairOrder =
+        Comparator.<int[]>comparingInt(pair -> pair[0]).thenComparingInt(pair -> pair[1]);
+    IntStream.range(0, totalRows).parallel().forEach(i -> {
+      if (complexes[i] == null)
+        return;
+      complexes[i].sort(pairOrder);
+      for (int[] pair : complexes[i])
+        addComplexInfo(rows[i], rows[pair[0]], rows[pair[1]]);
+    });
+
     // Add task description to peakList
     ((SimplePeakList) peakList).addDescriptionOfAppliedTask(
         new SimplePeakListAppliedMethod("Identification of complexes", parameters));
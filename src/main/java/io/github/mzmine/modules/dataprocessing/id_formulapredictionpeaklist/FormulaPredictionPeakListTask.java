@@ -19,6 +19,9 @@ package io.github.mzmine.modules.dataprocessing.id_formulapredictionpeaklist;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import org.openscience.cdk.formula.MolecularFormulaGenerator;
 import org.openscience.cdk.formula.MolecularFormulaRange;
@@ -37,13 +40,12 @@ import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.identities.MolecularFormulaIdentity;
-import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.dataprocessing.id_formula_sort.FormulaSortParameters;
 import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.elements.ElementalHeuristicChecker;
 import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreCalculator;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreParameters;
-import io.github.mzmine.modules.tools.isotopeprediction.IsotopePatternCalculator;
+import io.github.mzmine.modules.tools.isotopeprediction.IsotopePatternCache;
 import io.github.mzmine.modules.tools.msmsscore.MSMSScore;
 import io.github.mzmine.modules.tools.msmsscore.MSMSScoreCalculator;
 import io.github.mzmine.modules.tools.msmsscore.MSMSScoreParameters;
@@ -56,18 +58,18 @@ import io.github.mzmine.util.FormulaUtils;
 public class FormulaPredictionPeakListTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private Range<Double> massRange;
   private MolecularFormulaRange elementCounts;
-  private MolecularFormulaGenerator generator;
+  // Generators of the rows being processed (to cancel them)
+  private final Set<MolecularFormulaGenerator> generators = ConcurrentHashMap.newKeySet();
   private IonizationType ionType;
-  private double searchedMass;
   private int charge;
   private PeakList peakList;
   private boolean checkIsotopes, checkMSMS, checkRatios, checkRDBE;
   private ParameterSet isotopeParameters, msmsParameters, ratiosParameters, rdbeParameters;
   private MZTolerance mzTolerance;
   private String message;
-  private int totalRows, finishedRows;
+  private int totalRows;
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
   private int maxBestFormulasPerPeak;
   private final double minScore;
   private final double minMSMSScore;
@@ -152,7 +154,7 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0.0;
-    return (double) finishedRows / (double) totalRows;
+    return (double) finishedRows.get() / (double) totalRows;
   }
 
   /**
@@ -172,24 +174,41 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
 
     totalRows = peakList.getNumberOfRows();
+    message = "Formula prediction for " + peakList;
 
-    for (PeakListRow row : peakList.getRows()) {
+    // Rows are independent, so they are processed in parallel. The predicted isotope patterns are
+    // shared through the IsotopePatternCache
+    peakList.parallelStream().forEach(row -> {
+      if (isCanceled() || getStatus() == TaskStatus.ERROR)
+        return;
+      predictFormulas(row);
+    });
 
-      if (row.getPeakIdentities().length > 0) {
-        continue;
-      }
+    if (isCanceled() || getStatus() == TaskStatus.ERROR)
+      return;
+
+    logger.finest("Finished formula search for all the peaks");
 
-      this.searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+    setStatus(TaskStatus.FINISHED);
+
+  }
 
-      message = "Formula prediction for "
-          + MZmineCore.getConfiguration().getMZFormat().format(searchedMass);
+  private void predictFormulas(PeakListRow row) {
 
-      massRange = mzTolerance.getToleranceRange(searchedMass);
+    if (row.getPeakIdentities().length > 0) {
+      return;
+    }
 
-      IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
-      generator = new MolecularFormulaGenerator(builder, massRange.lowerEndpoint(),
-          massRange.upperEndpoint(), elementCounts);
+    final double searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
 
+    final Range<Double> massRange = mzTolerance.getToleranceRange(searchedMass);
+
+    IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
+    MolecularFormulaGenerator generator = new MolecularFormulaGenerator(builder,
+        massRange.lowerEndpoint(), massRange.upperEndpoint(), elementCounts);
+    generators.add(generator);
+
+    try {
       IMolecularFormula cdkFormula;
 
       // create a map to store ResultFormula and relative mass deviation
@@ -233,17 +252,11 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
       }
       if (isCanceled())
         return;
-      finishedRows++;
+      finishedRows.incrementAndGet();
 
+    } finally {
+      generators.remove(generator);
     }
-
-    if (isCanceled())
-      return;
-
-    logger.finest("Finished formula search for all the peaks");
-
-    setStatus(TaskStatus.FINISHED);
-
   }
 
   private boolean checkConstraints(IMolecularFormula cdkFormula, PeakListRow peakListRow) {
@@ -325,8 +338,11 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
 
       final double minPredictedAbundance = isotopeNoiseLevel / detectedPatternHeight;
 
-      predictedIsotopePattern = IsotopePatternCalculator.calculateIsotopePattern(adjustedFormula,
-          minPredictedAbundance, charge, ionType.getPolarity());
+      // Points below minPredictedAbundance are ignored by the score, so a cached pattern with a
+      // slightly lower abundance threshold gives the same result
+      predictedIsotopePattern = IsotopePatternCache.getIsotopePattern(adjustedFormula,
+          IsotopePatternCache.getAbundanceLevel(minPredictedAbundance), charge,
+          ionType.getPolarity());
 
       isotopeScore = IsotopePatternScoreCalculator.getSimilarityScore(detectedPattern,
           predictedIsotopePattern, isotopeParameters);
@@ -340,7 +356,7 @@ public class FormulaPredictionPeakListTask extends AbstractTask {
 
     // We need to cancel the formula generator, because searching for next
     // candidate formula may take a looong time
-    if (generator != null) {
+    for (MolecularFormulaGenerator generator : generators) {
       generator.cancel();
     }
 
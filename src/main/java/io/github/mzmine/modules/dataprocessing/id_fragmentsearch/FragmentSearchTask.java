@@ -18,8 +18,15 @@
 
 package io.github.mzmine.modules.dataprocessing.id_fragmentsearch;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.PeakList;
@@ -33,6 +40,7 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MZSortedIndex;
 import io.github.mzmine.util.PeakListRowSorter;
 import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
@@ -41,7 +49,11 @@ public class FragmentSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private int finishedRows, totalRows;
+  // Number of rows (in RT order) processed in one parallel block
+  private static final int RT_BLOCK_SIZE = 256;
+
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
+  private int totalRows;
   private PeakList peakList;
 
   private RTTolerance rtTolerance;
@@ -75,7 +87,7 @@ public class FragmentSearchTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0;
-    return ((double) finishedRows) / totalRows;
+    return ((double) finishedRows.get()) / totalRows;
   }
 
   /**
@@ -102,31 +114,96 @@ public class FragmentSearchTask extends AbstractTask {
     // Start with the highest peaks
     Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Compare each two rows against each other
+    // Rows are identified by their index in the height order, which is also the order in which the
+    // identities are added
+    final double[] rts = new double[totalRows];
+    final double[] mzs = new double[totalRows];
     for (int i = 0; i < totalRows; i++) {
+      rts[i] = rows[i].getAverageRT();
+      mzs[i] = rows[i].getAverageMZ();
+    }
 
-      for (int j = i + 1; j < rows.length; j++) {
+    // Decode the MS/MS scans once: sorted m/z values of the data points above the minimum height
+    final double[][] ms2MZs = new double[totalRows][];
+    final Map<Scan, double[]> decodedScans = new ConcurrentHashMap<>();
+    IntStream.range(0, totalRows).parallel().forEach(i -> {
+      if (isCanceled())
+        return;
+      Scan fragmentScan = getFragmentScan(rows[i]);
+      if (fragmentScan != null)
+        ms2MZs[i] = decodedScans.computeIfAbsent(fragmentScan, this::decodeFragmentScan);
+    });
+
+    if (isCanceled())
+      return;
+
+    // Only co-eluting rows can be fragments of a main row, the candidates are found in the rows
+    // sorted by RT
+    final int rtOrder[] = IntStream.range(0, totalRows).boxed()
+        .sorted(Comparator.comparingDouble(i -> rts[i])).mapToInt(Integer::intValue).toArray();
+    final double[] sortedRTs = new double[totalRows];
+    for (int p = 0; p < totalRows; p++)
+      sortedRTs[p] = rts[rtOrder[p]];
+
+    // Fragments found in each block: {fragment row, main row}
+    final int numBlocks = (totalRows + RT_BLOCK_SIZE - 1) / RT_BLOCK_SIZE;
+    @SuppressWarnings("unchecked")
+    final List<int[]>[] blockMatches = new List[numBlocks];
+
+    IntStream.range(0, numBlocks).parallel().forEach(block -> {
+      final List<int[]> matches = new ArrayList<>();
+      blockMatches[block] = matches;
+      final int blockEnd = Math.min(totalRows, (block + 1) * RT_BLOCK_SIZE);
+      for (int a = block * RT_BLOCK_SIZE; a < blockEnd; a++) {
 
         // Task canceled?
         if (isCanceled())
           return;
 
-        // Treat the higher m/z peak as main peak and check if the
-        // smaller one may be a fragment
-        if (rows[i].getAverageMZ() > rows[j].getAverageMZ()) {
-          if (checkFragment(rows[i], rows[j]))
-            addFragmentInfo(rows[i], rows[j]);
-        } else {
-          if (checkFragment(rows[j], rows[i]))
-            addFragmentInfo(rows[j], rows[i]);
+        final int main = rtOrder[a];
+        if (ms2MZs[main] != null) {
+          Range<Double> rtRange = rtTolerance.getToleranceRange(rts[main]);
+          final int from = MZSortedIndex.lowerBound(sortedRTs, rtRange.lowerEndpoint());
+          final int to = MZSortedIndex.upperBound(sortedRTs, rtRange.upperEndpoint());
+          for (int p = from; p < to; p++) {
+            final int fragment = rtOrder[p];
+
+            // Treat the higher m/z peak as main peak and check if the smaller one may be a
+            // fragment (for equal m/z, the lower peak is treated as main peak)
+            if (mzs[main] < mzs[fragment] || (mzs[main] == mzs[fragment] && main <= fragment))
+              continue;
+
+            if (checkFragment(rows[main], rows[fragment], ms2MZs[main]))
+              matches.add(new int[] {fragment, main});
+          }
         }
 
+        finishedRows.incrementAndGet();
+      }
+    });
+
+    if (isCanceled())
+      return;
+
+    @SuppressWarnings("unchecked")
+    final List<Integer>[] mainRows = new List[totalRows];
+    for (List<int[]> matches : blockMatches) {
+      for (int[] match : matches) {
+        if (mainRows[match[0]] == null)
+          mainRows[match[0]] = new ArrayList<>();
+        mainRows[match[0]].add(match[1]);
       }
-
-      finishedRows++;
-
     }
 
+    // Add the identities starting with the highest main peaks
+    IntStream.range(0, totalRows).parallel().forEach(fragment -> {
+      if (mainRows[fragment] == null)
+        return;
+      mainRows[fragment].sort(Comparator.naturalOrder());
+      for (int main : mainRows[fragment])
+        addFragmentInfo(rows[main], rows[fragment]);
+    });
+
     // Add task description to peakList
     ((SimplePeakList) peakList).addDescriptionOfAppliedTask(
         new SimplePeakListAppliedMethod("Identification of fragments", parameters));
@@ -142,8 +219,11 @@ public class FragmentSearchTask extends AbstractTask {
    *
    * @param mainPeak
    * @param possibleFragment
+   * @param fragmentMZs sorted m/z values of the main peak's MS/MS data points above the minimum
+   *        height
    */
-  private boolean checkFragment(PeakListRow mainPeak, PeakListRow possibleFragment) {
+  private boolean checkFragment(PeakListRow mainPeak, PeakListRow possibleFragment,
+      double[] fragmentMZs) {
 
     // Check retention time condition
     boolean rtCheck =
@@ -155,29 +235,39 @@ public class FragmentSearchTask extends AbstractTask {
     if (possibleFragment.getAverageHeight() > mainPeak.getAverageHeight() * maxFragmentHeight)
       return false;
 
-    // Get MS/MS scan, if exists
+    // If there is a MS/MS peak of required height in the tolerance range, we have a hit
+    Range<Double> ms2mzRange = ms2mzTolerance.getToleranceRange(possibleFragment.getAverageMZ());
+    int index = MZSortedIndex.lowerBound(fragmentMZs, ms2mzRange.lowerEndpoint());
+    return index < fragmentMZs.length && fragmentMZs[index] <= ms2mzRange.upperEndpoint();
+
+  }
+
+  /**
+   * @return the most intense MS/MS scan of the main peak, or null if there is none
+   */
+  private Scan getFragmentScan(PeakListRow mainPeak) {
     int fragmentScanNumber = mainPeak.getBestPeak().getMostIntenseFragmentScanNumber();
     if (fragmentScanNumber <= 0)
-      return false;
+      return null;
 
     RawDataFile dataFile = mainPeak.getBestPeak().getDataFile();
-    Scan fragmentScan = dataFile.getScan(fragmentScanNumber);
-    if (fragmentScan == null)
-      return false;
-
-    // Get MS/MS data points in the tolerance range
-    Range<Double> ms2mzRange = ms2mzTolerance.getToleranceRange(possibleFragment.getAverageMZ());
-
-    DataPoint fragmentDataPoints[] = fragmentScan.getDataPointsByMass(ms2mzRange);
+    return dataFile.getScan(fragmentScanNumber);
+  }
 
-    // If there is a MS/MS peak of required height, we have a hit
-    for (DataPoint dp : fragmentDataPoints) {
+  /**
+   * @return the sorted m/z values of the data points above the minimum MS/MS peak height
+   */
+  private double[] decodeFragmentScan(Scan fragmentScan) {
+    DataPoint dataPoints[] = fragmentScan.getDataPoints();
+    double mzValues[] = new double[dataPoints.length];
+    int count = 0;
+    for (DataPoint dp : dataPoints) {
       if (dp.getIntensity() > minMS2peakHeight)
-        return true;
+        mzValues[count++] = dp.getMZ();
     }
-
-    return false;
-
+    mzValues = Arrays.copyOf(mzValues, count);
+    Arrays.sort(mzValues);
+    return mzValues;
   }
 
   /**
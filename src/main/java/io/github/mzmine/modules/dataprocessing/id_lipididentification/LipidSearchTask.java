@@ -21,6 +21,8 @@ package io.github.mzmine.modules.dataprocessing.id_lipididentification;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.DataPoint;
@@ -33,6 +35,7 @@ import io.github.mzmine.datamodel.impl.SimplePeakIdentity;
 import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.dataprocessing.id_lipididentification.lipididentificationtools.LipidFragmentTable;
 import io.github.mzmine.modules.dataprocessing.id_lipididentification.lipididentificationtools.MSMSLipidTools;
 import io.github.mzmine.modules.dataprocessing.id_lipididentification.lipids.LipidClasses;
 import io.github.mzmine.modules.dataprocessing.id_lipididentification.lipids.lipidmodifications.LipidModification;
@@ -41,6 +44,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MZSortedIndex;
 
 /**
  * Task to search and annotate lipids in feature list
@@ -50,7 +54,8 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 public class LipidSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private double finishedSteps, totalSteps;
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
+  private int totalRows;
   private PeakList peakList;
   private Object[] selectedObjects;
   private LipidClasses[] selectedLipids;
@@ -63,6 +68,14 @@ public class LipidSearchTask extends AbstractTask {
   private double[] lipidModificationMasses;
   private LipidModification[] lipidModification;
 
+  // Precompiled table of the lipid (and modified lipid) ion masses, see buildLipidTable()
+  private LipidIdentity[] lipidTableLipids;
+  private double[] lipidTableIonMasses;
+  private double[] lipidTableMasses;
+  private int[] lipidTableEntryLipid;
+  private int[] lipidTableEntryModification;
+  private MZSortedIndex lipidTableIndex;
+
 
 
   private ParameterSet parameters;
@@ -113,9 +126,9 @@ public class LipidSearchTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (totalSteps == 0)
+    if (totalRows == 0)
       return 0;
-    return (finishedSteps) / totalSteps;
+    return finishedRows.get() / (double) totalRows;
   }
 
   /**
@@ -136,16 +149,15 @@ public class LipidSearchTask extends AbstractTask {
     logger.info("Starting lipid search in " + peakList);
 
     PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+    totalRows = rows.length;
 
     // Check if lipids should be modified
     if (searchForModifications == true) {
       lipidModificationMasses = getLipidModificationMasses(lipidModification);
     }
-    // Calculate how many possible lipids we will try
-    totalSteps = ((maxChainLength - minChainLength + 1) * (maxDoubleBonds - minDoubleBonds + 1))
-        * selectedLipids.length;
 
     // Try all combinations of fatty acid lengths and double bonds
+    List<LipidIdentity> lipids = new ArrayList<>();
     for (int i = 0; i < selectedLipids.length; i++) {
       int numberOfAcylChains = selectedLipids[i].getNumberOfAcylChains();
       int numberOfAlkylChains = selectedLipids[i].getNumberofAlkyChains();
@@ -159,25 +171,36 @@ public class LipidSearchTask extends AbstractTask {
           // If we have non-zero fatty acid, which is shorter
           // than minimal length, skip this lipid
           if (((chainLength > 0) && (chainLength < minChainLength))) {
-            finishedSteps++;
             continue;
           }
 
           // If we have more double bonds than carbons, it
           // doesn't make sense, so let's skip such lipids
           if (((chainDoubleBonds > 0) && (chainDoubleBonds > chainLength - 1))) {
-            finishedSteps++;
             continue;
           }
           // Prepare a lipid instance
-          LipidIdentity lipidChain = new LipidIdentity(selectedLipids[i], chainLength,
-              chainDoubleBonds, numberOfAcylChains, numberOfAlkylChains);
-          // Find all rows that match this lipid
-          findPossibleLipid(lipidChain, rows);
-          finishedSteps++;
+          lipids.add(new LipidIdentity(selectedLipids[i], chainLength, chainDoubleBonds,
+              numberOfAcylChains, numberOfAlkylChains));
         }
       }
     }
+
+    buildLipidTable(lipids);
+    logger.info("Searching for " + lipids.size() + " lipids (" + lipidTableMasses.length
+        + " ion masses) in " + peakList);
+
+    // Find all lipids that match each row
+    Arrays.stream(rows).parallel().forEach(row -> {
+      if (isCanceled())
+        return;
+      findPossibleLipids(row);
+      finishedRows.incrementAndGet();
+    });
+
+    if (isCanceled())
+      return;
+
     // Add task description to peakList
     ((SimplePeakList) peakList)
         .addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod("Lipid search", parameters));
@@ -188,42 +211,71 @@ public class LipidSearchTask extends AbstractTask {
   }
 
   /**
-   * Check if candidate peak may be a possible adduct of a given main peak
-   *
-   * @param mainPeak
-   * @param possibleFragment
+   * Precompiles the ion masses of all lipids and, if selected, of all their modifications into one
+   * table, indexed by m/z. The entries are numbered in the order in which the lipids and
+   * modifications were enumerated, so that the matches of a row can be annotated in that order.
+   */
+  private void buildLipidTable(List<LipidIdentity> lipids) {
+    final int entriesPerLipid =
+        1 + (searchForModifications == true ? lipidModificationMasses.length : 0);
+    final int numberOfEntries = lipids.size() * entriesPerLipid;
+
+    lipidTableLipids = lipids.toArray(LipidIdentity[]::new);
+    lipidTableIonMasses = new double[lipids.size()];
+    lipidTableMasses = new double[numberOfEntries];
+    lipidTableEntryLipid = new int[numberOfEntries];
+    lipidTableEntryModification = new int[numberOfEntries];
+
+    int entry = 0;
+    for (int l = 0; l < lipidTableLipids.length; l++) {
+      double lipidIonMass = lipidTableLipids[l].getMass() + ionizationType.getAddedMass();
+      lipidTableIonMasses[l] = lipidIonMass;
+      for (int j = -1; j < entriesPerLipid - 1; j++) {
+        lipidTableMasses[entry] =
+            j < 0 ? lipidIonMass : lipidIonMass + (lipidModificationMasses[j]);
+        lipidTableEntryLipid[entry] = l;
+        lipidTableEntryModification[entry] = j;
+        entry++;
+      }
+    }
+    lipidTableIndex = new MZSortedIndex(lipidTableMasses);
+  }
+
+  /**
+   * Annotates the row with all the lipids and modified lipids of the table within its m/z tolerance
+   * range
    */
-  private void findPossibleLipid(LipidIdentity lipid, PeakListRow rows[]) {
-    double lipidIonMass = 0.0;
-    double lipidMass = lipid.getMass();
-    lipidIonMass = lipidMass + ionizationType.getAddedMass();
-    logger.info("Searching for lipid " + lipid.getDescription() + ", " + lipidIonMass + " m/z");
-    for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
+  private void findPossibleLipids(PeakListRow row) {
+    Range<Double> mzTolRange12C = mzTolerance.getToleranceRange(row.getAverageMZ());
+    int[] entries = lipidTableIndex.getIndicesInRange(mzTolRange12C);
+    Arrays.sort(entries);
+
+    for (int entry : entries) {
       if (isCanceled())
         return;
-      Range<Double> mzTolRange12C = mzTolerance.getToleranceRange(rows[rowIndex].getAverageMZ());
-      if (mzTolRange12C.contains(lipidIonMass)) {
-
-        // Calc rel mass deviation;
-        double relMassDev =
-            ((lipidIonMass - rows[rowIndex].getAverageMZ()) / lipidIonMass) * 1000000;
-        rows[rowIndex].addPeakIdentity(lipid, false);
-        rows[rowIndex].setComment("Ionization: " + ionizationType.getAdductName() + ", Δ "
-            + NumberFormat.getInstance().format(relMassDev) + " ppm"); // Format relativ mass
-                                                                       // deviation
-        // If search for MSMS fragments is selected search for fragments
-        if (searchForMSMSFragments == true) {
-          searchMsmsFragments(rows[rowIndex], lipidIonMass, lipid);
-        }
-        logger.info("Found lipid: " + lipid.getName() + ", Δ "
-            + NumberFormat.getInstance().format(relMassDev) + " ppm");
+      LipidIdentity lipid = lipidTableLipids[lipidTableEntryLipid[entry]];
+      double lipidIonMass = lipidTableIonMasses[lipidTableEntryLipid[entry]];
+      int modification = lipidTableEntryModification[entry];
+
+      if (modification >= 0) {
+        // If search for modifications is selected search for modifications
+        // in MS1
+        addModification(row, lipidIonMass, lipid, modification);
+        continue;
       }
-      // If search for modifications is selected search for modifications
-      // in MS1
-      if (searchForModifications == true) {
-        searchModifications(rows[rowIndex], lipidIonMass, lipid, lipidModificationMasses,
-            mzTolRange12C);
+
+      // Calc rel mass deviation;
+      double relMassDev = ((lipidIonMass - row.getAverageMZ()) / lipidIonMass) * 1000000;
+      row.addPeakIdentity(lipid, false);
+      row.setComment("Ionization: " + ionizationType.getAdductName() + ", Δ "
+          + NumberFormat.getInstance().format(relMassDev) + " ppm"); // Format relativ mass
+                                                                     // deviation
+      // If search for MSMS fragments is selected search for fragments
+      if (searchForMSMSFragments == true) {
+        searchMsmsFragments(row, lipidIonMass, lipid);
       }
+      logger.info("Found lipid: " + lipid.getName() + ", Δ "
+          + NumberFormat.getInstance().format(relMassDev) + " ppm");
     }
   }
 
@@ -237,12 +289,17 @@ public class LipidSearchTask extends AbstractTask {
     // Check if selected feature has MSMS spectra
     if (row.getAllMS2Fragmentations() != null) {
       Scan[] msmsScans = row.getAllMS2Fragmentations();
+      MSMSLipidTools msmsLipidTools = new MSMSLipidTools();
+      // The shared format is not thread-safe
+      NumberFormat rtFormat = (NumberFormat) MZmineCore.getConfiguration().getRTFormat().clone();
+      // Expected fragments of the lipid, calculated once for all MS/MS peaks
+      LipidFragmentTable negativeFragmentTable = null;
+      LipidFragmentTable positiveFragmentTable = null;
       for (Scan msmsScan : msmsScans) {
 
         DataPoint[] massList = null;
         // check if MS/MS scan already has a mass list
         massList = msmsScan.getMassList(massListName).getDataPoints();
-        MSMSLipidTools msmsLipidTools = new MSMSLipidTools();
 
         // check for negative polarity
         if (msmsScan.getPolarity() == PolarityType.NEGATIVE) {
@@ -250,12 +307,14 @@ public class LipidSearchTask extends AbstractTask {
           // check if lipid class has set negative fragments
           String[] fragments = lipid.getLipidClass().getMsmsFragmentsNegativeIonization();
           if (fragments.length > 0) {
+            if (negativeFragmentTable == null) {
+              negativeFragmentTable = msmsLipidTools.getNegativeClassSpecificFragments(
+                  row.getPreferredPeakIdentity(), lipidIonMass, fragments);
+            }
             ArrayList<String> listOfAnnotatedNegativeFragments = new ArrayList<String>();
             for (int i = 0; i < massList.length; i++) {
               Range<Double> mzTolRangeMSMS = mzToleranceMS2.getToleranceRange(massList[i].getMZ());
-              String annotatedNegativeFragment =
-                  msmsLipidTools.checkForNegativeClassSpecificFragment(mzTolRangeMSMS,
-                      row.getPreferredPeakIdentity(), lipidIonMass, fragments);
+              String annotatedNegativeFragment = negativeFragmentTable.annotate(mzTolRangeMSMS);
               if (annotatedNegativeFragment.equals("") == false
                   && row.getComment().contains(annotatedNegativeFragment) == false) {
                 listOfAnnotatedNegativeFragments.add(annotatedNegativeFragment);
@@ -273,13 +332,13 @@ public class LipidSearchTask extends AbstractTask {
                 // Add possible composition to comment
                 if (row.getComment().equals(null)) {
                   row.setComment(" " + listOfPossibleFattyAcidCompositions.get(i) + " MS/MS scan "
-                      + msmsScan.getScanNumber() + ", RT " + MZmineCore.getConfiguration()
-                          .getRTFormat().format(msmsScan.getRetentionTime()));
+                      + msmsScan.getScanNumber() + ", RT "
+                      + rtFormat.format(msmsScan.getRetentionTime()));
                 } else {
                   row.setComment(row.getComment() + ";" + " "
                       + listOfPossibleFattyAcidCompositions.get(i) + " MS/MS scan "
-                      + msmsScan.getScanNumber() + ", RT " + MZmineCore.getConfiguration()
-                          .getRTFormat().format(msmsScan.getRetentionTime()));
+                      + msmsScan.getScanNumber() + ", RT "
+                      + rtFormat.format(msmsScan.getRetentionTime()));
                 }
               }
 
@@ -291,13 +350,13 @@ public class LipidSearchTask extends AbstractTask {
                   // Add fragment to comment
                   if (row.getComment().equals(null)) {
                     row.setComment(" " + listOfAnnotatedNegativeFragments.get(i) + " MS/MS scan "
-                        + msmsScan.getScanNumber() + ", RT " + MZmineCore.getConfiguration()
-                            .getRTFormat().format(msmsScan.getRetentionTime()));
+                        + msmsScan.getScanNumber() + ", RT "
+                        + rtFormat.format(msmsScan.getRetentionTime()));
                   } else {
                     row.setComment(row.getComment() + ";" + " "
                         + listOfAnnotatedNegativeFragments.get(i) + " MS/MS scan "
-                        + msmsScan.getScanNumber() + ", RT " + MZmineCore.getConfiguration()
-                            .getRTFormat().format(msmsScan.getRetentionTime()));
+                        + msmsScan.getScanNumber() + ", RT "
+                        + rtFormat.format(msmsScan.getRetentionTime()));
                   }
                 }
               }
@@ -311,12 +370,14 @@ public class LipidSearchTask extends AbstractTask {
           // check if lipid class has set postiev fragments
           String[] fragments = lipid.getLipidClass().getMsmsFragmentsPositiveIonization();
           if (fragments.length > 0) {
+            if (positiveFragmentTable == null) {
+              positiveFragmentTable = msmsLipidTools.getPositiveClassSpecificFragments(
+                  row.getPreferredPeakIdentity(), lipidIonMass, fragments);
+            }
             ArrayList<String> listOfAnnotatedPositiveFragments = new ArrayList<String>();
             for (int i = 0; i < massList.length; i++) {
               Range<Double> mzTolRangeMSMS = mzToleranceMS2.getToleranceRange(massList[i].getMZ());
-              String annotatedPositiveFragment =
-                  msmsLipidTools.checkForPositiveClassSpecificFragment(mzTolRangeMSMS,
-                      row.getPreferredPeakIdentity(), lipidIonMass, fragments);
+              String annotatedPositiveFragment = positiveFragmentTable.annotate(mzTolRangeMSMS);
               if (annotatedPositiveFragment.equals("") == false
                   && row.getComment().contains(annotatedPositiveFragment) == false) {
                 listOfAnnotatedPositiveFragments.add(annotatedPositiveFragment);
@@ -331,13 +392,13 @@ public class LipidSearchTask extends AbstractTask {
               // Add possible composition to comment
               if (row.getComment().equals(null)) {
                 row.setComment(" " + listOfPossibleFattyAcidCompositions.get(i) + " MS/MS scan "
-                    + msmsScan.getScanNumber() + ", RT " + MZmineCore.getConfiguration()
-                        .getRTFormat().format(msmsScan.getRetentionTime()));
+                    + msmsScan.getScanNumber() + ", RT "
+                    + rtFormat.format(msmsScan.getRetentionTime()));
               } else {
                 row.setComment(
                     row.getComment() + ";" + " " + listOfPossibleFattyAcidCompositions.get(i)
-                        + " MS/MS scan " + msmsScan.getScanNumber() + ", RT " + MZmineCore
-                            .getConfiguration().getRTFormat().format(msmsScan.getRetentionTime()));
+                        + " MS/MS scan " + msmsScan.getScanNumber() + ", RT "
+                        + rtFormat.format(msmsScan.getRetentionTime()));
               }
             }
 
@@ -347,13 +408,13 @@ public class LipidSearchTask extends AbstractTask {
                 // Add fragment to comment
                 if (row.getComment().equals(null)) {
                   row.setComment(" " + listOfAnnotatedPositiveFragments.get(i) + " MS/MS scan "
-                      + msmsScan.getScanNumber() + ", RT " + MZmineCore.getConfiguration()
-                          .getRTFormat().format(msmsScan.getRetentionTime()));
+                      + msmsScan.getScanNumber() + ", RT "
+                      + rtFormat.format(msmsScan.getRetentionTime()));
                 } else {
                   row.setComment(row.getComment() + ";" + " "
                       + listOfAnnotatedPositiveFragments.get(i) + " MS/MS scan "
-                      + msmsScan.getScanNumber() + ", RT " + MZmineCore.getConfiguration()
-                          .getRTFormat().format(msmsScan.getRetentionTime()));
+                      + msmsScan.getScanNumber() + ", RT "
+                      + rtFormat.format(msmsScan.getRetentionTime()));
                 }
               }
             }
@@ -363,21 +424,17 @@ public class LipidSearchTask extends AbstractTask {
     }
   }
 
-  private void searchModifications(PeakListRow rows, double lipidIonMass, LipidIdentity lipid,
-      double[] lipidModificationMasses, Range<Double> mzTolModification) {
-    for (int j = 0; j < lipidModificationMasses.length; j++) {
-      if (mzTolModification.contains(lipidIonMass + (lipidModificationMasses[j]))) {
-        // Calc relativ mass deviation
-        double relMassDev = ((lipidIonMass + (lipidModificationMasses[j]) - rows.getAverageMZ())
-            / (lipidIonMass + lipidModificationMasses[j])) * 1000000;
-        // Add row identity
-        rows.addPeakIdentity(new SimplePeakIdentity(lipid + " " + lipidModification[j]), false);
-        rows.setComment("Ionization: " + ionizationType.getAdductName() + " " + lipidModification[j]
-            + ", Δ " + NumberFormat.getInstance().format(relMassDev) + " ppm");
-        logger.info("Found modified lipid: " + lipid.getName() + " " + lipidModification[j] + ", Δ "
-            + NumberFormat.getInstance().format(relMassDev) + " ppm");
-      }
-    }
+  private void addModification(PeakListRow rows, double lipidIonMass, LipidIdentity lipid,
+      int j) {
+    // Calc relativ mass deviation
+    double relMassDev = ((lipidIonMass + (lipidModificationMasses[j]) - rows.getAverageMZ())
+        / (lipidIonMass + lipidModificationMasses[j])) * 1000000;
+    // Add row identity
+    rows.addPeakIdentity(new SimplePeakIdentity(lipid + " " + lipidModification[j]), false);
+    rows.setComment("Ionization: " + ionizationType.getAdductName() + " " + lipidModification[j]
+        + ", Δ " + NumberFormat.getInstance().format(relMassDev) + " ppm");
+    logger.info("Found modified lipid: " + lipid.getName() + " " + lipidModification[j] + ", Δ "
+        + NumberFormat.getInstance().format(relMassDev) + " ppm");
   }
 
   private double[] getLipidModificationMasses(LipidModification[] lipidModification) {
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.id_lipididentification.lipididentificationtools;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.google.common.collect.Range;
+import io.github.mzmine.util.MZSortedIndex;
+
+/**
+ * Expected MS/MS fragments of an annotated lipid: the m/z and annotation of each fragment, sorted by
+ * m/z for binary search. The fragments are added in the order in which they were checked by
+ * {@link MSMSLipidTools}, if several fragments match the same MS/MS peak the last one added wins.
+ *
+ * @author Ansgar Korf (ansgar.korf@uni-muenster.de)
+ */
+public class LipidFragmentTable {
+
+  private final List<Double> masses = new ArrayList<>();
+  private final List<String> annotations = new ArrayList<>();
+  private MZSortedIndex index;
+
+  void addFragment(double mass, String annotation) {
+    masses.add(mass);
+    annotations.add(annotation);
+    index = null;
+  }
+
+  /**
+   * @return the number of expected fragments
+   */
+  public int size() {
+    return masses.size();
+  }
+
+  /**
+   * @param mzTolRangeMSMS m/z tolerance range of a MS/MS peak
+   * @return the annotation of the last added fragment within the range, or an empty String
+   */
+  public String annotate(Range<Double> mzTolRangeMSMS) {
+    MZSortedIndex index = getIndex();
+    int lastFragment = -1;
+    final int to = index.upperBound(mzTolRangeMSMS.upperEndpoint());
+    for (int p = index.lowerBound(mzTolRangeMSMS.lowerEndpoint()); p < to; p++) {
+      if (mzTolRangeMSMS.contains(index.getMZ(p)))
+        lastFragment = Math.max(lastFragment, index.getIndex(p));
+    }
+    return lastFragment < 0 ? "" : annotations.get(lastFragment);
+  }
+
+  private synchronized MZSortedIndex getIndex() {
+    if (index == null) {
+      double[] values = new double[masses.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = masses.get(i);
+      }
+      index = new MZSortedIndex(values);
+    }
+    return index;
+  }
+
+}
@@ -41,7 +41,19 @@ public class MSMSLipidTools {
    */
   public String checkForNegativeClassSpecificFragment(Range<Double> mzTolRangeMSMS,
       PeakIdentity peakIdentity, double lipidIonMass, String[] classSpecificFragments) {
-    String annotatedFragment = "";
+    return getNegativeClassSpecificFragments(peakIdentity, lipidIonMass, classSpecificFragments)
+        .annotate(mzTolRangeMSMS);
+  }
+
+  /**
+   * This method calculates the negative class specific fragments of an annotated lipid, which can
+   * then be searched in all the MS/MS peaks
+   *
+   * returns the table of expected fragments
+   */
+  public LipidFragmentTable getNegativeClassSpecificFragments(PeakIdentity peakIdentity,
+      double lipidIonMass, String[] classSpecificFragments) {
+    LipidFragmentTable fragmentTable = new LipidFragmentTable();
 
     // load lipid tools to get information of annotations
     LipidTools lipidTools = new LipidTools();
@@ -58,9 +70,7 @@ public class MSMSLipidTools {
         for (int j = 0; j < fattyAcidFormulas.size(); j++) {
           double mass = IonizationType.NEGATIVE_HYDROGEN.getAddedMass()
               + FormulaUtils.calculateExactMass((fattyAcidFormulas.get(j)));
-          if (mzTolRangeMSMS.contains(mass)) {
-            annotatedFragment = "FA" + fattyAcidNames.get(j);
-          }
+          fragmentTable.addFragment(mass, "FA" + fattyAcidNames.get(j));
         }
       }
 
@@ -68,10 +78,9 @@ public class MSMSLipidTools {
       else if (classSpecificFragments[i].equals("M-FA")) {
         for (int j = 0; j < fattyAcidFormulas.size(); j++) {
           double massFattyAcid = FormulaUtils.calculateExactMass((fattyAcidFormulas.get(j)));
-          if (mzTolRangeMSMS
-              .contains(lipidIonMass - massFattyAcid - FormulaUtils.calculateExactMass("H"))) {
-            annotatedFragment = "M-FA" + fattyAcidNames.get(j);
-          }
+          fragmentTable.addFragment(
+              lipidIonMass - massFattyAcid - FormulaUtils.calculateExactMass("H"),
+              "M-FA" + fattyAcidNames.get(j));
         }
       }
 
@@ -84,10 +93,8 @@ public class MSMSLipidTools {
               lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
           double accurateMass = IonizationType.NEGATIVE_HYDROGEN.getAddedMass()
               + FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j)) + massOfFragment;
-          if (mzTolRangeMSMS.contains(accurateMass)) {
-            annotatedFragment = "FA" + fattyAcidNames.get(j) + "+"
-                + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]);
-          }
+          fragmentTable.addFragment(accurateMass, "FA" + fattyAcidNames.get(j) + "+"
+              + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
         }
       }
 
@@ -100,13 +107,13 @@ public class MSMSLipidTools {
                 lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
             double massOfSumFormulasToAdd = FormulaUtils.calculateExactMass(
                 lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
-            if (mzTolRangeMSMS
-                .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
-                    + massOfSumFormulasToAdd - massOfSumFormulasToSubstract)) {
-              annotatedFragment = "M-FA" + fattyAcidNames.get(j)
-                  + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]) + "+"
-                  + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]);
-            }
+            fragmentTable.addFragment(
+                lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
+                    + massOfSumFormulasToAdd - massOfSumFormulasToSubstract,
+                "M-FA" + fattyAcidNames.get(j)
+                    + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i])
+                    + "+" + lipidTools
+                        .getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
           }
         }
       }
@@ -118,35 +125,32 @@ public class MSMSLipidTools {
           for (int j = 0; j < fattyAcidFormulas.size(); j++) {
             double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
                 lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-            if (mzTolRangeMSMS
-                .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
-                    - massOfSumFormulasToSubstract)) {
-              annotatedFragment = "M-FA" + fattyAcidNames.get(j) + "-"
-                  + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]);
-            }
+            fragmentTable.addFragment(
+                lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
+                    - massOfSumFormulasToSubstract,
+                "M-FA" + fattyAcidNames.get(j) + "-"
+                    + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
           }
         }
         // only substract sum formula
         else {
           double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
               lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-          if (mzTolRangeMSMS.contains(lipidIonMass - massOfSumFormulasToSubstract)) {
-            annotatedFragment =
-                "M-" + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]);
-          }
+          fragmentTable.addFragment(lipidIonMass - massOfSumFormulasToSubstract,
+              "M-" + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
         }
       }
 
       // check for specific sum formula fragment
       else if (classSpecificFragments[i].contains("C") || classSpecificFragments[i].contains("O")) {
-        if (mzTolRangeMSMS.contains(FormulaUtils.calculateExactMass(
-            lipidTools.getSumFormulaOfSumFormulaFragment(classSpecificFragments[i])))) {
-          annotatedFragment = classSpecificFragments[i];
-        }
+        fragmentTable.addFragment(
+            FormulaUtils.calculateExactMass(
+                lipidTools.getSumFormulaOfSumFormulaFragment(classSpecificFragments[i])),
+            classSpecificFragments[i]);
       }
 
     }
-    return annotatedFragment;
+    return fragmentTable;
   }
 
   /**
@@ -157,7 +161,19 @@ public class MSMSLipidTools {
    */
   public String checkForPositiveClassSpecificFragment(Range<Double> mzTolRangeMSMS,
       PeakIdentity peakIdentity, double lipidIonMass, String[] classSpecificFragments) {
-    String annotatedFragment = "";
+    return getPositiveClassSpecificFragments(peakIdentity, lipidIonMass, classSpecificFragments)
+        .annotate(mzTolRangeMSMS);
+  }
+
+  /**
+   * This method calculates the positive class specific fragments of an annotated lipid, which can
+   * then be searched in all the MS/MS peaks
+   *
+   * returns the table of expected fragments
+   */
+  public LipidFragmentTable getPositiveClassSpecificFragments(PeakIdentity peakIdentity,
+      double lipidIonMass, String[] classSpecificFragments) {
+    LipidFragmentTable fragmentTable = new LipidFragmentTable();
 
     // load lipid tools to get information of annotations
     LipidTools lipidTools = new LipidTools();
@@ -172,10 +188,9 @@ public class MSMSLipidTools {
       // check for FA residues
       if (classSpecificFragments[i].equals("M-FA")) {
         for (int j = 0; j < fattyAcidFormulas.size(); j++) {
-          if (mzTolRangeMSMS
-              .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j)))) {
-            annotatedFragment = "FA" + fattyAcidNames.get(j);
-          }
+          fragmentTable.addFragment(
+              lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j)),
+              "FA" + fattyAcidNames.get(j));
         }
       }
 
@@ -188,13 +203,13 @@ public class MSMSLipidTools {
                 lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
             double massOfSumFormulasToAdd = FormulaUtils.calculateExactMass(
                 lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
-            if (mzTolRangeMSMS
-                .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
-                    + massOfSumFormulasToAdd - massOfSumFormulasToSubstract)) {
-              annotatedFragment = "M-FA" + fattyAcidNames.get(j)
-                  + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]) + "+"
-                  + lipidTools.getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]);
-            }
+            fragmentTable.addFragment(
+                lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
+                    + massOfSumFormulasToAdd - massOfSumFormulasToSubstract,
+                "M-FA" + fattyAcidNames.get(j)
+                    + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i])
+                    + "+" + lipidTools
+                        .getSumFormulasToAddOfFragmentContainingFA(classSpecificFragments[i]));
           }
         }
       }
@@ -206,34 +221,31 @@ public class MSMSLipidTools {
           for (int j = 0; j < fattyAcidFormulas.size(); j++) {
             double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
                 lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-            if (mzTolRangeMSMS
-                .contains(lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
-                    - massOfSumFormulasToSubstract)) {
-              annotatedFragment = "M-FA" + fattyAcidNames.get(j) + "-"
-                  + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]);
-            }
+            fragmentTable.addFragment(
+                lipidIonMass - FormulaUtils.calculateExactMass(fattyAcidFormulas.get(j))
+                    - massOfSumFormulasToSubstract,
+                "M-FA" + fattyAcidNames.get(j) + "-"
+                    + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
           }
         }
         // only substract sum formula
         else {
           double massOfSumFormulasToSubstract = FormulaUtils.calculateExactMass(
               lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
-          if (mzTolRangeMSMS.contains(lipidIonMass - massOfSumFormulasToSubstract)) {
-            annotatedFragment =
-                "M-" + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]);
-          }
+          fragmentTable.addFragment(lipidIonMass - massOfSumFormulasToSubstract,
+              "M-" + lipidTools.getSumFormulasToSubstractOfFragment(classSpecificFragments[i]));
         }
       }
 
       // check for specific sum formula fragment
       else if (classSpecificFragments[i].contains("C") || classSpecificFragments[i].contains("O")) {
-        if (mzTolRangeMSMS.contains(FormulaUtils.calculateExactMass(
-            lipidTools.getSumFormulaOfSumFormulaFragment(classSpecificFragments[i])))) {
-          annotatedFragment = classSpecificFragments[i];
-        }
+        fragmentTable.addFragment(
+            FormulaUtils.calculateExactMass(
+                lipidTools.getSumFormulaOfSumFormulaFragment(classSpecificFragments[i])),
+            classSpecificFragments[i]);
       }
     }
-    return annotatedFragment;
+    return fragmentTable;
   }
 
   /**
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.id_localcsvsearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import com.Ostermiller.util.CSVParser;
+import com.google.common.collect.Range;
+import io.github.mzmine.util.MZSortedIndex;
+
+/**
+ * Compiled contents of a local CSV database: the valid lines of the file, stored in primitive
+ * arrays sorted by m/z and indexed for binary search. The compiled database is cached in the
+ * temporary directory, so the CSV file is only parsed again when its checksum or the parsing
+ * parameters change.
+ *
+ * Lines without m/z (or with m/z 0) match any m/z, lines without retention time match any retention
+ * time, lines which cannot be parsed are ignored - like the database search always did.
+ *
+ * This class is immutable and thread-safe.
+ */
+class LocalCSVDatabase {
+
+  private static final Logger logger = Logger.getLogger(LocalCSVDatabase.class.getName());
+
+  private static final int CACHE_MAGIC = 0x4d5a4442; // "MZDB"
+  private static final int CACHE_VERSION = 1;
+
+  // All arrays are sorted by m/z (lines matching any m/z last), see compile()
+  private final int[] lineNumbers;
+  private final double[] mzValues;
+  private final double[] rtValues;
+  private final String[] ids;
+  private final String[] names;
+  private final String[] formulas;
+
+  private final MZSortedIndex mzIndex;
+  private final int[] anyMZEntries;
+
+  private LocalCSVDatabase(int[] lineNumbers, double[] mzValues, double[] rtValues, String[] ids,
+      String[] names, String[] formulas) {
+    this.lineNumbers = lineNumbers;
+    this.mzValues = mzValues;
+    this.rtValues = rtValues;
+    this.ids = ids;
+    this.names = names;
+    this.formulas = formulas;
+
+    // Lines matching any m/z are not in the index (NaN is never found), the arrays are already
+    // sorted so building the index is linear
+    double[] indexedMZ = new double[mzValues.length];
+    for (int e = 0; e < mzValues.length; e++) {
+      indexedMZ[e] = matchesAnyMZ(e) ? Double.NaN : mzValues[e];
+    }
+    mzIndex = new MZSortedIndex(indexedMZ);
+    anyMZEntries = IntStream.range(0, mzValues.length).filter(this::matchesAnyMZ).toArray();
+  }
+
+  /**
+   * Loads the compiled database from the cache, or parses the CSV file and caches the result.
+   */
+  static LocalCSVDatabase load(File dataBaseFile, String fieldSeparator, FieldItem[] fieldOrder,
+      boolean ignoreFirstLine) throws IOException {
+
+    final long checksum = getChecksum(dataBaseFile);
+    final String settings =
+        fieldSeparator + "|" + Arrays.toString(fieldOrder) + "|" + ignoreFirstLine;
+    final File cacheFile = getCacheFile(dataBaseFile);
+
+    if (cacheFile.exists()) {
+      try {
+        LocalCSVDatabase database = readCache(cacheFile, checksum, settings);
+        if (database != null) {
+          logger.finest("Loaded compiled database " + dataBaseFile + " from " + cacheFile);
+          return database;
+        }
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Could not read compiled database " + cacheFile, e);
+      }
+    }
+
+    LocalCSVDatabase database = compile(dataBaseFile, fieldSeparator, fieldOrder, ignoreFirstLine);
+    try {
+      database.writeCache(cacheFile, checksum, settings);
+    } catch (IOException e) {
+      // The search works without the cache
+      logger.log(Level.FINE, "Could not cache compiled database " + dataBaseFile, e);
+    }
+    return database;
+  }
+
+  int size() {
+    return lineNumbers.length;
+  }
+
+  String getID(int entry) {
+    return ids[entry];
+  }
+
+  String getName(int entry) {
+    return names[entry];
+  }
+
+  String getFormula(int entry) {
+    return formulas[entry];
+  }
+
+  double getMZ(int entry) {
+    return mzValues[entry];
+  }
+
+  double getRT(int entry) {
+    return rtValues[entry];
+  }
+
+  /**
+   * @return the entries matching the m/z and retention time ranges, in the order of their lines in
+   *         the CSV file
+   */
+  int[] findEntries(Range<Double> mzRange, Range<Double> rtRange) {
+    int[] mzMatches = mzIndex.getIndicesInRange(mzRange);
+    return IntStream.concat(Arrays.stream(mzMatches), Arrays.stream(anyMZEntries))
+        .filter(e -> rtValues[e] == 0d || rtRange.contains(rtValues[e])).boxed()
+        .sorted(Comparator.comparingInt(e -> lineNumbers[e])).mapToInt(Integer::intValue)
+        .toArray();
+  }
+
+  private boolean matchesAnyMZ(int entry) {
+    return mzValues[entry] == 0d;
+  }
+
+  private static LocalCSVDatabase compile(File dataBaseFile, String fieldSeparator,
+      FieldItem[] fieldOrder, boolean ignoreFirstLine) throws IOException {
+
+    final String[][] databaseValues;
+    try (FileReader dbFileReader = new FileReader(dataBaseFile)) {
+      databaseValues = CSVParser.parse(dbFileReader, fieldSeparator.charAt(0));
+    }
+
+    List<Integer> lines = new ArrayList<>();
+    List<Double> mzs = new ArrayList<>();
+    List<Double> rts = new ArrayList<>();
+    List<String> lineIDs = new ArrayList<>();
+    List<String> lineNames = new ArrayList<>();
+    List<String> lineFormulas = new ArrayList<>();
+
+    for (int line = ignoreFirstLine ? 1 : 0; line < databaseValues.length; line++) {
+      String values[] = databaseValues[line];
+      int numOfColumns = Math.min(fieldOrder.length, values.length);
+
+      String lineID = null, lineName = null, lineFormula = null;
+      double lineMZ = 0, lineRT = 0;
+      try {
+        for (int i = 0; i < numOfColumns; i++) {
+          if (fieldOrder[i] == FieldItem.FIELD_ID)
+            lineID = values[i];
+          if (fieldOrder[i] == FieldItem.FIELD_NAME)
+            lineName = values[i];
+          if (fieldOrder[i] == FieldItem.FIELD_FORMULA)
+            lineFormula = values[i];
+          if (fieldOrder[i] == FieldItem.FIELD_MZ)
+            lineMZ = Double.parseDouble(values[i]);
+          if (fieldOrder[i] == FieldItem.FIELD_RT)
+            lineRT = Double.parseDouble(values[i]);
+        }
+      } catch (NumberFormatException e) {
+        // ignore incorrect lines
+        continue;
+      }
+      // identities must have a name
+      if (lineName == null)
+        continue;
+
+      lines.add(line);
+      mzs.add(lineMZ);
+      rts.add(lineRT);
+      lineIDs.add(lineID);
+      lineNames.add(lineName);
+      lineFormulas.add(lineFormula);
+    }
+
+    // Sort by m/z, lines matching any m/z last (stable, so equal m/z values stay in line order)
+    int[] order = IntStream.range(0, lines.size()).boxed()
+        .sorted(Comparator.comparingDouble(
+            (Integer i) -> mzs.get(i) == 0d ? Double.POSITIVE_INFINITY : mzs.get(i)))
+        .mapToInt(Integer::intValue).toArray();
+
+    final int size = order.length;
+    int[] lineNumbers = new int[size];
+    double[] mzValues = new double[size];
+    double[] rtValues = new double[size];
+    String[] ids = new String[size];
+    String[] names = new String[size];
+    String[] formulas = new String[size];
+    for (int e = 0; e < size; e++) {
+      lineNumbers[e] = lines.get(order[e]);
+      mzValues[e] = mzs.get(order[e]);
+      rtValues[e] = rts.get(order[e]);
+      ids[e] = lineIDs.get(order[e]);
+      names[e] = lineNames.get(order[e]);
+      formulas[e] = lineFormulas.get(order[e]);
+    }
+
+    return new LocalCSVDatabase(lineNumbers, mzValues, rtValues, ids, names, formulas);
+  }
+
+  private static long getChecksum(File file) throws IOException {
+    CRC32 crc = new CRC32();
+    try (InputStream is = new CheckedInputStream(new FileInputStream(file), crc)) {
+      byte buffer[] = new byte[1 << 16];
+      while (is.read(buffer) != -1) {
+        // read the whole file
+      }
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * One cache file per database path, it is overwritten when the database changes
+   */
+  private static File getCacheFile(File dataBaseFile) {
+    String path = dataBaseFile.getAbsolutePath();
+    String name = String.format("mzmine_csvdb_%08x.index", path.hashCode());
+    return new File(System.getProperty("java.io.tmpdir"), name);
+  }
+
+  /**
+   * @return the cached database, or null if the cache belongs to a different version of the file or
+   *         different parsing parameters
+   */
+  private static LocalCSVDatabase readCache(File cacheFile, long checksum, String settings)
+      throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(cacheFile), 1 << 16))) {
+      if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION
+          || in.readLong() != checksum || !in.readUTF().equals(settings))
+        return null;
+
+      final int size = in.readInt();
+      int[] lineNumbers = new int[size];
+      double[] mzValues = new double[size];
+      double[] rtValues = new double[size];
+      String[] ids = new String[size];
+      String[] names = new String[size];
+      String[] formulas = new String[size];
+      for (int e = 0; e < size; e++) {
+        lineNumbers[e] = in.readInt();
+        mzValues[e] = in.readDouble();
+        rtValues[e] = in.readDouble();
+        ids[e] = readString(in);
+        names[e] = readString(in);
+        formulas[e] = readString(in);
+      }
+      return new LocalCSVDatabase(lineNumbers, mzValues, rtValues, ids, names, formulas);
+    }
+  }
+
+  private void writeCache(File cacheFile, long checksum, String settings) throws IOException {
+    // Write to a temporary file first, so that concurrent searches never read a partial cache
+    File tmpFile = File.createTempFile("mzmine_csvdb", ".tmp", cacheFile.getParentFile());
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+        out.writeInt(CACHE_MAGIC);
+        out.writeInt(CACHE_VERSION);
+        out.writeLong(checksum);
+        out.writeUTF(settings);
+        out.writeInt(size());
+        for (int e = 0; e < size(); e++) {
+          out.writeInt(lineNumbers[e]);
+          out.writeDouble(mzValues[e]);
+          out.writeDouble(rtValues[e]);
+          writeString(out, ids[e]);
+          writeString(out, names[e]);
+          writeString(out, formulas[e]);
+        }
+      }
+      Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null)
+      out.writeUTF(value);
+  }
+
+}
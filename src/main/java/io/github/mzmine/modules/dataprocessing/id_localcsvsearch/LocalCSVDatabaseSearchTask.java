@@ -19,10 +19,11 @@
 package io.github.mzmine.modules.dataprocessing.id_localcsvsearch;
 
 import java.io.File;
-import java.io.FileReader;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import com.Ostermiller.util.CSVParser;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
@@ -40,8 +41,10 @@ class LocalCSVDatabaseSearchTask extends AbstractTask {
 
   private PeakList peakList;
 
-  private String[][] databaseValues;
-  private int finishedLines = 0;
+  private LocalCSVDatabase database;
+  private AtomicReferenceArray<SimplePeakIdentity> identities;
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
+  private int totalRows;
 
   private File dataBaseFile;
   private String fieldSeparator;
@@ -75,9 +78,9 @@ class LocalCSVDatabaseSearchTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (databaseValues == null)
+    if (totalRows == 0)
       return 0;
-    return ((double) finishedLines) / databaseValues.length;
+    return finishedRows.get() / (double) totalRows;
   }
 
   /**
@@ -97,24 +100,9 @@ class LocalCSVDatabaseSearchTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
 
     try {
-      // read database contents in memory
-      FileReader dbFileReader = new FileReader(dataBaseFile);
-      databaseValues = CSVParser.parse(dbFileReader, fieldSeparator.charAt(0));
-      if (ignoreFirstLine)
-        finishedLines++;
-      for (; finishedLines < databaseValues.length; finishedLines++) {
-        if (isCanceled()) {
-          dbFileReader.close();
-          return;
-        }
-        try {
-          processOneLine(databaseValues[finishedLines]);
-        } catch (Exception e) {
-          // ignore incorrect lines
-        }
-      }
-      dbFileReader.close();
-
+      // read the compiled database contents in memory
+      database =
+          LocalCSVDatabase.load(dataBaseFile, fieldSeparator, fieldOrder, ignoreFirstLine);
     } catch (Exception e) {
       logger.log(Level.WARNING, "Could not read file " + dataBaseFile, e);
       setStatus(TaskStatus.ERROR);
@@ -122,6 +110,23 @@ class LocalCSVDatabaseSearchTask extends AbstractTask {
       return;
     }
 
+    if (isCanceled())
+      return;
+
+    identities = new AtomicReferenceArray<>(database.size());
+    PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+    totalRows = rows.length;
+
+    Arrays.stream(rows).parallel().forEach(peakRow -> {
+      if (isCanceled())
+        return;
+      processOneRow(peakRow);
+      finishedRows.incrementAndGet();
+    });
+
+    if (isCanceled())
+      return;
+
     // Add task description to peakList
     peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
         "Peak identification using database " + dataBaseFile, parameters));
@@ -131,46 +136,34 @@ class LocalCSVDatabaseSearchTask extends AbstractTask {
 
   }
 
-  private void processOneLine(String values[]) {
+  private void processOneRow(PeakListRow peakRow) {
 
-    int numOfColumns = Math.min(fieldOrder.length, values.length);
+    Range<Double> mzRange = mzTolerance.getToleranceRange(peakRow.getAverageMZ());
+    Range<Double> rtRange = rtTolerance.getToleranceRange(peakRow.getAverageRT());
 
-    String lineID = null, lineName = null, lineFormula = null;
-    double lineMZ = 0, lineRT = 0;
-
-    for (int i = 0; i < numOfColumns; i++) {
-      if (fieldOrder[i] == FieldItem.FIELD_ID)
-        lineID = values[i];
-      if (fieldOrder[i] == FieldItem.FIELD_NAME)
-        lineName = values[i];
-      if (fieldOrder[i] == FieldItem.FIELD_FORMULA)
-        lineFormula = values[i];
-      if (fieldOrder[i] == FieldItem.FIELD_MZ)
-        lineMZ = Double.parseDouble(values[i]);
-      if (fieldOrder[i] == FieldItem.FIELD_RT)
-        lineRT = Double.parseDouble(values[i]);
-    }
+    for (int entry : database.findEntries(mzRange, rtRange)) {
 
-    SimplePeakIdentity newIdentity =
-        new SimplePeakIdentity(lineName, lineFormula, dataBaseFile.getName(), lineID, null);
+      logger.finest("Found compound " + database.getName(entry) + " (m/z "
+          + database.getMZ(entry) + ", RT " + database.getRT(entry) + ")");
 
-    for (PeakListRow peakRow : peakList.getRows()) {
+      // add new identity to the row
+      peakRow.addPeakIdentity(getIdentity(entry), false);
 
-      Range<Double> mzRange = mzTolerance.getToleranceRange(peakRow.getAverageMZ());
-      Range<Double> rtRange = rtTolerance.getToleranceRange(peakRow.getAverageRT());
-
-      boolean mzMatches = (lineMZ == 0d) || mzRange.contains(lineMZ);
-      boolean rtMatches = (lineRT == 0d) || rtRange.contains(lineRT);
-
-      if (mzMatches && rtMatches) {
-
-        logger.finest("Found compound " + lineName + " (m/z " + lineMZ + ", RT " + lineRT + ")");
+    }
 
-        // add new identity to the row
-        peakRow.addPeakIdentity(newIdentity, false);
+  }
 
-      }
+  /**
+   * All rows matching a database line share one identity instance
+   */
+  private SimplePeakIdentity getIdentity(int entry) {
+    SimplePeakIdentity identity = identities.get(entry);
+    if (identity == null) {
+      identities.compareAndSet(entry, null,
+          new SimplePeakIdentity(database.getName(entry), database.getFormula(entry),
+              dataBaseFile.getName(), database.getID(entry), null));
+      identity = identities.get(entry);
     }
-
+    return identity;
   }
 }
@@ -19,8 +19,14 @@
 package io.github.mzmine.modules.dataprocessing.id_ms2search;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MassList;
@@ -33,6 +39,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 class Ms2SearchResult {
   private double score;
@@ -83,7 +90,8 @@ class Ms2SearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private int finishedRows, totalRows;
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
+  private int totalRows;
   private PeakList peakList1;
   private PeakList peakList2;
 
@@ -123,7 +131,7 @@ class Ms2SearchTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0;
-    return ((double) finishedRows) / totalRows;
+    return ((double) finishedRows.get()) / totalRows;
   }
 
   /**
@@ -145,7 +153,6 @@ class Ms2SearchTask extends AbstractTask {
     logger.info("Starting MS2 similarity search between " + peakList1 + " and " + peakList2
         + " with mz tolerance:" + mzTolerance.getPpmTolerance());
 
-    Ms2SearchResult searchResult;
     PeakListRow rows1[] = peakList1.getRows().toArray(PeakListRow[]::new);
     PeakListRow rows2[] = peakList2.getRows().toArray(PeakListRow[]::new);
 
@@ -154,30 +161,57 @@ class Ms2SearchTask extends AbstractTask {
 
     totalRows = rows1Length;
 
-    for (int i = 0; i < rows1Length; i++) {
-      for (int j = 0; j < rows2Length; j++) {
-        Feature featureA = rows1[i].getBestPeak();
-        Feature featureB = rows2[j].getBestPeak();
-        // Complication. The "best" peak, may not have the "best"
-        // fragmentation
-        Scan scanA = rows1[i].getBestFragmentation();
-        Scan scanB = rows2[j].getBestFragmentation();
-
-        searchResult =
-            simpleMS2similarity(scanA, scanB, intensityThreshold, mzTolerance, massListName);
-
-        // Report the final score to the peaklist identity
-        if (searchResult != null && searchResult.getScore() > scoreThreshold
-            && searchResult.getNumIonsMatched() >= minimumIonsMatched)
-          this.addMS2Identity(rows1[i], featureA, featureB, searchResult);
-
-        if (isCanceled())
-          return;
+    // Extract the ions of the best fragmentation scan of each row once (null if the row has no
+    // MS2 scan or no ions)
+    IonList ions1[] = extractIonLists(rows1);
+    if (ions1 == null)
+      return;
+    IonList ions2[] = extractIonLists(rows2);
+    if (ions2 == null)
+      return;
+
+    // Inverted index of list 2: m/z bin -> rows having an ion in this bin. A bin is as wide as the
+    // largest m/z tolerance, so matching ions are always in the same or in adjacent bins. Pairs
+    // without any ions in common bins have a score of 0 and no matched ions, they can only be
+    // reported if the thresholds allow it, in which case all pairs are compared.
+    final double binWidth = getMaxMZTolerance(ions1);
+    final boolean pruneCandidates = scoreThreshold >= 0 || minimumIonsMatched > 0;
+    final Map<Long, int[]> binIndex =
+        pruneCandidates && binWidth > 0 ? createBinIndex(ions2, binWidth) : null;
+
+    IntStream.range(0, rows1Length).parallel().forEach(i -> {
+      if (isCanceled())
+        return;
+
+      if (ions1[i] != null) {
+        final int candidates[];
+        if (!pruneCandidates)
+          candidates = IntStream.range(0, rows2Length).toArray();
+        else if (binIndex == null) // zero tolerance, no ion can match
+          candidates = new int[0];
+        else
+          candidates = getCandidates(ions1[i], binIndex, binWidth);
+
+        for (int j : candidates) {
+          if (ions2[j] == null)
+            continue;
+
+          Ms2SearchResult searchResult = simpleMS2similarity(ions1[i], ions2[j], mzTolerance);
+
+          // Report the final score to the peaklist identity
+          if (searchResult.getScore() > scoreThreshold
+              && searchResult.getNumIonsMatched() >= minimumIonsMatched)
+            this.addMS2Identity(rows1[i], rows1[i].getBestPeak(), rows2[j].getBestPeak(),
+                searchResult);
+        }
       }
 
       // Update progress bar
-      finishedRows++;
-    }
+      finishedRows.incrementAndGet();
+    });
+
+    if (isCanceled())
+      return;
 
     // Add task description to peakList
     ((SimplePeakList) peakList1).addDescriptionOfAppliedTask(
@@ -189,87 +223,143 @@ class Ms2SearchTask extends AbstractTask {
 
   }
 
-  private Ms2SearchResult simpleMS2similarity(Scan scanMS2A, Scan scanMS2B,
-      double intensityThreshold, MZTolerance mzRange, String massList) {
-
-    double runningScoreTotal = 0.0;
-    double mzRangePPM = mzRange.getPpmTolerance();
-
-    List<DataPoint> matchedIons = new ArrayList<DataPoint>();
-
-    // Fetch 1st feature MS2 scan.
-    // int ms2ScanNumberA = featureA.getMostIntenseFragmentScanNumber();
-    // Scan scanMS2A = featureA.getDataFile().getScan(ms2ScanNumberA);
-
-    // Fetch 2nd feature MS2 scan.
-    // int ms2ScanNumberB = featureB.getMostIntenseFragmentScanNumber();
-    // Scan scanMS2B = featureB.getDataFile().getScan(ms2ScanNumberB);
+  /**
+   * Extracts the mass list ions of the best fragmentation scan of each row, in parallel.
+   *
+   * @return the ion lists (null for rows without ions), or null if a scan has no mass list (the
+   *         task status is then set to error)
+   */
+  private IonList[] extractIonLists(PeakListRow rows[]) {
+    IonList ionLists[] = new IonList[rows.length];
+    IntStream.range(0, rows.length).parallel().forEach(i -> {
+      if (isCanceled() || getStatus() == TaskStatus.ERROR)
+        return;
+
+      // Complication. The "best" peak, may not have the "best"
+      // fragmentation
+      Scan scan = rows[i].getBestFragmentation();
+      if (scan == null)
+        return;
+
+      // Fetch centroided data
+      MassList massList = scan.getMassList(massListName);
+      if (massList == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Scan " + scan.getDataFile().getName() + " #" + scan.getScanNumber()
+            + " does not have a mass list " + massListName);
+        return;
+      }
 
-    if (scanMS2A == null || scanMS2B == null) {
+      DataPoint ions[] = massList.getDataPoints();
+      if (ions == null || ions.length == 0)
+        return;
+      ionLists[i] = new IonList(ions);
+    });
+    if (isCanceled() || getStatus() == TaskStatus.ERROR)
       return null;
+    return ionLists;
+  }
+
+  /**
+   * @return the largest absolute m/z tolerance of the ions
+   */
+  private double getMaxMZTolerance(IonList ionLists[]) {
+    double maxMZ = 0;
+    for (IonList ionList : ionLists) {
+      if (ionList != null)
+        maxMZ = Math.max(maxMZ, ionList.mzs[ionList.mzs.length - 1]);
     }
+    return maxMZ * 1e-6 * mzTolerance.getPpmTolerance();
+  }
 
-    // Fetch centroided data
-    MassList massListA = scanMS2A.getMassList(massListName);
-    MassList massListB = scanMS2B.getMassList(massListName);
+  private static long getBin(double mz, double binWidth) {
+    return (long) Math.floor(mz / binWidth);
+  }
 
-    if (massListA == null) {
-      // Will this work properly? As this function isn't directly the
-      // task?
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Scan " + scanMS2A.getDataFile().getName() + " #" + scanMS2A.getScanNumber()
-          + " does not have a mass list " + massListName);
-      return null;
+  private static Map<Long, int[]> createBinIndex(IonList ionLists[], double binWidth) {
+    Map<Long, IntArrayList> rowsByBin = new HashMap<>();
+    for (int j = 0; j < ionLists.length; j++) {
+      if (ionLists[j] == null)
+        continue;
+      long lastBin = Long.MIN_VALUE;
+      for (double mz : ionLists[j].mzs) {
+        long bin = getBin(mz, binWidth);
+        // the m/z values are sorted, each row is added once per bin
+        if (bin != lastBin)
+          rowsByBin.computeIfAbsent(bin, b -> new IntArrayList()).add(j);
+        lastBin = bin;
+      }
     }
+    Map<Long, int[]> binIndex = new HashMap<>(rowsByBin.size() * 2);
+    rowsByBin.forEach((bin, rowList) -> binIndex.put(bin, rowList.toIntArray()));
+    return binIndex;
+  }
 
-    if (massListB == null) {
-      // Will this work properly? As this function isn't directly the
-      // task?
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Scan " + scanMS2B.getDataFile().getName() + " #" + scanMS2B.getScanNumber()
-          + " does not have a mass list " + massListName);
-      return null;
+  /**
+   * @return the rows of list 2 which have an ion in the same or in an adjacent bin as one of the
+   *         ions, sorted
+   */
+  private static int[] getCandidates(IonList ionList, Map<Long, int[]> binIndex, double binWidth) {
+    IntArrayList candidates = new IntArrayList();
+    long lastBin = Long.MIN_VALUE;
+    for (double mz : ionList.mzs) {
+      long bin = getBin(mz, binWidth);
+      for (long b = Math.max(bin - 1, lastBin + 1); b <= bin + 1; b++) {
+        int rows[] = binIndex.get(b);
+        if (rows != null)
+          candidates.addElements(candidates.size(), rows);
+      }
+      lastBin = Math.max(lastBin, bin + 1);
+    }
+    int result[] = candidates.toIntArray();
+    Arrays.sort(result);
+    // remove duplicates
+    int count = 0;
+    for (int k = 0; k < result.length; k++) {
+      if (count == 0 || result[k] != result[count - 1])
+        result[count++] = result[k];
     }
+    return Arrays.copyOf(result, count);
+  }
 
-    DataPoint[] ionsA = null;
-    DataPoint[] ionsB = null;
+  /**
+   * Sum of the intensity products of all the pairs of ions within the m/z tolerance. Both ion lists
+   * are sorted by m/z, so they are matched in a single linear merge.
+   */
+  private Ms2SearchResult simpleMS2similarity(IonList ionsA, IonList ionsB, MZTolerance mzRange) {
+
+    double runningScoreTotal = 0.0;
+    double mzRangePPM = mzRange.getPpmTolerance();
 
-    ionsA = massListA.getDataPoints();
-    ionsB = massListB.getDataPoints();
+    List<DataPoint> matchedIons = new ArrayList<DataPoint>();
 
-    if (ionsA == null || ionsB == null || ionsA.length == 0 || ionsB.length == 0) {
-      // Fall back to profile data?
-      // Profile / raw data.
-      // ionsA = scanMS2A.getDataPointsOverIntensity(intensityThreshold);
-      // ionsB = scanMS2B.getDataPointsOverIntensity(intensityThreshold);
-      return null;
-    }
+    final double mzA[] = ionsA.mzs, mzB[] = ionsB.mzs;
+    final double ionsBMaxMZ = mzB[mzB.length - 1];
 
-    // Compare every ion peak in MS2 scan A, to every ion peak in MS2 scan
-    // B.
-    double ionsBMaxMZ = ionsB[ionsB.length - 1].getMZ();
-    for (int i = 0; i < ionsA.length; i++) {
+    // First ion of B which may still match, it only moves forward as the tolerance window moves
+    // forward with the m/z of A
+    int start = 0;
+    for (int i = 0; i < mzA.length; i++) {
 
-      double iMZ = ionsA[i].getMZ();
+      double iMZ = mzA[i];
       double mzRangeAbsolute = iMZ * 1e-6 * mzRangePPM;
 
       if (iMZ - mzRangeAbsolute > ionsBMaxMZ)
-        break; // Potential speedup heuristic. If any i is greater than
-               // the max of j, no more
-               // matches are possible.
+        break; // If any i is greater than the max of j, no more matches are possible.
+
+      while (start < mzB.length && mzB[start] <= iMZ - mzRangeAbsolute)
+        start++;
 
-      for (int j = 0; j < ionsB.length; j++) {
+      for (int j = start; j < mzB.length; j++) {
 
-        double jMZ = ionsB[j].getMZ();
+        double jMZ = mzB[j];
 
         if (iMZ < jMZ - mzRangeAbsolute)
-          break; // Potential speedup heuristic. iMZ smaller than jMZ.
-                 // Skip the rest of the j's as
-                 // they can only increase.
+          break; // iMZ smaller than jMZ. Skip the rest of the j's as they can only increase.
 
         if (Math.abs(iMZ - jMZ) < mzRangeAbsolute) {
-          runningScoreTotal += ionsA[i].getIntensity() * ionsB[j].getIntensity();
-          matchedIons.add(ionsA[i]);
+          runningScoreTotal += ionsA.intensities[i] * ionsB.intensities[j];
+          matchedIons.add(ionsA.ions[i]);
         }
 
       }
@@ -289,4 +379,25 @@ class Ms2SearchTask extends AbstractTask {
     Ms2Identity newIdentity = new Ms2Identity(featureA, featureB, searchResult);
     row1.addPeakIdentity(newIdentity, false);
   }
+
+  /**
+   * Ions of a mass list sorted by m/z, with their m/z and intensity values in primitive arrays
+   */
+  private static class IonList {
+
+    private final DataPoint ions[];
+    private final double mzs[];
+    private final double intensities[];
+
+    private IonList(DataPoint dataPoints[]) {
+      ions = dataPoints.clone();
+      Arrays.sort(ions, Comparator.comparingDouble(DataPoint::getMZ));
+      mzs = new double[ions.length];
+      intensities = new double[ions.length];
+      for (int i = 0; i < ions.length; i++) {
+        mzs[i] = ions[i].getMZ();
+        intensities[i] = ions[i].getIntensity();
+      }
+    }
+  }
 }
@@ -31,7 +31,7 @@ import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineProcessingStep;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreCalculator;
-import io.github.mzmine.modules.tools.isotopeprediction.IsotopePatternCalculator;
+import io.github.mzmine.modules.tools.isotopeprediction.IsotopePatternCache;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
@@ -192,8 +192,8 @@ public class PeakListIdentificationTask extends AbstractTask {
             + " adjusted to " + adjustedFormula);
 
         // Generate IsotopePattern for this compound
-        final IsotopePattern compoundIsotopePattern = IsotopePatternCalculator
-            .calculateIsotopePattern(adjustedFormula, MIN_ABUNDANCE, charge, ionType.getPolarity());
+        final IsotopePattern compoundIsotopePattern = IsotopePatternCache
+            .getIsotopePattern(adjustedFormula, MIN_ABUNDANCE, charge, ionType.getPolarity());
 
         // Check isotope pattern match
         boolean check = IsotopePatternScoreCalculator.checkMatch(rowIsotopePattern,
@@ -19,30 +19,30 @@
 package io.github.mzmine.modules.dataprocessing.id_precursordbsearch;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import io.github.mzmine.gui.Desktop;
 import io.github.mzmine.gui.HeadLessDesktop;
-import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.MZSortedIndex;
 import io.github.mzmine.util.spectraldb.entry.PrecursorDBPeakIdentity;
 import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import io.github.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
-import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+import io.github.mzmine.util.spectraldb.library.SpectralLibrary;
+import io.github.mzmine.util.spectraldb.library.SpectralLibraryRegistry;
 
 /**
  * Search for possible precursor m/z . All rows average m/z against local spectral database
@@ -54,6 +54,8 @@ class PrecursorDBSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private static final int ENTRIES_PER_BLOCK = 1000;
+
   private final PeakList peakList;
   private final File dataBaseFile;
   private ParameterSet parameters;
@@ -62,8 +64,13 @@ class PrecursorDBSearchTask extends AbstractTask {
   private boolean useRT;
   private RTTolerance rtTol;
 
-  private List<AbstractTask> tasks;
-  private int totalTasks;
+  // rows sorted by average m/z, with the bounds of their m/z tolerance ranges (both ascending)
+  private PeakListRow[] sortedRows;
+  private double[] rowsLowerMZ;
+  private double[] rowsUpperMZ;
+
+  private int totalBlocks;
+  private final AtomicInteger finishedBlocks = new AtomicInteger(0);
   private AtomicInteger matches = new AtomicInteger(0);
 
   public PrecursorDBSearchTask(PeakList peakList, ParameterSet parameters) {
@@ -82,9 +89,9 @@ class PrecursorDBSearchTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (totalTasks == 0 || tasks == null)
+    if (totalBlocks == 0)
       return 0;
-    return ((double) totalTasks - tasks.size()) / totalTasks;
+    return finishedBlocks.get() / (double) totalBlocks;
   }
 
   /**
@@ -102,29 +109,26 @@ class PrecursorDBSearchTask extends AbstractTask {
   @Override
   public void run() {
     setStatus(TaskStatus.PROCESSING);
-    int count = 0;
     try {
-      tasks = parseFile(dataBaseFile);
-      totalTasks = tasks.size();
-      if (!tasks.isEmpty()) {
-        // wait for the tasks to finish
-        while (!isCanceled() && !tasks.isEmpty()) {
-          for (int i = 0; i < tasks.size(); i++) {
-            if (tasks.get(i).isFinished() || tasks.get(i).isCanceled()) {
-              tasks.remove(i);
-              i--;
-            }
-          }
-          // wait for all sub tasks to finish
-          try {
-            Thread.sleep(100);
-          } catch (Exception e) {
-            cancel();
-          }
-        }
-        // cancelled
-        if (isCanceled()) {
-          tasks.stream().forEach(AbstractTask::cancel);
+      SpectralLibrary library = SpectralLibraryRegistry.getLibrary(this, dataBaseFile);
+      if (library == null || isCanceled())
+        return;
+      if (library.size() > 0) {
+        sortRows();
+        List<Match> libraryMatches = matchLibrary(library);
+        if (isCanceled())
+          return;
+
+        // add the identities in the order of the library
+        SpectralDBEntry entry = null;
+        for (int i = 0; i < libraryMatches.size(); i++) {
+          Match match = libraryMatches.get(i);
+          // all rows matching an entry share one instance
+          if (i == 0 || libraryMatches.get(i - 1).entryIndex != match.entryIndex)
+            entry = library.getEntry(match.entryIndex);
+          match.row.addPeakIdentity(
+              new PrecursorDBPeakIdentity(entry, PrecursorDBSearchModule.MODULE_NAME), false);
+          matches.getAndIncrement();
         }
       } else {
         setStatus(TaskStatus.ERROR);
@@ -143,74 +147,64 @@ class PrecursorDBSearchTask extends AbstractTask {
         "Possible precursor identification using MS/MS spectral database " + dataBaseFile,
         parameters));
 
-    setStatus(TaskStatus.FINISHED);
+    if (getStatus() == TaskStatus.PROCESSING)
+      setStatus(TaskStatus.FINISHED);
   }
 
   /**
-   * Load all library entries from data base file
-   * 
-   * @param dataBaseFile
-   * @return
+   * Sorts the rows by average m/z. The bounds of the m/z tolerance ranges increase with the m/z, so
+   * they are sorted as well.
    */
-  private List<AbstractTask> parseFile(File dataBaseFile)
-      throws UnsupportedFormatException, IOException {
-    //
-    List<AbstractTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-
-        AbstractTask task = new AbstractTask() {
-          private int total = peakList.getNumberOfRows();
-          private int done = 0;
-
-          @Override
-          public void run() {
-            for (PeakListRow row : peakList.getRows()) {
-              if (this.isCanceled())
-                break;
-              for (SpectralDBEntry db : list) {
-                if (this.isCanceled())
-                  break;
-
-                if (checkRT(row, (Double) db.getField(DBEntryField.RT).orElse(null))
-                    && checkMZ(row, db.getPrecursorMZ())) {
-                  // add identity
-                  row.addPeakIdentity(
-                      new PrecursorDBPeakIdentity(db, PrecursorDBSearchModule.MODULE_NAME), false);
-                  matches.getAndIncrement();
-                }
-              }
-              done++;
-            }
-
-            if (!this.isCanceled())
-              setStatus(TaskStatus.FINISHED);
-          }
-
-          @Override
-          public String getTaskDescription() {
-            return "Checking for precursors: " + alreadyProcessed + 1 + " - " + alreadyProcessed
-                + list.size();
-          }
-
-          @Override
-          public double getFinishedPercentage() {
-            if (total == 0)
-              return 0;
-            return done / (double) total;
-          }
-        };
-
-        // start last task
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
+  private void sortRows() {
+    sortedRows = peakList.getRows().stream()
+        .sorted(Comparator.comparingDouble(PeakListRow::getAverageMZ))
+        .toArray(PeakListRow[]::new);
+    rowsLowerMZ = new double[sortedRows.length];
+    rowsUpperMZ = new double[sortedRows.length];
+    for (int r = 0; r < sortedRows.length; r++) {
+      Range<Double> mzRange = mzTol.getToleranceRange(sortedRows[r].getAverageMZ());
+      rowsLowerMZ[r] = mzRange.lowerEndpoint();
+      rowsUpperMZ[r] = mzRange.upperEndpoint();
+    }
+  }
+
+  /**
+   * Matches the library entries against all rows: the entries sorted by precursor m/z (see
+   * {@link SpectralLibrary#getPrecursorMZIndex()}) are merged with the m/z sorted rows, in parallel
+   * blocks. The first row whose tolerance range may contain the precursor m/z only moves forward,
+   * it is found by binary search from its last position.
+   *
+   * @return the matches sorted by entry index
+   */
+  private List<Match> matchLibrary(SpectralLibrary library) {
+    final MZSortedIndex precursorIndex = library.getPrecursorMZIndex();
+    // entries without precursor m/z are sorted last
+    final int entries = precursorIndex.upperBound(Double.POSITIVE_INFINITY);
+    totalBlocks = (entries + ENTRIES_PER_BLOCK - 1) / ENTRIES_PER_BLOCK;
+
+    List<Match> libraryMatches = IntStream.range(0, totalBlocks).parallel().mapToObj(block -> {
+      final int from = block * ENTRIES_PER_BLOCK;
+      final int to = Math.min(entries, from + ENTRIES_PER_BLOCK);
+      List<Match> blockMatches = new ArrayList<>();
+      int firstRow = 0;
+      for (int p = from; p < to; p++) {
+        if (isCanceled())
+          break;
+        final int entry = precursorIndex.getIndex(p);
+        final double mz = precursorIndex.getMZ(p);
+        // first row with upper bound >= mz
+        firstRow = MZSortedIndex.lowerBound(rowsUpperMZ, firstRow, mz);
+        for (int r = firstRow; r < sortedRows.length && rowsLowerMZ[r] <= mz; r++) {
+          if (checkRT(sortedRows[r], library.getRT(entry)) && checkMZ(sortedRows[r], mz))
+            blockMatches.add(new Match(entry, sortedRows[r]));
+        }
       }
-    });
+      finishedBlocks.incrementAndGet();
+      return blockMatches;
+    }).flatMap(List::stream).collect(Collectors.toList());
 
-    // return tasks
-    parser.parse(this, dataBaseFile);
-    return tasks;
+    libraryMatches.sort(Comparator.comparingInt(match -> match.entryIndex));
+    return libraryMatches;
   }
 
   protected boolean checkMZ(PeakListRow row, Double mz) {
@@ -219,7 +213,19 @@ class PrecursorDBSearchTask extends AbstractTask {
 
   protected boolean checkRT(PeakListRow row, Double rt) {
     // if no rt is in the library still use
-    return !useRT || rtTol == null || rtTol.checkWithinTolerance(row.getAverageRT(), rt);
+    return !useRT || rtTol == null || rt == null
+        || rtTol.checkWithinTolerance(row.getAverageRT(), rt);
+  }
+
+  private static class Match {
+
+    private final int entryIndex;
+    private final PeakListRow row;
+
+    Match(int entryIndex, PeakListRow row) {
+      this.entryIndex = entryIndex;
+      this.row = row;
+    }
   }
 
 }
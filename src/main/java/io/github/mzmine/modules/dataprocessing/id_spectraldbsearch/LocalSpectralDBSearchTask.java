@@ -32,15 +32,16 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import io.github.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
+import io.github.mzmine.util.spectraldb.library.SpectralLibrary;
+import io.github.mzmine.util.spectraldb.library.SpectralLibraryRegistry;
 import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
 
 class LocalSpectralDBSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private static final int ENTRIES_PER_TASK = 100;
+
   private final PeakList peakList;
   private final @Nonnull String massListName;
   private final File dataBaseFile;
@@ -86,7 +87,9 @@ class LocalSpectralDBSearchTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     int count = 0;
     try {
-      tasks = parseFile(dataBaseFile);
+      tasks = createTasks(dataBaseFile);
+      if (isCanceled())
+        return;
       totalTasks = tasks.size();
       if (!tasks.isEmpty()) {
         // wait for the tasks to finish
@@ -129,28 +132,29 @@ class LocalSpectralDBSearchTask extends AbstractTask {
   }
 
   /**
-   * Load all library entries from data base file
+   * Load all library entries from data base file (or reuse the loaded library) and start a
+   * matching task for every {@value #ENTRIES_PER_TASK} entries
    *
    * @param dataBaseFile
    * @return
    */
-  private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
+  private List<RowsSpectralMatchTask> createTasks(File dataBaseFile)
       throws UnsupportedFormatException, IOException {
     //
     List<RowsSpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task = new RowsSpectralMatchTask(peakList.getName(), rows, parameters,
-            alreadyProcessed + 1, list);
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
-      }
-    });
+    SpectralLibrary library = SpectralLibraryRegistry.getLibrary(this, dataBaseFile);
+    if (library == null)
+      return tasks;
+
+    for (int from = 0; from < library.size(); from += ENTRIES_PER_TASK) {
+      int to = Math.min(library.size(), from + ENTRIES_PER_TASK);
+      RowsSpectralMatchTask task = new RowsSpectralMatchTask(peakList.getName(), rows, parameters,
+          from + 1, library.getEntries(from, to));
+      MZmineCore.getTaskController().addTask(task);
+      tasks.add(task);
+    }
 
     // return tasks
-    parser.parse(this, dataBaseFile);
     return tasks;
   }
 
@@ -179,6 +179,8 @@ public class RowsSpectralMatchTask extends AbstractTask {
   @Override
   public void run() {
     setStatus(TaskStatus.PROCESSING);
+    // entries of a library view are created on access, create them once for all rows
+    list = new ArrayList<>(list);
     for (PeakListRow row : rows) {
       if (isCanceled()) {
         logger.info("Added " + count + " spectral library matches (before being cancelled)");
@@ -25,9 +25,8 @@ import io.github.mzmine.modules.visualization.spectra.spectralmatchresults.Spect
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import io.github.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
+import io.github.mzmine.util.spectraldb.library.SpectralLibrary;
+import io.github.mzmine.util.spectraldb.library.SpectralLibraryRegistry;
 import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
 import java.io.File;
 import java.io.IOException;
@@ -42,6 +41,8 @@ public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private static final int ENTRIES_PER_TASK = 100;
+
   private final PeakListRow[] peakListRows;
   private final @Nonnull
   String massListName;
@@ -105,7 +106,9 @@ public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
     }
 
     try {
-      tasks = parseFile(dataBaseFile);
+      tasks = createTasks(dataBaseFile);
+      if (isCanceled())
+        return;
       totalTasks = tasks.size();
       if (!tasks.isEmpty()) {
         // wait for the tasks to finish
@@ -153,33 +156,34 @@ public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
   }
 
   /**
-   * Load all library entries from data base file
+   * Load all library entries from data base file (or reuse the loaded library) and start a
+   * matching task for every {@value #ENTRIES_PER_TASK} entries
    *
    * @param dataBaseFile
    * @return
    */
-  private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
+  private List<RowsSpectralMatchTask> createTasks(File dataBaseFile)
       throws UnsupportedFormatException, IOException {
     //
     List<RowsSpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task = new RowsSpectralMatchTask(peakListRows.length + " rows",
-            peakListRows, parameters, alreadyProcessed + 1, list, (match) -> {
-          // one selected row -> show in dialog
-          if (resultWindow != null) {
-            Platform.runLater(() -> resultWindow.addMatches(match));
-          }
-        });
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
-      }
-    });
+    SpectralLibrary library = SpectralLibraryRegistry.getLibrary(this, dataBaseFile);
+    if (library == null)
+      return tasks;
+
+    for (int from = 0; from < library.size(); from += ENTRIES_PER_TASK) {
+      int to = Math.min(library.size(), from + ENTRIES_PER_TASK);
+      RowsSpectralMatchTask task = new RowsSpectralMatchTask(peakListRows.length + " rows",
+          peakListRows, parameters, from + 1, library.getEntries(from, to), (match) -> {
+            // one selected row -> show in dialog
+            if (resultWindow != null) {
+              Platform.runLater(() -> resultWindow.addMatches(match));
+            }
+          });
+      MZmineCore.getTaskController().addTask(task);
+      tasks.add(task);
+    }
 
     // return tasks
-    parser.parse(this, dataBaseFile);
     return tasks;
   }
 
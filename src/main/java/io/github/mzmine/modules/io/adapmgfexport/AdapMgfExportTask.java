@@ -17,7 +17,6 @@
 package io.github.mzmine.modules.io.adapmgfexport;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
@@ -25,6 +24,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -38,6 +38,7 @@ import io.github.mzmine.modules.io.adapmgfexport.AdapMgfExportParameters.MzMode;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.io.OrderedBlockWriter;
 
 /**
  * Export of a feature cluster (ADAP) to mgf. Used in GC-GNPS
@@ -46,6 +47,9 @@ import io.github.mzmine.taskcontrol.TaskStatus;
  */
 public class AdapMgfExportTask extends AbstractTask {
   private final String newLine = System.lineSeparator();
+
+  private static final int ROWS_PER_BLOCK = 1000;
+
   //
   private NumberFormat mzForm = MZmineCore.getConfiguration().getMZFormat();
   private NumberFormat mzNominalForm = new DecimalFormat("0");
@@ -60,7 +64,7 @@ public class AdapMgfExportTask extends AbstractTask {
   private final String roundMode;
   private MzMode representativeMZ;
   private final int totalRows;
-  private int finishedRows = 0;
+  private final AtomicInteger finishedRows = new AtomicInteger();
 
   public AdapMgfExportTask(ParameterSet parameters) {
     this(parameters, parameters.getParameter(AdapMgfExportParameters.PEAK_LISTS).getValue()
@@ -82,7 +86,7 @@ public class AdapMgfExportTask extends AbstractTask {
 
   @Override
   public double getFinishedPercentage() {
-    return totalRows != 0 ? finishedRows / totalRows : 0;
+    return totalRows != 0 ? finishedRows.get() / totalRows : 0;
   }
 
   @Override
@@ -112,16 +116,8 @@ public class AdapMgfExportTask extends AbstractTask {
       }
 
       // Open file
-      FileWriter writer;
-      try {
-        writer = new FileWriter(curFile);
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not open file " + curFile + " for writing.");
-        return;
-      }
-
-      try {
+      try (OrderedBlockWriter writer = new OrderedBlockWriter(curFile, false,
+          (peakList.getNumberOfRows() + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK)) {
         exportPeakList(peakList, writer);
       } catch (IOException e) {
         setStatus(TaskStatus.ERROR);
@@ -134,15 +130,6 @@ public class AdapMgfExportTask extends AbstractTask {
         return;
       }
 
-      // Close file
-      try {
-        writer.close();
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not close file " + curFile);
-        return;
-      }
-
       // If feature list substitution pattern wasn't found,
       // treat one feature list only
       if (!substitute)
@@ -153,19 +140,38 @@ public class AdapMgfExportTask extends AbstractTask {
       setStatus(TaskStatus.FINISHED);
   }
 
-  private void exportPeakList(PeakList peakList, FileWriter writer) throws IOException {
-    for (PeakListRow row : peakList.getRows()) {
-      IsotopePattern ip = row.getBestIsotopePattern();
+  private void exportPeakList(PeakList peakList, OrderedBlockWriter writer) throws IOException {
+    final PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+    writer.submitBlocks(rows.length, ROWS_PER_BLOCK,
+        (block, from, to) -> exportRows(block, rows, from, to));
+    if (isCanceled())
+      return;
+    writer.flush();
+  }
+
+  /**
+   * Append the spectra of the given rows to the buffer
+   */
+  private void exportRows(StringBuilder out, PeakListRow rows[], int from, int to) {
+    // Format as nominal or fractional
+    final NumberFormat mzForm =
+        (NumberFormat) (fractionalMZ ? this.mzForm : mzNominalForm).clone();
+    final NumberFormat intensityForm = (NumberFormat) this.intensityForm.clone();
+    final NumberFormat rtsForm = (NumberFormat) this.rtsForm.clone();
+
+    for (int r = from; r < to && !isCanceled(); r++) {
+      IsotopePattern ip = rows[r].getBestIsotopePattern();
       if (ip == null)
         continue;
 
-      exportRow(writer, row, ip);
+      exportRow(out, rows[r], ip, mzForm, intensityForm, rtsForm);
 
-      finishedRows++;
+      finishedRows.incrementAndGet();
     }
   }
 
-  private void exportRow(FileWriter writer, PeakListRow row, IsotopePattern ip) throws IOException {
+  private void exportRow(StringBuilder out, PeakListRow row, IsotopePattern ip,
+      NumberFormat mzForm, NumberFormat intensityForm, NumberFormat rtsForm) {
     // data points of this cluster
     DataPoint[] dataPoints = ip.getDataPoints();
     if (!fractionalMZ)
@@ -174,33 +180,23 @@ public class AdapMgfExportTask extends AbstractTask {
     double mz = getRepresentativeMZ(row, dataPoints);
     String retTimeInSeconds = rtsForm.format(row.getAverageRT() * 60);
     // write
-    writer.write("BEGIN IONS" + newLine);
-    writer.write("FEATURE_ID=" + row.getID() + newLine);
-    writer.write("PEPMASS=" + formatMZ(mz) + newLine);
-    writer.write("RTINSECONDS=" + retTimeInSeconds + newLine);
-    writer.write("SCANS=" + row.getID() + newLine);
+    out.append("BEGIN IONS").append(newLine);
+    out.append("FEATURE_ID=").append(row.getID()).append(newLine);
+    out.append("PEPMASS=").append(mzForm.format(mz)).append(newLine);
+    out.append("RTINSECONDS=").append(retTimeInSeconds).append(newLine);
+    out.append("SCANS=").append(row.getID()).append(newLine);
 
     // needs to be MSLEVEL=2 for GC-GNPS (even for GC-EI-MS data)
-    writer.write("MSLEVEL=2" + newLine);
-    writer.write("CHARGE=1+" + newLine);
+    out.append("MSLEVEL=2").append(newLine);
+    out.append("CHARGE=1+").append(newLine);
 
     for (DataPoint point : dataPoints) {
-      String line = formatMZ(point.getMZ()) + " " + intensityForm.format(point.getIntensity());
-      writer.write(line + newLine);
+      out.append(mzForm.format(point.getMZ())).append(' ')
+          .append(intensityForm.format(point.getIntensity())).append(newLine);
     }
 
-    writer.write("END IONS" + newLine);
-    writer.write(newLine);
-  }
-
-  /**
-   * Format as nominal or fractional
-   * 
-   * @param mz
-   * @return
-   */
-  private String formatMZ(double mz) {
-    return fractionalMZ ? mzForm.format(mz) : mzNominalForm.format(mz);
+    out.append("END IONS").append(newLine);
+    out.append(newLine);
   }
 
   private double getRepresentativeMZ(PeakListRow row, DataPoint[] data) {
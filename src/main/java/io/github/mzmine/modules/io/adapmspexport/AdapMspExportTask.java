@@ -17,8 +17,8 @@
 package io.github.mzmine.modules.io.adapmspexport;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -28,9 +28,11 @@ import java.util.regex.Pattern;
 
 import io.github.mzmine.datamodel.*;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.io.OrderedBlockWriter;
 
 /**
  *
@@ -41,6 +43,8 @@ public class AdapMspExportTask extends AbstractTask {
 
   private static final Pattern ATTRIBUTE_NAME_PATTERN = Pattern.compile("^[\\w]+$");
 
+  private static final int ROWS_PER_BLOCK = 1000;
+
   private final PeakList[] peakLists;
   private final File fileName;
   private final String plNamePattern = "{}";
@@ -106,16 +110,8 @@ public class AdapMspExportTask extends AbstractTask {
       }
 
       // Open file
-      FileWriter writer;
-      try {
-        writer = new FileWriter(curFile);
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not open file " + curFile + " for writing.");
-        return;
-      }
-
-      try {
+      try (OrderedBlockWriter writer = new OrderedBlockWriter(curFile, false,
+          (peakList.getNumberOfRows() + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK)) {
         exportPeakList(peakList, writer, curFile);
       } catch (IOException | IllegalArgumentException e) {
         setStatus(TaskStatus.ERROR);
@@ -128,15 +124,6 @@ public class AdapMspExportTask extends AbstractTask {
         return;
       }
 
-      // Close file
-      try {
-        writer.close();
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not close file " + curFile);
-        return;
-      }
-
       // If feature list substitution pattern wasn't found,
       // treat one feature list only
       if (!substitute)
@@ -147,18 +134,36 @@ public class AdapMspExportTask extends AbstractTask {
       setStatus(TaskStatus.FINISHED);
   }
 
-  private void exportPeakList(PeakList peakList, FileWriter writer, File curFile)
+  private void exportPeakList(PeakList peakList, OrderedBlockWriter writer, File curFile)
       throws IOException {
+    final PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+    writer.submitBlocks(rows.length, ROWS_PER_BLOCK,
+        (block, from, to) -> exportRows(block, rows, from, to));
+    if (isCanceled())
+      return;
+    writer.flush();
+  }
+
+  /**
+   * Append the spectra of the given rows to the buffer. An IllegalArgumentException for a wrong
+   * attribute name is thrown by the writer.
+   */
+  private void exportRows(StringBuilder out, PeakListRow rows[], int from, int to) {
     final String newLine = System.lineSeparator();
+    final NumberFormat mzFormat =
+        (NumberFormat) MZmineCore.getConfiguration().getMZFormat().clone();
+    final NumberFormat rtFormat =
+        (NumberFormat) MZmineCore.getConfiguration().getRTFormat().clone();
 
-    for (PeakListRow row : peakList.getRows()) {
+    for (int r = from; r < to && !isCanceled(); r++) {
+      final PeakListRow row = rows[r];
       IsotopePattern ip = row.getBestIsotopePattern();
       if (ip == null)
         continue;
 
-      String name = row.toString();
+      String name = rowToString(row, mzFormat, rtFormat);
       if (name != null)
-        writer.write("Name: " + name + newLine);
+        out.append("Name: ").append(name).append(newLine);
 
       PeakIdentity identity = row.getPreferredPeakIdentity();
       if (identity != null) {
@@ -167,20 +172,20 @@ public class AdapMspExportTask extends AbstractTask {
 
         String formula = identity.getPropertyValue(PeakIdentity.PROPERTY_FORMULA);
         if (formula != null)
-          writer.write("Formula: " + formula + newLine);
+          out.append("Formula: ").append(formula).append(newLine);
 
         String id = identity.getPropertyValue(PeakIdentity.PROPERTY_ID);
         if (id != null)
-          writer.write("Comments: " + id + newLine);
+          out.append("Comments: ").append(id).append(newLine);
       }
 
       String rowID = Integer.toString(row.getID());
       if (rowID != null)
-        writer.write("DB#: " + rowID + newLine);
+        out.append("DB#: ").append(rowID).append(newLine);
 
       if (addRetTime) {
         String attributeName = checkAttributeName(retTimeAttributeName);
-        writer.write(attributeName + ": " + row.getAverageRT() + newLine);
+        out.append(attributeName).append(": ").append(row.getAverageRT()).append(newLine);
       }
 
       PeakInformation peakInformation = row.getPeakInformation();
@@ -189,7 +194,7 @@ public class AdapMspExportTask extends AbstractTask {
         String attributeName = checkAttributeName(anovaAttributeName);
         String value = peakInformation.getPropertyValue("ANOVA_P_VALUE");
         if (value.trim().length() > 0)
-          writer.write(attributeName + ": " + value + newLine);
+          out.append(attributeName).append(": ").append(value).append(newLine);
       }
 
       DataPoint[] dataPoints = ip.getDataPoints();
@@ -199,17 +204,35 @@ public class AdapMspExportTask extends AbstractTask {
 
       String numPeaks = Integer.toString(dataPoints.length);
       if (numPeaks != null)
-        writer.write("Num Peaks: " + numPeaks + newLine);
+        out.append("Num Peaks: ").append(numPeaks).append(newLine);
 
       for (DataPoint point : dataPoints) {
-        String line = point.getMZ() + " " + point.getIntensity();
-        writer.write(line + newLine);
+        out.append(point.getMZ()).append(' ').append(point.getIntensity()).append(newLine);
       }
 
-      writer.write(newLine);
+      out.append(newLine);
     }
   }
 
+  /**
+   * Same as the row's toString(), with the given formats
+   */
+  private static String rowToString(PeakListRow row, NumberFormat mzFormat,
+      NumberFormat rtFormat) {
+    StringBuilder buf = new StringBuilder();
+    buf.append('#').append(row.getID()).append(' ');
+    buf.append(mzFormat.format(row.getAverageMZ()));
+    buf.append(" m/z @");
+    buf.append(rtFormat.format(row.getAverageRT()));
+    PeakIdentity identity = row.getPreferredPeakIdentity();
+    if (identity != null)
+      buf.append(' ').append(identity.getName());
+    String comment = row.getComment();
+    if ((comment != null) && (comment.length() > 0))
+      buf.append(" (").append(comment).append(')');
+    return buf.toString();
+  }
+
   private DataPoint[] integerDataPoints(final DataPoint[] dataPoints, final String mode) {
     int size = dataPoints.length;
 
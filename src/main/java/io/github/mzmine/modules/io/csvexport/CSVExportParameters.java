@@ -62,9 +62,12 @@ public class CSVExportParameters extends SimpleParameterSet {
       "Filter rows", "Limit the exported rows to those with MS/MS data (or annotated rows)",
       RowFilter.values(), RowFilter.ALL);
 
+  public static final BooleanParameter gzip = new BooleanParameter("Compress (gzip)",
+      "If checked, the file is compressed with gzip and \".gz\" is appended to its name", false);
+
   public CSVExportParameters() {
     super(new Parameter[] {peakLists, filename, fieldSeparator, exportCommonItems,
-        exportDataFileItems, exportAllPeakInfo, idSeparator, filter});
+        exportDataFileItems, exportAllPeakInfo, idSeparator, filter, gzip});
   }
 
 }
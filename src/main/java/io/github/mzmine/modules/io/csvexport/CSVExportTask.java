@@ -19,12 +19,13 @@
 package io.github.mzmine.modules.io.csvexport;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.FeatureStatus;
@@ -37,13 +38,19 @@ import io.github.mzmine.modules.io.gnpsexport.fbmn.GnpsFbmnExportAndSubmitParame
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.PeakUtils;
 import io.github.mzmine.util.RangeUtils;
+import io.github.mzmine.util.io.OrderedBlockWriter;
 
 public class CSVExportTask extends AbstractTask {
 
+  private static final int ROWS_PER_BLOCK = 1000;
+
+  private static final Pattern CONTROL_CHARACTERS = Pattern.compile("[\\p{Cntrl}]");
+  private static final Pattern NEW_LINE = Pattern.compile("\\n");
+
   private PeakList[] peakLists;
-  private int processedRows = 0, totalRows = 0;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows = 0;
 
   // parameter values
   private File fileName;
@@ -54,6 +61,7 @@ public class CSVExportTask extends AbstractTask {
   private Boolean exportAllPeakInfo;
   private String idSeparator;
   private RowFilter filter;
+  private boolean gzip;
 
   public CSVExportTask(ParameterSet parameters) {
     this.peakLists =
@@ -65,6 +73,7 @@ public class CSVExportTask extends AbstractTask {
     exportAllPeakInfo = parameters.getParameter(CSVExportParameters.exportAllPeakInfo).getValue();
     idSeparator = parameters.getParameter(CSVExportParameters.idSeparator).getValue();
     this.filter = parameters.getParameter(CSVExportParameters.filter).getValue();
+    gzip = parameters.getParameter(CSVExportParameters.gzip).getValue();
 
   }
 
@@ -98,7 +107,7 @@ public class CSVExportTask extends AbstractTask {
     if (totalRows == 0) {
       return 0;
     }
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -132,11 +141,14 @@ public class CSVExportTask extends AbstractTask {
             fileName.getPath().replaceAll(Pattern.quote(plNamePattern), cleanPlName);
         curFile = new File(newFilename);
       }
+      if (gzip)
+        curFile = new File(curFile.getPath() + ".gz");
 
       // Open file
-      FileWriter writer;
+      OrderedBlockWriter writer;
       try {
-        writer = new FileWriter(curFile);
+        writer = new OrderedBlockWriter(curFile, gzip,
+            (peakList.getNumberOfRows() + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK);
       } catch (Exception e) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Could not open file " + curFile + " for writing.");
@@ -147,6 +159,11 @@ public class CSVExportTask extends AbstractTask {
 
       // Cancel?
       if (isCanceled()) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          // The export is canceled or has failed already
+        }
         return;
       }
 
@@ -170,12 +187,12 @@ public class CSVExportTask extends AbstractTask {
 
   }
 
-  private void exportPeakList(PeakList peakList, FileWriter writer, File fileName) {
-    NumberFormat mzForm = MZmineCore.getConfiguration().getMZFormat();
-    RawDataFile rawDataFiles[] = peakList.getRawDataFiles().toArray(RawDataFile[]::new);
+  private void exportPeakList(PeakList peakList, OrderedBlockWriter writer, File fileName) {
+    final RawDataFile rawDataFiles[] = peakList.getRawDataFiles().toArray(RawDataFile[]::new);
+    final PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
 
     // Buffer for writing
-    StringBuffer line = new StringBuffer();
+    StringBuilder line = new StringBuilder();
 
     // Write column headers
 
@@ -186,13 +203,13 @@ public class CSVExportTask extends AbstractTask {
       name = commonElements[i].toString();
       name = name.replace("Export ", "");
       name = escapeStringForCSV(name);
-      line.append(name + fieldSeparator);
+      line.append(name).append(fieldSeparator);
     }
 
     // peak Information
     Set<String> peakInformationFields = new HashSet<>();
 
-    for (PeakListRow row : peakList.getRows()) {
+    for (PeakListRow row : rows) {
       if (!filter.filter(row))
         continue;
       if (row.getPeakInformation() != null) {
@@ -204,7 +221,7 @@ public class CSVExportTask extends AbstractTask {
 
     if (exportAllPeakInfo)
       for (String field : peakInformationFields)
-        line.append(field + fieldSeparator);
+        line.append(field).append(fieldSeparator);
 
     // Data file elements
     length = dataFileElements.length;
@@ -213,25 +230,49 @@ public class CSVExportTask extends AbstractTask {
         name = rawDataFiles[df].getName();
         name = name + " " + dataFileElements[i].toString();
         name = escapeStringForCSV(name);
-        line.append(name + fieldSeparator);
+        line.append(name).append(fieldSeparator);
       }
     }
 
     line.append("\n");
 
+    // Write data rows
+    final String fields[] = peakInformationFields.toArray(new String[0]);
     try {
-      writer.write(line.toString());
+      writer.write(line);
+      writer.submitBlocks(rows.length, ROWS_PER_BLOCK,
+          (block, from, to) -> formatRows(block, rows, from, to, rawDataFiles, fields));
+
+      // Cancel?
+      if (isCanceled()) {
+        return;
+      }
+
+      writer.flush();
     } catch (Exception e) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Could not write to file " + fileName);
       return;
     }
+  }
 
-    // Write data rows
-    for (PeakListRow peakListRow : peakList.getRows()) {
+  /**
+   * Append the lines of the given rows to the buffer
+   */
+  private void formatRows(StringBuilder line, PeakListRow rows[], int from, int to,
+      RawDataFile rawDataFiles[], String peakInformationFields[]) {
+
+    final NumberFormat mzFormat =
+        (NumberFormat) MZmineCore.getConfiguration().getMZFormat().clone();
+    final NumberFormat rtFormat =
+        (NumberFormat) MZmineCore.getConfiguration().getRTFormat().clone();
+    int length;
+
+    for (int r = from; r < to; r++) {
+      final PeakListRow peakListRow = rows[r];
 
       if (!filter.filter(peakListRow)) {
-        processedRows++;
+        processedRows.incrementAndGet();
         continue;
       }
 
@@ -240,21 +281,18 @@ public class CSVExportTask extends AbstractTask {
         return;
       }
 
-      // Reset the buffer
-      line.setLength(0);
-
       // Common elements
       length = commonElements.length;
       for (int i = 0; i < length; i++) {
         switch (commonElements[i]) {
           case ROW_ID:
-            line.append(peakListRow.getID() + fieldSeparator);
+            line.append(peakListRow.getID()).append(fieldSeparator);
             break;
           case ROW_MZ:
-            line.append(peakListRow.getAverageMZ() + fieldSeparator);
+            line.append(peakListRow.getAverageMZ()).append(fieldSeparator);
             break;
           case ROW_RT:
-            line.append(peakListRow.getAverageRT() + fieldSeparator);
+            line.append(peakListRow.getAverageRT()).append(fieldSeparator);
             break;
           case ROW_IDENTITY:
             // Identity elements
@@ -265,19 +303,19 @@ public class CSVExportTask extends AbstractTask {
             }
             String propertyValue = peakId.toString();
             propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
+            line.append(propertyValue).append(fieldSeparator);
             break;
           case ROW_IDENTITY_ALL:
             // Identity elements
             PeakIdentity[] peakIdentities = peakListRow.getPeakIdentities();
-            propertyValue = "";
+            StringBuilder identities = new StringBuilder();
             for (int x = 0; x < peakIdentities.length; x++) {
               if (x > 0)
-                propertyValue += idSeparator;
-              propertyValue += peakIdentities[x].toString();
+                identities.append(idSeparator);
+              identities.append(peakIdentities[x].toString());
             }
-            propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
+            propertyValue = escapeStringForCSV(identities.toString());
+            line.append(propertyValue).append(fieldSeparator);
             break;
           case ROW_IDENTITY_DETAILS:
             peakId = peakListRow.getPreferredPeakIdentity();
@@ -287,13 +325,13 @@ public class CSVExportTask extends AbstractTask {
             }
             propertyValue = peakId.getDescription();
             if (propertyValue != null)
-              propertyValue = propertyValue.replaceAll("\\n", ";");
+              propertyValue = NEW_LINE.matcher(propertyValue).replaceAll(";");
             propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
+            line.append(propertyValue).append(fieldSeparator);
             break;
           case ROW_COMMENT:
             String comment = escapeStringForCSV(peakListRow.getComment());
-            line.append(comment + fieldSeparator);
+            line.append(comment).append(fieldSeparator);
             break;
           case ROW_PEAK_NUMBER:
             int numDetected = 0;
@@ -302,7 +340,7 @@ public class CSVExportTask extends AbstractTask {
                 numDetected++;
               }
             }
-            line.append(numDetected + fieldSeparator);
+            line.append(numDetected).append(fieldSeparator);
             break;
         }
       }
@@ -317,7 +355,7 @@ public class CSVExportTask extends AbstractTask {
             String value = allPropertiesMap.get(key);
             if (value == null)
               value = "";
-            line.append(value + fieldSeparator);
+            line.append(value).append(fieldSeparator);
           }
         }
       }
@@ -330,62 +368,65 @@ public class CSVExportTask extends AbstractTask {
           if (peak != null) {
             switch (dataFileElements[i]) {
               case PEAK_STATUS:
-                line.append(peak.getFeatureStatus() + fieldSeparator);
+                line.append(peak.getFeatureStatus()).append(fieldSeparator);
                 break;
               case PEAK_NAME:
-                line.append(PeakUtils.peakToString(peak) + fieldSeparator);
+                // Same as PeakUtils.peakToString(), with the copied number formats
+                line.append("m/z ").append(mzFormat.format(peak.getMZ())).append(" (")
+                    .append(rtFormat.format(peak.getRT())).append(" min) [")
+                    .append(peak.getDataFile().getName()).append(']').append(fieldSeparator);
                 break;
               case PEAK_MZ:
-                line.append(peak.getMZ() + fieldSeparator);
+                line.append(peak.getMZ()).append(fieldSeparator);
                 break;
               case PEAK_RT:
-                line.append(peak.getRT() + fieldSeparator);
+                line.append(peak.getRT()).append(fieldSeparator);
                 break;
               case PEAK_RT_START:
-                line.append(peak.getRawDataPointsRTRange().lowerEndpoint() + fieldSeparator);
+                line.append(peak.getRawDataPointsRTRange().lowerEndpoint()).append(fieldSeparator);
                 break;
               case PEAK_RT_END:
-                line.append(peak.getRawDataPointsRTRange().upperEndpoint() + fieldSeparator);
+                line.append(peak.getRawDataPointsRTRange().upperEndpoint()).append(fieldSeparator);
                 break;
               case PEAK_DURATION:
-                line.append(
-                    RangeUtils.rangeLength(peak.getRawDataPointsRTRange()) + fieldSeparator);
+                line.append(RangeUtils.rangeLength(peak.getRawDataPointsRTRange()))
+                    .append(fieldSeparator);
                 break;
               case PEAK_HEIGHT:
-                line.append(peak.getHeight() + fieldSeparator);
+                line.append(peak.getHeight()).append(fieldSeparator);
                 break;
               case PEAK_AREA:
-                line.append(peak.getArea() + fieldSeparator);
+                line.append(peak.getArea()).append(fieldSeparator);
                 break;
               case PEAK_CHARGE:
-                line.append(peak.getCharge() + fieldSeparator);
+                line.append(peak.getCharge()).append(fieldSeparator);
                 break;
               case PEAK_DATAPOINTS:
-                line.append(peak.getScanNumbers().length + fieldSeparator);
+                line.append(peak.getScanNumbers().length).append(fieldSeparator);
                 break;
               case PEAK_FWHM:
-                line.append(peak.getFWHM() + fieldSeparator);
+                line.append(peak.getFWHM()).append(fieldSeparator);
                 break;
               case PEAK_TAILINGFACTOR:
-                line.append(peak.getTailingFactor() + fieldSeparator);
+                line.append(peak.getTailingFactor()).append(fieldSeparator);
                 break;
               case PEAK_ASYMMETRYFACTOR:
-                line.append(peak.getAsymmetryFactor() + fieldSeparator);
+                line.append(peak.getAsymmetryFactor()).append(fieldSeparator);
                 break;
               case PEAK_MZMIN:
-                line.append(peak.getRawDataPointsMZRange().lowerEndpoint() + fieldSeparator);
+                line.append(peak.getRawDataPointsMZRange().lowerEndpoint()).append(fieldSeparator);
                 break;
               case PEAK_MZMAX:
-                line.append(peak.getRawDataPointsMZRange().upperEndpoint() + fieldSeparator);
+                line.append(peak.getRawDataPointsMZRange().upperEndpoint()).append(fieldSeparator);
                 break;
             }
           } else {
             switch (dataFileElements[i]) {
               case PEAK_STATUS:
-                line.append(FeatureStatus.UNKNOWN + fieldSeparator);
+                line.append(FeatureStatus.UNKNOWN).append(fieldSeparator);
                 break;
               default:
-                line.append("0" + fieldSeparator);
+                line.append("0").append(fieldSeparator);
                 break;
             }
           }
@@ -394,15 +435,7 @@ public class CSVExportTask extends AbstractTask {
 
       line.append("\n");
 
-      try {
-        writer.write(line.toString());
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not write to file " + fileName);
-        return;
-      }
-
-      processedRows++;
+      processedRows.incrementAndGet();
     }
   }
 
@@ -413,7 +446,7 @@ public class CSVExportTask extends AbstractTask {
 
     // Remove all special characters (particularly \n would mess up our CSV
     // format).
-    String result = inputString.replaceAll("[\\p{Cntrl}]", " ");
+    String result = CONTROL_CHARACTERS.matcher(inputString).replaceAll(" ");
 
     // Skip too long strings (see Excel 2007 specifications)
     if (result.length() >= 32766)
@@ -422,7 +455,7 @@ public class CSVExportTask extends AbstractTask {
     // If the text contains fieldSeparator, we will add
     // parenthesis
     if (result.contains(fieldSeparator) || result.contains("\"")) {
-      result = "\"" + result.replaceAll("\"", "'") + "\"";
+      result = "\"" + result.replace('"', '\'') + "\"";
     }
 
     return result;
@@ -30,12 +30,12 @@
 package io.github.mzmine.modules.io.gnpsexport.fbmn;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -58,6 +58,7 @@ import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.PeakUtils;
 import io.github.mzmine.util.files.FileAndPathUtil;
+import io.github.mzmine.util.io.OrderedBlockWriter;
 
 /**
  * Exports all files needed for GNPS
@@ -69,6 +70,9 @@ public class GnpsFbmnMgfExportTask extends AbstractTask {
   // Logger.
   private final Logger logger = Logger.getLogger(getClass().getName());
 
+  // Merging the MS/MS of a row takes a while
+  private static final int ROWS_PER_BLOCK = 100;
+
   //
   private final PeakList[] peakLists;
   private final File fileName;
@@ -135,16 +139,8 @@ public class GnpsFbmnMgfExportTask extends AbstractTask {
       curFile = FileAndPathUtil.getRealFilePath(curFile, "mgf");
 
       // Open file
-      FileWriter writer;
-      try {
-        writer = new FileWriter(curFile);
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not open file " + curFile + " for writing.");
-        return;
-      }
-
-      try {
+      try (OrderedBlockWriter writer = new OrderedBlockWriter(curFile, false,
+          (peakList.getNumberOfRows() + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK)) {
         export(peakList, writer, curFile);
       } catch (IOException e) {
         setStatus(TaskStatus.ERROR);
@@ -157,15 +153,6 @@ public class GnpsFbmnMgfExportTask extends AbstractTask {
         return;
       }
 
-      // Close file
-      try {
-        writer.close();
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not close file " + curFile);
-        return;
-      }
-
       // If feature list substitution pattern wasn't found,
       // treat one feature list only
       if (!substitute)
@@ -176,123 +163,145 @@ public class GnpsFbmnMgfExportTask extends AbstractTask {
       setStatus(TaskStatus.FINISHED);
   }
 
-  private int export(PeakList peakList, FileWriter writer, File curFile) throws IOException {
-    final String newLine = System.lineSeparator();
-
+  private int export(PeakList peakList, OrderedBlockWriter writer, File curFile)
+      throws IOException {
     // count exported
-    int count = 0;
-    int countMissingMassList = 0;
-    for (PeakListRow row : peakList.getRows()) {
-      // do not export if no MSMS
-      if (!filter.filter(row))
-        continue;
-
-      String rowID = Integer.toString(row.getID());
-      double retTimeInSeconds = ((row.getAverageRT() * 60 * 100.0) / 100.);
-
-      // Get the MS/MS scan number
-      Feature bestPeak = row.getBestPeak();
-      if (bestPeak == null)
-        continue;
-      int msmsScanNumber = bestPeak.getMostIntenseFragmentScanNumber();
-      if (rowID != null) {
-        PeakListRow copyRow = copyPeakRow(row);
-        // Best peak always exists, because feature list row has at
-        // least one peak
-        bestPeak = copyRow.getBestPeak();
-
-        // Get the heighest peak with a MS/MS scan number (with mass
-        // list)
-        boolean missingMassList = false;
-        msmsScanNumber = bestPeak.getMostIntenseFragmentScanNumber();
-        while (msmsScanNumber < 1
-            || getScan(bestPeak, msmsScanNumber).getMassList(massListName) == null) {
-          // missing masslist
-          if (msmsScanNumber > 0)
-            missingMassList = true;
-
-          copyRow.removePeak(bestPeak.getDataFile());
-          if (copyRow.getPeaks().length == 0)
-            break;
-
-          bestPeak = copyRow.getBestPeak();
-          msmsScanNumber = bestPeak.getMostIntenseFragmentScanNumber();
-        }
-        if (missingMassList)
-          countMissingMassList++;
+    final AtomicInteger count = new AtomicInteger();
+    final AtomicInteger countMissingMassList = new AtomicInteger();
+
+    final PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+    writer.submitBlocks(rows.length, ROWS_PER_BLOCK, (block, from, to) -> {
+      final NumberFormat mzForm = (NumberFormat) this.mzForm.clone();
+      final NumberFormat intensityForm = (NumberFormat) this.intensityForm.clone();
+      final NumberFormat rtsForm = (NumberFormat) this.rtsForm.clone();
+      for (int r = from; r < to && !isCanceled(); r++) {
+        if (exportRow(block, rows[r], countMissingMassList, mzForm, intensityForm, rtsForm))
+          count.incrementAndGet();
       }
-      if (msmsScanNumber >= 1) {
-        // MS/MS scan must exist, because msmsScanNumber was > 0
-        Scan msmsScan = bestPeak.getDataFile().getScan(msmsScanNumber);
-
-        MassList massList = msmsScan.getMassList(massListName);
-
-        if (massList == null) {
-          continue;
-        }
-
-        writer.write("BEGIN IONS" + newLine);
-
-        if (rowID != null)
-          writer.write("FEATURE_ID=" + rowID + newLine);
-
-        String mass = mzForm.format(row.getAverageMZ());
-        if (mass != null)
-          writer.write("PEPMASS=" + mass + newLine);
-
-        if (rowID != null) {
-          writer.write("SCANS=" + rowID + newLine);
-          writer.write("RTINSECONDS=" + rtsForm.format(retTimeInSeconds) + newLine);
-        }
-
-        int msmsCharge = msmsScan.getPrecursorCharge();
-        String msmsPolarity = msmsScan.getPolarity().asSingleChar();
-        if (msmsPolarity.equals("0"))
-          msmsPolarity = "";
-        if (msmsCharge == 0) {
-          msmsCharge = 1;
-          msmsPolarity = "";
-        }
-        writer.write("CHARGE=" + msmsCharge + msmsPolarity + newLine);
-
-        writer.write("MSLEVEL=2" + newLine);
-
-        DataPoint[] dataPoints = massList.getDataPoints();
-        if (mergeParameters != null) {
-          MsMsSpectraMergeModule merger =
-              MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
-          MergedSpectrum spectrum =
-              merger.getBestMergedSpectrum(mergeParameters, row, massListName);
-          if (spectrum != null) {
-            dataPoints = spectrum.data;
-            writer.write("MERGED_STATS=");
-            writer.write(spectrum.getMergeStatsDescription());
-            writer.write(newLine);
-          }
-        }
-        for (DataPoint peak : dataPoints) {
-          writer.write(mzForm.format(peak.getMZ()) + " " + intensityForm.format(peak.getIntensity())
-              + newLine);
-        }
-        writer.write("END IONS" + newLine);
-        writer.write(newLine);
-        count++;
-      }
-    }
+    });
+    if (isCanceled())
+      return count.get();
+    writer.flush();
 
-    if (count == 0)
+    if (count.get() == 0)
       logger.log(Level.WARNING, "No MS/MS scans exported.");
     else
       logger.info(
           MessageFormat.format("Total of {0} feature rows (MS/MS mass lists) were exported ({1})",
-              count, peakList.getName()));
+              count.get(), peakList.getName()));
 
-    if (countMissingMassList > 0)
+    if (countMissingMassList.get() > 0)
       logger.warning(MessageFormat.format(
           "WARNING: Total of {0} feature rows have an MS/MS scan but NO mass list (this shouldn't be a problem if a scan filter was applied in the mass detection step) ({1})",
-          countMissingMassList, peakList.getName()));
+          countMissingMassList.get(), peakList.getName()));
 
-    return count;
+    return count.get();
+  }
+
+  /**
+   * Append the MS/MS spectrum of the row to the buffer
+   *
+   * @return true if the row was exported
+   */
+  private boolean exportRow(StringBuilder out, PeakListRow row,
+      AtomicInteger countMissingMassList, NumberFormat mzForm, NumberFormat intensityForm,
+      NumberFormat rtsForm) {
+    final String newLine = System.lineSeparator();
+
+    // do not export if no MSMS
+    if (!filter.filter(row))
+      return false;
+
+    String rowID = Integer.toString(row.getID());
+    double retTimeInSeconds = ((row.getAverageRT() * 60 * 100.0) / 100.);
+
+    // Get the MS/MS scan number
+    Feature bestPeak = row.getBestPeak();
+    if (bestPeak == null)
+      return false;
+    int msmsScanNumber = bestPeak.getMostIntenseFragmentScanNumber();
+    if (rowID != null) {
+      PeakListRow copyRow = copyPeakRow(row);
+      // Best peak always exists, because feature list row has at
+      // least one peak
+      bestPeak = copyRow.getBestPeak();
+
+      // Get the heighest peak with a MS/MS scan number (with mass
+      // list)
+      boolean missingMassList = false;
+      msmsScanNumber = bestPeak.getMostIntenseFragmentScanNumber();
+      while (msmsScanNumber < 1
+          || getScan(bestPeak, msmsScanNumber).getMassList(massListName) == null) {
+        // missing masslist
+        if (msmsScanNumber > 0)
+          missingMassList = true;
+
+        copyRow.removePeak(bestPeak.getDataFile());
+        if (copyRow.getPeaks().length == 0)
+          break;
+
+        bestPeak = copyRow.getBestPeak();
+        msmsScanNumber = bestPeak.getMostIntenseFragmentScanNumber();
+      }
+      if (missingMassList)
+        countMissingMassList.incrementAndGet();
+    }
+    if (msmsScanNumber < 1)
+      return false;
+
+    // MS/MS scan must exist, because msmsScanNumber was > 0
+    Scan msmsScan = bestPeak.getDataFile().getScan(msmsScanNumber);
+
+    MassList massList = msmsScan.getMassList(massListName);
+
+    if (massList == null) {
+      return false;
+    }
+
+    out.append("BEGIN IONS").append(newLine);
+
+    if (rowID != null)
+      out.append("FEATURE_ID=").append(rowID).append(newLine);
+
+    String mass = mzForm.format(row.getAverageMZ());
+    if (mass != null)
+      out.append("PEPMASS=").append(mass).append(newLine);
+
+    if (rowID != null) {
+      out.append("SCANS=").append(rowID).append(newLine);
+      out.append("RTINSECONDS=").append(rtsForm.format(retTimeInSeconds)).append(newLine);
+    }
+
+    int msmsCharge = msmsScan.getPrecursorCharge();
+    String msmsPolarity = msmsScan.getPolarity().asSingleChar();
+    if (msmsPolarity.equals("0"))
+      msmsPolarity = "";
+    if (msmsCharge == 0) {
+      msmsCharge = 1;
+      msmsPolarity = "";
+    }
+    out.append("CHARGE=").append(msmsCharge).append(msmsPolarity).append(newLine);
+
+    out.append("MSLEVEL=2").append(newLine);
+
+    DataPoint[] dataPoints = massList.getDataPoints();
+    if (mergeParameters != null) {
+      MsMsSpectraMergeModule merger = MZmineCore.getModuleInstance(MsMsSpectraMergeModule.class);
+      MergedSpectrum spectrum = merger.getBestMergedSpectrum(mergeParameters, row, massListName);
+      if (spectrum != null) {
+        dataPoints = spectrum.data;
+        out.append("MERGED_STATS=");
+        out.append(spectrum.getMergeStatsDescription());
+        out.append(newLine);
+      }
+    }
+    for (DataPoint peak : dataPoints) {
+      out.append(mzForm.format(peak.getMZ())).append(' ')
+          .append(intensityForm.format(peak.getIntensity())).append(newLine);
+    }
+    out.append("END IONS").append(newLine);
+    out.append(newLine);
+    return true;
   }
 
   public Scan getScan(Feature f, int msmsscan) {
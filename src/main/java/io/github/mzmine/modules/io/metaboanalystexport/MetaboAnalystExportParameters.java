@@ -22,6 +22,7 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.ComboParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileSelectionType;
@@ -43,8 +44,11 @@ public class MetaboAnalystExportParameters extends SimpleParameterSet {
           "Project parameter that will be used to obtain group information to each sample (e.g. control vs disease). Please set parameters in the Project/Set sample parameters menu.",
           new UserParameter[0]);
 
+  public static final BooleanParameter gzip = new BooleanParameter("Compress (gzip)",
+      "If checked, the file is compressed with gzip and \".gz\" is appended to its name", false);
+
   public MetaboAnalystExportParameters() {
-    super(new Parameter[] {peakLists, filename, groupParameter});
+    super(new Parameter[] {peakLists, filename, groupParameter, gzip});
   }
 
   @Override
@@ -19,9 +19,10 @@
 package io.github.mzmine.modules.io.metaboanalystexport;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.text.NumberFormat;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
@@ -34,19 +35,24 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.io.OrderedBlockWriter;
 
 class MetaboAnalystExportTask extends AbstractTask {
 
   private static final String fieldSeparator = ",";
 
+  private static final int ROWS_PER_BLOCK = 1000;
+
   private final MZmineProject project;
   private final PeakList[] peakLists;
   private String plNamePattern = "{}";
-  private int processedRows = 0, totalRows = 0;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows = 0;
 
   // parameter values
   private File fileName;
   private UserParameter<?, ?> groupParameter;
+  private boolean gzip;
 
   MetaboAnalystExportTask(MZmineProject project, ParameterSet parameters) {
 
@@ -57,6 +63,7 @@ class MetaboAnalystExportTask extends AbstractTask {
     fileName = parameters.getParameter(MetaboAnalystExportParameters.filename).getValue();
     groupParameter =
         parameters.getParameter(MetaboAnalystExportParameters.groupParameter).getValue();
+    gzip = parameters.getParameter(MetaboAnalystExportParameters.gzip).getValue();
 
   }
 
@@ -65,7 +72,7 @@ class MetaboAnalystExportTask extends AbstractTask {
     if (totalRows == 0) {
       return 0;
     }
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -100,6 +107,8 @@ class MetaboAnalystExportTask extends AbstractTask {
             fileName.getPath().replaceAll(Pattern.quote(plNamePattern), cleanPlName);
         curFile = new File(newFilename);
       }
+      if (gzip)
+        curFile = new File(curFile.getPath() + ".gz");
 
       // Check the feature list for MetaboAnalyst requirements
       boolean checkResult = checkPeakList(peakList);
@@ -108,19 +117,16 @@ class MetaboAnalystExportTask extends AbstractTask {
             + " does not conform to MetaboAnalyst requirement: at least 3 samples (raw data files) in each group");
       }
 
-      try {
-
-        // Open file
-        FileWriter writer = new FileWriter(curFile);
+      // Get number of rows
+      totalRows = peakList.getNumberOfRows();
+      processedRows.set(0);
 
-        // Get number of rows
-        totalRows = peakList.getNumberOfRows();
+      // Open file
+      try (OrderedBlockWriter writer = new OrderedBlockWriter(curFile, gzip,
+          (peakList.getNumberOfRows() + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK)) {
 
         exportPeakList(peakList, writer);
 
-        // Close file
-        writer.close();
-
       } catch (Exception e) {
         e.printStackTrace();
         setStatus(TaskStatus.ERROR);
@@ -153,12 +159,12 @@ class MetaboAnalystExportTask extends AbstractTask {
     return true;
   }
 
-  private void exportPeakList(PeakList peakList, FileWriter writer) throws IOException {
+  private void exportPeakList(PeakList peakList, OrderedBlockWriter writer) throws IOException {
 
     final RawDataFile rawDataFiles[] = peakList.getRawDataFiles().toArray(RawDataFile[]::new);
 
     // Buffer for writing
-    StringBuffer line = new StringBuffer();
+    StringBuilder line = new StringBuilder();
 
     // Write sample (raw data file) names
     line.append("\"Sample\"");
@@ -198,22 +204,43 @@ class MetaboAnalystExportTask extends AbstractTask {
     }
 
     line.append("\n");
-    writer.write(line.toString());
+    writer.write(line);
 
     // Write data rows
-    for (PeakListRow peakListRow : peakList.getRows()) {
+    final PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+    writer.submitBlocks(rows.length, ROWS_PER_BLOCK,
+        (block, from, to) -> formatRows(block, rows, from, to, rawDataFiles));
+
+    // Cancel?
+    if (isCanceled()) {
+      return;
+    }
+
+    writer.flush();
+  }
+
+  /**
+   * Append the lines of the given rows to the buffer
+   */
+  private void formatRows(StringBuilder line, PeakListRow rows[], int from, int to,
+      RawDataFile rawDataFiles[]) {
+
+    final NumberFormat mzFormat =
+        (NumberFormat) MZmineCore.getConfiguration().getMZFormat().clone();
+    final NumberFormat rtFormat =
+        (NumberFormat) MZmineCore.getConfiguration().getRTFormat().clone();
+
+    for (int r = from; r < to; r++) {
+      final PeakListRow peakListRow = rows[r];
 
       // Cancel?
       if (isCanceled()) {
         return;
       }
 
-      // Reset the buffer
-      line.setLength(0);
-
-      final String rowName = generateUniquePeakListRowName(peakListRow);
+      final String rowName = generateUniquePeakListRowName(peakListRow, mzFormat, rtFormat);
 
-      line.append("\"" + rowName + "\"");
+      line.append('"').append(rowName).append('"');
 
       for (RawDataFile dataFile : rawDataFiles) {
         line.append(fieldSeparator);
@@ -221,28 +248,28 @@ class MetaboAnalystExportTask extends AbstractTask {
         Feature peak = peakListRow.getPeak(dataFile);
         if (peak != null) {
           final double area = peak.getArea();
-          line.append(String.valueOf(area));
+          line.append(area);
         }
       }
 
       line.append("\n");
-      writer.write(line.toString());
 
-      processedRows++;
+      processedRows.incrementAndGet();
     }
   }
 
   /**
    * Generates a unique name for each feature list row
    */
-  private String generateUniquePeakListRowName(PeakListRow row) {
+  private String generateUniquePeakListRowName(PeakListRow row, NumberFormat mzFormat,
+      NumberFormat rtFormat) {
 
     final double mz = row.getAverageMZ();
     final double rt = row.getAverageRT();
     final int rowId = row.getID();
 
-    String generatedName = rowId + "/" + MZmineCore.getConfiguration().getMZFormat().format(mz)
-        + "mz/" + MZmineCore.getConfiguration().getRTFormat().format(rt) + "min";
+    String generatedName =
+        rowId + "/" + mzFormat.format(mz) + "mz/" + rtFormat.format(rt) + "min";
     PeakIdentity peakIdentity = row.getPreferredPeakIdentity();
 
     if (peakIdentity == null)
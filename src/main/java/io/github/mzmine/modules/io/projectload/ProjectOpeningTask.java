@@ -36,6 +36,7 @@ import org.xml.sax.SAXException;
 import com.google.common.io.CountingInputStream;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.version_2_0.PeakListOpenHandler_2_0;
 import io.github.mzmine.modules.io.projectload.version_2_0.RawDataFileOpenHandler_2_0;
@@ -45,6 +46,8 @@ import io.github.mzmine.modules.io.projectload.version_2_3.UserParameterOpenHand
 import io.github.mzmine.modules.io.projectload.version_2_5.PeakListOpenHandler_2_5;
 import io.github.mzmine.modules.io.projectload.version_2_5.RawDataFileOpenHandler_2_5;
 import io.github.mzmine.modules.io.projectload.version_2_5.UserParameterOpenHandler_2_5;
+import io.github.mzmine.modules.io.projectsave.PeakListFeaturesWriter;
+import io.github.mzmine.modules.io.projectsave.ProjectFileIndex;
 import io.github.mzmine.modules.io.projectsave.ProjectSavingTask;
 import io.github.mzmine.modules.tools.qualityparameters.QualityParameters;
 import io.github.mzmine.parameters.ParameterSet;
@@ -56,6 +59,7 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
 import io.github.mzmine.util.GUIUtils;
 import io.github.mzmine.util.StreamCopy;
+import io.github.mzmine.util.ZipEntryDataLocator;
 import javafx.scene.control.ButtonType;
 
 public class ProjectOpeningTask extends AbstractTask {
@@ -78,6 +82,13 @@ public class ProjectOpeningTask extends AbstractTask {
   private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
   private final Hashtable<String, File> scanFilesIDMap = new Hashtable<>();
 
+  // Position and length of uncompressed scan data in the project file, mapped instead of extracted
+  private final Hashtable<String, long[]> scanDataIDMap = new Hashtable<>();
+
+  // Names of the loaded raw data files and feature lists inside the project file
+  private final Hashtable<RawDataFile, String> rawDataFileSavedNames = new Hashtable<>();
+  private final Hashtable<PeakList, String> peakListEntryNames = new Hashtable<>();
+
   public ProjectOpeningTask(ParameterSet parameters) {
     this.openFile = parameters.getParameter(ProjectLoaderParameters.projectFile).getValue();
   }
@@ -208,14 +219,14 @@ public class ProjectOpeningTask extends AbstractTask {
         if (scansFileMatcher.matches()) {
           final String fileID = scansFileMatcher.group(1);
           final String fileName = scansFileMatcher.group(2);
-          loadScansFile(cis, fileID, fileName);
+          loadScansFile(cis, entry, fileID, fileName);
         }
 
         // Load a feature list
         final Matcher peakListMatcher = peakListPattern.matcher(entryName);
         if (peakListMatcher.matches()) {
           final String peakListName = peakListMatcher.group(2);
-          loadPeakList(cis, peakListName);
+          loadPeakList(cis, zipFile, entryName, peakListName);
         }
 
         // Close the ZIP entry
@@ -241,6 +252,8 @@ public class ProjectOpeningTask extends AbstractTask {
       if (isCanceled())
         return;
 
+      registerProjectFileIndex();
+
       logger.info("Finished opening project " + openFile);
       setStatus(TaskStatus.FINISHED);
 
@@ -386,23 +399,43 @@ public class ProjectOpeningTask extends AbstractTask {
 
     currentLoadedObjectName = fileName;
 
-    File scansFile = scanFilesIDMap.get(fileID);
-    if (scansFile == null) {
-      throw new IOException("Missing scans data for file ID " + fileID);
+    final RawDataFile newFile;
+    final long scanData[] = scanDataIDMap.get(fileID);
+    if (scanData != null) {
+      newFile = ((RawDataFileOpenHandler_2_5) rawDataFileOpenHandler).readRawDataFile(is, openFile,
+          scanData[0], scanData[1]);
+    } else {
+      File scansFile = scanFilesIDMap.get(fileID);
+      if (scansFile == null) {
+        throw new IOException("Missing scans data for file ID " + fileID);
+      }
+      newFile = rawDataFileOpenHandler.readRawDataFile(is, scansFile);
     }
-
-    RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is, scansFile);
     newProject.addFile(newFile);
     dataFilesIDMap.put(fileID, newFile);
+    rawDataFileSavedNames.put(newFile, "Raw data file #" + fileID + " " + fileName);
 
   }
 
-  private void loadScansFile(InputStream is, String fileID, String fileName) throws IOException {
+  private void loadScansFile(InputStream is, ZipEntry entry, String fileID, String fileName)
+      throws IOException {
 
     logger.info("Loading scans data #" + fileID + ": " + fileName);
 
     currentLoadedObjectName = fileName + " scan data";
 
+    // Uncompressed scan data is used directly from the project file
+    if ((entry.getMethod() == ZipEntry.STORED)
+        && (rawDataFileOpenHandler instanceof RawDataFileOpenHandler_2_5)) {
+      try (ZipEntryDataLocator locator = new ZipEntryDataLocator(openFile)) {
+        final long offset = locator.getDataOffset(entry.getName());
+        if (offset >= 0) {
+          scanDataIDMap.put(fileID, new long[] {offset, entry.getSize()});
+          return;
+        }
+      }
+    }
+
     final File tempFile = RawDataFileImpl.createNewDataPointsFile();
     final FileOutputStream os = new FileOutputStream(tempFile);
 
@@ -414,19 +447,68 @@ public class ProjectOpeningTask extends AbstractTask {
 
   }
 
-  private void loadPeakList(InputStream is, String peakListName) throws IOException,
-      ParserConfigurationException, SAXException, InstantiationException, IllegalAccessException {
+  private void loadPeakList(InputStream is, ZipFile zipFile, String entryName,
+      String peakListName) throws IOException, ParserConfigurationException, SAXException,
+      InstantiationException, IllegalAccessException {
 
     logger.info("Loading feature list " + peakListName);
 
     currentLoadedObjectName = peakListName;
 
-    PeakList newPeakList = peakListOpenHandler.readPeakList(is);
+    // The features may be saved in binary format, in a separate entry
+    final PeakList newPeakList;
+    final ZipEntry featuresEntry =
+        zipFile.getEntry(PeakListFeaturesWriter.getFeaturesEntryName(entryName));
+    if ((featuresEntry != null) && (peakListOpenHandler instanceof PeakListOpenHandler_2_5)) {
+
+      // The data points of uncompressed features are read from the project file on demand
+      long featuresOffset = -1;
+      if (featuresEntry.getMethod() == ZipEntry.STORED) {
+        try (ZipEntryDataLocator locator = new ZipEntryDataLocator(openFile)) {
+          featuresOffset = locator.getDataOffset(featuresEntry.getName());
+        }
+      }
+
+      try (InputStream featuresStream = zipFile.getInputStream(featuresEntry)) {
+        newPeakList = ((PeakListOpenHandler_2_5) peakListOpenHandler).readPeakList(is,
+            featuresStream, featuresOffset >= 0 ? openFile : null, featuresOffset);
+      }
+    } else {
+      newPeakList = peakListOpenHandler.readPeakList(is);
+    }
 
     newProject.addPeakList(newPeakList);
+    peakListEntryNames.put(newPeakList, entryName);
+
+    // Add quality parameters to peaks, the binary format contains them already
+    if (featuresEntry == null)
+      QualityParameters.calculateQualityParameters(newPeakList);
+  }
+
+  /**
+   * Remember under which entries the raw data files and feature lists are stored in the project
+   * file, so the next incremental save only saves those which are modified afterwards. Projects
+   * saved in an older format are always saved completely.
+   */
+  private void registerProjectFileIndex() {
+
+    if (!(rawDataFileOpenHandler instanceof RawDataFileOpenHandler_2_5))
+      return;
 
-    // Add quality parameters to peaks
-    QualityParameters.calculateQualityParameters(newPeakList);
+    Hashtable<RawDataFile, String> fileIDs = new Hashtable<>();
+    dataFilesIDMap.forEach((fileID, file) -> fileIDs.put(file, fileID));
+
+    ProjectFileIndex index = new ProjectFileIndex(openFile);
+    rawDataFileSavedNames.forEach((file, savedName) -> {
+      if (file instanceof RawDataFileImpl)
+        index.addRawDataFile(file, savedName, ((RawDataFileImpl) file).getModificationCount());
+    });
+    peakListEntryNames.forEach((peakList, entryName) -> {
+      if (peakList instanceof SimplePeakList)
+        index.addPeakList(peakList, entryName, ((SimplePeakList) peakList).getModificationStamp(),
+            ProjectFileIndex.getRawDataFileIDs(peakList, fileIDs));
+    });
+    index.register(newProject);
   }
 
   private void loadUserParameters(InputStream is) throws IOException, ParserConfigurationException,
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload.version_2_5;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Project file from which the data points of lazily loaded features are read (see LazyFeature).
+ * The file is opened together with the project and stays open until all the feature lists loaded
+ * from it are closed (see {@link #newHandle()}). When the project is saved again, the saved file
+ * replaces this file under the same name, but the open channel keeps reading the original content.
+ * Once closed, or if an interrupt closed the channel, the file is opened again only if it was not
+ * replaced or modified.
+ */
+class FeatureDataFile implements Closeable {
+
+  private final File file;
+  private FileChannel channel;
+
+  // Size, modification time and identity of the project file when it was opened
+  private final long length, lastModified;
+  private final Object fileKey;
+
+  // Feature lists reading from this file which are not closed yet
+  private int openHandles;
+  private boolean closed;
+
+  /**
+   * Opens the project file, before it may be replaced by saving the project
+   */
+  FeatureDataFile(File file) throws IOException {
+    this.file = file;
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      final BasicFileAttributes attributes =
+          Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      length = channel.size();
+      lastModified = attributes.lastModifiedTime().toMillis();
+      fileKey = attributes.fileKey();
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * @return a handle of a feature list reading from this file. The file is closed when the handles
+   *         of all its feature lists are closed.
+   */
+  synchronized Closeable newHandle() {
+    openHandles++;
+    return new Closeable() {
+      private boolean handleClosed;
+
+      @Override
+      public void close() throws IOException {
+        synchronized (FeatureDataFile.this) {
+          if (handleClosed)
+            return;
+          handleClosed = true;
+          if (--openHandles == 0)
+            FeatureDataFile.this.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Closes the project file. Features which are still used read their data points by opening it
+   * again for each read.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    channel.close();
+  }
+
+  /**
+   * Reads the bytes at the given position. Uses positional reads, so it may be called concurrently.
+   */
+  ByteBuffer read(long position, int length) throws IOException {
+    // An interrupt closes the channel, so keep the interrupt for later
+    final boolean interrupted = Thread.interrupted();
+    try {
+      return readOpen(position, length);
+    } catch (ClosedChannelException e) {
+      // The channel was closed by an interrupt of this or another reading thread, or by close()
+      return readOpen(position, length);
+    } finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  private ByteBuffer readOpen(long position, int length) throws IOException {
+    final FileChannel openChannel = getChannel();
+    if (openChannel != null)
+      return read(openChannel, position, length);
+
+    try (FileChannel readChannel = reopen()) {
+      return read(readChannel, position, length);
+    }
+  }
+
+  /**
+   * @return the open channel, null if this file was closed
+   */
+  private synchronized FileChannel getChannel() throws IOException {
+    if (closed)
+      return null;
+    if (!channel.isOpen())
+      channel = reopen();
+    return channel;
+  }
+
+  /**
+   * Opens the project file again. Fails if it was replaced or modified, the positions of the
+   * features are those of the original file.
+   */
+  private FileChannel reopen() throws IOException {
+    final FileChannel newChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      final BasicFileAttributes attributes =
+          Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      if ((newChannel.size() != length)
+          || (attributes.lastModifiedTime().toMillis() != lastModified)
+          || !Objects.equals(attributes.fileKey(), fileKey)) {
+        throw new IOException("The project file " + file + " was replaced or modified, the data"
+            + " points of its features cannot be read anymore");
+      }
+      return newChannel;
+    } catch (IOException e) {
+      newChannel.close();
+      throw e;
+    }
+  }
+
+  private ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new EOFException("Unexpected end of the project file " + file);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload.version_2_5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+
+/**
+ * Data points and isotopes of the features of one raw data file, in a section of the features of a
+ * feature list in the project file (see PeakListFeaturesWriter). Read on demand by LazyFeature.
+ */
+class FeatureDataSection {
+
+  private final FeatureDataFile file;
+  private final int shapeOffsets[], isotopeOffsets[];
+  private final long scanNumbersPosition, pointMZPosition, pointIntensityPosition,
+      isotopeMZPosition, isotopeIntensityPosition;
+
+  /**
+   * @param position position of the data points of the section in the project file
+   * @param shapeOffsets offset table of the data points
+   * @param isotopeOffsets offset table of the isotopes
+   */
+  FeatureDataSection(FeatureDataFile file, long position, int shapeOffsets[],
+      int isotopeOffsets[]) {
+    this.file = file;
+    this.shapeOffsets = shapeOffsets;
+    this.isotopeOffsets = isotopeOffsets;
+
+    final long dataPoints = shapeOffsets[shapeOffsets.length - 1];
+    final long isotopes = isotopeOffsets[isotopeOffsets.length - 1];
+    scanNumbersPosition = position;
+    pointMZPosition = scanNumbersPosition + dataPoints * Integer.BYTES;
+    pointIntensityPosition = pointMZPosition + dataPoints * Double.BYTES;
+    isotopeMZPosition = pointIntensityPosition + dataPoints * Double.BYTES;
+    isotopeIntensityPosition = isotopeMZPosition + isotopes * Double.BYTES;
+  }
+
+  int[] readScanNumbers(int feature) throws IOException {
+    final int from = shapeOffsets[feature], length = shapeOffsets[feature + 1] - from;
+    int scanNumbers[] = new int[length];
+    file.read(scanNumbersPosition + (long) from * Integer.BYTES, length * Integer.BYTES)
+        .asIntBuffer().get(scanNumbers);
+    return scanNumbers;
+  }
+
+  /**
+   * @return the data points of the feature, null for scans without a data point
+   */
+  DataPoint[] readDataPoints(int feature) throws IOException {
+    final int from = shapeOffsets[feature], length = shapeOffsets[feature + 1] - from;
+    ByteBuffer mzValues =
+        file.read(pointMZPosition + (long) from * Double.BYTES, length * Double.BYTES);
+    ByteBuffer intensityValues =
+        file.read(pointIntensityPosition + (long) from * Double.BYTES, length * Double.BYTES);
+    DataPoint dataPoints[] = new DataPoint[length];
+    for (int i = 0; i < length; i++) {
+      double mz = mzValues.getDouble();
+      double intensity = intensityValues.getDouble();
+      if (mz > 0.0)
+        dataPoints[i] = new SimpleDataPoint(mz, intensity);
+    }
+    return dataPoints;
+  }
+
+  DataPoint[] readIsotopes(int feature) throws IOException {
+    final int from = isotopeOffsets[feature], length = isotopeOffsets[feature + 1] - from;
+    ByteBuffer mzValues =
+        file.read(isotopeMZPosition + (long) from * Double.BYTES, length * Double.BYTES);
+    ByteBuffer intensityValues =
+        file.read(isotopeIntensityPosition + (long) from * Double.BYTES, length * Double.BYTES);
+    DataPoint isotopes[] = new DataPoint[length];
+    for (int i = 0; i < length; i++)
+      isotopes[i] = new SimpleDataPoint(mzValues.getDouble(), intensityValues.getDouble());
+    return isotopes;
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload.version_2_5;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nonnull;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IsotopePattern;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+
+/**
+ * Feature of a feature list opened from a project, whose scan numbers, data points and isotope
+ * pattern are read from the project file on first access. They are kept in caches shared by all
+ * lazily loaded features, so the memory use depends on the features which are actually used: the
+ * least recently used data is evicted when the caches are full, and the garbage collector may evict
+ * any data when memory runs low. Evicted data is read again when it is needed.
+ */
+class LazyFeature extends SimpleFeature {
+
+  private static final long MAX_CACHED_DATA_POINTS = 10_000_000;
+  private static final long MAX_CACHED_ISOTOPES = 1_000_000;
+
+  private static final Cache<LazyFeature, Shape> shapes = CacheBuilder.newBuilder().weakKeys()
+      .softValues().maximumWeight(MAX_CACHED_DATA_POINTS)
+      .weigher((LazyFeature feature, Shape shape) -> shape.scanNumbers.length).build();
+
+  private static final Cache<LazyFeature, IsotopePattern> isotopePatterns =
+      CacheBuilder.newBuilder().weakKeys().softValues().maximumWeight(MAX_CACHED_ISOTOPES)
+          .weigher((LazyFeature feature, IsotopePattern pattern) -> pattern
+              .getNumberOfDataPoints())
+          .build();
+
+  private final FeatureDataSection section;
+  private final int index;
+
+  // Status and description of the saved isotope pattern, the status is null for none
+  private final IsotopePatternStatus isotopePatternStatus;
+  private final String isotopePatternDescription;
+  private volatile boolean isotopePatternReplaced = false;
+
+  /**
+   * @param section the section containing the data points of the feature
+   * @param index the index of the feature in the section
+   * @param isotopePatternStatus status of the saved isotope pattern, or null for none
+   */
+  LazyFeature(RawDataFile dataFile, double MZ, double RT, double height, double area,
+      FeatureStatus peakStatus, int representativeScan, int fragmentScanNumber,
+      int[] allMS2FragmentScanNumbers, Range<Double> rtRange, Range<Double> mzRange,
+      Range<Double> intensityRange, FeatureDataSection section, int index,
+      IsotopePatternStatus isotopePatternStatus, String isotopePatternDescription) {
+    super(dataFile, MZ, RT, height, area, peakStatus, representativeScan, fragmentScanNumber,
+        allMS2FragmentScanNumbers, rtRange, mzRange, intensityRange);
+    this.section = section;
+    this.index = index;
+    this.isotopePatternStatus = isotopePatternStatus;
+    this.isotopePatternDescription = isotopePatternDescription;
+  }
+
+  @Override
+  public @Nonnull int[] getScanNumbers() {
+    return getShape().scanNumbers;
+  }
+
+  @Override
+  public DataPoint getDataPoint(int scanNumber) {
+    Shape shape = getShape();
+    int index = Arrays.binarySearch(shape.scanNumbers, scanNumber);
+    if (index < 0)
+      return null;
+    return shape.dataPoints[index];
+  }
+
+  @Override
+  public IsotopePattern getIsotopePattern() {
+    if (isotopePatternReplaced || (isotopePatternStatus == null))
+      return super.getIsotopePattern();
+    return load(isotopePatterns, () -> new SimpleIsotopePattern(section.readIsotopes(index),
+        isotopePatternStatus, isotopePatternDescription));
+  }
+
+  @Override
+  public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
+    super.setIsotopePattern(isotopePattern);
+    isotopePatternReplaced = true;
+  }
+
+  private Shape getShape() {
+    return load(shapes,
+        () -> new Shape(section.readScanNumbers(index), section.readDataPoints(index)));
+  }
+
+  private <V> V load(Cache<LazyFeature, V> cache, Callable<V> loader) {
+    try {
+      return cache.get(this, loader);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw new UncheckedIOException("Could not read the data points of " + this,
+            (IOException) e.getCause());
+      throw new IllegalStateException(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+
+  /**
+   * Scan numbers and data points (null for scans without a data point) of a feature
+   */
+  private static class Shape {
+
+    private final int scanNumbers[];
+    private final DataPoint dataPoints[];
+
+    private Shape(int scanNumbers[], DataPoint dataPoints[]) {
+      this.scanNumbers = scanNumbers;
+      this.dataPoints = dataPoints;
+    }
+  }
+
+}
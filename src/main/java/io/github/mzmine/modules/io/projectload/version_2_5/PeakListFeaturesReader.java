@@ -0,0 +1,333 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload.version_2_5;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import com.google.common.collect.Range;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.io.projectsave.PeakListFeaturesWriter;
+
+/**
+ * Reads the features of a feature list saved in binary format (see PeakListFeaturesWriter) and
+ * adds them to the rows. The sections of the raw data files are decoded in parallel. If the
+ * features are stored uncompressed in the project file, only the fixed-size columns are loaded,
+ * the data points are read on demand (see LazyFeature).
+ */
+class PeakListFeaturesReader {
+
+  private final Hashtable<String, RawDataFile> dataFilesIDMap;
+  private final BooleanSupplier canceled;
+
+  private FeatureStatus featureStatuses[];
+  private IsotopePatternStatus isotopePatternStatuses[];
+
+  PeakListFeaturesReader(Hashtable<String, RawDataFile> dataFilesIDMap, BooleanSupplier canceled) {
+    this.dataFilesIDMap = dataFilesIDMap;
+    this.canceled = canceled;
+  }
+
+  /**
+   * @param rows the rows of the feature list, in the order of the XML document
+   * @param featureDataFile project file to read the data points from on demand, or null to load
+   *        them now
+   * @param position position of the features in the project file, if they are read on demand
+   */
+  void readFeatures(InputStream is, List<SimplePeakListRow> rows, FeatureDataFile featureDataFile,
+      long position) throws IOException {
+
+    CountingInputStream counter = new CountingInputStream(new BufferedInputStream(is, 1 << 16));
+    DataInputStream in = new DataInputStream(counter);
+    if (in.readInt() != PeakListFeaturesWriter.FEATURES_MAGIC)
+      throw new IOException("Invalid features of a feature list");
+    final int version = in.readInt();
+    if (version > PeakListFeaturesWriter.FEATURES_VERSION)
+      throw new IOException("The features were saved by a newer version of MZmine (format "
+          + version + "), please update MZmine");
+
+    // The statuses are saved by name, so that their order may change
+    String names[] = readNames(in);
+    featureStatuses = new FeatureStatus[names.length];
+    for (int i = 0; i < names.length; i++)
+      featureStatuses[i] = FeatureStatus.valueOf(names[i]);
+    names = readNames(in);
+    isotopePatternStatuses = new IsotopePatternStatus[names.length];
+    for (int i = 0; i < names.length; i++)
+      isotopePatternStatuses[i] = IsotopePatternStatus.valueOf(names[i]);
+
+    final int sections = in.readInt();
+    final int threads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads(sections);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Queue<Future<?>> pending = new ArrayDeque<>();
+
+    try {
+      for (int s = 0; s < sections; s++) {
+
+        if (canceled.getAsBoolean())
+          return;
+
+        final String rawDataFileID = in.readUTF();
+        final RawDataFile dataFile = dataFilesIDMap.get(rawDataFileID);
+        if (dataFile == null) {
+          throw new IOException(
+              "Cannot open feature list, because raw data file " + rawDataFileID + " is missing.");
+        }
+        final int length = in.readInt();
+        final byte section[];
+        final long dataPointsPosition;
+
+        if (featureDataFile == null) {
+          section = new byte[length];
+          in.readFully(section);
+          dataPointsPosition = -1;
+        } else {
+          // Read the counts, the columns and the isotope pattern descriptions, skip the data points
+          byte counts[] = new byte[4 * Integer.BYTES];
+          in.readFully(counts);
+          ByteBuffer countsBuffer = ByteBuffer.wrap(counts);
+          final int n = countsBuffer.getInt(), dataPoints = countsBuffer.getInt(),
+              fragmentScans = countsBuffer.getInt(), isotopes = countsBuffer.getInt();
+          final int columnsLength = (int) PeakListFeaturesWriter.getColumnsLength(n, fragmentScans);
+          final long dataPointsLength =
+              PeakListFeaturesWriter.getDataPointsLength(dataPoints, isotopes);
+
+          section = new byte[(int) (length - dataPointsLength)];
+          System.arraycopy(counts, 0, section, 0, counts.length);
+          in.readFully(section, counts.length, columnsLength - counts.length);
+          dataPointsPosition = position + counter.getCount();
+          ByteStreams.skipFully(in, dataPointsLength);
+          in.readFully(section, columnsLength, section.length - columnsLength);
+        }
+
+        // Decode in parallel, but keep only a few sections in memory
+        if (pending.size() >= threads)
+          waitFor(pending.remove());
+        pending.add(executor.submit(() -> {
+          decodeSection(section, dataFile, rows, featureDataFile, dataPointsPosition);
+          return null;
+        }));
+      }
+
+      while (!pending.isEmpty())
+        waitFor(pending.remove());
+
+    } finally {
+      for (Future<?> future : pending)
+        future.cancel(false);
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * @param section the section, without the data points if they are read on demand
+   * @param dataPointsPosition position of the data points in the project file, if they are read on
+   *        demand
+   */
+  private void decodeSection(byte section[], RawDataFile dataFile, List<SimplePeakListRow> rows,
+      FeatureDataFile featureDataFile, long dataPointsPosition) throws IOException {
+
+    ByteBuffer buffer = ByteBuffer.wrap(section);
+    final int n = buffer.getInt();
+    final int numOfDataPoints = buffer.getInt();
+    final int numOfFragmentScans = buffer.getInt();
+    final int numOfIsotopes = buffer.getInt();
+
+    final int rowIndexes[] = readInts(buffer, n);
+    final double mz[] = readDoubles(buffer, n);
+    final double rt[] = readDoubles(buffer, n);
+    final double height[] = readDoubles(buffer, n);
+    final double area[] = readDoubles(buffer, n);
+    final double fwhm[] = readDoubles(buffer, n);
+    final double tf[] = readDoubles(buffer, n);
+    final double af[] = readDoubles(buffer, n);
+    final double ranges[][] = new double[6][];
+    for (int r = 0; r < ranges.length; r++)
+      ranges[r] = readDoubles(buffer, n);
+    final int charge[] = readInts(buffer, n);
+    final int representativeScan[] = readInts(buffer, n);
+    final int fragmentScan[] = readInts(buffer, n);
+    final int parentRowID[] = readInts(buffer, n);
+    final byte status[] = readBytes(buffer, n);
+    final byte isotopeStatus[] = readBytes(buffer, n);
+    final int shapeOffsets[] = readInts(buffer, n + 1);
+    final int fragmentOffsets[] = readInts(buffer, n + 1);
+    final int fragmentScans[] = readInts(buffer, numOfFragmentScans);
+    final int isotopeOffsets[] = readInts(buffer, n + 1);
+
+    FeatureDataSection dataSection = null;
+    int scanNumbers[] = null;
+    double pointMZ[] = null, pointIntensity[] = null, isotopeMZ[] = null,
+        isotopeIntensity[] = null;
+    if (featureDataFile != null) {
+      dataSection =
+          new FeatureDataSection(featureDataFile, dataPointsPosition, shapeOffsets, isotopeOffsets);
+    } else {
+      scanNumbers = readInts(buffer, numOfDataPoints);
+      pointMZ = readDoubles(buffer, numOfDataPoints);
+      pointIntensity = readDoubles(buffer, numOfDataPoints);
+      isotopeMZ = readDoubles(buffer, numOfIsotopes);
+      isotopeIntensity = readDoubles(buffer, numOfIsotopes);
+    }
+
+    DataInputStream descriptions = new DataInputStream(
+        new ByteArrayInputStream(section, buffer.position(), buffer.remaining()));
+
+    for (int i = 0; i < n; i++) {
+
+      if (canceled.getAsBoolean())
+        return;
+
+      Range<Double> rtRange = toRange(ranges[0][i], ranges[1][i]);
+      Range<Double> mzRange = toRange(ranges[2][i], ranges[3][i]);
+      Range<Double> intensityRange = toRange(ranges[4][i], ranges[5][i]);
+
+      int allMS2FragmentScans[] = new int[fragmentOffsets[i + 1] - fragmentOffsets[i]];
+      System.arraycopy(fragmentScans, fragmentOffsets[i], allMS2FragmentScans, 0,
+          allMS2FragmentScans.length);
+
+      // Like the XML format, an isotope pattern without isotopes is not restored
+      IsotopePatternStatus isotopePatternStatus = null;
+      String description = null;
+      if (isotopeStatus[i] >= 0) {
+        description = descriptions.readBoolean() ? descriptions.readUTF() : null;
+        if (isotopeOffsets[i + 1] > isotopeOffsets[i])
+          isotopePatternStatus = isotopePatternStatuses[isotopeStatus[i]];
+      }
+
+      final SimpleFeature feature;
+      if (dataSection != null) {
+        feature = new LazyFeature(dataFile, mz[i], rt[i], height[i], area[i],
+            featureStatuses[status[i]], representativeScan[i], fragmentScan[i],
+            allMS2FragmentScans, rtRange, mzRange, intensityRange, dataSection, i,
+            isotopePatternStatus, description);
+      } else {
+        final int from = shapeOffsets[i], numOfPoints = shapeOffsets[i + 1] - from;
+        int featureScanNumbers[] = new int[numOfPoints];
+        DataPoint dataPoints[] = new DataPoint[numOfPoints];
+        for (int p = 0; p < numOfPoints; p++) {
+          featureScanNumbers[p] = scanNumbers[from + p];
+          if (pointMZ[from + p] > 0.0)
+            dataPoints[p] = new SimpleDataPoint(pointMZ[from + p], pointIntensity[from + p]);
+        }
+
+        feature = new SimpleFeature(dataFile, mz[i], rt[i], height[i], area[i],
+            featureScanNumbers, dataPoints, featureStatuses[status[i]], representativeScan[i],
+            fragmentScan[i], allMS2FragmentScans, rtRange, mzRange, intensityRange);
+
+        if (isotopePatternStatus != null) {
+          DataPoint isotopes[] = new DataPoint[isotopeOffsets[i + 1] - isotopeOffsets[i]];
+          for (int p = 0; p < isotopes.length; p++) {
+            isotopes[p] = new SimpleDataPoint(isotopeMZ[isotopeOffsets[i] + p],
+                isotopeIntensity[isotopeOffsets[i] + p]);
+          }
+          feature.setIsotopePattern(
+              new SimpleIsotopePattern(isotopes, isotopePatternStatus, description));
+        }
+      }
+
+      feature.setCharge(charge[i]);
+      feature.setFWHM(toDouble(fwhm[i]));
+      feature.setTailingFactor(toDouble(tf[i]));
+      feature.setAsymmetryFactor(toDouble(af[i]));
+      feature.setParentChromatogramRowID(
+          parentRowID[i] == PeakListFeaturesWriter.NO_PARENT_ROW_ID ? null : parentRowID[i]);
+
+      // The rows are synchronized, the sections of other raw data files are added concurrently
+      rows.get(rowIndexes[i]).addPeak(dataFile, feature);
+    }
+  }
+
+  private static Range<Double> toRange(double lower, double upper) {
+    if (Double.isNaN(lower) || Double.isNaN(upper))
+      return null;
+    return Range.closed(lower, upper);
+  }
+
+  private static Double toDouble(double value) {
+    return Double.isNaN(value) ? null : value;
+  }
+
+  private static String[] readNames(DataInputStream in) throws IOException {
+    String names[] = new String[in.readInt()];
+    for (int i = 0; i < names.length; i++)
+      names[i] = in.readUTF();
+    return names;
+  }
+
+  private static int[] readInts(ByteBuffer buffer, int length) {
+    int values[] = new int[length];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + length * Integer.BYTES);
+    return values;
+  }
+
+  private static double[] readDoubles(ByteBuffer buffer, int length) {
+    double values[] = new double[length];
+    buffer.asDoubleBuffer().get(values);
+    buffer.position(buffer.position() + length * Double.BYTES);
+    return values;
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer, int length) {
+    byte values[] = new byte[length];
+    buffer.get(values);
+    return values;
+  }
+
+  /**
+   * Wait for a decoding worker, rethrow its exception
+   */
+  private static void waitFor(Future<?> future) throws IOException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+}
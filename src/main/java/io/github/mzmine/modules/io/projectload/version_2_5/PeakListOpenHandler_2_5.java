@@ -20,10 +20,13 @@ package io.github.mzmine.modules.io.projectload.version_2_5;
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Logger;
@@ -92,7 +95,13 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
 
   private int parsedRows, totalRows;
 
-  private boolean canceled = false;
+  // Rows waiting for their features in binary format, null if the features are in the XML document
+  private List<SimplePeakListRow> binaryFeatureRows;
+
+  // Project file from which the data points of the features are read on demand
+  private FeatureDataFile featureDataFile;
+
+  private volatile boolean canceled = false;
 
   public PeakListOpenHandler_2_5(Hashtable<String, RawDataFile> dataFilesIDMap) {
     this.dataFilesIDMap = dataFilesIDMap;
@@ -104,7 +113,35 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
   @Override
   public PeakList readPeakList(InputStream peakListStream)
       throws IOException, ParserConfigurationException, SAXException {
+    return readPeakList(peakListStream, null);
+  }
+
+  /**
+   * Load the feature list from the zip file reading the XML feature list file, and the features in
+   * binary format (see PeakListFeaturesWriter)
+   *
+   * @param featuresStream the features in binary format, or null if they are in the XML document
+   */
+  public PeakList readPeakList(InputStream peakListStream, InputStream featuresStream)
+      throws IOException, ParserConfigurationException, SAXException {
+    return readPeakList(peakListStream, featuresStream, null, 0);
+  }
 
+  /**
+   * Load the feature list from the zip file reading the XML feature list file, and the features in
+   * binary format (see PeakListFeaturesWriter). The data points of the features are read from the
+   * project file on demand.
+   *
+   * @param featuresStream the features in binary format, or null if they are in the XML document
+   * @param projectFile the project file, if the features are stored uncompressed in it, or null to
+   *        load the data points now
+   * @param featuresPosition position of the features in the project file
+   */
+  public PeakList readPeakList(InputStream peakListStream, InputStream featuresStream,
+      File projectFile, long featuresPosition)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    binaryFeatureRows = featuresStream == null ? null : new ArrayList<>();
     totalRows = 0;
     parsedRows = 0;
 
@@ -127,6 +164,23 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
       initializePeakList();
     }
 
+    // The rows are added to the feature list when they are complete
+    if (featuresStream != null) {
+      // The feature lists of a project share the project file
+      if ((projectFile != null) && ((featureDataFile == null)
+          || !featureDataFile.getFile().equals(projectFile)))
+        featureDataFile = new FeatureDataFile(projectFile);
+      new PeakListFeaturesReader(dataFilesIDMap, () -> canceled).readFeatures(featuresStream,
+          binaryFeatureRows, projectFile == null ? null : featureDataFile, featuresPosition);
+      if (canceled)
+        throw new SAXException("Parsing canceled");
+      for (SimplePeakListRow row : binaryFeatureRows)
+        buildingPeakList.addRow(row);
+      binaryFeatureRows = null;
+      if (projectFile != null)
+        buildingPeakList.addResource(featureDataFile.newHandle());
+    }
+
     return buildingPeakList;
 
   }
@@ -436,7 +490,10 @@ public class PeakListOpenHandler_2_5 extends DefaultHandler implements PeakListO
 
     // <ROW>
     if (qName.equals(PeakListElementName_2_5.ROW.getElementName())) {
-      buildingPeakList.addRow(buildingRow);
+      if (binaryFeatureRows != null)
+        binaryFeatureRows.add(buildingRow);
+      else
+        buildingPeakList.addRow(buildingRow);
       buildingRow = null;
       parsedRows++;
     }
@@ -84,12 +84,36 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
   public RawDataFile readRawDataFile(InputStream is, File scansFile)
       throws IOException, ParserConfigurationException, SAXException {
 
-    charBuffer = new StringBuffer();
-    massLists = new ArrayList<StorableMassList>();
-
     newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
     newRawDataFile.openDataPointsFile(scansFile);
 
+    return readRawDataDescription(is);
+  }
+
+  /**
+   * Create a new raw data file using the information from the XML raw data description file. The
+   * scans are not extracted, they are mapped directly from the project file, where they are stored
+   * uncompressed.
+   *
+   * @param projectFile the project file
+   * @param scansOffset position of the scans in the project file
+   * @param scansLength length of the scans in bytes
+   */
+  public RawDataFile readRawDataFile(InputStream is, File projectFile, long scansOffset,
+      long scansLength) throws IOException, ParserConfigurationException, SAXException {
+
+    newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
+    newRawDataFile.openProjectDataPoints(projectFile, scansOffset, scansLength);
+
+    return readRawDataDescription(is);
+  }
+
+  private RawDataFile readRawDataDescription(InputStream is)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    charBuffer = new StringBuffer();
+    massLists = new ArrayList<StorableMassList>();
+
     dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
     dataPointsLengths = newRawDataFile.getDataPointsLengths();
 
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IsotopePattern;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.main.MZmineCore;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Writes the features of a feature list in a binary, columnar format, next to the XML document of
+ * the feature list (see PeakListSaveHandler). The format consists of a header and one section per
+ * raw data file:
+ *
+ * <pre>
+ * header:  magic, version, names of the feature statuses, names of the isotope pattern statuses,
+ *          number of sections
+ * section: raw data file ID, length of the section in bytes, then
+ *          - the number of features n, of data points, of all MS2 fragment scans and of isotopes
+ *          - the columns with one value per feature: row index, m/z, RT (minutes), height, area,
+ *            FWHM, tailing factor, asymmetry factor, RT, m/z and intensity ranges of the raw data
+ *            points (NaN for none), charge, representative scan, fragment scan, parent
+ *            chromatogram row ID, status and isotope pattern status (-1 for none)
+ *          - the offset tables (n + 1 values) of the data points and of all MS2 fragment scans,
+ *            the scan numbers of all MS2 fragment scans and the offset table of the isotopes
+ *          - the scan numbers, m/z and intensities of the data points, the m/z and intensities of
+ *            the isotopes
+ *          - the descriptions of the isotope patterns
+ * </pre>
+ *
+ * The row index refers to the order of the rows in the XML document. All numbers are big-endian.
+ * The data points and isotopes follow the fixed-size columns, so that they can be read on demand
+ * (see LazyFeature). The sections are encoded in parallel on the executor of the project saving
+ * and written in the order of the raw data files.
+ */
+public class PeakListFeaturesWriter {
+
+  public static final String FEATURES_EXTENSION = ".features";
+  public static final int FEATURES_MAGIC = 0x4d5a4645; // "MZFE"
+  public static final int FEATURES_VERSION = 1;
+
+  // Parent chromatogram row ID of features without a parent chromatogram
+  public static final int NO_PARENT_ROW_ID = Integer.MIN_VALUE;
+
+  private final Hashtable<RawDataFile, String> dataFilesIDMap;
+  private final Executor executor;
+
+  private volatile boolean canceled = false;
+
+  /**
+   * @param executor executor encoding the sections, or null to encode them in the calling thread
+   */
+  PeakListFeaturesWriter(Hashtable<RawDataFile, String> dataFilesIDMap, Executor executor) {
+    this.dataFilesIDMap = dataFilesIDMap;
+    this.executor = executor;
+  }
+
+  /**
+   * @param peakListEntryName name of the XML entry of a feature list in the project file
+   * @return name of the entry containing the features of the feature list
+   */
+  public static String getFeaturesEntryName(String peakListEntryName) {
+    String name = peakListEntryName.endsWith(".xml")
+        ? peakListEntryName.substring(0, peakListEntryName.length() - 4)
+        : peakListEntryName;
+    return name + FEATURES_EXTENSION;
+  }
+
+  /**
+   * Writes the features of the rows. The stream is not closed.
+   *
+   * @param rows the rows, in the order in which they are saved in the XML document
+   * @param dataFiles the raw data files of the feature list
+   */
+  void writeFeatures(PeakListRow rows[], RawDataFile dataFiles[], OutputStream os)
+      throws IOException {
+
+    DataOutputStream out = new DataOutputStream(os);
+    out.writeInt(FEATURES_MAGIC);
+    out.writeInt(FEATURES_VERSION);
+    writeNames(out, FeatureStatus.values());
+    writeNames(out, IsotopePatternStatus.values());
+    out.writeInt(dataFiles.length);
+
+    final int threads =
+        MZmineCore.getConfiguration().getPreferences().getNumOfThreads(dataFiles.length);
+    Queue<FutureTask<byte[]>> pending = new ArrayDeque<>();
+    int submitted = 0;
+
+    try {
+      for (int i = 0; i < dataFiles.length; i++) {
+
+        // Encode ahead, but keep only a few sections in memory
+        while ((submitted < dataFiles.length) && (submitted < i + threads)) {
+          final RawDataFile dataFile = dataFiles[submitted++];
+          FutureTask<byte[]> task = new FutureTask<>(() -> encodeSection(rows, dataFile));
+          pending.add(task);
+          submit(task);
+        }
+
+        // The calling thread usually belongs to the executor, so it encodes the section itself
+        // when no other thread has started it yet, instead of waiting for a free thread
+        FutureTask<byte[]> task = pending.remove();
+        task.run();
+        byte section[] = waitFor(task);
+        if (canceled)
+          return;
+
+        out.writeUTF(dataFilesIDMap.get(dataFiles[i]));
+        out.writeInt(section.length);
+        out.write(section);
+      }
+      out.flush();
+    } finally {
+      for (Future<byte[]> future : pending)
+        future.cancel(false);
+    }
+  }
+
+  private void submit(Runnable task) {
+    if (executor == null)
+      return;
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // Shut down after a failure, the task is run by the calling thread
+    }
+  }
+
+  void cancel() {
+    canceled = true;
+  }
+
+  private byte[] encodeSection(PeakListRow rows[], RawDataFile dataFile) throws IOException {
+
+    IntArrayList rowIndexes = new IntArrayList();
+    List<Feature> features = new ArrayList<>();
+    for (int r = 0; r < rows.length; r++) {
+      Feature feature = rows[r].getPeak(dataFile);
+      if (feature != null) {
+        rowIndexes.add(r);
+        features.add(feature);
+      }
+    }
+
+    final int n = features.size();
+    double mz[] = new double[n], rt[] = new double[n], height[] = new double[n],
+        area[] = new double[n], fwhm[] = new double[n], tf[] = new double[n],
+        af[] = new double[n];
+    double ranges[][] = new double[6][n];
+    int charge[] = new int[n], representativeScan[] = new int[n], fragmentScan[] = new int[n],
+        parentRowID[] = new int[n];
+    byte status[] = new byte[n], isotopeStatus[] = new byte[n];
+    int shapeOffsets[] = new int[n + 1], fragmentOffsets[] = new int[n + 1],
+        isotopeOffsets[] = new int[n + 1];
+    IntArrayList scanNumbers = new IntArrayList(), fragmentScans = new IntArrayList();
+    DoubleArrayList pointMZ = new DoubleArrayList(), pointIntensity = new DoubleArrayList(),
+        isotopeMZ = new DoubleArrayList(), isotopeIntensity = new DoubleArrayList();
+    List<String> isotopeDescriptions = new ArrayList<>();
+
+    for (int i = 0; i < n; i++) {
+
+      if (canceled)
+        return new byte[0];
+
+      Feature feature = features.get(i);
+      mz[i] = feature.getMZ();
+      rt[i] = feature.getRT();
+      height[i] = feature.getHeight();
+      area[i] = feature.getArea();
+      fwhm[i] = toDouble(feature.getFWHM());
+      tf[i] = toDouble(feature.getTailingFactor());
+      af[i] = toDouble(feature.getAsymmetryFactor());
+      setRange(ranges, 0, i, feature.getRawDataPointsRTRange());
+      setRange(ranges, 2, i, feature.getRawDataPointsMZRange());
+      setRange(ranges, 4, i, feature.getRawDataPointsIntensityRange());
+      charge[i] = feature.getCharge();
+      representativeScan[i] = feature.getRepresentativeScanNumber();
+      fragmentScan[i] = feature.getMostIntenseFragmentScanNumber();
+      Integer parentChromatogramRowID = feature.getParentChromatogramRowID();
+      parentRowID[i] =
+          parentChromatogramRowID != null ? parentChromatogramRowID : NO_PARENT_ROW_ID;
+      status[i] = (byte) feature.getFeatureStatus().ordinal();
+
+      // Data points, m/z 0 marks scans without a data point
+      for (int scan : feature.getScanNumbers()) {
+        DataPoint dataPoint = feature.getDataPoint(scan);
+        scanNumbers.add(scan);
+        pointMZ.add(dataPoint != null ? dataPoint.getMZ() : 0d);
+        pointIntensity.add(dataPoint != null ? dataPoint.getIntensity() : 0d);
+      }
+      shapeOffsets[i + 1] = scanNumbers.size();
+
+      int allMS2FragmentScans[] = feature.getAllMS2FragmentScanNumbers();
+      if (allMS2FragmentScans != null)
+        fragmentScans.addElements(fragmentScans.size(), allMS2FragmentScans);
+      fragmentOffsets[i + 1] = fragmentScans.size();
+
+      IsotopePattern isotopePattern = feature.getIsotopePattern();
+      if (isotopePattern != null) {
+        isotopeStatus[i] = (byte) isotopePattern.getStatus().ordinal();
+        isotopeDescriptions.add(isotopePattern.getDescription());
+        for (DataPoint isotope : isotopePattern.getDataPoints()) {
+          isotopeMZ.add(isotope.getMZ());
+          isotopeIntensity.add(isotope.getIntensity());
+        }
+      } else {
+        isotopeStatus[i] = -1;
+      }
+      isotopeOffsets[i + 1] = isotopeMZ.size();
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(n);
+    out.writeInt(scanNumbers.size());
+    out.writeInt(fragmentScans.size());
+    out.writeInt(isotopeMZ.size());
+
+    writeColumn(out, rowIndexes.toIntArray());
+    writeColumn(out, mz);
+    writeColumn(out, rt);
+    writeColumn(out, height);
+    writeColumn(out, area);
+    writeColumn(out, fwhm);
+    writeColumn(out, tf);
+    writeColumn(out, af);
+    for (double range[] : ranges)
+      writeColumn(out, range);
+    writeColumn(out, charge);
+    writeColumn(out, representativeScan);
+    writeColumn(out, fragmentScan);
+    writeColumn(out, parentRowID);
+    out.write(status);
+    out.write(isotopeStatus);
+    writeColumn(out, shapeOffsets);
+    writeColumn(out, fragmentOffsets);
+    writeColumn(out, fragmentScans.toIntArray());
+    writeColumn(out, isotopeOffsets);
+
+    writeColumn(out, scanNumbers.toIntArray());
+    writeColumn(out, pointMZ.toDoubleArray());
+    writeColumn(out, pointIntensity.toDoubleArray());
+    writeColumn(out, isotopeMZ.toDoubleArray());
+    writeColumn(out, isotopeIntensity.toDoubleArray());
+
+    for (String description : isotopeDescriptions) {
+      out.writeBoolean(description != null);
+      if (description != null)
+        out.writeUTF(description);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Length of the counts and of the columns preceding the data points, which are loaded when a
+   * feature list is opened
+   *
+   * @param n number of features
+   * @param fragmentScans number of all MS2 fragment scans
+   */
+  public static long getColumnsLength(int n, int fragmentScans) {
+    return 4 * Integer.BYTES + (long) n * (13 * Double.BYTES + 5 * Integer.BYTES + 2)
+        + 3L * (n + 1) * Integer.BYTES + (long) fragmentScans * Integer.BYTES;
+  }
+
+  /**
+   * Length of the data points and isotopes, which may be loaded on demand
+   *
+   * @param dataPoints number of data points
+   * @param isotopes number of isotopes
+   */
+  public static long getDataPointsLength(int dataPoints, int isotopes) {
+    return (long) dataPoints * (Integer.BYTES + 2 * Double.BYTES)
+        + (long) isotopes * 2 * Double.BYTES;
+  }
+
+  private static double toDouble(Double value) {
+    return value != null ? value : Double.NaN;
+  }
+
+  private static void setRange(double ranges[][], int column, int i, Range<Double> range) {
+    ranges[column][i] = range != null ? range.lowerEndpoint() : Double.NaN;
+    ranges[column + 1][i] = range != null ? range.upperEndpoint() : Double.NaN;
+  }
+
+  private static void writeNames(DataOutputStream out, Enum<?> values[]) throws IOException {
+    out.writeInt(values.length);
+    for (Enum<?> value : values)
+      out.writeUTF(value.name());
+  }
+
+  private static void writeColumn(DataOutputStream out, int values[]) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+    buffer.asIntBuffer().put(values);
+    out.write(buffer.array());
+  }
+
+  private static void writeColumn(DataOutputStream out, double values[]) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES);
+    buffer.asDoubleBuffer().put(values);
+    out.write(buffer.array());
+  }
+
+  /**
+   * Wait for an encoding worker, rethrow its exception
+   */
+  private static byte[] waitFor(Future<byte[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+}
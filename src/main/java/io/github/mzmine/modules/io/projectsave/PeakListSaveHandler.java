@@ -28,6 +28,7 @@ import java.util.Date;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Executor;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -55,18 +56,34 @@ public class PeakListSaveHandler {
   private Hashtable<RawDataFile, String> dataFilesIDMap;
 
   private int numberOfRows, finishedRows;
-  private boolean canceled = false;
+  private volatile boolean canceled = false;
 
-  private OutputStream finalStream;
+  private OutputStream finalStream, featuresStream;
+  private Executor featuresExecutor;
+  private volatile PeakListFeaturesWriter featuresWriter;
 
   public PeakListSaveHandler(OutputStream finalStream,
       Hashtable<RawDataFile, String> dataFilesIDMap) {
+    this(finalStream, null, dataFilesIDMap, null);
+  }
+
+  /**
+   * @param featuresStream stream for the features in binary format (see PeakListFeaturesWriter),
+   *        or null to save the features in the XML document
+   * @param featuresExecutor executor encoding the features in parallel, or null to encode them in
+   *        the calling thread
+   */
+  public PeakListSaveHandler(OutputStream finalStream, OutputStream featuresStream,
+      Hashtable<RawDataFile, String> dataFilesIDMap, Executor featuresExecutor) {
     this.finalStream = finalStream;
+    this.featuresStream = featuresStream;
     this.dataFilesIDMap = dataFilesIDMap;
+    this.featuresExecutor = featuresExecutor;
   }
 
   /**
-   * Create an XML document with the feature list information an save it into the project zip file
+   * Create an XML document with the feature list information an save it into the project zip file.
+   * The features are saved in the XML document or to the features stream.
    *
    * @param peakList
    * @param peakListSavedName name of the feature list
@@ -75,7 +92,9 @@ public class PeakListSaveHandler {
   public void savePeakList(PeakList peakList)
       throws IOException, TransformerConfigurationException, SAXException {
 
-    numberOfRows = peakList.getNumberOfRows();
+    // The binary features refer to the rows by their index in the XML document
+    PeakListRow rows[] = peakList.getRows().toArray(new PeakListRow[0]);
+    numberOfRows = rows.length;
     finishedRows = 0;
 
     StreamResult streamResult = new StreamResult(finalStream);
@@ -105,7 +124,10 @@ public class PeakListSaveHandler {
       dateText = ((SimplePeakList) peakList).getDateCreated();
     } else {
       Date date = new Date();
-      dateText = dateFormat.format(date);
+      // feature lists are saved concurrently, DateFormat is not thread-safe
+      synchronized (dateFormat) {
+        dateText = dateFormat.format(date);
+      }
     }
     hd.startElement("", "", PeakListElementName.PEAKLIST_DATE.getElementName(), atts);
     hd.characters(dateText.toCharArray(), 0, dateText.length());
@@ -160,7 +182,7 @@ public class PeakListSaveHandler {
         return;
 
       atts.clear();
-      row = peakList.getRow(i);
+      row = rows[i];
       atts.addAttribute("", "", PeakListElementName.ID.getElementName(), "CDATA",
           String.valueOf(row.getID()));
       if (row.getComment() != null) {
@@ -177,6 +199,13 @@ public class PeakListSaveHandler {
 
     hd.endElement("", "", PeakListElementName.PEAKLIST.getElementName());
     hd.endDocument();
+
+    if ((featuresStream != null) && !canceled) {
+      featuresWriter = new PeakListFeaturesWriter(dataFilesIDMap, featuresExecutor);
+      if (canceled)
+        return;
+      featuresWriter.writeFeatures(rows, dataFiles, featuresStream);
+    }
   }
 
   /**
@@ -221,7 +250,10 @@ public class PeakListSaveHandler {
     fillInformationElement(row.getPeakInformation(), hd);
     hd.endElement("", "", PeakListElementName.PEAK_INFORMATION.getElementName());
 
-    // <PEAK>
+    // <PEAK>, unless the features are saved in binary format
+    if (featuresStream != null)
+      return;
+
     Feature[] peaks = row.getPeaks();
     for (Feature p : peaks) {
       if (canceled)
@@ -441,6 +473,9 @@ public class PeakListSaveHandler {
 
   public void cancel() {
     canceled = true;
+    PeakListFeaturesWriter writer = featuresWriter;
+    if (writer != null)
+      writer.cancel();
   }
 
 }
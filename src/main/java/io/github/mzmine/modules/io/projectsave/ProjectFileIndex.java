@@ -0,0 +1,146 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.stream.Collectors;
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.RawDataFile;
+
+/**
+ * Remembers under which entries the raw data files and feature lists of a project are stored in
+ * its project file, together with their modification counts or stamps at that time. The next save
+ * copies the entries of unchanged raw data files and feature lists from the previous project file
+ * instead of serializing them again (incremental save). Created by the project saving and opening
+ * tasks.
+ */
+public class ProjectFileIndex {
+
+  private static final Map<MZmineProject, ProjectFileIndex> indexes =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final File projectFile;
+  private long projectFileLength, projectFileLastModified;
+
+  // Weak keys, so removed raw data files and feature lists can be garbage collected
+  private final Map<RawDataFile, StoredItem> rawDataFiles =
+      Collections.synchronizedMap(new WeakHashMap<>());
+  private final Map<PeakList, StoredItem> peakLists =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  public ProjectFileIndex(File projectFile) {
+    this.projectFile = projectFile;
+  }
+
+  /**
+   * @param savedName name of the entries of the raw data file, without the .scans or .xml suffix
+   */
+  public void addRawDataFile(RawDataFile rawDataFile, String savedName, long modificationCount) {
+    rawDataFiles.put(rawDataFile, new StoredItem(savedName, modificationCount, null));
+  }
+
+  /**
+   * @param entryName name of the entry of the feature list
+   * @param modificationStamp see SimplePeakList.getModificationStamp()
+   * @param rawDataFileIDs see {@link #getRawDataFileIDs(PeakList, Map)}
+   */
+  public void addPeakList(PeakList peakList, String entryName, long modificationStamp,
+      String rawDataFileIDs) {
+    peakLists.put(peakList, new StoredItem(entryName, modificationStamp, rawDataFileIDs));
+  }
+
+  /**
+   * Make this index the current index of the project. Must be called once the project file is
+   * completely written.
+   */
+  public void register(MZmineProject project) {
+    projectFileLength = projectFile.length();
+    projectFileLastModified = projectFile.lastModified();
+    indexes.put(project, this);
+  }
+
+  /**
+   * @return the current index of the project, or null if there is none or the project file was
+   *         modified by someone else since
+   */
+  static ProjectFileIndex get(MZmineProject project) {
+    ProjectFileIndex index = indexes.get(project);
+    if (index == null || !index.projectFile.isFile()
+        || index.projectFile.length() != index.projectFileLength
+        || index.projectFile.lastModified() != index.projectFileLastModified)
+      return null;
+    return index;
+  }
+
+  File getProjectFile() {
+    return projectFile;
+  }
+
+  /**
+   * @return the saved name of the raw data file, or null if it was not saved or changed since
+   */
+  String getRawDataFileSavedName(RawDataFile rawDataFile, long modificationCount) {
+    StoredItem item = rawDataFiles.get(rawDataFile);
+    if (item == null || item.modificationCount != modificationCount)
+      return null;
+    return item.name;
+  }
+
+  /**
+   * @return the entry name of the feature list, or null if it was not saved, changed since or
+   *         refers to raw data files whose IDs changed
+   */
+  String getPeakListEntryName(PeakList peakList, long modificationStamp,
+      String rawDataFileIDs) {
+    StoredItem item = peakLists.get(peakList);
+    if (item == null || item.modificationCount != modificationStamp
+        || !item.rawDataFileIDs.equals(rawDataFileIDs))
+      return null;
+    return item.name;
+  }
+
+  /**
+   * @return the IDs of the raw data files of the feature list, which are written into the saved
+   *         feature list
+   */
+  public static String getRawDataFileIDs(PeakList peakList,
+      Map<RawDataFile, String> dataFilesIDMap) {
+    return peakList.getRawDataFiles().stream()
+        .map(file -> Objects.toString(dataFilesIDMap.get(file))).collect(Collectors.joining(","));
+  }
+
+  private static class StoredItem {
+
+    private final String name;
+    private final long modificationCount;
+    private final String rawDataFileIDs;
+
+    private StoredItem(String name, long modificationCount, String rawDataFileIDs) {
+      this.name = name;
+      this.modificationCount = modificationCount;
+      this.rawDataFileIDs = rawDataFileIDs;
+    }
+  }
+
+}
@@ -23,6 +23,8 @@ import java.util.concurrent.FutureTask;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
+import io.github.mzmine.parameters.parametertypes.ComboParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileSelectionType;
 import io.github.mzmine.util.ExitCode;
@@ -38,8 +40,18 @@ public class ProjectSaveAsParameters extends SimpleParameterSet {
   public static final FileNameParameter projectFile = new FileNameParameter("Project file",
       "File name of project to be saved", FileSelectionType.SAVE);
 
+  public static final ComboParameter<ScanDataCompression> scanDataCompression =
+      new ComboParameter<>("Scan data compression",
+          "Compression of the data points of the raw data files in the project file",
+          ScanDataCompression.values(), ScanDataCompression.STORED);
+
+  public static final BooleanParameter incrementalSave = new BooleanParameter("Incremental save",
+      "Copy the raw data files and feature lists which did not change since the project was last "
+          + "saved or opened from the previous project file, instead of saving them again",
+      true);
+
   public ProjectSaveAsParameters() {
-    super(new Parameter[] {projectFile});
+    super(new Parameter[] {projectFile, scanDataCompression, incrementalSave});
   }
 
   @Override
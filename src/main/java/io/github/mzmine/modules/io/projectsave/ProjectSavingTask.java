@@ -18,13 +18,27 @@
 
 package io.github.mzmine.modules.io.projectsave;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Hashtable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import javax.xml.transform.TransformerConfigurationException;
@@ -34,6 +48,7 @@ import org.xml.sax.SAXException;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.ProjectLoaderParameters;
 import io.github.mzmine.parameters.ParameterSet;
@@ -55,12 +70,18 @@ public class ProjectSavingTask extends AbstractTask {
   private File saveFile;
   private MZmineProjectImpl savedProject;
 
-  private RawDataFileSaveHandler rawDataFileSaveHandler;
-  private PeakListSaveHandler peakListSaveHandler;
+  private final Queue<RawDataFileSaveHandler> rawDataFileSaveHandlers =
+      new ConcurrentLinkedQueue<>();
+  private final Queue<PeakListSaveHandler> peakListSaveHandlers = new ConcurrentLinkedQueue<>();
   private UserParameterSaveHandler userParameterSaveHandler;
 
+  private final ScanDataCompression compression;
+  private final boolean incremental;
+  private ProjectFileIndex newIndex;
   private final int totalSaveItems;
-  private int currentStage, finishedSaveItems = 0;
+  private int currentStage;
+  private volatile int finishedSaveItems = 0;
+  private final AtomicInteger preparedSaveItems = new AtomicInteger(0);
   private String currentSavedObjectName;
 
   // This hashtable maps raw data files to their ID within the saved project
@@ -69,6 +90,11 @@ public class ProjectSavingTask extends AbstractTask {
   public ProjectSavingTask(MZmineProject project, ParameterSet parameters) {
     this.savedProject = (MZmineProjectImpl) project;
     this.saveFile = parameters.getParameter(ProjectLoaderParameters.projectFile).getValue();
+    ScanDataCompression compression =
+        parameters.getParameter(ProjectSaveParameters.scanDataCompression).getValue();
+    this.compression = compression == null ? ScanDataCompression.STORED : compression;
+    this.incremental =
+        parameters.getParameter(ProjectSaveParameters.incrementalSave).getValue() == Boolean.TRUE;
     dataFilesIDMap = new Hashtable<RawDataFile, String>();
     this.totalSaveItems = project.getDataFiles().length + project.getPeakLists().length;
   }
@@ -92,27 +118,16 @@ public class ProjectSavingTask extends AbstractTask {
     if (totalSaveItems == 0)
       return 0.0;
 
-    double currentItemProgress = 0.0;
-
     switch (currentStage) {
       case 2:
-        if (rawDataFileSaveHandler != null)
-          currentItemProgress = rawDataFileSaveHandler.getProgress();
-        break;
+        // Each item is first prepared by a worker and then written to the ZIP file
+        return (preparedSaveItems.get() + finishedSaveItems) / (2.0 * totalSaveItems);
       case 3:
-        if (peakListSaveHandler != null)
-          currentItemProgress = peakListSaveHandler.getProgress();
-        break;
       case 4:
-      case 5:
         return 1.0;
       default:
         return 0;
     }
-
-    double progress = (finishedSaveItems + currentItemProgress) / totalSaveItems;
-
-    return progress;
   }
 
   /**
@@ -125,10 +140,10 @@ public class ProjectSavingTask extends AbstractTask {
 
     setStatus(TaskStatus.CANCELED);
 
-    if (rawDataFileSaveHandler != null)
+    for (RawDataFileSaveHandler rawDataFileSaveHandler : rawDataFileSaveHandlers)
       rawDataFileSaveHandler.cancel();
 
-    if (peakListSaveHandler != null)
+    for (PeakListSaveHandler peakListSaveHandler : peakListSaveHandlers)
       peakListSaveHandler.cancel();
 
     if (userParameterSaveHandler != null)
@@ -165,25 +180,21 @@ public class ProjectSavingTask extends AbstractTask {
         return;
       }
 
-      // Stage 2 - save RawDataFile objects
-      currentStage++;
-      saveRawDataFiles(zipStream);
-      if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
-        return;
-      }
-
-      // Stage 3 - save PeakList objects
+      // Stage 2 - save RawDataFile and PeakList objects
       currentStage++;
-      savePeakLists(zipStream);
+      saveRawDataFilesAndPeakLists(zipStream);
       if (isCanceled()) {
-        zipStream.close();
+        // The last entry may be incomplete, which the ZIP stream refuses to close
+        try {
+          zipStream.close();
+        } catch (IOException e) {
+          tempStream.close();
+        }
         tempFile.delete();
         return;
       }
 
-      // Stage 4 - save user parameters
+      // Stage 3 - save user parameters
       currentStage++;
       saveUserParameters(zipStream);
       if (isCanceled()) {
@@ -192,7 +203,7 @@ public class ProjectSavingTask extends AbstractTask {
         return;
       }
 
-      // Stage 5 - finish and close the temporary ZIP file
+      // Stage 4 - finish and close the temporary ZIP file
       currentStage++;
       currentSavedObjectName = null;
       zipStream.close();
@@ -205,7 +216,14 @@ public class ProjectSavingTask extends AbstractTask {
 
       // Move the temporary ZIP file to the final location
       if (saveFile.exists() && !saveFile.delete()) {
-        throw new IOException("Could not delete old file " + saveFile);
+        // The old file cannot be deleted while its scan data is mapped into memory (on Windows),
+        // but it can be moved aside. It is deleted when MZmine exits.
+        File oldFile = new File(saveFile.getParentFile(),
+            saveFile.getName() + "." + System.currentTimeMillis() + ".old");
+        if (!saveFile.renameTo(oldFile)) {
+          throw new IOException("Could not delete old file " + saveFile);
+        }
+        oldFile.deleteOnExit();
       }
 
       boolean renameOK = tempFile.renameTo(saveFile);
@@ -217,6 +235,9 @@ public class ProjectSavingTask extends AbstractTask {
       // Update the location of the project
       savedProject.setProjectFile(saveFile);
 
+      // The next incremental save copies the unchanged entries from this file
+      newIndex.register(savedProject);
+
       // Update the window title to reflect the new name of the project
       // if (MZmineCore.getDesktop() instanceof MainWindow) {
       // MainWindow mainWindow = (MainWindow) MZmineCore.getDesktop();
@@ -291,57 +312,233 @@ public class ProjectSavingTask extends AbstractTask {
   }
 
   /**
-   * Save the raw data files
-   * 
-   * @throws SAXException
-   * @throws TransformerConfigurationException
+   * Save the raw data files and the feature lists. Worker threads serialize them concurrently into
+   * temporary segments, which are written to the ZIP file in the original order as soon as they are
+   * ready. With incremental saving, the entries of raw data files and feature lists which did not
+   * change since the previous save (or opening) are copied from the previous project file instead.
    */
-  private void saveRawDataFiles(ZipOutputStream zipStream)
-      throws IOException, TransformerConfigurationException, SAXException {
-
-    rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream);
+  private void saveRawDataFilesAndPeakLists(ZipOutputStream zipStream) throws Exception {
 
     RawDataFile rawDataFiles[] = savedProject.getDataFiles();
+    PeakList peakLists[] = savedProject.getPeakLists();
 
-    for (int i = 0; i < rawDataFiles.length; i++) {
-
-      if (isCanceled())
-        return;
+    ProjectFileIndex previousIndex = incremental ? ProjectFileIndex.get(savedProject) : null;
+    ZipFile previousZipFile =
+        previousIndex == null ? null : new ZipFile(previousIndex.getProjectFile());
+    newIndex = new ProjectFileIndex(saveFile);
 
-      currentSavedObjectName = rawDataFiles[i].getName();
-      rawDataFileSaveHandler.writeRawDataFile((RawDataFileImpl) rawDataFiles[i], i + 1);
+    // The feature lists refer to the IDs of the raw data files, so assign all IDs first
+    for (int i = 0; i < rawDataFiles.length; i++) {
       dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
-      finishedSaveItems++;
     }
-  }
 
-  /**
-   * Save the feature lists
-   * 
-   * @throws SAXException
-   * @throws TransformerConfigurationException
-   */
-  private void savePeakLists(ZipOutputStream zipStream)
-      throws IOException, TransformerConfigurationException, SAXException {
+    // Names of the unchanged items in the previous project file, null for items to be saved
+    String previousRawDataFileNames[] = new String[rawDataFiles.length];
+    String previousPeakListNames[] = new String[peakLists.length];
 
-    PeakList peakLists[] = savedProject.getPeakLists();
-
-    for (int i = 0; i < peakLists.length; i++) {
+    RawDataFileSaveHandler rawDataFileHandlers[] = new RawDataFileSaveHandler[rawDataFiles.length];
+    File peakListSegments[] = new File[peakLists.length];
+    File peakListFeatureSegments[] = new File[peakLists.length];
+    long peakListFeatureChecksums[] = new long[peakLists.length];
+    Future<?> rawDataFileFutures[] = new Future<?>[rawDataFiles.length];
+    Future<?> peakListFutures[] = new Future<?>[peakLists.length];
+    ExecutorService executor = Executors.newFixedThreadPool(
+        MZmineCore.getConfiguration().getPreferences().getNumOfThreads(totalSaveItems));
+    boolean completed = false;
 
-      if (isCanceled())
-        return;
+    try {
+      for (int i = 0; i < rawDataFiles.length; i++) {
+        final RawDataFileImpl rawDataFile = (RawDataFileImpl) rawDataFiles[i];
+        // Read the count before saving, a modification while saving invalidates the saved entries
+        final long modificationCount = rawDataFile.getModificationCount();
+        newIndex.addRawDataFile(rawDataFile,
+            RawDataFileSaveHandler.getSavedName(rawDataFile, i + 1), modificationCount);
+
+        if (previousIndex != null) {
+          String previousName =
+              previousIndex.getRawDataFileSavedName(rawDataFile, modificationCount);
+          if (previousName != null
+              && RawDataFileSaveHandler.canCopyRawDataFile(previousZipFile, previousName)) {
+            previousRawDataFileNames[i] = previousName;
+            preparedSaveItems.incrementAndGet();
+            continue;
+          }
+        }
+
+        final RawDataFileSaveHandler handler =
+            new RawDataFileSaveHandler(rawDataFile, i + 1, compression);
+        rawDataFileHandlers[i] = handler;
+        rawDataFileSaveHandlers.add(handler);
+        rawDataFileFutures[i] = executor.submit(() -> {
+          handler.prepare();
+          preparedSaveItems.incrementAndGet();
+          return null;
+        });
+      }
 
-      logger.info("Saving feature list: " + peakLists[i].getName());
+      for (int i = 0; i < peakLists.length; i++) {
+        final PeakList peakList = peakLists[i];
+        final long modificationStamp = ((SimplePeakList) peakList).getModificationStamp();
+        final String rawDataFileIDs = ProjectFileIndex.getRawDataFileIDs(peakList, dataFilesIDMap);
+        final String peakListSavedName =
+            "Peak list #" + (i + 1) + " " + peakList.getName() + ".xml";
+        newIndex.addPeakList(peakList, peakListSavedName, modificationStamp, rawDataFileIDs);
+
+        if (previousIndex != null) {
+          String previousName =
+              previousIndex.getPeakListEntryName(peakList, modificationStamp, rawDataFileIDs);
+          if (previousName != null && previousZipFile.getEntry(previousName) != null) {
+            previousPeakListNames[i] = previousName;
+            preparedSaveItems.incrementAndGet();
+            continue;
+          }
+        }
+
+        final File segment = File.createTempFile("mzmine_peaklist", ".xml");
+        segment.deleteOnExit();
+        peakListSegments[i] = segment;
+        final File featureSegment =
+            File.createTempFile("mzmine_peaklist", PeakListFeaturesWriter.FEATURES_EXTENSION);
+        featureSegment.deleteOnExit();
+        peakListFeatureSegments[i] = featureSegment;
+        final int peakListIndex = i;
+        peakListFutures[i] = executor.submit(() -> {
+          logger.info("Saving feature list: " + peakList.getName());
+          try (OutputStream segmentStream =
+              new BufferedOutputStream(new FileOutputStream(segment), 1 << 16);
+              CheckedOutputStream featureSegmentStream = new CheckedOutputStream(
+                  new BufferedOutputStream(new FileOutputStream(featureSegment), 1 << 16),
+                  new CRC32())) {
+            // The sections of the features are encoded by the same executor, so that the number
+            // of threads stays within the preferences
+            PeakListSaveHandler handler = new PeakListSaveHandler(segmentStream,
+                featureSegmentStream, dataFilesIDMap, executor);
+            peakListSaveHandlers.add(handler);
+            if (!isCanceled())
+              handler.savePeakList(peakList);
+            peakListFeatureChecksums[peakListIndex] = featureSegmentStream.getChecksum().getValue();
+          }
+          preparedSaveItems.incrementAndGet();
+          return null;
+        });
+      }
 
-      String peakListSavedName = "Peak list #" + (i + 1) + " " + peakLists[i].getName();
+      for (int i = 0; i < rawDataFiles.length; i++) {
+        currentSavedObjectName = rawDataFiles[i].getName();
+        if (previousRawDataFileNames[i] != null) {
+          logger.info("Copying unchanged raw data file: " + rawDataFiles[i].getName());
+          RawDataFileSaveHandler.copyRawDataFile(previousZipFile, previousRawDataFileNames[i],
+              RawDataFileSaveHandler.getSavedName(rawDataFiles[i], i + 1), compression, zipStream);
+        } else {
+          waitFor(rawDataFileFutures[i]);
+          if (isCanceled())
+            return;
+          rawDataFileHandlers[i].writeTo(zipStream);
+        }
+        if (isCanceled())
+          return;
+        finishedSaveItems++;
+      }
 
-      zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+      for (int i = 0; i < peakLists.length; i++) {
+        currentSavedObjectName = peakLists[i].getName();
+        if (previousPeakListNames[i] != null) {
+          logger.info("Copying unchanged feature list: " + peakLists[i].getName());
+        } else {
+          waitFor(peakListFutures[i]);
+          if (isCanceled())
+            return;
+        }
+
+        String peakListSavedName = "Peak list #" + (i + 1) + " " + peakLists[i].getName();
+        zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+        try (InputStream segmentStream = previousPeakListNames[i] != null
+            ? previousZipFile.getInputStream(previousZipFile.getEntry(previousPeakListNames[i]))
+            : new FileInputStream(peakListSegments[i])) {
+          StreamCopy copyMachine = new StreamCopy();
+          copyMachine.copy(segmentStream, zipStream);
+        }
+        if (peakListSegments[i] != null)
+          peakListSegments[i].delete();
+
+        // The features in binary format, projects saved by older versions have none
+        ZipEntry previousFeaturesEntry = previousPeakListNames[i] == null ? null
+            : previousZipFile.getEntry(
+                PeakListFeaturesWriter.getFeaturesEntryName(previousPeakListNames[i]));
+        if ((peakListFeatureSegments[i] != null) || (previousFeaturesEntry != null)) {
+          // Uncompressed, so that the data points of the features can be read on demand when the
+          // project is opened
+          ZipEntry featuresEntry =
+              new ZipEntry(peakListSavedName + PeakListFeaturesWriter.FEATURES_EXTENSION);
+          featuresEntry.setMethod(ZipEntry.STORED);
+          if (previousFeaturesEntry != null) {
+            featuresEntry.setSize(previousFeaturesEntry.getSize());
+            featuresEntry.setCompressedSize(previousFeaturesEntry.getSize());
+            featuresEntry.setCrc(previousFeaturesEntry.getCrc());
+          } else {
+            featuresEntry.setSize(peakListFeatureSegments[i].length());
+            featuresEntry.setCompressedSize(peakListFeatureSegments[i].length());
+            featuresEntry.setCrc(peakListFeatureChecksums[i]);
+          }
+          zipStream.putNextEntry(featuresEntry);
+          try (InputStream segmentStream = previousFeaturesEntry != null
+              ? previousZipFile.getInputStream(previousFeaturesEntry)
+              : new FileInputStream(peakListFeatureSegments[i])) {
+            StreamCopy copyMachine = new StreamCopy();
+            copyMachine.copy(segmentStream, zipStream);
+          }
+          if (peakListFeatureSegments[i] != null)
+            peakListFeatureSegments[i].delete();
+        }
+        finishedSaveItems++;
+      }
+      completed = true;
+
+    } finally {
+      // Stop the remaining workers after an error. Interrupting them is not an option, it would
+      // close the file channels of the data points files
+      if (!completed) {
+        for (Future<?> future : rawDataFileFutures) {
+          if (future != null)
+            future.cancel(false);
+        }
+        for (Future<?> future : peakListFutures) {
+          if (future != null)
+            future.cancel(false);
+        }
+        rawDataFileSaveHandlers.forEach(RawDataFileSaveHandler::cancel);
+        peakListSaveHandlers.forEach(PeakListSaveHandler::cancel);
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 
-      peakListSaveHandler = new PeakListSaveHandler(zipStream, dataFilesIDMap);
+      for (RawDataFileSaveHandler handler : rawDataFileHandlers) {
+        if (handler != null)
+          handler.deleteSegment();
+      }
+      for (File segment : peakListSegments) {
+        if (segment != null)
+          segment.delete();
+      }
+      for (File segment : peakListFeatureSegments) {
+        if (segment != null)
+          segment.delete();
+      }
+      if (previousZipFile != null)
+        previousZipFile.close();
+    }
+  }
 
-      currentSavedObjectName = peakLists[i].getName();
-      peakListSaveHandler.savePeakList(peakLists[i]);
-      finishedSaveItems++;
+  /**
+   * Wait for a worker, rethrow its exception
+   */
+  private void waitFor(Future<?> future) throws Exception {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception) e.getCause();
+      throw e;
     }
   }
 
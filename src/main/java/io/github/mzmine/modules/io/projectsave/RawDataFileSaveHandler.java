@@ -18,13 +18,21 @@
 
 package io.github.mzmine.modules.io.projectsave;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import javax.xml.transform.OutputKeys;
@@ -40,100 +48,242 @@ import org.xml.sax.helpers.AttributesImpl;
 import com.google.common.collect.Range;
 
 import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.project.impl.RawDataFileImpl;
 import io.github.mzmine.project.impl.StorableMassList;
 import io.github.mzmine.project.impl.StorableScan;
+import io.github.mzmine.util.StreamCopy;
 
+/**
+ * Saves one raw data file in two steps: {@link #prepare()} can run concurrently for several raw
+ * data files, it consolidates the structure of the data points file and writes the XML description
+ * to a temporary segment file. {@link #writeTo(ZipOutputStream)} then copies the data points and
+ * the segment into the project file.
+ */
 class RawDataFileSaveHandler {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private int numOfScans, completedScans;
-  private ZipOutputStream zipOutputStream;
-  private boolean canceled = false;
+  private final RawDataFileImpl rawDataFile;
+  private final String rawDataSavedName;
+  private final ScanDataCompression compression;
+  private int numOfScans;
+  private volatile boolean canceled = false;
   private Map<Integer, Long> dataPointsOffsets;
   private Map<Integer, Long> consolidatedDataPointsOffsets;
   private Map<Integer, Integer> dataPointsLengths;
-  private double progress = 0;
+  private long dataPointsSize;
+  private long dataPointsCRC;
+  private File descriptionSegment;
 
-  RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
-    this.zipOutputStream = zipOutputStream;
+  /**
+   * @param rawDataFile raw data file to be saved
+   * @param number number of the raw data file inside the zip file
+   * @param compression compression of the data points
+   */
+  RawDataFileSaveHandler(RawDataFileImpl rawDataFile, int number,
+      ScanDataCompression compression) {
+    this.rawDataFile = rawDataFile;
+    this.rawDataSavedName = getSavedName(rawDataFile, number);
+    this.compression = compression;
   }
 
   /**
-   * Copy the data points file of the raw data file from the temporary folder to the zip file.
-   * Create an XML file which contains the description of the same raw data file an copy it into the
-   * same zip file.
-   * 
-   * @param rawDataFile raw data file to be copied
-   * @param rawDataSavedName name of the raw data inside the zip file
+   * Consolidate the structure of the data points file and write the XML description of the raw
+   * data file to a temporary segment. Thread-safe with respect to other handlers.
+   *
    * @throws java.io.IOException
    * @throws TransformerConfigurationException
    * @throws SAXException
    */
-  void writeRawDataFile(RawDataFileImpl rawDataFile, int number)
-      throws IOException, TransformerConfigurationException, SAXException {
+  void prepare() throws IOException, TransformerConfigurationException, SAXException {
 
     numOfScans = rawDataFile.getNumOfScans();
 
-    // Get the structure of the data points file
-    dataPointsOffsets = rawDataFile.getDataPointsOffsets();
-    dataPointsLengths = rawDataFile.getDataPointsLengths();
-    consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
-
-    // step 1 - save data file
-    logger.info("Saving data points of: " + rawDataFile.getName());
-
-    String rawDataSavedName = "Raw data file #" + number + " " + rawDataFile.getName();
-
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
+    // Take a snapshot of the structure of the data points file. The data points file itself is
+    // only appended to, so the snapshot stays valid while the other raw data files are saved
+    synchronized (rawDataFile) {
+      dataPointsOffsets = new TreeMap<>(rawDataFile.getDataPointsOffsets());
+      dataPointsLengths = new TreeMap<>(rawDataFile.getDataPointsLengths());
+    }
 
     // We save only those data points that still have a reference in the
     // dataPointsOffset table. Some deleted mass lists may still be present
     // in the data points file, we don't want to copy those.
+    consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
     long newOffset = 0;
-    byte buffer[] = new byte[1 << 20];
-    RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
     for (Integer storageID : dataPointsOffsets.keySet()) {
+      consolidatedDataPointsOffsets.put(storageID, newOffset);
+      newOffset += getDataPointsBytes(storageID);
+    }
+    dataPointsSize = newOffset;
+
+    // Uncompressed zip entries must declare their checksum up front
+    if (compression == ScanDataCompression.STORED) {
+      logger.info("Computing checksum of data points of: " + rawDataFile.getName());
+      CRC32 crc = new CRC32();
+      copyDataPoints((buffer, length) -> crc.update(buffer, 0, length));
+      dataPointsCRC = crc.getValue();
+    }
 
-      if (canceled)
-        return;
+    if (canceled)
+      return;
+
+    logger.info("Saving raw data description of: " + rawDataFile.getName());
 
-      final long offset = dataPointsOffsets.get(storageID);
-      dataPointsFile.seek(offset);
+    descriptionSegment = File.createTempFile("mzmine_rawdata", ".xml");
+    descriptionSegment.deleteOnExit();
+    try (OutputStream finalStream =
+        new BufferedOutputStream(new FileOutputStream(descriptionSegment), 1 << 16)) {
 
-      final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
-      consolidatedDataPointsOffsets.put(storageID, newOffset);
-      if (buffer.length < bytes) {
-        buffer = new byte[bytes * 2];
-      }
-      dataPointsFile.read(buffer, 0, bytes);
-      zipOutputStream.write(buffer, 0, bytes);
-      newOffset += bytes;
-      progress = 0.9 * ((double) offset / dataPointsFile.length());
+      StreamResult streamResult = new StreamResult(finalStream);
+      SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory.newInstance();
+
+      TransformerHandler hd = tf.newTransformerHandler();
+      Transformer serializer = hd.getTransformer();
+      serializer.setOutputProperty(OutputKeys.INDENT, "yes");
+      serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+
+      hd.setResult(streamResult);
+      hd.startDocument();
+      saveRawDataInformation(rawDataFile, hd);
+      hd.endDocument();
     }
+  }
+
+  /**
+   * Copy the data points of the raw data file from the temporary folder and the prepared XML
+   * description into the zip file. Must be called after {@link #prepare()}.
+   *
+   * @throws java.io.IOException
+   */
+  void writeTo(ZipOutputStream zipOutputStream) throws IOException {
 
+    // step 1 - save data file
+    logger.info("Saving data points of: " + rawDataFile.getName());
+
+    putScansEntry(zipOutputStream, rawDataSavedName, compression, dataPointsSize, dataPointsCRC);
+    copyDataPoints((buffer, length) -> zipOutputStream.write(buffer, 0, length));
+
+    // an incomplete entry cannot be closed, the project file is discarded anyway
     if (canceled)
       return;
 
+    zipOutputStream.closeEntry();
+    zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION);
+
     // step 2 - save raw data description
-    logger.info("Saving raw data description of: " + rawDataFile.getName());
+    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
+    try (InputStream segmentStream = new FileInputStream(descriptionSegment)) {
+      StreamCopy copyMachine = new StreamCopy();
+      copyMachine.copy(segmentStream, zipOutputStream);
+    }
+    deleteSegment();
+  }
 
+  /**
+   * Copy the entries of an unchanged raw data file from the previous project file into the zip
+   * file. The data points are not decompressed and compressed again if they are stored
+   * uncompressed in both project files.
+   *
+   * @param previousSavedName name of the raw data file inside the previous project file
+   * @param rawDataSavedName name of the raw data file inside the zip file
+   * @throws java.io.IOException
+   */
+  static void copyRawDataFile(ZipFile previousZipFile, String previousSavedName,
+      String rawDataSavedName, ScanDataCompression compression, ZipOutputStream zipOutputStream)
+      throws IOException {
+
+    ZipEntry previousScansEntry = previousZipFile.getEntry(previousSavedName + ".scans");
+    // the uncompressed size and checksum of the previous entry are valid for the new one
+    putScansEntry(zipOutputStream, rawDataSavedName, compression, previousScansEntry.getSize(),
+        previousScansEntry.getCrc());
+    StreamCopy copyMachine = new StreamCopy();
+    try (InputStream scansStream = previousZipFile.getInputStream(previousScansEntry)) {
+      copyMachine.copy(scansStream, zipOutputStream);
+    }
+    zipOutputStream.closeEntry();
+    zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION);
+
+    ZipEntry previousEntry = previousZipFile.getEntry(previousSavedName + ".xml");
     zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
-    OutputStream finalStream = zipOutputStream;
+    try (InputStream descriptionStream = previousZipFile.getInputStream(previousEntry)) {
+      copyMachine.copy(descriptionStream, zipOutputStream);
+    }
+  }
+
+  /**
+   * @return true if the previous project file contains both entries of the raw data file
+   */
+  static boolean canCopyRawDataFile(ZipFile previousZipFile, String previousSavedName) {
+    return previousZipFile.getEntry(previousSavedName + ".scans") != null
+        && previousZipFile.getEntry(previousSavedName + ".xml") != null;
+  }
 
-    StreamResult streamResult = new StreamResult(finalStream);
-    SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory.newInstance();
+  /**
+   * @return the name of the entries of the raw data file inside the zip file, without suffix
+   */
+  static String getSavedName(RawDataFile rawDataFile, int number) {
+    return "Raw data file #" + number + " " + rawDataFile.getName();
+  }
 
-    TransformerHandler hd = tf.newTransformerHandler();
-    Transformer serializer = hd.getTransformer();
-    serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-    serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+  private static void putScansEntry(ZipOutputStream zipOutputStream, String rawDataSavedName,
+      ScanDataCompression compression, long size, long crc) throws IOException {
+    ZipEntry scansEntry = new ZipEntry(rawDataSavedName + ".scans");
+    if (compression == ScanDataCompression.STORED) {
+      scansEntry.setMethod(ZipEntry.STORED);
+      scansEntry.setSize(size);
+      scansEntry.setCompressedSize(size);
+      scansEntry.setCrc(crc);
+    } else {
+      // the level applies to the entries written after the current one is closed
+      zipOutputStream.closeEntry();
+      zipOutputStream.setLevel(compression.getLevel());
+    }
+    zipOutputStream.putNextEntry(scansEntry);
+  }
 
-    hd.setResult(streamResult);
-    hd.startDocument();
-    saveRawDataInformation(rawDataFile, hd);
-    hd.endDocument();
+  /**
+   * Delete the temporary segment, if any
+   */
+  void deleteSegment() {
+    if (descriptionSegment != null) {
+      descriptionSegment.delete();
+      descriptionSegment = null;
+    }
+  }
+
+  /**
+   * Pass the referenced data points to the consumer, in the order of their consolidated offsets.
+   * Uses positional reads, so neither the saving threads nor the tasks reading data points of the
+   * raw data file interfere with each other's file position.
+   */
+  private void copyDataPoints(DataPointsConsumer consumer) throws IOException {
+    if (dataPointsOffsets.isEmpty())
+      return;
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    for (Integer storageID : dataPointsOffsets.keySet()) {
+
+      if (canceled)
+        return;
+
+      final int bytes = getDataPointsBytes(storageID);
+      if (buffer.capacity() < bytes) {
+        buffer = ByteBuffer.allocate(bytes * 2);
+      }
+      buffer.clear().limit(bytes);
+      rawDataFile.readDataPointsBytes(dataPointsOffsets.get(storageID), buffer);
+      consumer.accept(buffer.array(), bytes);
+    }
+  }
+
+  private int getDataPointsBytes(Integer storageID) {
+    return dataPointsLengths.get(storageID) * 4 * 2;
+  }
+
+  @FunctionalInterface
+  private interface DataPointsConsumer {
+    void accept(byte buffer[], int length) throws IOException;
   }
 
   /**
@@ -197,8 +347,6 @@ class RawDataFileSaveHandler {
       fillScanElement(scan, hd);
       hd.endElement("", "", RawDataElementName.SCAN.getElementName());
       atts.clear();
-      completedScans++;
-      progress = 0.9 + (0.1 * ((double) completedScans / numOfScans));
     }
 
     hd.endElement("", "", RawDataElementName.RAWDATA.getElementName());
@@ -315,14 +463,6 @@ class RawDataFileSaveHandler {
 
   }
 
-  /**
-   * 
-   * @return the progress of these functions saving the raw data information to the zip file.
-   */
-  double getProgress() {
-    return progress;
-  }
-
   void cancel() {
     canceled = true;
   }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import java.util.zip.Deflater;
+
+/**
+ * How the data points of the raw data files (the .scans entries) are written into the project
+ * file. The data points are binary floats which compress poorly, so storing them uncompressed
+ * saves most of the saving time for a slightly larger project file.
+ */
+public enum ScanDataCompression {
+
+  STORED("None (fastest)", Deflater.NO_COMPRESSION), //
+  FAST("Fast", Deflater.BEST_SPEED), //
+  DEFAULT("Default (smallest file)", Deflater.DEFAULT_COMPRESSION);
+
+  private final String name;
+  private final int level;
+
+  ScanDataCompression(String name, int level) {
+    this.name = name;
+    this.level = level;
+  }
+
+  /**
+   * @return the deflater level, not used for STORED entries
+   */
+  int getLevel() {
+    return level;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+}
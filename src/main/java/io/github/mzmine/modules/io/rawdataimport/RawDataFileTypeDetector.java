@@ -20,6 +20,8 @@ package io.github.mzmine.modules.io.rawdataimport;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
@@ -86,52 +88,81 @@ public class RawDataFileTypeDetector {
       reader.close();
       String fileHeader = new String(buffer);
 
-      if (fileName.getName().toLowerCase().endsWith(".csv")) {
-        if (fileHeader.contains(":") && fileHeader.contains("\\")
-            && !fileHeader.contains("file name")) {
-          logger.fine("ICP raw file detected");
-          return RawDataFileType.ICPMSMS_CSV;
-        }
-        logger.fine("Agilent raw detected");
-        return RawDataFileType.AGILENT_CSV;
-      }
+      return detectDataFileType(fileName.getName(), fileHeader);
 
-      if (fileHeader.startsWith(THERMO_HEADER)) {
-        return RawDataFileType.THERMO_RAW;
-      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
 
-      if (fileHeader.startsWith(GZIP_HEADER)) {
-        return RawDataFileType.GZIP;
-      }
+    return null;
 
-      if (fileHeader.startsWith(ZIP_HEADER)) {
-        return RawDataFileType.ZIP;
-      }
+  }
+
+  /**
+   * Detects the format of a file from its content, e.g. of a file inside a compressed archive.
+   * Reads the first 1kB of the stream and resets the stream.
+   *
+   * @param fileName name of the file
+   * @param is the content of the file, must support mark and reset
+   * @return Detected file type or null if the file is not of any supported type
+   */
+  public static RawDataFileType detectDataFileType(String fileName, InputStream is)
+      throws IOException {
 
-      /*
-       * Remove specials (Unicode block) from header if any
-       * https://en.wikipedia.org/wiki/Specials_(Unicode_block)
-       */
-      fileHeader = fileHeader.replaceAll("[^\\x00-\\x7F]", "");
+    byte buffer[] = new byte[1024];
+    is.mark(buffer.length);
+    int length = 0, n;
+    while ((length < buffer.length) && ((n = is.read(buffer, length, buffer.length - length)) >= 0))
+      length += n;
+    is.reset();
 
-      if (fileHeader.startsWith(CDF_HEADER) || fileHeader.startsWith(HDF_HEADER)) {
+    return detectDataFileType(fileName, new String(buffer, 0, length, StandardCharsets.ISO_8859_1));
+  }
+
+  private static RawDataFileType detectDataFileType(String fileName, String fileHeader) {
 
-        return RawDataFileType.NETCDF;
+    if (fileName.toLowerCase().endsWith(".csv")) {
+      if (fileHeader.contains(":") && fileHeader.contains("\\")
+          && !fileHeader.contains("file name")) {
+        logger.fine("ICP raw file detected");
+        return RawDataFileType.ICPMSMS_CSV;
       }
+      logger.fine("Agilent raw detected");
+      return RawDataFileType.AGILENT_CSV;
+    }
 
-      if (fileHeader.contains(MZML_HEADER))
-        return RawDataFileType.MZML;
+    if (fileHeader.startsWith(THERMO_HEADER)) {
+      return RawDataFileType.THERMO_RAW;
+    }
 
-      if (fileHeader.contains(MZDATA_HEADER))
-        return RawDataFileType.MZDATA;
+    if (fileHeader.startsWith(GZIP_HEADER)) {
+      return RawDataFileType.GZIP;
+    }
 
-      if (fileHeader.contains(MZXML_HEADER))
-        return RawDataFileType.MZXML;
+    if (fileHeader.startsWith(ZIP_HEADER)) {
+      return RawDataFileType.ZIP;
+    }
 
-    } catch (Exception e) {
-      e.printStackTrace();
+    /*
+     * Remove specials (Unicode block) from header if any
+     * https://en.wikipedia.org/wiki/Specials_(Unicode_block)
+     */
+    fileHeader = fileHeader.replaceAll("[^\\x00-\\x7F]", "");
+
+    if (fileHeader.startsWith(CDF_HEADER) || fileHeader.startsWith(HDF_HEADER)) {
+
+      return RawDataFileType.NETCDF;
     }
 
+    if (fileHeader.contains(MZML_HEADER))
+      return RawDataFileType.MZML;
+
+    if (fileHeader.contains(MZDATA_HEADER))
+      return RawDataFileType.MZDATA;
+
+    if (fileHeader.contains(MZXML_HEADER))
+      return RawDataFileType.MZXML;
+
     return null;
 
   }
@@ -20,6 +20,7 @@ package io.github.mzmine.modules.io.rawdataimport.fileformats;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Base64;
@@ -35,7 +36,6 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.MZmineProject;
-import io.github.mzmine.datamodel.MassSpectrumType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.RawDataFileWriter;
@@ -44,7 +44,6 @@ import io.github.mzmine.datamodel.impl.SimpleScan;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
-import io.github.mzmine.util.scans.ScanUtils;
 
 /**
  * This class read 1.04 and 1.05 MZDATA files.
@@ -54,6 +53,7 @@ public class MzDataReadTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private File file;
+  private InputStream dataStream;
   private MZmineProject project;
   private RawDataFileWriter newMZmineFile;
   private RawDataFile finalRawDataFile;
@@ -78,8 +78,11 @@ public class MzDataReadTask extends AbstractTask {
    * The information of "m/z" & "int" is content in two arrays because the mzData standard manages
    * this information in two different tags.
    */
-  private double[] mzDataPoints;
-  private double[] intensityDataPoints;
+  private EncodedArray mzDataPoints;
+  private EncodedArray intensityDataPoints;
+
+  // Decodes the data points in parallel and adds the scans to the file in order
+  private OrderedScanWriter scanWriter;
 
   /*
    * This variable hold the current scan or fragment, it is send to the stack when another
@@ -108,6 +111,17 @@ public class MzDataReadTask extends AbstractTask {
     this.newMZmineFile = newMZmineFile;
   }
 
+  /**
+   * Parses the file from a stream, e.g. while it is decompressed
+   *
+   * @param fileToOpen the file containing the stream, for messages
+   */
+  public MzDataReadTask(MZmineProject project, File fileToOpen, InputStream dataStream,
+      RawDataFileWriter newMZmineFile) {
+    this(project, fileToOpen, newMZmineFile);
+    this.dataStream = dataStream;
+  }
+
   /**
    * @see io.github.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
@@ -128,8 +142,15 @@ public class MzDataReadTask extends AbstractTask {
 
     try {
 
+      scanWriter = new OrderedScanWriter(newMZmineFile);
       SAXParser saxParser = factory.newSAXParser();
-      saxParser.parse(file, handler);
+      if (dataStream != null)
+        saxParser.parse(dataStream, handler);
+      else
+        saxParser.parse(file, handler);
+
+      scanWriter.flush();
+      parsedScans = scanWriter.getWrittenScans();
 
       // Close file
       finalRawDataFile = newMZmineFile.finishWriting();
@@ -143,6 +164,9 @@ public class MzDataReadTask extends AbstractTask {
         setErrorMessage(ExceptionUtils.exceptionToString(e));
       }
       return;
+    } finally {
+      if (scanWriter != null)
+        scanWriter.shutdown();
     }
 
     if (parsedScans == 0) {
@@ -296,20 +320,17 @@ public class MzDataReadTask extends AbstractTask {
       // <spectrum>
       if (qName.equalsIgnoreCase("spectrum")) {
 
-        DataPoint dataPoints[] = new DataPoint[peaksCount];
         spectrumInstrumentFlag = false;
 
-        // Copy m/z and intensity data
-        for (int i = 0; i < dataPoints.length; i++) {
-          dataPoints[i] =
-              new SimpleDataPoint((double) mzDataPoints[i], (double) intensityDataPoints[i]);
-        }
-
-        // Auto-detect whether this scan is centroided
-        MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
-
         buildingScan = new SimpleScan(null, scanNumber, msLevel, retentionTime,0.0, precursorMz,
-            precursorCharge, null, dataPoints, spectrumType, polarity, "", null);
+            precursorCharge, null, new DataPoint[0], null, polarity, "", null);
+
+        // The data points are decoded in parallel, while the next scans are parsed. The spectrum
+        // type is detected from the decoded data points
+        final EncodedArray mzArray = mzDataPoints, intensityArray = intensityDataPoints;
+        final int numOfDataPoints = peaksCount;
+        scanWriter.decode(buildingScan,
+            () -> decodeDataPoints(mzArray, intensityArray, numOfDataPoints));
 
         /*
          * Update of fragmentScanNumbers of each Scan in the parentStack
@@ -328,13 +349,13 @@ public class MzDataReadTask extends AbstractTask {
         if (parentStack.size() > 10) {
           SimpleScan scan = parentStack.removeLast();
           try {
-            newMZmineFile.addScan(scan);
+            scanWriter.write(scan);
           } catch (IOException e) {
             setStatus(TaskStatus.ERROR);
-            setErrorMessage("IO error: " + e);
+            setErrorMessage(e.getMessage());
             throw new SAXException("Parsing cancelled");
           }
-          parsedScans++;
+          parsedScans = scanWriter.getWrittenScans();
         }
 
         parentStack.addFirst(buildingScan);
@@ -346,48 +367,16 @@ public class MzDataReadTask extends AbstractTask {
       if (qName.equalsIgnoreCase("mzArrayBinary")) {
 
         mzArrayBinaryFlag = false;
-        mzDataPoints = new double[peaksCount];
-
-        byte[] peakBytes = Base64.getDecoder().decode(charBuffer.toString().trim());
-
-        ByteBuffer currentMzBytes = ByteBuffer.wrap(peakBytes);
-
-        if (endian.equals("big")) {
-          currentMzBytes = currentMzBytes.order(ByteOrder.BIG_ENDIAN);
-        } else {
-          currentMzBytes = currentMzBytes.order(ByteOrder.LITTLE_ENDIAN);
-        }
-
-        for (int i = 0; i < mzDataPoints.length; i++) {
-          if (precision == null || precision.equals("32"))
-            mzDataPoints[i] = (double) currentMzBytes.getFloat();
-          else
-            mzDataPoints[i] = currentMzBytes.getDouble();
-        }
+        mzDataPoints =
+            new EncodedArray(charBuffer.toString().trim(), endian, precision, peaksCount);
       }
 
       // <intenArrayBinary>
       if (qName.equalsIgnoreCase("intenArrayBinary")) {
 
         intenArrayBinaryFlag = false;
-        intensityDataPoints = new double[peaksCount];
-
-        byte[] peakBytes = Base64.getDecoder().decode(charBuffer.toString().trim());
-
-        ByteBuffer currentIntensityBytes = ByteBuffer.wrap(peakBytes);
-
-        if (endian.equals("big")) {
-          currentIntensityBytes = currentIntensityBytes.order(ByteOrder.BIG_ENDIAN);
-        } else {
-          currentIntensityBytes = currentIntensityBytes.order(ByteOrder.LITTLE_ENDIAN);
-        }
-
-        for (int i = 0; i < intensityDataPoints.length; i++) {
-          if (precision == null || precision.equals("32"))
-            intensityDataPoints[i] = (double) currentIntensityBytes.getFloat();
-          else
-            intensityDataPoints[i] = currentIntensityBytes.getDouble();
-        }
+        intensityDataPoints =
+            new EncodedArray(charBuffer.toString().trim(), endian, precision, peaksCount);
       }
     }
 
@@ -404,16 +393,75 @@ public class MzDataReadTask extends AbstractTask {
       while (!parentStack.isEmpty()) {
         SimpleScan scan = parentStack.removeLast();
         try {
-          newMZmineFile.addScan(scan);
+          scanWriter.write(scan);
         } catch (IOException e) {
           setStatus(TaskStatus.ERROR);
-          setErrorMessage("IO error: " + e);
+          setErrorMessage(e.getMessage());
           throw new SAXException("Parsing cancelled");
         }
-        parsedScans++;
+        parsedScans = scanWriter.getWrittenScans();
       }
     }
 
   }
 
+  /**
+   * Decodes the data points of a spectrum, called in parallel
+   */
+  private static DataPoint[] decodeDataPoints(EncodedArray mzArray, EncodedArray intensityArray,
+      int peaksCount) {
+
+    if (peaksCount == 0)
+      return new DataPoint[0];
+
+    final double mzDataPoints[] = mzArray.decode();
+    final double intensityDataPoints[] = intensityArray.decode();
+    DataPoint dataPoints[] = new DataPoint[peaksCount];
+
+    // Copy m/z and intensity data
+    for (int i = 0; i < dataPoints.length; i++) {
+      dataPoints[i] =
+          new SimpleDataPoint((double) mzDataPoints[i], (double) intensityDataPoints[i]);
+    }
+
+    return dataPoints;
+  }
+
+  /**
+   * Base64 encoded content of a <data> element with its attributes
+   */
+  private static class EncodedArray {
+
+    private final String data, endian, precision;
+    private final int length;
+
+    private EncodedArray(String data, String endian, String precision, int length) {
+      this.data = data;
+      this.endian = endian;
+      this.precision = precision;
+      this.length = length;
+    }
+
+    private double[] decode() {
+      double values[] = new double[length];
+      byte[] peakBytes = Base64.getDecoder().decode(data);
+
+      ByteBuffer currentBytes = ByteBuffer.wrap(peakBytes);
+
+      if (endian.equals("big")) {
+        currentBytes = currentBytes.order(ByteOrder.BIG_ENDIAN);
+      } else {
+        currentBytes = currentBytes.order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      for (int i = 0; i < values.length; i++) {
+        if (precision == null || precision.equals("32"))
+          values[i] = (double) currentBytes.getFloat();
+        else
+          values[i] = currentBytes.getDouble();
+      }
+      return values;
+    }
+  }
+
 }
@@ -22,6 +22,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Base64;
 import java.util.Date;
 import java.util.LinkedList;
@@ -42,7 +43,6 @@ import com.google.common.base.Strings;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.MZmineProject;
-import io.github.mzmine.datamodel.MassSpectrumType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.RawDataFileWriter;
@@ -52,7 +52,6 @@ import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.CompressionUtils;
 import io.github.mzmine.util.ExceptionUtils;
-import io.github.mzmine.util.scans.ScanUtils;
 
 /**
  * 
@@ -62,6 +61,7 @@ public class MzXMLReadTask extends AbstractTask {
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private File file;
+  private InputStream dataStream;
   private MZmineProject project;
   private RawDataFileWriter newMZmineFile;
   private RawDataFile finalRawDataFile;
@@ -72,6 +72,9 @@ public class MzXMLReadTask extends AbstractTask {
   private DefaultHandler handler = new MzXMLHandler();
   private String precision;
 
+  // Decodes the peaks in parallel and adds the scans to the file in order
+  private OrderedScanWriter scanWriter;
+
   // Retention time parser
   private DatatypeFactory dataTypeFactory;
 
@@ -103,6 +106,17 @@ public class MzXMLReadTask extends AbstractTask {
     this.newMZmineFile = newMZmineFile;
   }
 
+  /**
+   * Parses the file from a stream, e.g. while it is decompressed
+   *
+   * @param fileToOpen the file containing the stream, for messages
+   */
+  public MzXMLReadTask(MZmineProject project, File fileToOpen, InputStream dataStream,
+      RawDataFileWriter newMZmineFile) {
+    this(project, fileToOpen, newMZmineFile);
+    this.dataStream = dataStream;
+  }
+
   /**
    * @see io.github.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
@@ -125,8 +139,15 @@ public class MzXMLReadTask extends AbstractTask {
 
       dataTypeFactory = DatatypeFactory.newInstance();
 
+      scanWriter = new OrderedScanWriter(newMZmineFile);
       SAXParser saxParser = factory.newSAXParser();
-      saxParser.parse(file, handler);
+      if (dataStream != null)
+        saxParser.parse(dataStream, handler);
+      else
+        saxParser.parse(file, handler);
+
+      scanWriter.flush();
+      parsedScans = scanWriter.getWrittenScans();
 
       // Close file
       finalRawDataFile = newMZmineFile.finishWriting();
@@ -140,6 +161,9 @@ public class MzXMLReadTask extends AbstractTask {
         setErrorMessage(ExceptionUtils.exceptionToString(e));
       }
       return;
+    } finally {
+      if (scanWriter != null)
+        scanWriter.shutdown();
     }
 
     if (isCanceled())
@@ -299,15 +323,14 @@ public class MzXMLReadTask extends AbstractTask {
           while (!parentStack.isEmpty()) {
             SimpleScan currentScan = parentStack.removeLast();
             try {
-              newMZmineFile.addScan(currentScan);
+              scanWriter.write(currentScan);
             } catch (IOException e) {
-              e.printStackTrace();
               setStatus(TaskStatus.ERROR);
-              setErrorMessage("IO error: " + e);
+              setErrorMessage(e.getMessage());
               throw new SAXException("Parsing error: " + e);
             }
-            parsedScans++;
           }
+          parsedScans = scanWriter.getWrittenScans();
 
           /*
            * The scan with all his fragments is in the RawDataFile, now we clean the stack for the
@@ -333,55 +356,13 @@ public class MzXMLReadTask extends AbstractTask {
       // <peaks>
       if (qName.equalsIgnoreCase("peaks")) {
 
-        byte[] peakBytes = Base64.getDecoder().decode(charBuffer.toString());
-
-        if (compressFlag) {
-          try {
-            peakBytes = CompressionUtils.decompress(peakBytes);
-          } catch (DataFormatException e) {
-            setStatus(TaskStatus.ERROR);
-            setErrorMessage("Corrupt compressed peak: " + e.toString());
-            throw new SAXException("Parsing Cancelled");
-          }
-        }
-
-        // make a data input stream
-        DataInputStream peakStream = new DataInputStream(new ByteArrayInputStream(peakBytes));
-
-        DataPoint dataPoints[] = new DataPoint[peaksCount];
-
-        try {
-          for (int i = 0; i < dataPoints.length; i++) {
-
-            // Always respect this order pairOrder="m/z-int"
-            double massOverCharge;
-            double intensity;
-            if ("64".equals(precision)) {
-              massOverCharge = peakStream.readDouble();
-              intensity = peakStream.readDouble();
-            } else {
-              massOverCharge = (double) peakStream.readFloat();
-              intensity = (double) peakStream.readFloat();
-            }
-
-            // Copy m/z and intensity data
-            dataPoints[i] = new SimpleDataPoint(massOverCharge, intensity);
-
-          }
-        } catch (IOException eof) {
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage("Corrupt mzXML file");
-          throw new SAXException("Parsing Cancelled");
-        }
-
-        // Auto-detect whether this scan is centroided
-        MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
-
-        // Set the centroided tag
-        buildingScan.setSpectrumType(spectrumType);
-
-        // Set the final data points to the scan
-        buildingScan.setDataPoints(dataPoints);
+        // The peaks are decoded in parallel, while the next scans are parsed
+        final String encodedPeaks = charBuffer.toString();
+        final boolean compressed = compressFlag;
+        final String peaksPrecision = precision;
+        final int numOfPeaks = peaksCount;
+        scanWriter.decode(buildingScan,
+            () -> decodePeaks(encodedPeaks, compressed, peaksPrecision, numOfPeaks));
 
         return;
       }
@@ -397,4 +378,50 @@ public class MzXMLReadTask extends AbstractTask {
     }
   }
 
+  /**
+   * Decodes the content of a <peaks> element, called in parallel
+   */
+  private static DataPoint[] decodePeaks(String encodedPeaks, boolean compressed,
+      String precision, int peaksCount) throws IOException {
+
+    byte[] peakBytes = Base64.getDecoder().decode(encodedPeaks);
+
+    if (compressed) {
+      try {
+        peakBytes = CompressionUtils.decompress(peakBytes);
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt compressed peak: " + e.toString());
+      }
+    }
+
+    // make a data input stream
+    DataInputStream peakStream = new DataInputStream(new ByteArrayInputStream(peakBytes));
+
+    DataPoint dataPoints[] = new DataPoint[peaksCount];
+
+    try {
+      for (int i = 0; i < dataPoints.length; i++) {
+
+        // Always respect this order pairOrder="m/z-int"
+        double massOverCharge;
+        double intensity;
+        if ("64".equals(precision)) {
+          massOverCharge = peakStream.readDouble();
+          intensity = peakStream.readDouble();
+        } else {
+          massOverCharge = (double) peakStream.readFloat();
+          intensity = (double) peakStream.readFloat();
+        }
+
+        // Copy m/z and intensity data
+        dataPoints[i] = new SimpleDataPoint(massOverCharge, intensity);
+
+      }
+    } catch (IOException eof) {
+      throw new IOException("Corrupt mzXML file");
+    }
+
+    return dataPoints;
+  }
+
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.rawdataimport.fileformats;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.RawDataFileWriter;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.util.scans.ScanUtils;
+
+/**
+ * Adds scans to a raw data file in the order in which they were parsed, while their data points are
+ * decoded in parallel. This way, the XML readers parse the next scans while the peaks of the
+ * previous scans are decoded.
+ */
+class OrderedScanWriter {
+
+  private final RawDataFileWriter newMZmineFile;
+  private final ExecutorService executor;
+  private final int maxPendingScans;
+
+  private final Map<SimpleScan, Future<DecodedDataPoints>> decodingScans = new IdentityHashMap<>();
+  private final Queue<SimpleScan> pendingScans = new ArrayDeque<>();
+  private int writtenScans = 0;
+
+  OrderedScanWriter(RawDataFileWriter newMZmineFile) {
+    this.newMZmineFile = newMZmineFile;
+    final int threads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    executor = Executors.newFixedThreadPool(threads);
+    maxPendingScans = 4 * threads;
+  }
+
+  /**
+   * Decodes the data points of the scan in a worker thread, and detects the spectrum type
+   *
+   * @param decoder decodes the data points, throws an IOException with the error message if the
+   *        data are corrupt
+   */
+  void decode(SimpleScan scan, Callable<DataPoint[]> decoder) {
+    decodingScans.put(scan, executor.submit(() -> {
+      DataPoint dataPoints[] = decoder.call();
+      return new DecodedDataPoints(dataPoints, ScanUtils.detectSpectrumType(dataPoints));
+    }));
+  }
+
+  /**
+   * Adds the scan to the file after the previously written scans, as soon as its data points are
+   * decoded. Waits for the oldest scan if too many scans are pending.
+   */
+  void write(SimpleScan scan) throws IOException {
+    pendingScans.add(scan);
+    while (!pendingScans.isEmpty()) {
+      Future<DecodedDataPoints> future = decodingScans.get(pendingScans.peek());
+      if ((pendingScans.size() <= maxPendingScans) && (future != null) && !future.isDone())
+        return;
+      writeNextScan();
+    }
+  }
+
+  /**
+   * Adds all pending scans to the file
+   */
+  void flush() throws IOException {
+    while (!pendingScans.isEmpty())
+      writeNextScan();
+  }
+
+  /**
+   * Stops decoding, e.g. when parsing failed or was canceled
+   */
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  int getWrittenScans() {
+    return writtenScans;
+  }
+
+  private void writeNextScan() throws IOException {
+    SimpleScan scan = pendingScans.remove();
+    Future<DecodedDataPoints> future = decodingScans.remove(scan);
+    if (future != null) {
+      DecodedDataPoints decoded = waitFor(future);
+      scan.setSpectrumType(decoded.spectrumType);
+      scan.setDataPoints(decoded.dataPoints);
+    }
+
+    try {
+      newMZmineFile.addScan(scan);
+    } catch (IOException e) {
+      throw new IOException("IO error: " + e, e);
+    }
+    writtenScans++;
+  }
+
+  private static DecodedDataPoints waitFor(Future<DecodedDataPoints> future) throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while decoding the data points", e);
+    }
+  }
+
+  private static class DecodedDataPoints {
+
+    private final DataPoint dataPoints[];
+    private final MassSpectrumType spectrumType;
+
+    private DecodedDataPoints(DataPoint dataPoints[], MassSpectrumType spectrumType) {
+      this.dataPoints = dataPoints;
+      this.spectrumType = spectrumType;
+    }
+  }
+
+}
@@ -18,6 +18,7 @@
 
 package io.github.mzmine.modules.io.rawdataimport.fileformats;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -45,6 +46,7 @@ import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
 import io.github.mzmine.util.StreamCopy;
+import io.github.mzmine.util.io.ReadAheadInputStream;
 
 public class ZipReadTask extends AbstractTask {
 
@@ -111,6 +113,47 @@ public class ZipReadTask extends AbstractTask {
           return;
       }
 
+      // Find the type of the decompressed file from its first bytes
+      is = new BufferedInputStream(is, 1 << 16);
+      RawDataFileType fileType = RawDataFileTypeDetector.detectDataFileType(newName, is);
+      logger.finest("File " + newName + " type detected as " + fileType);
+
+      if (fileType == null) {
+        is.close();
+        setErrorMessage("Could not determine the file type of file " + newName);
+        setStatus(TaskStatus.ERROR);
+        return;
+      }
+
+      // The XML readers parse the file while it is decompressed in a separate thread
+      if ((fileType == RawDataFileType.MZXML) || (fileType == RawDataFileType.MZDATA)) {
+        RawDataFileWriter newMZmineFile = MZmineCore.createNewFile(newName);
+        InputStream dataStream = new ReadAheadInputStream(is, "Decompressing " + file.getName());
+        try {
+          if (fileType == RawDataFileType.MZXML)
+            decompressedOpeningTask =
+                new MzXMLReadTask(project, file, dataStream, newMZmineFile);
+          else
+            decompressedOpeningTask =
+                new MzDataReadTask(project, file, dataStream, newMZmineFile);
+          if (isCanceled())
+            return;
+
+          // Run the underlying task
+          decompressedOpeningTask.run();
+        } finally {
+          dataStream.close();
+        }
+
+        if (isCanceled())
+          return;
+
+        logger.info("Finished opening compressed file " + file);
+        setStatus(TaskStatus.FINISHED);
+        return;
+      }
+
+      // Other readers need random access, so the file is decompressed to a temporary folder
       tmpDir = Files.createTempDir();
       tmpFile = new File(tmpDir, newName);
       logger.finest("Decompressing to file " + tmpFile);
@@ -129,16 +172,6 @@ public class ZipReadTask extends AbstractTask {
       if (isCanceled())
         return;
 
-      // Find the type of the decompressed file
-      RawDataFileType fileType = RawDataFileTypeDetector.detectDataFileType(tmpFile);
-      logger.finest("File " + tmpFile + " type detected as " + fileType);
-
-      if (fileType == null) {
-        setErrorMessage("Could not determine the file type of file " + newName);
-        setStatus(TaskStatus.ERROR);
-        return;
-      }
-
       // Run the import module on the decompressed file
       RawDataFileWriter newMZmineFile = MZmineCore.createNewFile(newName);
       decompressedOpeningTask =
@@ -186,6 +219,9 @@ public class ZipReadTask extends AbstractTask {
    * @see io.github.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
   public double getFinishedPercentage() {
+    // Without a temporary file, the decompression progresses with the underlying task
+    if ((decompressedOpeningTask != null) && (copy == null))
+      return decompressedOpeningTask.getFinishedPercentage();
     if (decompressedOpeningTask != null)
       return (decompressedOpeningTask.getFinishedPercentage() / 2.0) + 0.5; // Reports 50% to 100%
     if (copy != null) {
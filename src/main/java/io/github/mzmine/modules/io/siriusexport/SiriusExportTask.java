@@ -24,6 +24,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import io.github.mzmine.datamodel.DataPoint;
@@ -41,12 +42,18 @@ import io.github.mzmine.modules.tools.msmsspectramerge.MsMsSpectraMergeParameter
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.io.OrderedBlockWriter;
 
 public class SiriusExportTask extends AbstractTask {
 
   private boolean DEBUG_MODE;
 
   private final static String plNamePattern = "{}";
+  private final static String newLine = System.lineSeparator();
+
+  // Merging the MS/MS of a row takes a while
+  private static final int ROWS_PER_BLOCK = 100;
+
   protected static final Comparator<DataPoint> CompareDataPointsByMz = new Comparator<DataPoint>() {
     @Override
     public int compare(DataPoint o1, DataPoint o2) {
@@ -63,7 +70,8 @@ public class SiriusExportTask extends AbstractTask {
   private final PeakList[] peakLists;
   private final File fileName;
   private final String massListName;
-  protected long finishedRows, totalRows;
+  protected final AtomicLong finishedRows = new AtomicLong();
+  protected long totalRows;
 
   private final boolean mergeEnabled;
   private final MsMsSpectraMergeParameters mergeParameters;
@@ -72,7 +80,7 @@ public class SiriusExportTask extends AbstractTask {
 
   @Override
   public double getFinishedPercentage() {
-    return (totalRows == 0 ? 0.0 : (double) finishedRows / (double) totalRows);
+    return (totalRows == 0 ? 0.0 : (double) finishedRows.get() / (double) totalRows);
   }
 
   @Override
@@ -117,8 +125,9 @@ public class SiriusExportTask extends AbstractTask {
       }
 
       // Open file
-      try (final BufferedWriter bw = new BufferedWriter(new FileWriter(curFile))) {
-        exportPeakList(peakList, bw);
+      try (OrderedBlockWriter writer = new OrderedBlockWriter(curFile, false,
+          (peakList.getNumberOfRows() + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK)) {
+        exportPeakList(peakList, writer);
       } catch (IOException e) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Could not open file " + curFile + " for writing.");
@@ -137,7 +146,9 @@ public class SiriusExportTask extends AbstractTask {
   public void runSingleRow(PeakListRow row) {
     setStatus(TaskStatus.PROCESSING);
     try (final BufferedWriter bw = new BufferedWriter(new FileWriter(fileName, true))) {
-      exportPeakListRow(row, bw);
+      StringBuilder out = new StringBuilder();
+      exportPeakListRow(row, out, intensityForm);
+      bw.append(out);
     } catch (IOException e) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Could not open file " + fileName + " for writing.");
@@ -151,8 +162,12 @@ public class SiriusExportTask extends AbstractTask {
     // prefill statistics
     prefillStatistics(rows);
     try (final BufferedWriter bw = new BufferedWriter(new FileWriter(fileName, true))) {
-      for (PeakListRow row : rows)
-        exportPeakListRow(row, bw);
+      StringBuilder out = new StringBuilder();
+      for (PeakListRow row : rows) {
+        exportPeakListRow(row, out, intensityForm);
+        bw.append(out);
+        out.setLength(0);
+      }
     } catch (IOException e) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Could not open file " + fileName + " for writing.");
@@ -166,15 +181,30 @@ public class SiriusExportTask extends AbstractTask {
     Collections.shuffle(copy);
   }
 
-  private void exportPeakList(PeakList peakList, BufferedWriter writer) throws IOException {
-    for (PeakListRow row : peakList.getRows()) {
-      if (!isSkipRow(row))
-        exportPeakListRow(row, writer);
-      finishedRows++;
+  private void exportPeakList(PeakList peakList, OrderedBlockWriter writer) throws IOException {
+    final PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+    writer.submitBlocks(rows.length, ROWS_PER_BLOCK,
+        (block, from, to) -> exportPeakListRows(block, rows, from, to));
+    if (isCanceled() || getStatus() == TaskStatus.ERROR)
+      return;
+    writer.flush();
+  }
+
+  /**
+   * Append the spectra of the given rows to the buffer
+   */
+  private void exportPeakListRows(StringBuilder out, PeakListRow rows[], int from, int to) {
+    final NumberFormat intensityForm = (NumberFormat) this.intensityForm.clone();
+    for (int r = from; r < to; r++) {
+      if (isCanceled() || getStatus() == TaskStatus.ERROR)
+        return;
+      if (!isSkipRow(rows[r]))
+        exportPeakListRow(rows[r], out, intensityForm);
+      finishedRows.incrementAndGet();
     }
   }
 
-  private void exportPeakListRow(PeakListRow row, BufferedWriter writer) throws IOException {
+  private void exportPeakListRow(PeakListRow row, StringBuilder out, NumberFormat intensityForm) {
 
     // get row charge and polarity
     char polarity = 0;
@@ -200,41 +230,41 @@ public class SiriusExportTask extends AbstractTask {
           if (f.getFeatureStatus() == FeatureStatus.DETECTED
               && f.getMostIntenseFragmentScanNumber() >= 0) {
             // write correlation spectrum
-            writeHeader(writer, row, f.getDataFile(), polarity, MsType.CORRELATED, -1);
-            writeCorrelationSpectrum(writer, f);
+            writeHeader(out, row, f.getDataFile(), polarity, MsType.CORRELATED, -1);
+            writeCorrelationSpectrum(out, f, intensityForm);
             if (mergeMode == MergeMode.CONSECUTIVE_SCANS) {
               // merge MS/MS
               List<MergedSpectrum> spectra =
                   merger.mergeConsecutiveScans(mergeParameters, f, massListName);
               for (MergedSpectrum spectrum : spectra) {
-                writeHeader(writer, row, f.getDataFile(), polarity, MsType.MSMS,
+                writeHeader(out, row, f.getDataFile(), polarity, MsType.MSMS,
                     spectrum.filterByRelativeNumberOfScans(mergeParameters
                         .getParameter(MsMsSpectraMergeParameters.PEAK_COUNT_PARAMETER).getValue()));
-                writeSpectrum(writer, spectrum.data);
+                writeSpectrum(out, spectrum.data, intensityForm);
               }
             } else {
               MergedSpectrum spectrum = merger.mergeFromSameSample(mergeParameters, f, massListName)
                   .filterByRelativeNumberOfScans(mergeParameters
                       .getParameter(MsMsSpectraMergeParameters.PEAK_COUNT_PARAMETER).getValue());
               if (spectrum.data.length > 0) {
-                writeHeader(writer, row, f.getDataFile(), polarity, MsType.MSMS, spectrum);
-                writeSpectrum(writer, spectrum.data);
+                writeHeader(out, row, f.getDataFile(), polarity, MsType.MSMS, spectrum);
+                writeSpectrum(out, spectrum.data, intensityForm);
               }
             }
           }
         }
       } else {
         // write correlation spectrum
-        writeHeader(writer, row, row.getBestPeak().getDataFile(), polarity, MsType.CORRELATED, -1);
-        writeCorrelationSpectrum(writer, row.getBestPeak());
+        writeHeader(out, row, row.getBestPeak().getDataFile(), polarity, MsType.CORRELATED, -1);
+        writeCorrelationSpectrum(out, row.getBestPeak(), intensityForm);
         // merge everything into one
         MergedSpectrum spectrum = merger.mergeAcrossSamples(mergeParameters, row, massListName)
             .filterByRelativeNumberOfScans(mergeParameters
                 .getParameter(MsMsSpectraMergeParameters.PEAK_COUNT_PARAMETER).getValue());
         if (spectrum.data.length > 0) {
-          writeHeader(writer, row, row.getBestPeak().getDataFile(), polarity, MsType.MSMS,
+          writeHeader(out, row, row.getBestPeak().getDataFile(), polarity, MsType.MSMS,
               spectrum);
-          writeSpectrum(writer, spectrum.data);
+          writeSpectrum(out, spectrum.data, intensityForm);
         }
       }
     } else {
@@ -242,18 +272,18 @@ public class SiriusExportTask extends AbstractTask {
       Feature bestPeak = row.getBestPeak();
       MassList ms1MassList = bestPeak.getRepresentativeScan().getMassList(massListName);
       if (ms1MassList != null) {
-        writeHeader(writer, row, bestPeak.getDataFile(), polarity, MsType.MS,
+        writeHeader(out, row, bestPeak.getDataFile(), polarity, MsType.MS,
             bestPeak.getRepresentativeScanNumber());
-        writeSpectrum(writer, ms1MassList.getDataPoints());
+        writeSpectrum(out, ms1MassList.getDataPoints(), intensityForm);
       }
 
       for (Feature f : row.getPeaks()) {
         for (int ms2scan : f.getAllMS2FragmentScanNumbers()) {
-          writeHeader(writer, row, f.getDataFile(), polarity, MsType.MSMS, ms2scan);
+          writeHeader(out, row, f.getDataFile(), polarity, MsType.MSMS, ms2scan);
           MassList ms2MassList = f.getDataFile().getScan(ms2scan).getMassList(massListName);
           if (ms2MassList == null)
             continue;
-          writeSpectrum(writer, ms2MassList.getDataPoints());
+          writeSpectrum(out, ms2MassList.getDataPoints(), intensityForm);
         }
       }
 
@@ -272,117 +302,118 @@ public class SiriusExportTask extends AbstractTask {
     return true;
   }
 
-  private void writeHeader(BufferedWriter writer, PeakListRow row, RawDataFile raw, char polarity,
-      MsType msType, MergedSpectrum mergedSpectrum) throws IOException {
-    writeHeader(writer, row, raw, polarity, msType, row.getID(), Arrays
+  private void writeHeader(StringBuilder out, PeakListRow row, RawDataFile raw, char polarity,
+      MsType msType, MergedSpectrum mergedSpectrum) {
+    writeHeader(out, row, raw, polarity, msType, row.getID(), Arrays
         .stream(mergedSpectrum.origins).map(RawDataFile::getName).collect(Collectors.toList()));
     // add additional fields
-    writer.write("MERGED_SCANS=");
-    writer.write(String.valueOf(mergedSpectrum.scanIds[0]));
+    out.append("MERGED_SCANS=");
+    out.append(mergedSpectrum.scanIds[0]);
     for (int k = 1; k < mergedSpectrum.scanIds.length; ++k) {
-      writer.write(',');
-      writer.write(String.valueOf(mergedSpectrum.scanIds[k]));
+      out.append(',');
+      out.append(mergedSpectrum.scanIds[k]);
     }
-    writer.newLine();
-    writer.write("MERGED_STATS=");
-    writer.write(mergedSpectrum.getMergeStatsDescription());
-    writer.newLine();
+    out.append(newLine);
+    out.append("MERGED_STATS=");
+    out.append(mergedSpectrum.getMergeStatsDescription());
+    out.append(newLine);
   }
 
-  private void writeHeader(BufferedWriter writer, PeakListRow row, RawDataFile raw, char polarity,
-      MsType msType, Integer scanNumber) throws IOException {
-    writeHeader(writer, row, raw, polarity, msType, scanNumber, null);
+  private void writeHeader(StringBuilder out, PeakListRow row, RawDataFile raw, char polarity,
+      MsType msType, Integer scanNumber) {
+    writeHeader(out, row, raw, polarity, msType, scanNumber, null);
   }
 
-  private void writeHeader(BufferedWriter writer, PeakListRow row, RawDataFile raw, char polarity,
-      MsType msType, Integer scanNumber, List<String> sources) throws IOException {
+  private void writeHeader(StringBuilder out, PeakListRow row, RawDataFile raw, char polarity,
+      MsType msType, Integer scanNumber, List<String> sources) {
     final Feature feature = row.getPeak(raw);
-    writer.write("BEGIN IONS");
-    writer.newLine();
-    writer.write("FEATURE_ID=");
-    writer.write(String.valueOf(row.getID()));
-    writer.newLine();
-    writer.write("PEPMASS=");
-    writer.write(String.valueOf(row.getBestPeak().getMZ()));
-    writer.newLine();
-    writer.write("CHARGE=");
+    out.append("BEGIN IONS");
+    out.append(newLine);
+    out.append("FEATURE_ID=");
+    out.append(row.getID());
+    out.append(newLine);
+    out.append("PEPMASS=");
+    out.append(row.getBestPeak().getMZ());
+    out.append(newLine);
+    out.append("CHARGE=");
     if (polarity == '-')
-      writer.write("-");
-    writer.write(String.valueOf(Math.abs(row.getRowCharge())));
-    writer.newLine();
-    writer.write("RTINSECONDS=");
-    writer.write(String.valueOf(feature.getRT() * 60d));
-    writer.newLine();
+      out.append("-");
+    out.append(Math.abs(row.getRowCharge()));
+    out.append(newLine);
+    out.append("RTINSECONDS=");
+    out.append(feature.getRT() * 60d);
+    out.append(newLine);
     switch (msType) {
       case CORRELATED:
-        writer.write("SPECTYPE=CORRELATED MS");
-        writer.newLine();
+        out.append("SPECTYPE=CORRELATED MS");
+        out.append(newLine);
       case MS:
-        writer.write("MSLEVEL=1");
-        writer.newLine();
+        out.append("MSLEVEL=1");
+        out.append(newLine);
         break;
       case MSMS:
-        writer.write("MSLEVEL=2");
-        writer.newLine();
+        out.append("MSLEVEL=2");
+        out.append(newLine);
     }
-    writer.write("FILENAME=");
+    out.append("FILENAME=");
     if (sources != null) {
       final String[] uniqSources = new HashSet<>(sources).toArray(new String[0]);
-      writer.write(escape(uniqSources[0], ";"));
+      out.append(escape(uniqSources[0], ";"));
       for (int i = 1; i < uniqSources.length; ++i) {
-        writer.write(";");
-        writer.write(escape(uniqSources[i], ";"));
+        out.append(";");
+        out.append(escape(uniqSources[i], ";"));
       }
-      writer.newLine();
+      out.append(newLine);
     } else if (msType == MsType.CORRELATED) {
       RawDataFile[] raws = row.getRawDataFiles();
       final Set<String> set = new HashSet<>();
       for (RawDataFile f : raws)
         set.add(f.getName());
       final String[] uniqSources = set.toArray(new String[0]);
-      writer.write(escape(uniqSources[0], ";"));
+      out.append(escape(uniqSources[0], ";"));
       for (int i = 1; i < uniqSources.length; ++i) {
-        writer.write(";");
-        writer.write(escape(uniqSources[i], ";"));
+        out.append(";");
+        out.append(escape(uniqSources[i], ";"));
       }
-      writer.newLine();
+      out.append(newLine);
     } else {
-      writer.write(feature.getDataFile().getName());
-      writer.newLine();
+      out.append(feature.getDataFile().getName());
+      out.append(newLine);
     }
     if (scanNumber != null) {
-      writer.write("SCANS=");
-      writer.write(String.valueOf(scanNumber));
-      writer.newLine();
+      out.append("SCANS=");
+      out.append(scanNumber);
+      out.append(newLine);
     }
   }
 
-  private void writeCorrelationSpectrum(BufferedWriter writer, Feature feature) throws IOException {
+  private void writeCorrelationSpectrum(StringBuilder out, Feature feature,
+      NumberFormat intensityForm) {
     if (feature.getIsotopePattern() != null) {
-      writeSpectrum(writer, feature.getIsotopePattern().getDataPoints());
+      writeSpectrum(out, feature.getIsotopePattern().getDataPoints(), intensityForm);
     } else {
       // write nothing
-      writer.write(String.valueOf(feature.getMZ()));
-      writer.write(' ');
-      writer.write("100.0");
-      writer.newLine();
-      writer.write("END IONS");
-      writer.newLine();
-      writer.newLine();
+      out.append(feature.getMZ());
+      out.append(' ');
+      out.append("100.0");
+      out.append(newLine);
+      out.append("END IONS");
+      out.append(newLine);
+      out.append(newLine);
     }
   }
 
-  private void writeSpectrum(BufferedWriter writer, DataPoint[] dps) throws IOException {
+  private void writeSpectrum(StringBuilder out, DataPoint[] dps, NumberFormat intensityForm) {
     for (DataPoint dp : dps) {
-      writer.write(String.valueOf(dp.getMZ()));
-      writer.write(' ');
-      writer.write(intensityForm.format(dp.getIntensity()));
-      writer.newLine();
+      out.append(dp.getMZ());
+      out.append(' ');
+      out.append(intensityForm.format(dp.getIntensity()));
+      out.append(newLine);
 
     }
-    writer.write("END IONS");
-    writer.newLine();
-    writer.newLine();
+    out.append("END IONS");
+    out.append(newLine);
+    out.append(newLine);
   }
 
   private String escape(String name, String s) {
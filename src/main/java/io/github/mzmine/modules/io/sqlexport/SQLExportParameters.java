@@ -21,6 +21,7 @@ package io.github.mzmine.modules.io.sqlexport;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
 import io.github.mzmine.parameters.parametertypes.BooleanParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.StringParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
 
@@ -42,8 +43,17 @@ public class SQLExportParameters extends SimpleParameterSet {
       "Export empty feature list",
       "If selected, an empty feature list will be exported with null values for all column other than the rawdatafile and any constant values.");
 
+  public static final IntegerParameter batchSize = new IntegerParameter("Batch size",
+      "Number of table rows which are sent to the database at once", 1000, 1, null);
+
+  public static final IntegerParameter numOfConnections = new IntegerParameter(
+      "Parallel connections",
+      "Number of database connections which insert the rows in parallel. The rows are committed when all connections have finished, but not in a single transaction.",
+      1, 1, null);
+
   public SQLExportParameters() {
-    super(new Parameter[] {peakList, connectionString, tableName, exportColumns, emptyExport});
+    super(new Parameter[] {peakList, connectionString, tableName, exportColumns, emptyExport,
+        batchSize, numOfConnections});
   }
 
 }
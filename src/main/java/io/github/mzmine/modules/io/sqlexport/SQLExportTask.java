@@ -24,6 +24,17 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.IsotopePattern;
@@ -47,20 +58,35 @@ class SQLExportTask extends AbstractTask {
   private final SQLColumnSettings exportColumns;
   private final boolean emptyExport;
 
-  private int processedRows = 0, totalRows = 0;
+  private final int batchSize;
+  private final int numOfConnections;
 
-  private Connection dbConnection;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows = 0;
 
   SQLExportTask(ParameterSet parameters) {
 
-    this.peakList =
-        parameters.getParameter(SQLExportParameters.peakList).getValue().getMatchingPeakLists()[0];
-    this.connectionString =
-        parameters.getParameter(SQLExportParameters.connectionString).getValue();
+    this(parameters.getParameter(SQLExportParameters.peakList).getValue().getMatchingPeakLists()[0],
+        parameters.getParameter(SQLExportParameters.connectionString).getValue(),
+        parameters.getParameter(SQLExportParameters.tableName).getValue(),
+        parameters.getParameter(SQLExportParameters.exportColumns).getValue(),
+        parameters.getParameter(SQLExportParameters.emptyExport).getValue(),
+        parameters.getParameter(SQLExportParameters.batchSize).getValue(),
+        parameters.getParameter(SQLExportParameters.numOfConnections).getValue());
 
-    this.tableName = parameters.getParameter(SQLExportParameters.tableName).getValue();
-    this.exportColumns = parameters.getParameter(SQLExportParameters.exportColumns).getValue();
-    this.emptyExport = parameters.getParameter(SQLExportParameters.emptyExport).getValue();
+  }
+
+  SQLExportTask(PeakList peakList, String connectionString, String tableName,
+      SQLColumnSettings exportColumns, boolean emptyExport, Integer batchSize,
+      Integer numOfConnections) {
+
+    this.peakList = peakList;
+    this.connectionString = connectionString;
+    this.tableName = tableName;
+    this.exportColumns = exportColumns;
+    this.emptyExport = emptyExport;
+    this.batchSize = batchSize == null ? 1 : Math.max(1, batchSize);
+    this.numOfConnections = numOfConnections == null ? 1 : Math.max(1, numOfConnections);
 
   }
 
@@ -69,7 +95,7 @@ class SQLExportTask extends AbstractTask {
     if (totalRows == 0) {
       return 0;
     }
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -84,37 +110,86 @@ class SQLExportTask extends AbstractTask {
     // Get number of rows
     totalRows = peakList.getNumberOfRows();
 
+    final PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+
+    // Each partition of the rows is written through its own connection
+    final int partitions = Math.max(1, Math.min(numOfConnections, rows.length));
+    Connection dbConnections[] = new Connection[partitions];
     try {
-      this.dbConnection = DriverManager.getConnection(connectionString);
+      for (int i = 0; i < partitions; i++)
+        dbConnections[i] = DriverManager.getConnection(connectionString);
     } catch (SQLException e) {
+      closeConnections(dbConnections);
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Error connecting to the SQL database: " + e.toString());
       return;
     }
 
-    PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
+    final String sql = createInsertStatement();
+    ExecutorService executor = null;
+    final List<Future<Void>> futures = new ArrayList<>();
+    boolean committed = false;
 
     try {
-      dbConnection.setAutoCommit(false);
+      for (Connection dbConnection : dbConnections)
+        dbConnection.setAutoCommit(false);
 
       // If select, an empty row with just the raw data file
       // information will be exported
       if (rows.length < 1 && emptyExport) {
-        exportPeakListRow(null);
+        exportRows(dbConnections[0], sql, new PeakListRow[] {null});
+      } else if (partitions == 1) {
+        exportRows(dbConnections[0], sql, rows);
       } else {
-        for (PeakListRow row : rows) {
-          if (getStatus() != TaskStatus.PROCESSING)
-            break;
-          exportPeakListRow(row);
-          processedRows++;
+        executor = Executors.newFixedThreadPool(partitions);
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        for (int i = 0; i < partitions; i++) {
+          final Connection dbConnection = dbConnections[i];
+          final PeakListRow partition[] = Arrays.copyOfRange(rows,
+              (int) ((long) rows.length * i / partitions),
+              (int) ((long) rows.length * (i + 1) / partitions));
+          futures.add(completionService.submit(() -> {
+            exportRows(dbConnection, sql, partition);
+            return null;
+          }));
         }
+        // Wait in the order of completion, so that the first failure stops the other partitions
+        for (int i = 0; i < partitions; i++)
+          waitFor(completionService.take());
+      }
+
+      // Commit only when all partitions are written
+      if (getStatus() == TaskStatus.PROCESSING) {
+        for (Connection dbConnection : dbConnections)
+          dbConnection.commit();
+        committed = true;
       }
-      dbConnection.commit();
-      dbConnection.close();
+
     } catch (SQLException e) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Error running SQL query: " + e.toString());
-      return;
+    } catch (InterruptedException e) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Interrupted while exporting to the SQL database");
+    } catch (RuntimeException e) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Error exporting to the SQL database: " + e.toString());
+    } finally {
+      // The remaining partitions stop as soon as the status is changed
+      for (Future<Void> future : futures)
+        future.cancel(true);
+      if (executor != null) {
+        executor.shutdown();
+        try {
+          executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      // Failed or canceled, nothing of the export is kept
+      if (!committed)
+        rollbackConnections(dbConnections);
+      closeConnections(dbConnections);
     }
 
     if (getStatus() == TaskStatus.PROCESSING)
@@ -122,16 +197,7 @@ class SQLExportTask extends AbstractTask {
 
   }
 
-  private void exportPeakListRow(PeakListRow row) throws SQLException {
-
-    // Cancel?
-    if (isCanceled()) {
-      return;
-    }
-
-    // Value for looping through raw data files
-    boolean loopDataFiles = false;
-
+  private String createInsertStatement() {
     StringBuilder sql = new StringBuilder();
     sql.append("INSERT INTO ");
     sql.append(tableName);
@@ -148,8 +214,50 @@ class SQLExportTask extends AbstractTask {
         sql.append(",");
     }
     sql.append(")");
+    return sql.toString();
+  }
+
+  /**
+   * Export the rows through one prepared statement, sending the inserted table rows to the database
+   * in batches. A null row exports an empty row with just the raw data file information.
+   */
+  private void exportRows(Connection dbConnection, String sql, PeakListRow rows[])
+      throws SQLException {
+
+    try (PreparedStatement statement = dbConnection.prepareStatement(sql)) {
+      int batchedRows = 0;
+      for (PeakListRow row : rows) {
+        if (getStatus() != TaskStatus.PROCESSING)
+          break;
+        batchedRows += exportPeakListRow(statement, row);
+        if (batchedRows >= batchSize) {
+          statement.executeBatch();
+          batchedRows = 0;
+        }
+        if (row != null)
+          processedRows.incrementAndGet();
+      }
+      if (batchedRows > 0)
+        statement.executeBatch();
+    }
+  }
+
+  /**
+   * Add the table rows of the feature list row to the batch of the statement
+   *
+   * @return the number of added table rows
+   */
+  private int exportPeakListRow(PreparedStatement statement, PeakListRow row)
+      throws SQLException {
 
-    PreparedStatement statement = dbConnection.prepareStatement(sql.toString());
+    // Cancel?
+    if (isCanceled()) {
+      return 0;
+    }
+
+    // Value for looping through raw data files
+    boolean loopDataFiles = false;
+    int addedRows = 0;
 
     if (row == null) {
       for (int i = 0; i < exportColumns.getRowCount(); i++) {
@@ -168,7 +276,8 @@ class SQLExportTask extends AbstractTask {
             break;
         }
       }
-      statement.executeUpdate();
+      statement.addBatch();
+      addedRows++;
     }
 
     else {
@@ -299,7 +408,8 @@ class SQLExportTask extends AbstractTask {
               break;
           }
         }
-        statement.executeUpdate();
+        statement.addBatch();
+        addedRows++;
 
         // If no data file elements are selected then don't loop through
         // all
@@ -309,5 +419,42 @@ class SQLExportTask extends AbstractTask {
         }
       }
     }
+    return addedRows;
+  }
+
+  private static void rollbackConnections(Connection dbConnections[]) {
+    for (Connection dbConnection : dbConnections) {
+      if (dbConnection == null)
+        continue;
+      try {
+        dbConnection.rollback();
+      } catch (SQLException e) {
+        // Not in a transaction or already closed, nothing to roll back
+      }
+    }
+  }
+
+  private static void closeConnections(Connection dbConnections[]) {
+    for (Connection dbConnection : dbConnections) {
+      if (dbConnection == null)
+        continue;
+      try {
+        dbConnection.close();
+      } catch (SQLException e) {
+        // Already failed or finished, nothing to do
+      }
+    }
+  }
+
+  private static void waitFor(Future<?> future) throws SQLException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SQLException)
+        throw (SQLException) e.getCause();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    }
   }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.tools.isotopeprediction;
+
+import java.util.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.mzmine.datamodel.IsotopePattern;
+import io.github.mzmine.datamodel.PolarityType;
+
+/**
+ * Bounded, thread-safe cache of predicted isotope patterns (least recently used patterns are
+ * evicted first). Formula prediction and database search modules ask for the patterns of the same
+ * elemental compositions for many rows, so the patterns are calculated only once per formula,
+ * charge, polarity, merge width (resolution) and minimum abundance.
+ *
+ * The returned patterns are shared, their data points must not be modified.
+ */
+public class IsotopePatternCache {
+
+  public static final int MAX_SIZE = 50000;
+
+  // Levels per decade of the abundance grid, see getAbundanceLevel()
+  private static final int ABUNDANCE_LEVELS_PER_DECADE = 4;
+
+  private static final double DEFAULT_MERGE_WIDTH = 0.00005f;
+
+  private static final Cache<PatternKey, IsotopePattern> cache =
+      CacheBuilder.newBuilder().maximumSize(MAX_SIZE).build();
+
+  /**
+   * Cached version of
+   * {@link IsotopePatternCalculator#calculateIsotopePattern(String, double, int, PolarityType)}
+   */
+  public static IsotopePattern getIsotopePattern(String molecularFormula, double minAbundance,
+      int charge, PolarityType polarity) {
+    return getIsotopePattern(molecularFormula, minAbundance, DEFAULT_MERGE_WIDTH, charge,
+        polarity);
+  }
+
+  /**
+   * Cached version of
+   * {@link IsotopePatternCalculator#calculateIsotopePattern(String, double, double, int, PolarityType, boolean)}
+   * (without the isotope compositions)
+   */
+  public static IsotopePattern getIsotopePattern(String molecularFormula, double minAbundance,
+      double mergeWidth, int charge, PolarityType polarity) {
+
+    final String formula = molecularFormula.replace(" ", "");
+    final PatternKey key = new PatternKey(formula, minAbundance, mergeWidth, charge, polarity);
+
+    IsotopePattern pattern = cache.getIfPresent(key);
+    if (pattern == null) {
+      // Calculated outside of any lock, two threads may occasionally calculate the same pattern
+      pattern = IsotopePatternCalculator.calculateIsotopePattern(formula, minAbundance, mergeWidth,
+          charge, polarity, false);
+      cache.put(key, pattern);
+    }
+    return pattern;
+  }
+
+  /**
+   * Rounds a minimum abundance down to a coarse logarithmic grid (4 levels per decade). The minimum
+   * abundance is often derived from the intensity of the detected pattern, so it is different for
+   * every row - rounding it down makes the cached patterns reusable across rows. The predicted
+   * pattern then contains a few more low-abundance isotopes, which callers that apply the exact
+   * threshold themselves (such as
+   * {@link io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreCalculator}) ignore.
+   */
+  public static double getAbundanceLevel(double minAbundance) {
+    if (!(minAbundance > 0) || Double.isInfinite(minAbundance))
+      return minAbundance;
+    double level = Math.floor(Math.log10(minAbundance) * ABUNDANCE_LEVELS_PER_DECADE);
+    return Math.min(minAbundance, Math.pow(10, level / ABUNDANCE_LEVELS_PER_DECADE));
+  }
+
+  public static void clear() {
+    cache.invalidateAll();
+  }
+
+  private static final class PatternKey {
+
+    private final String formula;
+    private final double minAbundance;
+    private final double mergeWidth;
+    private final int charge;
+    private final PolarityType polarity;
+
+    PatternKey(String formula, double minAbundance, double mergeWidth, int charge,
+        PolarityType polarity) {
+      this.formula = formula;
+      this.minAbundance = minAbundance;
+      this.mergeWidth = mergeWidth;
+      this.charge = charge;
+      this.polarity = polarity;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof PatternKey))
+        return false;
+      PatternKey other = (PatternKey) obj;
+      return charge == other.charge && polarity == other.polarity
+          && Double.compare(minAbundance, other.minAbundance) == 0
+          && Double.compare(mergeWidth, other.mergeWidth) == 0 && formula.equals(other.formula);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(formula, minAbundance, mergeWidth, charge, polarity);
+    }
+  }
+
+}
@@ -157,6 +157,15 @@ public class MergedSpectrum {
       return "merged spectrum";
   }
 
+  /**
+   * @return a copy of this merged spectrum, which can be modified or merged independently
+   */
+  public MergedSpectrum copy() {
+    return new MergedSpectrum(data.clone(), origins.clone(), scanIds.clone(), precursorMz,
+        polarity, precursorCharge, removedScansByLowQuality, removedScansByLowCosine,
+        bestFragmentScanScore);
+  }
+
   public double getBestFragmentScanScore() {
     return bestFragmentScanScore;
   }
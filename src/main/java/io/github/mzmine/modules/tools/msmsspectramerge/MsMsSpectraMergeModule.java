@@ -23,6 +23,7 @@
 
 package io.github.mzmine.modules.tools.msmsspectramerge;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -30,6 +31,10 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
@@ -38,6 +43,8 @@ import javax.annotation.Nullable;
 import org.apache.commons.math3.special.Erf;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Range;
 
 import io.github.mzmine.datamodel.DataPoint;
@@ -66,9 +73,19 @@ import io.github.mzmine.util.scans.ScanUtils;
  * 5. Merging all merged spectra within a sample belonging to the same feature using the same
  * routine 6. Merging all merged spectra across samples belonging to the same feature using the same
  * routine 7. removing peaks from merged spectra which are not consistent across the merged spectra
+ *
+ * The merged spectra of each feature and feature row are cached for the mass list, the merge
+ * parameters and the fragment scans, so that several exports of the same feature list merge the
+ * MS/MS only once. The methods always return copies of the cached spectra.
  */
 public class MsMsSpectraMergeModule implements MZmineModule {
 
+  private static final long MAX_CACHED_ROWS = 100_000;
+
+  // Merged spectra of features and feature rows, by mass list and merge parameters
+  private static final Cache<Object, ConcurrentMap<List<Object>, List<MergedSpectrum>>> cache =
+      CacheBuilder.newBuilder().weakKeys().softValues().maximumSize(MAX_CACHED_ROWS).build();
+
   @Nonnull
   @Override
   public String getName() {
@@ -158,9 +175,14 @@ public class MsMsSpectraMergeModule implements MZmineModule {
    */
   public MergedSpectrum mergeAcrossSamples(ParameterSet parameters, PeakListRow row,
       String massList) {
-    return mergeAcrossFragmentSpectra(parameters,
-        Arrays.stream(row.getPeaks()).map(r -> mergeFromSameSample(parameters, r, massList))
-            .filter(x -> x.data.length > 0).collect(Collectors.toList()));
+    // The features are part of the key, the row may have changed since the last merge
+    final List<Object> key = getCacheKey(parameters, massList);
+    for (Feature feature : row.getPeaks()) {
+      key.add(new WeakIdentityKey(feature));
+      addFragmentScansKey(key, feature, massList);
+    }
+    return getCached(row, key, () -> Collections
+        .singletonList(mergeFragmentSpectraAcrossSamples(parameters, row, massList))).get(0);
   }
 
   /**
@@ -174,10 +196,11 @@ public class MsMsSpectraMergeModule implements MZmineModule {
    */
   public MergedSpectrum mergeFromSameSample(ParameterSet parameters, Feature feature,
       String massList) {
-    List<MergedSpectrum> spectra = mergeConsecutiveScans(parameters, feature, massList);
-    if (spectra.isEmpty())
-      return MergedSpectrum.empty();
-    return mergeAcrossFragmentSpectra(parameters, spectra);
+    final List<Object> key = getCacheKey(parameters, massList);
+    key.add(MergeMode.SAME_SAMPLE);
+    addFragmentScansKey(key, feature, massList);
+    return getCached(feature, key, () -> Collections
+        .singletonList(mergeFragmentSpectraFromSameSample(parameters, feature, massList))).get(0);
   }
 
   /**
@@ -192,6 +215,40 @@ public class MsMsSpectraMergeModule implements MZmineModule {
    */
   public List<MergedSpectrum> mergeConsecutiveScans(ParameterSet parameters, Feature feature,
       String massList) {
+    final List<Object> key = getCacheKey(parameters, massList);
+    key.add(MergeMode.CONSECUTIVE_SCANS);
+    addFragmentScansKey(key, feature, massList);
+    return getCached(feature, key, () -> mergeFragmentScans(parameters, feature, massList));
+  }
+
+  /**
+   * Merges across samples without the cache. mergeAcrossFragmentSpectra modifies the spectra to
+   * merge, so they must not be cached spectra.
+   */
+  private MergedSpectrum mergeFragmentSpectraAcrossSamples(ParameterSet parameters,
+      PeakListRow row, String massList) {
+    return mergeAcrossFragmentSpectra(parameters,
+        Arrays.stream(row.getPeaks())
+            .map(r -> mergeFragmentSpectraFromSameSample(parameters, r, massList))
+            .filter(x -> x.data.length > 0).collect(Collectors.toList()));
+  }
+
+  /**
+   * Merges all MS/MS of the same sample without the cache
+   */
+  private MergedSpectrum mergeFragmentSpectraFromSameSample(ParameterSet parameters,
+      Feature feature, String massList) {
+    List<MergedSpectrum> spectra = mergeFragmentScans(parameters, feature, massList);
+    if (spectra.isEmpty())
+      return MergedSpectrum.empty();
+    return mergeAcrossFragmentSpectra(parameters, spectra);
+  }
+
+  /**
+   * Merges all consecutive MS/MS scans of the feature without the cache
+   */
+  private List<MergedSpectrum> mergeFragmentScans(ParameterSet parameters, Feature feature,
+      String massList) {
     MZTolerance ppm = parameters.getParameter(MsMsSpectraMergeParameters.MASS_ACCURACY).getValue();
     final double isolationWindowOffset =
         parameters.getParameter(MsMsSpectraMergeParameters.ISOLATION_WINDOW_OFFSET).getValue();
@@ -211,6 +268,63 @@ public class MsMsSpectraMergeModule implements MZmineModule {
     return mergedSpec;
   }
 
+  /**
+   * @return copies of the merged spectra of the feature or row for the key, which are merged by
+   *         the merger if they are not cached
+   */
+  private static List<MergedSpectrum> getCached(Object featureOrRow, List<Object> key,
+      Supplier<List<MergedSpectrum>> merger) {
+    final ConcurrentMap<List<Object>, List<MergedSpectrum>> spectra;
+    try {
+      spectra = cache.get(featureOrRow, ConcurrentHashMap::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    List<MergedSpectrum> merged = spectra.get(key);
+    if (merged == null) {
+      // Merge outside of the map, two threads merging the same feature get the same result
+      merged = merger.get();
+      spectra.putIfAbsent(key, merged);
+    }
+    // mergeAcrossFragmentSpectra and the callers may modify the returned spectra
+    return merged.stream().map(MergedSpectrum::copy).collect(Collectors.toList());
+  }
+
+  /**
+   * @return the mass list name and all parameter values which the merged spectra depend on. The
+   *         merge mode and the peak count filter are applied to the cached spectra.
+   */
+  private static List<Object> getCacheKey(ParameterSet parameters, String massList) {
+    final MZTolerance mzTolerance =
+        parameters.getParameter(MsMsSpectraMergeParameters.MASS_ACCURACY).getValue();
+    return new ArrayList<>(Arrays.asList(massList,
+        parameters.getParameter(MsMsSpectraMergeParameters.COSINE_PARAMETER).getValue(),
+        mzTolerance.getMzTolerance(), mzTolerance.getPpmTolerance(),
+        parameters.getParameter(MsMsSpectraMergeParameters.MZ_MERGE_MODE).getValue(),
+        parameters.getParameter(MsMsSpectraMergeParameters.INTENSITY_MERGE_MODE).getValue(),
+        parameters.getParameter(MsMsSpectraMergeParameters.ISOLATION_WINDOW_OFFSET).getValue(),
+        parameters.getParameter(MsMsSpectraMergeParameters.ISOLATION_WINDOW_WIDTH).getValue()));
+  }
+
+  /**
+   * Adds the fragment scan numbers of the feature and their mass lists to the cache key. Mass lists
+   * are compared by identity, so the spectra are merged again when the mass detection was run
+   * again with the same mass list name. The key only holds weak references, so that it does not
+   * keep the cached features and their scans from being collected.
+   */
+  private static void addFragmentScansKey(List<Object> key, Feature feature, String massList) {
+    final RawDataFile file = feature.getDataFile();
+    final int[] scanNumbers = feature.getAllMS2FragmentScanNumbers();
+    if (scanNumbers == null)
+      return;
+    for (int scanNumber : scanNumbers) {
+      final Scan scan = file.getScan(scanNumber);
+      key.add(scanNumber);
+      final MassList scanMassList = scan == null ? null : scan.getMassList(massList);
+      key.add(scanMassList == null ? null : new WeakIdentityKey(scanMassList));
+    }
+  }
+
   /**
    * Internal method that merges a list of spectra into one.
    * 
@@ -523,4 +637,34 @@ public class MsMsSpectraMergeModule implements MZmineModule {
     return orderedByMz;
   }
 
+  /**
+   * Part of a cache key which compares its referent by identity, without keeping it from being
+   * collected. A key whose referent was collected equals no other key.
+   */
+  private static final class WeakIdentityKey extends WeakReference<Object> {
+
+    private final int hashCode;
+
+    WeakIdentityKey(Object referent) {
+      super(referent);
+      hashCode = System.identityHashCode(referent);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this)
+        return true;
+      if (!(obj instanceof WeakIdentityKey))
+        return false;
+      final Object referent = get();
+      return referent != null && referent == ((WeakIdentityKey) obj).get();
+    }
+
+  }
+
 }
@@ -37,7 +37,7 @@ import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions
 import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreCalculator;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreParameters;
-import io.github.mzmine.modules.tools.isotopeprediction.IsotopePatternCalculator;
+import io.github.mzmine.modules.tools.isotopeprediction.IsotopePatternCache;
 import io.github.mzmine.modules.visualization.spectra.simplespectra.SpectraPlot;
 import io.github.mzmine.modules.visualization.spectra.simplespectra.datapointprocessing.DataPointProcessingController;
 import io.github.mzmine.modules.visualization.spectra.simplespectra.datapointprocessing.DataPointProcessingTask;
@@ -313,8 +313,11 @@ public class DPPSumFormulaPredictionTask extends DataPointProcessingTask {
 
     final double minPredictedAbundance = isotopeNoiseLevel / detectedPatternHeight;
 
-    predictedIsotopePattern = IsotopePatternCalculator.calculateIsotopePattern(adjustedFormula,
-        minPredictedAbundance, charge, ionType.getPolarity());
+    // Points below minPredictedAbundance are ignored by the score, so a cached pattern with a
+    // slightly lower abundance threshold gives the same result
+    predictedIsotopePattern = IsotopePatternCache.getIsotopePattern(adjustedFormula,
+        IsotopePatternCache.getAbundanceLevel(minPredictedAbundance), charge,
+        ionType.getPolarity());
 
     isotopeScore = IsotopePatternScoreCalculator.getSimilarityScore(detectedPattern,
         predictedIsotopePattern, isotopeParameters);
@@ -25,9 +25,8 @@ import io.github.mzmine.modules.visualization.spectra.spectralmatchresults.Spect
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import io.github.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
+import io.github.mzmine.util.spectraldb.library.SpectralLibrary;
+import io.github.mzmine.util.spectraldb.library.SpectralLibraryRegistry;
 import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
 import java.io.File;
 import java.io.IOException;
@@ -46,6 +45,8 @@ class SpectraIdentificationSpectralDatabaseTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private static final int ENTRIES_PER_TASK = 1000;
+
   private final File dataBaseFile;
 
   private ParameterSet parameters;
@@ -106,7 +107,9 @@ class SpectraIdentificationSpectralDatabaseTask extends AbstractTask {
     });
 
     try {
-      tasks = parseFile(dataBaseFile);
+      tasks = createTasks(dataBaseFile);
+      if (isCanceled())
+        return;
       totalTasks = tasks.size();
       if (!tasks.isEmpty()) {
         // wait for the tasks to finish
@@ -155,35 +158,36 @@ class SpectraIdentificationSpectralDatabaseTask extends AbstractTask {
   }
 
   /**
-   * Load all library entries from data base file
+   * Load all library entries from data base file (or reuse the loaded library)
    *
    * @param dataBaseFile
    * @return
    */
-  private List<SpectralMatchTask> parseFile(File dataBaseFile) {
+  private List<SpectralMatchTask> createTasks(File dataBaseFile) {
     // one task for every 1000 entries
     List<SpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(1000, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        SpectralMatchTask task = new SpectralMatchTask(parameters, alreadyProcessed + 1, list,
-            spectraPlot, currentScan, resultWindow);
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
-      }
-    });
-
-    // return tasks
+    SpectralLibrary library;
     try {
-      // parse and create spectral matching tasks for batches of entries
-      parser.parse(this, dataBaseFile);
-      return tasks;
+      library = SpectralLibraryRegistry.getLibrary(this, dataBaseFile);
     } catch (UnsupportedFormatException | IOException e) {
       logger.log(Level.WARNING, "Library parsing error for file " + dataBaseFile.getAbsolutePath(),
           e);
-      return new ArrayList<>();
+      return tasks;
+    }
+    if (library == null)
+      return tasks;
+
+    // create spectral matching tasks for batches of entries
+    for (int from = 0; from < library.size(); from += ENTRIES_PER_TASK) {
+      int to = Math.min(library.size(), from + ENTRIES_PER_TASK);
+      SpectralMatchTask task = new SpectralMatchTask(parameters, from + 1,
+          library.getEntries(from, to), spectraPlot, currentScan, resultWindow);
+      MZmineCore.getTaskController().addTask(task);
+      tasks.add(task);
     }
+
+    // return tasks
+    return tasks;
   }
 
   public SpectraIdentificationResultsWindowFX getResultWindow() {
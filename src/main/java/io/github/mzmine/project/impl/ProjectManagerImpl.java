@@ -20,7 +20,9 @@ package io.github.mzmine.project.impl;
 
 import java.io.File;
 import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.gui.MZmineGUI;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.ProjectLoadModule;
@@ -62,6 +64,12 @@ public class ProjectManagerImpl implements ProjectManager {
       for (RawDataFile prevDataFile : prevDataFiles) {
         prevDataFile.close();
       }
+
+      // Release the previous project file, from which the features may be read
+      for (PeakList prevPeakList : currentProject.getPeakLists()) {
+        if (prevPeakList instanceof SimplePeakList)
+          ((SimplePeakList) prevPeakList).close();
+      }
     }
 
     this.currentProject = project;
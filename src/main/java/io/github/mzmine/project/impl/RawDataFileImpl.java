@@ -26,7 +26,10 @@ import java.io.RandomAccessFile;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -35,6 +38,7 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.beans.property.ObjectProperty;
@@ -63,6 +67,9 @@ import java.util.stream.Collectors;
  * removeStoredDataPoints(), the dataPointsFile is not modified, the storage ID is just deleted from
  * the two TreeMaps. When the project is saved, the contents of the dataPointsFile are consolidated
  * - only data points referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * Data points which are stored uncompressed in a project file are not copied to a dataPointsFile
+ * when the project is opened, they are mapped into memory directly from the project file (see
+ * openProjectDataPoints()).
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
@@ -83,8 +90,19 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   private File dataPointsFileName;
   private RandomAccessFile dataPointsFile;
 
+  // Data points mapped from a project file, see openProjectDataPoints(). Storage offsets below
+  // projectDataLength refer to the project file, higher offsets to the dataPointsFile
+  private static final long PROJECT_DATA_CHUNK_SIZE = 1L << 30;
+  private FileChannel projectDataChannel;
+  private long projectDataOffset, projectDataLength;
+  private MappedByteBuffer projectDataChunks[];
+
   private ObjectProperty<Color> color;
 
+  // Incremented when scans or stored data points (e.g. mass lists) are added or removed, or the
+  // file is renamed, see getModificationCount()
+  private final AtomicLong modificationCount = new AtomicLong();
+
   // To store mass lists that have been added but not yet reflected in the GUI
   // by the
   // notifyUpdatedMassLists() method
@@ -127,7 +145,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   /**
    * Returns the (already opened) data points file. Warning: may return null in case no scans have
-   * been added yet to this RawDataFileImpl instance
+   * been added yet to this RawDataFileImpl instance, or if its data points are mapped from a
+   * project file. Use readDataPointsBytes() to read the stored data points.
    */
   public RandomAccessFile getDataPointsFile() {
     return dataPointsFile;
@@ -165,6 +184,85 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   }
 
+  /**
+   * Uses the data points which are stored uncompressed in a project file, instead of copying them
+   * to a data points file. The project file is mapped into memory read-only, in chunks on first
+   * access. Data points stored later are written to a new data points file. The TreeMaps have to
+   * describe the mapping of storage IDs to data points relative to the given offset.
+   *
+   * @param projectFile project file containing the data points
+   * @param offset position of the data points in the project file
+   * @param length length of the data points in bytes
+   */
+  public synchronized void openProjectDataPoints(File projectFile, long offset, long length)
+      throws IOException {
+
+    if (this.dataPointsFile != null || this.projectDataChannel != null) {
+      throw new IOException("Cannot open another data points file, because one is already open");
+    }
+
+    this.projectDataChannel = FileChannel.open(projectFile.toPath(), StandardOpenOption.READ);
+    this.projectDataOffset = offset;
+    this.projectDataLength = length;
+    this.projectDataChunks = new MappedByteBuffer[(int) ((length + PROJECT_DATA_CHUNK_SIZE - 1)
+        / PROJECT_DATA_CHUNK_SIZE)];
+  }
+
+  /**
+   * Reads the bytes of stored data points, starting at the given storage offset, into the remaining
+   * space of the target buffer. Uses positional reads, so it may be called concurrently with other
+   * reads (e.g. when the project is saved).
+   */
+  public void readDataPointsBytes(long offset, ByteBuffer target) throws IOException {
+    final FileChannel channel;
+    long position;
+    synchronized (this) {
+      if (offset < projectDataLength) {
+        channel = projectDataChannel;
+        position = projectDataOffset + offset;
+      } else {
+        channel = dataPointsFile.getChannel();
+        position = offset - projectDataLength;
+      }
+    }
+    while (target.hasRemaining()) {
+      int read = channel.read(target, position);
+      if (read < 0)
+        throw new IOException("Unexpected end of the data points of " + this);
+      position += read;
+    }
+  }
+
+  /**
+   * Reads stored data points into the buffer, from the mapped project file or the data points file
+   */
+  private void readBytes(long offset, int numOfBytes) throws IOException {
+
+    if (offset >= projectDataLength) {
+      dataPointsFile.seek(offset - projectDataLength);
+      dataPointsFile.read(buffer.array(), 0, numOfBytes);
+      return;
+    }
+
+    final int chunk = (int) (offset / PROJECT_DATA_CHUNK_SIZE);
+    final long chunkStart = chunk * PROJECT_DATA_CHUNK_SIZE;
+    final long chunkLength = Math.min(PROJECT_DATA_CHUNK_SIZE, projectDataLength - chunkStart);
+
+    // Data points crossing the border of two chunks
+    if (offset + numOfBytes > chunkStart + chunkLength) {
+      readDataPointsBytes(offset, ByteBuffer.wrap(buffer.array(), 0, numOfBytes));
+      return;
+    }
+
+    if (projectDataChunks[chunk] == null) {
+      projectDataChunks[chunk] =
+          projectDataChannel.map(MapMode.READ_ONLY, projectDataOffset + chunkStart, chunkLength);
+    }
+    ByteBuffer chunkBuffer = projectDataChunks[chunk].duplicate();
+    chunkBuffer.position((int) (offset - chunkStart));
+    chunkBuffer.get(buffer.array(), 0, numOfBytes);
+  }
+
   /**
    * @see io.github.mzmine.datamodel.RawDataFile#getNumOfScans()
    */
@@ -409,7 +507,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
       openDataPointsFile(newFile);
     }
 
-    final long currentOffset = dataPointsFile.length();
+    // Data points mapped from a project file precede those in the data points file
+    final long currentOffset = projectDataLength + dataPointsFile.length();
 
     final int currentID;
     if (!dataPointsOffsets.isEmpty()) {
@@ -439,11 +538,12 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
       floatBuffer.put((float) dp.getIntensity());
     }
 
-    dataPointsFile.seek(currentOffset);
+    dataPointsFile.seek(currentOffset - projectDataLength);
     dataPointsFile.write(buffer.array(), 0, numOfBytes);
 
     dataPointsOffsets.put(currentID, currentOffset);
     dataPointsLengths.put(currentID, numOfDataPoints);
+    modificationCount.incrementAndGet();
 
     return currentID;
 
@@ -468,8 +568,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
       ((Buffer) buffer).clear();
     }
 
-    dataPointsFile.seek(currentOffset);
-    dataPointsFile.read(buffer.array(), 0, numOfBytes);
+    readBytes(currentOffset, numOfBytes);
 
     FloatBuffer floatBuffer = buffer.asFloatBuffer();
 
@@ -488,6 +587,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   public synchronized void removeStoredDataPoints(int ID) throws IOException {
     dataPointsOffsets.remove(ID);
     dataPointsLengths.remove(ID);
+    modificationCount.incrementAndGet();
   }
 
   @Override
@@ -497,6 +597,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     // and we just need store the reference
     if (newScan instanceof StorableScan) {
       scans.put(newScan.getScanNumber(), (StorableScan) newScan);
+      modificationCount.incrementAndGet();
       return;
     }
 
@@ -506,6 +607,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     StorableScan storedScan = new StorableScan(newScan, this, dataPoints.length, storageID);
 
     scans.put(newScan.getScanNumber(), storedScan);
+    modificationCount.incrementAndGet();
 
   }
 
@@ -681,6 +783,11 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
         dataPointsFile.close();
         dataPointsFileName.delete();
       }
+      // The project file itself is kept, the mapped chunks are released by the garbage collector
+      if (projectDataChannel != null) {
+        projectDataChannel.close();
+        projectDataChunks = null;
+      }
     } catch (IOException e) {
       logger.warning("Could not close file " + dataPointsFileName + ": " + e.toString());
     }
@@ -695,6 +802,15 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   @Override
   public void setName(@Nonnull String name) {
     this.dataFileName = name;
+    modificationCount.incrementAndGet();
+  }
+
+  /**
+   * Counts the changes of the scans, the stored data points and the name of this raw data file. The
+   * project saving uses it to find out whether the file changed since it was last saved or loaded.
+   */
+  public long getModificationCount() {
+    return modificationCount.get();
   }
 
   @Override
@@ -26,8 +26,6 @@ import java.util.logging.Logger;
 
 import io.github.mzmine.gui.Desktop;
 import io.github.mzmine.gui.HeadLessDesktop;
-import io.github.mzmine.gui.preferences.MZminePreferences;
-import io.github.mzmine.gui.preferences.NumOfThreadsParameter;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskControlListener;
@@ -179,13 +177,7 @@ public class TaskControllerImpl implements TaskController, Runnable {
       WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
 
       // Obtain the settings of max concurrent threads
-      NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
-          .getParameter(MZminePreferences.numOfThreads);
-      int maxRunningThreads;
-      if (parameter.isAutomatic() || (parameter.getValue() == null))
-        maxRunningThreads = Runtime.getRuntime().availableProcessors();
-      else
-        maxRunningThreads = parameter.getValue();
+      int maxRunningThreads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
 
       // Check all tasks in the queue
       for (WrappedTask task : queueSnapshot) {
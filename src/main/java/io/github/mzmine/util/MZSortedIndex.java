@@ -0,0 +1,158 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.Comparator;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.PeakListRow;
+
+/**
+ * Immutable index of m/z values sorted in ascending order, to find all the items within an m/z
+ * range by binary search instead of comparing all pairs of items. Positions refer to the sorted
+ * order, {@link #getIndex(int)} maps them back to the index of the item in the original array.
+ *
+ * Typical use:
+ *
+ * <pre>
+ * for (int p = index.lowerBound(range.lowerEndpoint()); p < index.upperBound(range.upperEndpoint()); p++) {
+ *   int item = index.getIndex(p);
+ * }
+ * </pre>
+ *
+ * This class is thread-safe, it can be searched in parallel.
+ */
+public class MZSortedIndex {
+
+  private final int[] order;
+  private final double[] sortedMZ;
+
+  /**
+   * @param mzValues the m/z value of each item (NaN values are sorted last and never found)
+   */
+  public MZSortedIndex(@Nonnull double[] mzValues) {
+    order = IntStream.range(0, mzValues.length).boxed()
+        .sorted(Comparator.comparingDouble(i -> mzValues[i])).mapToInt(Integer::intValue)
+        .toArray();
+    sortedMZ = new double[order.length];
+    for (int p = 0; p < order.length; p++) {
+      sortedMZ[p] = mzValues[order[p]];
+    }
+  }
+
+  /**
+   * Index of the average m/z values of the rows.
+   */
+  public static MZSortedIndex ofRows(@Nonnull PeakListRow[] rows) {
+    final double[] mzValues = new double[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      mzValues[i] = rows[i].getAverageMZ();
+    }
+    return new MZSortedIndex(mzValues);
+  }
+
+  public int size() {
+    return order.length;
+  }
+
+  /**
+   * @return the index of the item at the given sorted position
+   */
+  public int getIndex(int position) {
+    return order[position];
+  }
+
+  /**
+   * @return the m/z value at the given sorted position
+   */
+  public double getMZ(int position) {
+    return sortedMZ[position];
+  }
+
+  /**
+   * @return the first position whose m/z is >= mz ({@link #size()} if there is none)
+   */
+  public int lowerBound(double mz) {
+    return lowerBound(sortedMZ, 0, mz);
+  }
+
+  /**
+   * @return the first position whose m/z is > mz ({@link #size()} if there is none)
+   */
+  public int upperBound(double mz) {
+    return upperBound(sortedMZ, mz);
+  }
+
+  /**
+   * @return the first index of an ascending array whose value is >= value (the array length if
+   *         there is none)
+   */
+  public static int lowerBound(@Nonnull double[] sorted, double value) {
+    return lowerBound(sorted, 0, value);
+  }
+
+  /**
+   * @return the first index >= from of an ascending array whose value is >= value (the array
+   *         length if there is none)
+   */
+  public static int lowerBound(@Nonnull double[] sorted, int from, double value) {
+    int low = from, high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] < value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * @return the first index of an ascending array whose value is > value (the array length if
+   *         there is none)
+   */
+  public static int upperBound(@Nonnull double[] sorted, double value) {
+    int low = 0, high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] <= value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * @return the indices of the items within the closed m/z range, in ascending m/z order
+   */
+  public int[] getIndicesInRange(@Nonnull Range<Double> mzRange) {
+    final int from = lowerBound(mzRange.lowerEndpoint());
+    final int to = upperBound(mzRange.upperEndpoint());
+    if (to <= from)
+      return new int[0];
+    final int[] indices = new int[to - from];
+    for (int p = from; p < to; p++) {
+      indices[p - from] = order[p];
+    }
+    return indices;
+  }
+
+}
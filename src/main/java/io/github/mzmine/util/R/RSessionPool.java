@@ -0,0 +1,196 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.R;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.logging.Logger;
+import io.github.mzmine.gui.preferences.MZminePreferences;
+import io.github.mzmine.main.MZmineCore;
+
+/**
+ * Pool of long-lived R sessions shared by the tasks. Opening an Rserve session and loading the
+ * required packages is expensive, so instead of closing their session tasks return it to the pool
+ * ({@link #release(RSessionWrapper)}), where its workspace is cleared and it is kept warm (with its
+ * packages loaded) for the next task calling {@link #lease(REngineType, String, String[], String[])}.
+ *
+ * Each leased session is used by one task only, so several R-backed tasks can run concurrently,
+ * each on its own Rserve instance. Leasing never blocks: if no idle session is available, a new one
+ * is opened. The number of idle sessions kept open is set in the preferences.
+ *
+ * Only {@link REngineType#RSERVE} sessions are pooled. RCaller sessions run a new R process per
+ * script anyway, they are simply opened on lease and closed on release.
+ */
+public class RSessionPool {
+
+  private static final Logger logger = Logger.getLogger(RSessionPool.class.getName());
+
+  public static final int DEFAULT_MAX_IDLE_SESSIONS = 2;
+
+  private static final RSessionPool INSTANCE = new RSessionPool();
+
+  private final Deque<RSessionWrapper> idleSessions = new ArrayDeque<>();
+
+  private RSessionPool() {}
+
+  public static RSessionPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Leases an opened session, with the required packages loaded. The session must be returned
+   * with {@link #release(RSessionWrapper)} once the task is done with it. To abort a running
+   * session (e.g. when a task is canceled), {@link RSessionWrapper#close(boolean)} can still be
+   * called on it, it will then be discarded on release.
+   *
+   * @throws RSessionWrapperException if no session could be opened or a required package could not
+   *         be loaded
+   */
+  public RSessionWrapper lease(REngineType rEngineType, String callerFeatureName,
+      String[] reqPackages, String[] reqPackagesVersions) throws RSessionWrapperException {
+
+    if (rEngineType == REngineType.RSERVE) {
+
+      RSessionWrapper rSession;
+      while ((rSession = pollIdleSession(reqPackages)) != null) {
+        // Closed while idle (e.g. late cancel of its previous task)
+        if (!rSession.isSessionRunning()) {
+          discard(rSession);
+          continue;
+        }
+        try {
+          rSession.reuse(callerFeatureName, reqPackages, reqPackagesVersions);
+          logger.finest("Reusing pooled R session (pid: '" + rSession.getPID() + "').");
+          return rSession;
+        } catch (RSessionWrapperException e) {
+          // A missing package is a genuine failure for the caller, whereas a broken session
+          // can just be replaced by another one
+          boolean running = rSession.isSessionRunning();
+          discard(rSession);
+          if (running)
+            throw e;
+        }
+      }
+    }
+
+    RSessionWrapper rSession =
+        new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, reqPackagesVersions);
+    rSession.open();
+    return rSession;
+  }
+
+  /**
+   * Returns a leased session to the pool. Its workspace is cleared and it is kept open for later
+   * use, unless it was closed in the meantime or the pool is full, in which case it is closed.
+   */
+  public void release(RSessionWrapper rSession) throws RSessionWrapperException {
+
+    if (rSession == null)
+      return;
+
+    if (rSession.getREngineType() == REngineType.RSERVE && rSession.isSessionRunning()
+        && rSession.resetWorkspace()) {
+      synchronized (idleSessions) {
+        if (idleSessions.size() < getMaxIdleSessions()) {
+          idleSessions.push(rSession);
+          return;
+        }
+      }
+    }
+
+    rSession.close(false);
+  }
+
+  /**
+   * Opens sessions with the given packages loaded, until the pool holds the maximum number of idle
+   * sessions. Can be called ahead of time (e.g. before a batch of R-backed tasks is started) so that
+   * the tasks do not have to wait for R startup.
+   */
+  public void warmUp(REngineType rEngineType, String callerFeatureName, String[] reqPackages,
+      String[] reqPackagesVersions) throws RSessionWrapperException {
+
+    if (rEngineType != REngineType.RSERVE)
+      return;
+
+    while (getNumberOfIdleSessions() < getMaxIdleSessions()) {
+      RSessionWrapper rSession =
+          new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, reqPackagesVersions);
+      rSession.open();
+      synchronized (idleSessions) {
+        if (idleSessions.size() >= getMaxIdleSessions()) {
+          rSession.close(false);
+          return;
+        }
+        idleSessions.push(rSession);
+      }
+    }
+  }
+
+  /**
+   * Closes all the idle sessions.
+   */
+  public void clear() {
+    synchronized (idleSessions) {
+      while (!idleSessions.isEmpty())
+        discard(idleSessions.pop());
+    }
+  }
+
+  public int getNumberOfIdleSessions() {
+    synchronized (idleSessions) {
+      return idleSessions.size();
+    }
+  }
+
+  /**
+   * Takes an idle session, preferably one which already has all the required packages loaded.
+   */
+  private RSessionWrapper pollIdleSession(String[] reqPackages) {
+    synchronized (idleSessions) {
+      Iterator<RSessionWrapper> it = idleSessions.iterator();
+      while (it.hasNext()) {
+        RSessionWrapper rSession = it.next();
+        if (rSession.hasLoadedPackages(reqPackages)) {
+          it.remove();
+          return rSession;
+        }
+      }
+      return idleSessions.poll();
+    }
+  }
+
+  private void discard(RSessionWrapper rSession) {
+    try {
+      rSession.close(true);
+    } catch (RSessionWrapperException e) {
+      // Silent, the session is dead anyway.
+      logger.finest("Could not close pooled R session: " + e.getMessage());
+    }
+  }
+
+  private static int getMaxIdleSessions() {
+    if (MZmineCore.getConfiguration() == null)
+      return DEFAULT_MAX_IDLE_SESSIONS;
+    Integer value = MZmineCore.getConfiguration().getPreferences()
+        .getParameter(MZminePreferences.rSessionPoolSize).getValue();
+    return (value == null) ? DEFAULT_MAX_IDLE_SESSIONS : Math.max(0, value);
+  }
+
+}
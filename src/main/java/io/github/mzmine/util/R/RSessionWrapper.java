@@ -27,6 +27,9 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -115,6 +118,9 @@ public class RSessionWrapper {
   private String[] reqPackages;
   private String[] reqPackagesVersions;
 
+  // Packages successfully loaded into this session (kept when the session is pooled).
+  private final Set<String> loadedPackages = new HashSet<>();
+
   private Rsession session;
   // Debug? (shows R eval errors feedback)
   final static private boolean TRY_MODE = false;
@@ -471,6 +477,9 @@ public class RSessionWrapper {
           if (!this.userCanceled)
             throw new RSessionWrapperException(errorMsg);
 
+        if (loaded > 0)
+          this.loadedPackages.add(packageName);
+
         logger.log(logLvl, "Loaded package: '" + packageName + "'.");
       }
 
@@ -1286,6 +1295,52 @@ public class RSessionWrapper {
     }
   }
 
+  // POOL SUPPORT (@See RSessionPool)
+
+  /**
+   * Prepares an already opened session for a new caller: loads and checks the packages it
+   * requires (packages loaded previously are kept).
+   */
+  void reuse(String callerFeatureName, String[] reqPackages, String[] reqPackagesVersions)
+      throws RSessionWrapperException {
+
+    this.callerFeatureName = callerFeatureName;
+    this.reqPackages = reqPackages;
+    this.reqPackagesVersions = reqPackagesVersions;
+
+    loadAndCheckRequiredPackages();
+  }
+
+  /**
+   * @return true if all the given packages were already loaded in this session
+   */
+  boolean hasLoadedPackages(String[] packages) {
+    return (packages == null) || this.loadedPackages.containsAll(Arrays.asList(packages));
+  }
+
+  /**
+   * Removes all the objects from the global environment and closes the graphic devices, such that
+   * the session can be handed over to another caller.
+   * 
+   * @return false if the session is not usable anymore
+   */
+  boolean resetWorkspace() {
+
+    if (this.rEngineType != REngineType.RSERVE || !this.isSessionRunning())
+      return false;
+
+    try {
+      return this.eval("rm(list = ls(all.names = TRUE, envir = .GlobalEnv), envir = .GlobalEnv); "
+          + "graphics.off(); invisible(gc())", false);
+    } catch (RSessionWrapperException e) {
+      return false;
+    }
+  }
+
+  public REngineType getREngineType() {
+    return this.rEngineType;
+  }
+
   public int getPID() {
     return this.rServePid;
   }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * Locates the data of uncompressed (STORED) entries inside a ZIP file, so they can be read or
+ * memory-mapped directly from the ZIP file instead of being extracted. java.util.zip does not
+ * expose the position of the entries, so the central directory (including the ZIP64 records
+ * written for large files) is read here.
+ */
+public class ZipEntryDataLocator implements Closeable {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+  private final File zipFile;
+  private final FileChannel channel;
+  // local header offsets of the STORED entries
+  private final Map<String, Long> storedEntries = new HashMap<>();
+
+  public ZipEntryDataLocator(File zipFile) throws IOException {
+    this.zipFile = zipFile;
+    this.channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ);
+    try {
+      readCentralDirectory();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the position of the first data byte of the entry in the ZIP file, or -1 if there is no
+   *         such entry or it is compressed
+   */
+  public long getDataOffset(String entryName) throws IOException {
+    Long localHeaderOffset = storedEntries.get(entryName);
+    if (localHeaderOffset == null)
+      return -1;
+
+    ByteBuffer header = read(localHeaderOffset, 30);
+    if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+      throw new IOException("Invalid local header of " + entryName + " in " + zipFile);
+    return localHeaderOffset + 30 + Short.toUnsignedInt(header.getShort(26))
+        + Short.toUnsignedInt(header.getShort(28));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void readCentralDirectory() throws IOException {
+
+    // The end of central directory record is followed by a comment of up to 65535 bytes
+    final long fileSize = channel.size();
+    final int tailLength = (int) Math.min(fileSize, 22 + 0xFFFF);
+    ByteBuffer tail = read(fileSize - tailLength, tailLength);
+    int endPosition = -1;
+    for (int p = tailLength - 22; p >= 0; p--) {
+      if (tail.getInt(p) == END_SIGNATURE) {
+        endPosition = p;
+        break;
+      }
+    }
+    if (endPosition < 0)
+      throw new IOException("Not a ZIP file: " + zipFile);
+
+    long numOfEntries = Short.toUnsignedInt(tail.getShort(endPosition + 10));
+    long directorySize = Integer.toUnsignedLong(tail.getInt(endPosition + 12));
+    long directoryOffset = Integer.toUnsignedLong(tail.getInt(endPosition + 16));
+
+    // ZIP64 end of central directory locator, right before the end record
+    if (endPosition >= 20 && tail.getInt(endPosition - 20) == ZIP64_LOCATOR_SIGNATURE) {
+      ByteBuffer zip64End = read(tail.getLong(endPosition - 12), 56);
+      if (zip64End.getInt(0) != ZIP64_END_SIGNATURE)
+        throw new IOException("Invalid ZIP64 end of central directory in " + zipFile);
+      numOfEntries = zip64End.getLong(32);
+      directorySize = zip64End.getLong(40);
+      directoryOffset = zip64End.getLong(48);
+    }
+    if (directorySize > Integer.MAX_VALUE)
+      throw new IOException("Central directory of " + zipFile + " is too large");
+
+    ByteBuffer directory = read(directoryOffset, (int) directorySize);
+    int p = 0;
+    for (long i = 0; i < numOfEntries; i++) {
+      if (directory.getInt(p) != CENTRAL_HEADER_SIGNATURE)
+        throw new IOException("Invalid central directory of " + zipFile);
+
+      final int method = Short.toUnsignedInt(directory.getShort(p + 10));
+      long compressedSize = Integer.toUnsignedLong(directory.getInt(p + 20));
+      long size = Integer.toUnsignedLong(directory.getInt(p + 24));
+      final int nameLength = Short.toUnsignedInt(directory.getShort(p + 28));
+      final int extraLength = Short.toUnsignedInt(directory.getShort(p + 30));
+      final int commentLength = Short.toUnsignedInt(directory.getShort(p + 32));
+      long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(p + 42));
+
+      byte nameBytes[] = new byte[nameLength];
+      directory.position(p + 46);
+      directory.get(nameBytes);
+      final String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+      // The ZIP64 extra field holds the values which do not fit, in this order
+      int extra = p + 46 + nameLength;
+      final int extraEnd = extra + extraLength;
+      while (extra + 4 <= extraEnd) {
+        final int id = Short.toUnsignedInt(directory.getShort(extra));
+        final int length = Short.toUnsignedInt(directory.getShort(extra + 2));
+        if (id == ZIP64_EXTRA_ID) {
+          int value = extra + 4;
+          if (size == ZIP64_MAGIC) {
+            size = directory.getLong(value);
+            value += 8;
+          }
+          if (compressedSize == ZIP64_MAGIC) {
+            compressedSize = directory.getLong(value);
+            value += 8;
+          }
+          if (localHeaderOffset == ZIP64_MAGIC)
+            localHeaderOffset = directory.getLong(value);
+        }
+        extra += 4 + length;
+      }
+
+      if (method == ZipEntry.STORED)
+        storedEntries.put(name, localHeaderOffset);
+
+      p = extraEnd + commentLength;
+    }
+  }
+
+  private ByteBuffer read(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new IOException("Unexpected end of " + zipFile);
+    }
+    return buffer;
+  }
+
+}
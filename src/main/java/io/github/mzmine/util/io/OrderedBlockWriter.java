@@ -0,0 +1,177 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+import io.github.mzmine.main.MZmineCore;
+
+/**
+ * Writes a text file from blocks which are formatted in parallel. The blocks are written in the
+ * order in which they were submitted, through a large buffer to a file channel, optionally
+ * compressed with gzip. Only a few blocks are kept in memory, and their buffers are reused once
+ * they are written.
+ */
+public class OrderedBlockWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private final Writer writer;
+  private final ExecutorService executor;
+  private final int maxPendingBlocks;
+  private final Queue<Future<StringBuilder>> pending = new ArrayDeque<>();
+  private final Queue<StringBuilder> freeBlocks = new ConcurrentLinkedQueue<>();
+  private final char chunk[] = new char[CHUNK_SIZE];
+
+  /**
+   * @param gzip compress the file with gzip
+   * @param blocks the number of blocks which will be submitted, to limit the number of threads
+   */
+  public OrderedBlockWriter(File file, boolean gzip, int blocks) throws IOException {
+    OutputStream os = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(
+        file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)), BUFFER_SIZE);
+    if (gzip)
+      os = new GZIPOutputStream(os, CHUNK_SIZE);
+    // Same encoding as FileWriter
+    writer = new OutputStreamWriter(os, Charset.defaultCharset());
+
+    final int threads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads(blocks);
+    executor = Executors.newFixedThreadPool(threads);
+    maxPendingBlocks = 2 * threads;
+  }
+
+  /**
+   * Writes the text after the blocks submitted so far
+   */
+  public void write(CharSequence text) throws IOException {
+    while (!pending.isEmpty())
+      writeBlock(pending.remove());
+    writer.append(text);
+  }
+
+  /**
+   * Submits a block, which is formatted by the formatter in a worker thread. Waits for the first
+   * pending block if too many blocks are pending.
+   *
+   * @param formatter appends the text of the block to the given, empty buffer
+   */
+  public void submit(Consumer<StringBuilder> formatter) throws IOException {
+    if (pending.size() >= maxPendingBlocks)
+      writeBlock(pending.remove());
+    pending.add(executor.submit(() -> {
+      StringBuilder block = freeBlocks.poll();
+      if (block == null)
+        block = new StringBuilder(CHUNK_SIZE);
+      formatter.accept(block);
+      return block;
+    }));
+  }
+
+  /**
+   * Submits the items 0 to count - 1 in blocks of blockSize consecutive items, see
+   * {@link #submit(Consumer)}. The blocks are formatted in parallel and written in the order of
+   * their items.
+   */
+  public void submitBlocks(int count, int blockSize, BlockFormatter formatter)
+      throws IOException {
+    for (int from = 0; from < count; from += blockSize) {
+      final int blockFrom = from, blockTo = Math.min(count, from + blockSize);
+      submit(block -> formatter.format(block, blockFrom, blockTo));
+    }
+  }
+
+  /**
+   * Writes all pending blocks, the file stays open
+   */
+  public void flush() throws IOException {
+    while (!pending.isEmpty())
+      writeBlock(pending.remove());
+    writer.flush();
+  }
+
+  /**
+   * Closes the file. Blocks which were not written by flush() are discarded.
+   */
+  @Override
+  public void close() throws IOException {
+    for (Future<StringBuilder> future : pending)
+      future.cancel(false);
+    pending.clear();
+    executor.shutdown();
+    writer.close();
+  }
+
+  private void writeBlock(Future<StringBuilder> future) throws IOException {
+    StringBuilder block;
+    try {
+      block = future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+
+    // Copy through a reused array, StringBuilder does not write itself without a copy
+    for (int from = 0; from < block.length(); from += chunk.length) {
+      final int to = Math.min(block.length(), from + chunk.length);
+      block.getChars(from, to, chunk, 0);
+      writer.write(chunk, 0, to - from);
+    }
+    block.setLength(0);
+    freeBlocks.add(block);
+  }
+
+  /**
+   * Formats a block of items in a worker thread. The blocks are formatted in parallel, so the
+   * formatter must not share objects which are not thread-safe, such as number formats, and should
+   * return early when its task is canceled.
+   */
+  @FunctionalInterface
+  public interface BlockFormatter {
+
+    /**
+     * Appends the text of the items from (inclusive) to to (exclusive) to the given, empty buffer
+     */
+    void format(StringBuilder block, int from, int to);
+
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input stream which reads the underlying stream ahead in a separate thread, e.g. to decompress a
+ * file while its content is parsed. At most a few chunks are read ahead.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  private static final int CHUNK_SIZE = 1 << 20;
+  private static final int MAX_CHUNKS = 4;
+
+  // Marks the end of the underlying stream
+  private static final byte END[] = new byte[0];
+
+  private final InputStream is;
+  private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_CHUNKS);
+  private final Thread readingThread;
+
+  private volatile IOException readError;
+  private volatile boolean closed = false;
+
+  private byte chunk[];
+  private int chunkLength, position;
+
+  /**
+   * Starts reading the given stream in a new thread. From now on, the stream must only be read
+   * through this stream.
+   *
+   * @param name name of the reading thread
+   */
+  public ReadAheadInputStream(InputStream is, String name) {
+    this.is = is;
+    readingThread = new Thread(this::readAhead, name);
+    readingThread.setDaemon(true);
+    readingThread.start();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextChunk())
+      return -1;
+    return chunk[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte b[], int off, int len) throws IOException {
+    if (len == 0)
+      return 0;
+    if (!nextChunk())
+      return -1;
+    final int n = Math.min(len, chunkLength - position);
+    System.arraycopy(chunk, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return chunk == null ? 0 : chunkLength - position;
+  }
+
+  /**
+   * Stops the reading thread and closes the underlying stream
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    // Make room, so that the reading thread is not blocked
+    chunks.clear();
+    try {
+      readingThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    is.close();
+  }
+
+  /**
+   * @return false at the end of the stream
+   */
+  private boolean nextChunk() throws IOException {
+    if (closed)
+      throw new IOException("Stream closed");
+    if (chunk == END)
+      return false;
+    if ((chunk != null) && (position < chunkLength))
+      return true;
+
+    try {
+      chunk = chunks.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading", e);
+    }
+    if (chunk == END) {
+      if (readError != null)
+        throw readError;
+      return false;
+    }
+    chunkLength = chunk.length;
+    position = 0;
+    return true;
+  }
+
+  private void readAhead() {
+    try {
+      while (!closed) {
+        byte buffer[] = new byte[CHUNK_SIZE];
+        int length = 0, n = 0;
+        while ((length < CHUNK_SIZE) && ((n = is.read(buffer, length, CHUNK_SIZE - length)) >= 0))
+          length += n;
+        if (length > 0)
+          put(length < CHUNK_SIZE ? Arrays.copyOf(buffer, length) : buffer);
+        if (n < 0)
+          break;
+      }
+    } catch (IOException e) {
+      readError = e;
+    } catch (RuntimeException e) {
+      readError = new IOException(e);
+    } finally {
+      put(END);
+    }
+  }
+
+  private void put(byte chunk[]) {
+    // Wait for room in the queue, unless the stream was closed
+    try {
+      while (!closed) {
+        if (chunks.offer(chunk, 100, TimeUnit.MILLISECONDS))
+          return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
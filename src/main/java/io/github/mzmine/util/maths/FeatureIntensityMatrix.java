@@ -0,0 +1,124 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.maths;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.util.PeakMeasurementType;
+
+/**
+ * Sample x feature intensity matrix, extracted once from feature list rows into a single primitive
+ * buffer. The buffer is column-major: the intensities of one feature (in all samples) are stored
+ * contiguously, starting at {@link #getOffset(int)}. Missing features are stored as
+ * {@link Double#NaN}.
+ */
+public class FeatureIntensityMatrix {
+
+  private final RawDataFile[] samples;
+  private final PeakListRow[] features;
+  private final double[] values;
+
+  private FeatureIntensityMatrix(RawDataFile[] samples, PeakListRow[] features, double[] values) {
+    this.samples = samples;
+    this.features = features;
+    this.values = values;
+  }
+
+  /**
+   * Extracts the intensities of the given rows (in parallel).
+   *
+   * @param rows the features (matrix columns)
+   * @param samples the raw data files (matrix rows)
+   * @param measurementType height or area
+   * @return the extracted matrix, missing features are NaN
+   */
+  public static FeatureIntensityMatrix extract(@Nonnull PeakListRow[] rows,
+      @Nonnull RawDataFile[] samples, @Nonnull PeakMeasurementType measurementType) {
+
+    final int numSamples = samples.length;
+    final Map<RawDataFile, Integer> sampleIndex = new HashMap<>();
+    for (int i = 0; i < numSamples; i++) {
+      sampleIndex.put(samples[i], i);
+    }
+
+    final double[] values = new double[rows.length * numSamples];
+    Arrays.fill(values, Double.NaN);
+
+    IntStream.range(0, rows.length).parallel().forEach(f -> {
+      final int offset = f * numSamples;
+      for (Feature peak : rows[f].getPeaks()) {
+        Integer s = sampleIndex.get(peak.getDataFile());
+        if (s == null)
+          continue;
+        values[offset + s] =
+            measurementType == PeakMeasurementType.AREA ? peak.getArea() : peak.getHeight();
+      }
+    });
+
+    return new FeatureIntensityMatrix(samples, rows, values);
+  }
+
+  public int getNumberOfSamples() {
+    return samples.length;
+  }
+
+  public int getNumberOfFeatures() {
+    return features.length;
+  }
+
+  public RawDataFile[] getSamples() {
+    return samples;
+  }
+
+  public PeakListRow[] getFeatures() {
+    return features;
+  }
+
+  /**
+   * @return the backing column-major buffer (not a copy)
+   */
+  public double[] getValues() {
+    return values;
+  }
+
+  /**
+   * @return the index of the first sample of this feature in {@link #getValues()}
+   */
+  public int getOffset(int feature) {
+    return feature * samples.length;
+  }
+
+  /**
+   * @return the intensity, or NaN if the feature was not detected in this sample
+   */
+  public double get(int sample, int feature) {
+    return values[feature * samples.length + sample];
+  }
+
+  public boolean isMissing(int sample, int feature) {
+    return Double.isNaN(get(sample, feature));
+  }
+
+}
@@ -41,6 +41,10 @@ public class SpectralDBEntry {
     return Optional.ofNullable(fields.get(f));
   }
 
+  public Map<DBEntryField, Object> getFields() {
+    return fields;
+  }
+
   public DataPoint[] getDataPoints() {
     return dps;
   }
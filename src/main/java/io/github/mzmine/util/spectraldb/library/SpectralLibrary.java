@@ -0,0 +1,166 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb.library;
+
+import java.io.File;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.util.MZSortedIndex;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * All entries of a spectral library file in a compact form: the data points of all entries are
+ * flattened into one m/z and one intensity array, with the offset of each entry. The
+ * {@link SpectralDBEntry} objects are only created when they are requested (see
+ * {@link #getEntries(int, int)}), so a loaded library can be kept and shared by all searches, see
+ * {@link SpectralLibraryRegistry}.
+ *
+ * This class is thread-safe.
+ */
+public class SpectralLibrary {
+
+  private final File file;
+
+  // data points of entry i are at offsets[i] (inclusive) to offsets[i + 1] (exclusive)
+  private final int[] offsets;
+  private final double[] mzValues;
+  private final double[] intensityValues;
+  private final List<Map<DBEntryField, Object>> fields;
+
+  private MZSortedIndex precursorMZIndex;
+
+  private SpectralLibrary(File file, int[] offsets, double[] mzValues, double[] intensityValues,
+      List<Map<DBEntryField, Object>> fields) {
+    this.file = file;
+    this.offsets = offsets;
+    this.mzValues = mzValues;
+    this.intensityValues = intensityValues;
+    this.fields = fields;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the number of entries
+   */
+  public int size() {
+    return fields.size();
+  }
+
+  /**
+   * Creates the entry with the given index. Every call creates a new instance.
+   */
+  public SpectralDBEntry getEntry(int index) {
+    final int from = offsets[index];
+    final DataPoint[] dps = new DataPoint[offsets[index + 1] - from];
+    for (int i = 0; i < dps.length; i++) {
+      dps[i] = new SimpleDataPoint(mzValues[from + i], intensityValues[from + i]);
+    }
+    return new SpectralDBEntry(fields.get(index), dps);
+  }
+
+  /**
+   * Lightweight view of a range of entries. The entries are created on every access, callers who
+   * access them several times should copy the list.
+   *
+   * @param from first entry (inclusive)
+   * @param to last entry (exclusive)
+   */
+  public List<SpectralDBEntry> getEntries(int from, int to) {
+    return new AbstractList<SpectralDBEntry>() {
+      @Override
+      public SpectralDBEntry get(int index) {
+        return getEntry(from + index);
+      }
+
+      @Override
+      public int size() {
+        return to - from;
+      }
+    };
+  }
+
+  public Double getPrecursorMZ(int index) {
+    return (Double) fields.get(index).get(DBEntryField.MZ);
+  }
+
+  public Double getRT(int index) {
+    return (Double) fields.get(index).get(DBEntryField.RT);
+  }
+
+  /**
+   * Index of the entries by precursor m/z, entries without precursor m/z are never found. Built on
+   * first use.
+   */
+  public synchronized MZSortedIndex getPrecursorMZIndex() {
+    if (precursorMZIndex == null) {
+      double[] precursorMZs = new double[size()];
+      for (int i = 0; i < precursorMZs.length; i++) {
+        Double mz = getPrecursorMZ(i);
+        precursorMZs[i] = mz == null ? Double.NaN : mz;
+      }
+      precursorMZIndex = new MZSortedIndex(precursorMZs);
+    }
+    return precursorMZIndex;
+  }
+
+  /**
+   * Collects the parsed entries of a library file
+   */
+  static class Builder {
+
+    private final File file;
+    private final IntArrayList offsets = new IntArrayList();
+    private final DoubleArrayList mzValues = new DoubleArrayList();
+    private final DoubleArrayList intensityValues = new DoubleArrayList();
+    private final List<Map<DBEntryField, Object>> fields = new ArrayList<>();
+
+    Builder(@Nonnull File file) {
+      this.file = file;
+      offsets.add(0);
+    }
+
+    synchronized void addEntries(List<SpectralDBEntry> entries) {
+      for (SpectralDBEntry entry : entries) {
+        for (DataPoint dp : entry.getDataPoints()) {
+          mzValues.add(dp.getMZ());
+          intensityValues.add(dp.getIntensity());
+        }
+        offsets.add(mzValues.size());
+        fields.add(entry.getFields());
+      }
+    }
+
+    synchronized SpectralLibrary build() {
+      return new SpectralLibrary(file, offsets.toIntArray(), mzValues.toDoubleArray(),
+          intensityValues.toDoubleArray(), new ArrayList<>(fields));
+    }
+  }
+
+}
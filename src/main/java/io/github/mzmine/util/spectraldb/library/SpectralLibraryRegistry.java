@@ -0,0 +1,116 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
+import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+
+/**
+ * Spectral libraries loaded by the spectral database search modules. Each library file is parsed
+ * only once (concurrent requests wait for the first one) and then shared by all searches, until
+ * the file changes. The libraries are softly referenced, so the garbage collector evicts them when
+ * memory runs low - they are parsed again on the next request.
+ */
+public class SpectralLibraryRegistry {
+
+  private static final Logger logger = Logger.getLogger(SpectralLibraryRegistry.class.getName());
+
+  private static final int PARSER_BUFFER_ENTRIES = 1000;
+
+  private static final Cache<String, SpectralLibrary> libraries =
+      CacheBuilder.newBuilder().softValues().build();
+
+  /**
+   * Returns the library of the file, parses the file if it was not loaded yet.
+   *
+   * @param task the requesting task, parsing stops when it is canceled
+   * @param dataBaseFile the library file
+   * @return the library or null if the task was canceled
+   */
+  @Nullable
+  public static SpectralLibrary getLibrary(@Nonnull AbstractTask task, @Nonnull File dataBaseFile)
+      throws UnsupportedFormatException, IOException {
+    final String key = getKey(dataBaseFile);
+    while (!task.isCanceled()) {
+      try {
+        return libraries.get(key, () -> parse(task, dataBaseFile));
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof UnsupportedFormatException)
+          throw (UnsupportedFormatException) e.getCause();
+        if (e.getCause() instanceof IOException)
+          throw (IOException) e.getCause();
+        throw new IOException(e.getCause());
+      } catch (UncheckedExecutionException e) {
+        // parsing was canceled by the task which started it - try again with this task
+        if (!(e.getCause() instanceof ParsingCanceledException))
+          throw e;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes all loaded libraries
+   */
+  public static void clear() {
+    libraries.invalidateAll();
+  }
+
+  private static SpectralLibrary parse(AbstractTask task, File dataBaseFile)
+      throws UnsupportedFormatException, IOException {
+    logger.info("Loading spectral library " + dataBaseFile.getAbsolutePath());
+    final SpectralLibrary.Builder builder = new SpectralLibrary.Builder(dataBaseFile);
+    AutoLibraryParser parser = new AutoLibraryParser(PARSER_BUFFER_ENTRIES,
+        (list, alreadyProcessed) -> builder.addEntries(list));
+    parser.parse(task, dataBaseFile);
+
+    // never keep a partially parsed library
+    if (task.isCanceled())
+      throw new ParsingCanceledException();
+
+    SpectralLibrary library = builder.build();
+    logger.info("Loaded " + library.size() + " entries of spectral library "
+        + dataBaseFile.getAbsolutePath());
+    return library;
+  }
+
+  /**
+   * A modified file is parsed again
+   */
+  private static String getKey(File dataBaseFile) {
+    return dataBaseFile.getAbsolutePath() + "|" + dataBaseFile.length() + "|"
+        + dataBaseFile.lastModified();
+  }
+
+  private static class ParsingCanceledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+  }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.PeakIdentity;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimplePeakIdentity;
+import io.github.mzmine.datamodel.impl.SimplePeakInformation;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+
+/**
+ * Decides which feature lists an incremental save copies from the previous project file
+ */
+public class ProjectFileIndexTest {
+
+  private static final String ENTRY_NAME = "Peak list #1 features.xml";
+  private static final String RAW_DATA_FILE_IDS = "1";
+
+  @TempDir
+  Path tempDir;
+
+  private RawDataFile file;
+  private SimplePeakList peakList;
+  private SimplePeakListRow row;
+  private SimpleFeature feature;
+  private SimplePeakIdentity identity;
+  private SimplePeakInformation information;
+
+  @BeforeEach
+  void createPeakList() {
+    file = createRawDataFile("sample.mzML");
+    feature = createFeature(file);
+    identity = new SimplePeakIdentity("compound");
+    information = new SimplePeakInformation("note", "first");
+    row = new SimplePeakListRow(1);
+    row.addPeak(file, feature);
+    row.addPeakIdentity(identity, true);
+    row.setPeakInformation(information);
+    peakList = new SimplePeakList("features", file);
+    peakList.addRow(row);
+  }
+
+  @Test
+  void copiesUnchangedFeatureList() {
+    ProjectFileIndex index = save();
+    assertEquals(ENTRY_NAME, getEntryName(index));
+  }
+
+  @Test
+  void savesFeatureListAgainAfterFeatureChange() {
+    ProjectFileIndex index = save();
+    feature.setAllMS2FragmentScanNumbers(new int[0]);
+    assertNull(getEntryName(index));
+
+    index = save();
+    feature.setCharge(2);
+    assertNull(getEntryName(index));
+  }
+
+  @Test
+  void savesFeatureListAgainAfterChangeOfSharedFeature() {
+    // The aligners add the original features to the rows of their result, which points them there
+    SimplePeakListRow alignedRow = new SimplePeakListRow(1);
+    alignedRow.addPeak(file, feature);
+    SimplePeakList alignedList = new SimplePeakList("aligned", file);
+    alignedList.addRow(alignedRow);
+
+    ProjectFileIndex index = save();
+    feature.setFWHM(0.1);
+    assertNull(getEntryName(index));
+  }
+
+  @Test
+  void savesFeatureListAgainAfterIdentityChange() {
+    ProjectFileIndex index = save();
+    identity.setPropertyValue(PeakIdentity.PROPERTY_FORMULA, "C6H12O6");
+    assertNull(getEntryName(index));
+  }
+
+  @Test
+  void savesFeatureListAgainAfterInformationChange() {
+    ProjectFileIndex index = save();
+    information.addProperty("note", "second");
+    assertNull(getEntryName(index));
+  }
+
+  @Test
+  void savesFeatureListAgainAfterRowChange() {
+    ProjectFileIndex index = save();
+    row.setComment("checked");
+    assertNull(getEntryName(index));
+  }
+
+  /**
+   * @return the index which the project saving creates for the saved feature list
+   */
+  private ProjectFileIndex save() {
+    ProjectFileIndex index = new ProjectFileIndex(new File(tempDir.toFile(), "project.mzmine"));
+    index.addPeakList(peakList, ENTRY_NAME, peakList.getModificationStamp(), RAW_DATA_FILE_IDS);
+    return index;
+  }
+
+  /**
+   * @return the entry which the next save copies, or null if it saves the feature list again
+   */
+  private String getEntryName(ProjectFileIndex index) {
+    return index.getPeakListEntryName(peakList, peakList.getModificationStamp(),
+        RAW_DATA_FILE_IDS);
+  }
+
+  private static SimpleFeature createFeature(RawDataFile file) {
+    DataPoint dataPoint = new SimpleDataPoint(100.0, 1000.0);
+    return new SimpleFeature(file, 100.0, 1.0, 1000.0, 1000.0, new int[] {1},
+        new DataPoint[] {dataPoint}, FeatureStatus.DETECTED, 1, -1, new int[0],
+        Range.singleton(1.0), Range.singleton(100.0), Range.singleton(1000.0));
+  }
+
+  /**
+   * @return a raw data file which only has a name
+   */
+  private static RawDataFile createRawDataFile(String name) {
+    return (RawDataFile) Proxy.newProxyInstance(RawDataFile.class.getClassLoader(),
+        new Class<?>[] {RawDataFile.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getName":
+            case "toString":
+              return name;
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+}
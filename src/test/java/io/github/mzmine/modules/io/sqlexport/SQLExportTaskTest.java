@@ -0,0 +1,194 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.sqlexport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Exports feature lists into an embedded SQLite database
+ */
+public class SQLExportTaskTest {
+
+  private static final int NUMBER_OF_ROWS = 25;
+  private static final int BATCH_SIZE = 4;
+
+  @TempDir
+  Path tempDir;
+
+  private String connectionString;
+
+  @BeforeEach
+  void createTable() throws SQLException {
+    connectionString = "jdbc:sqlite:" + tempDir.resolve("export.db");
+    try (Connection connection = DriverManager.getConnection(connectionString);
+        Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE features (id INTEGER NOT NULL UNIQUE, mz REAL, rt REAL, "
+          + "file TEXT, tag TEXT)");
+    }
+  }
+
+  @Test
+  void exportsAllRowsInBatches() throws SQLException {
+    RawDataFile file = createRawDataFile("sample.mzML", false);
+    PeakList peakList = createPeakList(NUMBER_OF_ROWS, file, file);
+
+    SQLExportTask task = createTask(peakList);
+    task.run();
+
+    assertEquals(TaskStatus.FINISHED, task.getStatus());
+    assertEquals(NUMBER_OF_ROWS, queryInt("SELECT COUNT(DISTINCT id) FROM features"));
+    assertEquals(NUMBER_OF_ROWS, queryInt("SELECT MAX(id) FROM features"));
+    assertEquals(NUMBER_OF_ROWS,
+        queryInt("SELECT COUNT(*) FROM features WHERE mz = 100 + id AND rt = id / 10.0 "
+            + "AND file = 'sample.mzML' AND tag = 'export'"));
+  }
+
+  @Test
+  void failedBatchRollsBackTheExport() throws SQLException {
+    RawDataFile file = createRawDataFile("sample.mzML", false);
+    PeakList peakList = createPeakList(NUMBER_OF_ROWS, file, file);
+
+    // The export of row 13 violates the UNIQUE constraint, in the fourth batch
+    try (Connection connection = DriverManager.getConnection(connectionString);
+        Statement statement = connection.createStatement()) {
+      statement.execute("INSERT INTO features (id) VALUES (13)");
+    }
+
+    SQLExportTask task = createTask(peakList);
+    task.run();
+
+    assertEquals(TaskStatus.ERROR, task.getStatus());
+    assertNotNull(task.getErrorMessage());
+    assertEquals(1, queryInt("SELECT COUNT(*) FROM features"));
+  }
+
+  @Test
+  void runtimeFailureRollsBackTheExport() throws SQLException {
+    RawDataFile file = createRawDataFile("sample.mzML", false);
+    RawDataFile failingFile = createRawDataFile("failing.mzML", true);
+    PeakList peakList = createPeakList(12, file, failingFile);
+
+    // The last row fails when its file name is exported, in the third batch
+    SQLExportTask task = createTask(peakList);
+    task.run();
+
+    assertEquals(TaskStatus.ERROR, task.getStatus());
+    assertNotNull(task.getErrorMessage());
+    assertEquals(0, queryInt("SELECT COUNT(*) FROM features"));
+  }
+
+  private SQLExportTask createTask(PeakList peakList) {
+    SQLColumnSettings columns = new SQLColumnSettings();
+    addColumn(columns, "id", SQLExportDataType.ID, null);
+    addColumn(columns, "mz", SQLExportDataType.MZ, null);
+    addColumn(columns, "rt", SQLExportDataType.RT, null);
+    addColumn(columns, "file", SQLExportDataType.RAWFILE, null);
+    addColumn(columns, "tag", SQLExportDataType.CONSTANT, "export");
+    return new SQLExportTask(peakList, connectionString, "features", columns, false, BATCH_SIZE,
+        1);
+  }
+
+  private static void addColumn(SQLColumnSettings columns, String name, SQLExportDataType type,
+      String value) {
+    int row = columns.getRowCount();
+    columns.addNewRow();
+    columns.setValueAt(name, row, 0);
+    columns.setValueAt(type, row, 1);
+    if (value != null)
+      columns.setValueAt(value, row, 2);
+  }
+
+  /**
+   * @return a feature list with rows 1 to numberOfRows, all in the first file but the last one
+   */
+  private static PeakList createPeakList(int numberOfRows, RawDataFile file,
+      RawDataFile lastRowFile) {
+    SimplePeakList peakList =
+        new SimplePeakList("features", file == lastRowFile ? new RawDataFile[] {file}
+            : new RawDataFile[] {file, lastRowFile});
+    for (int id = 1; id <= numberOfRows; id++) {
+      RawDataFile rowFile = (id == numberOfRows) ? lastRowFile : file;
+      double mz = 100 + id;
+      double rt = id / 10.0;
+      DataPoint dataPoint = new SimpleDataPoint(mz, 1000.0);
+      SimpleFeature feature = new SimpleFeature(rowFile, mz, rt, 1000.0, 1000.0, new int[] {id},
+          new DataPoint[] {dataPoint}, FeatureStatus.DETECTED, id, -1, new int[0],
+          Range.singleton(rt), Range.singleton(mz), Range.singleton(1000.0));
+      SimplePeakListRow row = new SimplePeakListRow(id);
+      row.addPeak(rowFile, feature);
+      peakList.addRow(row);
+    }
+    return peakList;
+  }
+
+  /**
+   * @return a raw data file which only has a name, or fails when asked for its name
+   */
+  private static RawDataFile createRawDataFile(String name, boolean failing) {
+    return (RawDataFile) Proxy.newProxyInstance(RawDataFile.class.getClassLoader(),
+        new Class<?>[] {RawDataFile.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getName":
+              if (failing)
+                throw new IllegalStateException("Cannot read " + name);
+              return name;
+            case "toString":
+              return name;
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private int queryInt(String sql) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(connectionString);
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery(sql)) {
+      result.next();
+      return result.getInt(1);
+    }
+  }
+
+}